@@ -316,9 +316,10 @@ export function parseDockerPort(input : string, hostname : string) {
     const arrow = part1.indexOf("->");
     if (arrow >= 0) {
         part1 = part1.split("->")[0];
-        const colon = part1.indexOf(":");
+        // The port follows the last colon, the host may be an IPv6 address such as [::]
+        const colon = part1.lastIndexOf(":");
         if (colon >= 0) {
-            part1 = part1.split(":")[1];
+            part1 = part1.substring(colon + 1);
         }
     }
 
@@ -1,8 +1,15 @@
 package com.louislam.dockge.config;
 
+import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * JWT configuration for the Dockge application.
  * 
@@ -18,6 +25,13 @@ public class JwtConfig {
     @Value("${dockge.jwt.expiration:604800000}")
     private long expiration;
 
+    private SecretKey signingKey;
+
+    @PostConstruct
+    public void init() {
+        signingKey = deriveKey(secret);
+    }
+
     public String getSecret() {
         return secret;
     }
@@ -26,6 +40,22 @@ public class JwtConfig {
         return expiration;
     }
 
-    // TODO: Implement JWT utility methods for token generation and validation
-    // This will be implemented in Phase 2 when implementing JWT authentication
+    /**
+     * The HMAC key of the secret, derived once at startup.
+     */
+    public SecretKey getSigningKey() {
+        return signingKey;
+    }
+
+    /**
+     * An HS256 key from a secret of any length, which on its own may be too short for one.
+     */
+    public static SecretKey deriveKey(String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Keys.hmacShaKeyFor(digest.digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
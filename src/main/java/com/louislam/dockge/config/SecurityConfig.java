@@ -1,24 +1,41 @@
 package com.louislam.dockge.config;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.info.InfoEndpoint;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.SecurityFilterChain;
+
+import static org.springframework.security.config.Customizer.withDefaults;
 
 /**
  * Spring Security configuration for the Dockge application.
- * 
- * Handles authentication and authorization using JWT tokens.
- * WebSocket connections are authenticated via JWT tokens in the Socket.IO handshake.
+ *
+ * The frontend authenticates over Socket.IO, with the login and loginByToken events, so the
+ * websocket handshake is open to everyone. Everything else served over HTTP apart from the health
+ * and info endpoints needs HTTP basic authentication.
  */
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
     /**
-     * Configure HTTP security with stateless authentication (JWT).
-     * Socket.IO connections will use JWT tokens for authentication.
+     * Configure stateless HTTP security.
      */
-    // TODO: Implement JWT filter and security chains
-    // This will be configured in Phase 2 when implementing JWT authentication
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+        // The Socket.IO handshake is public, clients log in through socket events
+        http.csrf(csrf -> csrf.ignoringRequestMatchers("/socket.io", "/socket.io/**"))
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .authorizeHttpRequests(auth -> auth
+                        .requestMatchers("/socket.io", "/socket.io/**").permitAll()
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class, InfoEndpoint.class)).permitAll()
+                        .anyRequest().authenticated())
+                .httpBasic(withDefaults());
+        return http.build();
+    }
 }
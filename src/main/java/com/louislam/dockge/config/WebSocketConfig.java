@@ -1,36 +1,56 @@
 package com.louislam.dockge.config;
 
+import com.louislam.dockge.socketio.EngineIoPollingFilter;
+import com.louislam.dockge.socketio.OriginCheckInterceptor;
+import com.louislam.dockge.socketio.SocketIoServer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
-import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
-import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 
 /**
  * Spring WebSocket configuration for the Dockge application.
- * 
- * Configures WebSocket message broker for real-time communication between
- * server and clients. Supports STOMP protocol over WebSocket.
+ *
+ * The frontend talks Socket.IO, which is served by {@link SocketIoServer} on the path the
+ * socket.io client connects to, over a websocket or long-polling.
  */
 @Configuration
-// @EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final SocketIoServer socketIoServer;
+    private final OriginCheckInterceptor originCheck;
+
+    public WebSocketConfig(SocketIoServer socketIoServer,
+                           @Value("${dockge.ws-origin-check:cors-like}") String originCheck) {
+        this.socketIoServer = socketIoServer;
+        this.originCheck = new OriginCheckInterceptor("bypass".equals(originCheck));
+    }
 
     /**
-     * Configure the message broker for WebSocket communication.
+     * Register WebSocket endpoints that clients will connect to.
      */
     @Override
-    public void configureMessageBroker(MessageBrokerRegistry config) {
-        // TODO: Implement message broker configuration
-        // This will be configured in Phase 2 when implementing WebSocket handlers
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // The origin is checked against the Host header by the interceptor. Spring's own check, which
+        // also compares the scheme, would refuse browsers behind a proxy that terminates TLS.
+        registry.addHandler(socketIoServer, "/socket.io", "/socket.io/")
+                .addInterceptors(originCheck)
+                .setAllowedOriginPatterns("*");
     }
 
     /**
-     * Register WebSocket endpoints that clients will connect to.
+     * The long-polling transport, which clients start with before they upgrade to a websocket.
      */
-    @Override
-    public void registerStompEndpoints(StompEndpointRegistry registry) {
-        // TODO: Register STOMP endpoints
-        // This will be configured in Phase 2 when implementing WebSocket handlers
+    @Bean
+    public FilterRegistrationBean<EngineIoPollingFilter> engineIoPollingFilter() {
+        FilterRegistrationBean<EngineIoPollingFilter> registration =
+                new FilterRegistrationBean<>(new EngineIoPollingFilter(socketIoServer, originCheck));
+        registration.addUrlPatterns("/socket.io", "/socket.io/*");
+        registration.setAsyncSupported(true);
+        return registration;
     }
 }
@@ -0,0 +1,7 @@
+package com.louislam.dockge.docker;
+
+/**
+ * A container that belongs to a compose project, as listed by `docker ps --all`.
+ */
+public record ComposeContainer(String id, String project, String state, String configFiles) {
+}
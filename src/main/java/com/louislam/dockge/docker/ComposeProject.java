@@ -0,0 +1,9 @@
+package com.louislam.dockge.docker;
+
+/**
+ * A compose project, shaped like an entry of `docker compose ls --all --format json`.
+ *
+ * @param status combined container status, e.g. "exited(1), running(2)"
+ */
+public record ComposeProject(String name, String status, String configFiles) {
+}
@@ -0,0 +1,163 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming decoder for `docker compose ps --format json`.
+ *
+ * Reads the output token by token straight from the stream, one JSON object per line or a single
+ * array for older compose versions, and keeps only Service, State, Health and the published
+ * Ports. No line strings or JSON trees are built, and common states are not allocated at all.
+ */
+public final class ComposePsDecoder {
+
+    private static final String[] KNOWN_VALUES = {
+            "running", "exited", "created", "paused", "restarting", "removing", "dead",
+            "healthy", "unhealthy", "starting", "",
+    };
+
+    private ComposePsDecoder() {
+    }
+
+    public static List<ServiceStatus> decode(JsonFactory jsonFactory, InputStream in) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            return decode(parser);
+        }
+    }
+
+    public static List<ServiceStatus> decode(JsonParser parser) throws IOException {
+        List<ServiceStatus> list = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                    list.add(readService(parser));
+                }
+                if (token != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                }
+            } else if (token == JsonToken.START_OBJECT) {
+                list.add(readService(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return list;
+    }
+
+    private static ServiceStatus readService(JsonParser parser) throws IOException {
+        String service = "";
+        String state = "";
+        String health = "";
+        List<String> ports = List.of();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "Service" -> service = parser.getText();
+                case "State" -> state = knownValue(parser);
+                case "Health" -> health = knownValue(parser);
+                case "Ports" -> ports = readPorts(parser);
+                default -> {
+                    // Not needed, the value is never materialized
+                }
+            }
+        }
+        return new ServiceStatus(service, state, health, ports);
+    }
+
+    /**
+     * Returns a shared constant for well-known values instead of a new string.
+     */
+    private static String knownValue(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (String value : KNOWN_VALUES) {
+            if (value.length() == length && regionEquals(chars, offset, value)) {
+                return value;
+            }
+        }
+        return new String(chars, offset, length);
+    }
+
+    private static boolean regionEquals(char[] chars, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split "0.0.0.0:8080->80/tcp, :::8080->80/tcp, 443/tcp" on commas directly in the parser
+     * buffer, keeping only the published ports (the ones with "->"). IPv6 addresses are put in
+     * brackets, "[::]:8080->80/tcp", as newer Docker versions and {@link DockerEngineClient} do.
+     */
+    private static List<String> readPorts(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int end = offset + parser.getTextLength();
+
+        List<String> ports = null;
+        int start = offset;
+        while (start < end) {
+            while (start < end && Character.isWhitespace(chars[start])) {
+                start++;
+            }
+            int stop = start;
+            int arrow = -1;
+            while (stop < end && chars[stop] != ',') {
+                if (chars[stop] == '>' && stop > start && chars[stop - 1] == '-' && arrow < 0) {
+                    arrow = stop - 1;
+                }
+                stop++;
+            }
+            if (arrow >= 0) {
+                if (ports == null) {
+                    ports = new ArrayList<>();
+                }
+                ports.add(publishedPort(chars, start, arrow, stop));
+            }
+            start = stop + 1;
+        }
+        return ports == null ? List.of() : ports;
+    }
+
+    /**
+     * The published port from start to stop, with an IPv6 host address in brackets.
+     *
+     * @param arrow where the "->" is
+     */
+    private static String publishedPort(char[] chars, int start, int arrow, int stop) {
+        int portColon = arrow - 1;
+        while (portColon > start && chars[portColon] != ':') {
+            portColon--;
+        }
+        boolean bare = chars[start] != '[';
+        boolean ipv6 = false;
+        for (int i = start; bare && i < portColon; i++) {
+            if (chars[i] == ':') {
+                ipv6 = true;
+                break;
+            }
+        }
+        if (!ipv6) {
+            return new String(chars, start, stop - start);
+        }
+        return "[" + new String(chars, start, portColon - start) + "]" + new String(chars, portColon, stop - portColon);
+    }
+}
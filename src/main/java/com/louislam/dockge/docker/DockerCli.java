@@ -0,0 +1,144 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Docker client that forks the `docker` CLI and parses its stdout.
+ */
+@Component
+public class DockerCli implements DockerClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(DockerCli.class);
+
+    private static final String CONTAINER_FORMAT = "{{.ID}}\t{{.State}}\t{{.Label \"" + DockerEvent.PROJECT_LABEL
+            + "\"}}\t{{.Label \"" + DockerEvent.CONFIG_FILES_LABEL + "\"}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public List<ComposeContainer> listComposeContainers() throws IOException {
+        String stdout = run("docker", "ps", "--all", "--no-trunc",
+                "--filter", "label=" + DockerEvent.PROJECT_LABEL,
+                "--format", CONTAINER_FORMAT);
+
+        List<ComposeContainer> list = new ArrayList<>();
+        for (String line : stdout.split("\n")) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length < 4 || parts[2].isEmpty()) {
+                continue;
+            }
+            list.add(new ComposeContainer(parts[0], parts[2], parts[1], parts[3]));
+        }
+        return list;
+    }
+
+    @Override
+    public List<ServiceStatus> listServiceStatus(String project) throws IOException {
+        return run(in -> ComposePsDecoder.decode(objectMapper.getFactory(), in),
+                "docker", "compose", "-p", project, "ps", "--format", "json");
+    }
+
+    @Override
+    public List<String> listNetworks() throws IOException {
+        String stdout = run("docker", "network", "ls", "--format", "{{.Name}}");
+        List<String> list = new ArrayList<>();
+        for (String line : stdout.split("\n")) {
+            if (!line.isEmpty()) {
+                list.add(line);
+            }
+        }
+        list.sort(null);
+        return list;
+    }
+
+    @Override
+    public Closeable subscribe(Instant since, Consumer<DockerEvent> consumer, Consumer<Throwable> onClosed) throws IOException {
+        Process process = new ProcessBuilder("docker", "events",
+                "--since", Long.toString(since.getEpochSecond()),
+                "--filter", "type=container",
+                "--filter", "label=" + DockerEvent.PROJECT_LABEL,
+                "--format", "{{json .}}")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        Thread reader = new Thread(() -> {
+            Throwable cause = null;
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        consumer.accept(DockerEvent.fromJson(objectMapper.readTree(line)));
+                    } catch (IOException e) {
+                        logger.debug("Skipping malformed docker event: {}", line);
+                    }
+                }
+                cause = new EOFException("docker events exited");
+            } catch (IOException e) {
+                cause = e;
+            } finally {
+                process.destroy();
+                onClosed.accept(cause);
+            }
+        }, "docker-events-cli");
+        reader.setDaemon(true);
+        reader.start();
+
+        return process::destroy;
+    }
+
+    @FunctionalInterface
+    interface OutputReader<T> {
+        T read(InputStream stdout) throws IOException;
+    }
+
+    /**
+     * Run a command to completion and return its stdout.
+     */
+    String run(String... command) throws IOException {
+        return run(in -> new String(in.readAllBytes(), StandardCharsets.UTF_8), command);
+    }
+
+    /**
+     * Run a command to completion, reading its stdout as it is produced.
+     */
+    <T> T run(OutputReader<T> reader, String... command) throws IOException {
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try (InputStream stdout = process.getInputStream()) {
+            T result = reader.read(stdout);
+            // Let the process exit even if the reader stopped early
+            stdout.transferTo(OutputStream.nullOutputStream());
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(String.join(" ", command) + " exited with code " + exitCode);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command[0], e);
+        } finally {
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.louislam.dockge.docker;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Read operations against the local Docker daemon.
+ */
+public interface DockerClient extends DockerEventSource {
+
+    /**
+     * List all containers (including stopped ones) that belong to a compose project.
+     */
+    List<ComposeContainer> listComposeContainers() throws IOException;
+
+    /**
+     * List the running services of a compose project, like `docker compose ps`.
+     */
+    List<ServiceStatus> listServiceStatus(String project) throws IOException;
+
+    /**
+     * List the names of all docker networks, sorted.
+     */
+    List<String> listNetworks() throws IOException;
+}
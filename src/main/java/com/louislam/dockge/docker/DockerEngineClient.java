@@ -0,0 +1,305 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Docker client that talks to the Engine API over the daemon's Unix domain socket.
+ *
+ * Responses are decoded straight from the socket with a streaming JSON parser, and
+ * connections are kept alive and reused between requests.
+ */
+@Component
+public class DockerEngineClient implements DockerClient, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DockerEngineClient.class);
+
+    private static final String COMPOSE_FILTER = "{\"label\":[\"" + DockerEvent.PROJECT_LABEL + "\"]}";
+    private static final String SERVICE_LABEL = "com.docker.compose.service";
+
+    private final EngineConnectionPool pool;
+    private final JsonFactory jsonFactory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public DockerEngineClient(@Value("${dockge.docker.socket:/var/run/docker.sock}") String socketPath,
+                              @Value("${dockge.docker.max-idle-connections:8}") int maxIdleConnections) {
+        this.pool = new EngineConnectionPool(Path.of(socketPath), maxIdleConnections);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    public List<ComposeContainer> listComposeContainers() throws IOException {
+        return get("/containers/json?all=1&filters=" + encode(COMPOSE_FILTER), parser -> {
+            List<ComposeContainer> list = new ArrayList<>();
+            readContainers(parser, container -> {
+                if (container.project != null) {
+                    list.add(new ComposeContainer(container.id, container.project, container.state,
+                            container.configFiles));
+                }
+            });
+            return list;
+        });
+    }
+
+    @Override
+    public List<ServiceStatus> listServiceStatus(String project) throws IOException {
+        String filter = "{\"label\":[\"" + DockerEvent.PROJECT_LABEL + "=" + project + "\"]}";
+        return get("/containers/json?filters=" + encode(filter), parser -> {
+            List<ServiceStatus> list = new ArrayList<>();
+            readContainers(parser, container -> list.add(new ServiceStatus(container.service, container.state,
+                    parseHealth(container.status), container.ports)));
+            return list;
+        });
+    }
+
+    @Override
+    public List<String> listNetworks() throws IOException {
+        return get("/networks", parser -> {
+            List<String> list = new ArrayList<>();
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("Name".equals(field)) {
+                        list.add(parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            list.sort(null);
+            return list;
+        });
+    }
+
+    @Override
+    public Closeable subscribe(Instant since, Consumer<DockerEvent> consumer, Consumer<Throwable> onClosed) throws IOException {
+        String filter = "{\"type\":[\"container\"],\"label\":[\"" + DockerEvent.PROJECT_LABEL + "\"]}";
+
+        // The event stream never ends, so it gets its own connection outside the pool
+        EngineConnection connection = pool.open();
+        EngineConnection.Response response;
+        try {
+            response = connection.get("/events?since=" + since.getEpochSecond() + "&filters=" + encode(filter));
+            checkStatus(response);
+        } catch (IOException e) {
+            EngineConnectionPool.closeQuietly(connection);
+            throw e;
+        }
+
+        Thread reader = new Thread(() -> {
+            Throwable cause = null;
+            try (JsonParser parser = jsonFactory.createParser(response.body())) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    consumer.accept(DockerEvent.fromJson(objectMapper.readTree(parser)));
+                }
+                cause = new EOFException("Docker event stream ended");
+            } catch (IOException e) {
+                cause = e;
+            } finally {
+                EngineConnectionPool.closeQuietly(connection);
+                onClosed.accept(cause);
+            }
+        }, "docker-events");
+        reader.setDaemon(true);
+        reader.start();
+
+        return connection;
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    int idleConnectionCount() {
+        return pool.idleCount();
+    }
+
+    @FunctionalInterface
+    interface BodyReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Run a GET request on a pooled connection. A stale keep-alive connection is retried once
+     * on a fresh connection.
+     */
+    <T> T get(String pathAndQuery, BodyReader<T> reader) throws IOException {
+        EngineConnection connection = pool.borrow();
+        EngineConnection.Response response;
+        try {
+            response = connection.get(pathAndQuery);
+        } catch (IOException e) {
+            EngineConnectionPool.closeQuietly(connection);
+            if (!connection.isReused()) {
+                throw e;
+            }
+            logger.debug("Retrying {} on a new connection: {}", pathAndQuery, e.getMessage());
+            connection = pool.open();
+            try {
+                response = connection.get(pathAndQuery);
+            } catch (IOException retryError) {
+                EngineConnectionPool.closeQuietly(connection);
+                throw retryError;
+            }
+        }
+
+        try {
+            checkStatus(response);
+            T result;
+            try (JsonParser parser = jsonFactory.createParser(response.body())) {
+                result = reader.read(parser);
+            }
+            response.drain();
+            if (response.keepAlive()) {
+                pool.release(connection);
+            } else {
+                connection.close();
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            EngineConnectionPool.closeQuietly(connection);
+            throw e;
+        }
+    }
+
+    private void checkStatus(EngineConnection.Response response) throws IOException {
+        if (response.status() < 400) {
+            return;
+        }
+        String message;
+        try (InputStream body = response.body()) {
+            message = objectMapper.readTree(body).path("message").asText();
+        } catch (IOException e) {
+            message = "";
+        }
+        throw new IOException("Docker Engine API error " + response.status() + ": " + message);
+    }
+
+    /**
+     * Fields of a `GET /containers/json` entry that Dockge cares about.
+     */
+    private static final class ContainerSummary {
+        String id;
+        String state;
+        String status = "";
+        String project;
+        String service;
+        String configFiles;
+        List<String> ports = new ArrayList<>();
+    }
+
+    private static void readContainers(JsonParser parser, Consumer<ContainerSummary> consumer) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            ContainerSummary container = new ContainerSummary();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "Id" -> container.id = parser.getText();
+                    case "State" -> container.state = parser.getText();
+                    case "Status" -> container.status = parser.getText();
+                    case "Labels" -> readLabels(parser, token, container);
+                    case "Ports" -> readPorts(parser, token, container.ports);
+                    default -> parser.skipChildren();
+                }
+            }
+            consumer.accept(container);
+        }
+    }
+
+    private static void readLabels(JsonParser parser, JsonToken token, ContainerSummary container) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String label = parser.currentName();
+            parser.nextToken();
+            switch (label) {
+                case DockerEvent.PROJECT_LABEL -> container.project = parser.getText();
+                case DockerEvent.CONFIG_FILES_LABEL -> container.configFiles = parser.getText();
+                case SERVICE_LABEL -> container.service = parser.getText();
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Format published ports the way `docker ps` does, e.g. "0.0.0.0:8080->80/tcp" or "[::]:8080->80/tcp".
+     */
+    private static void readPorts(JsonParser parser, JsonToken token, List<String> ports) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String ip = "";
+            int privatePort = 0;
+            int publicPort = 0;
+            String type = "tcp";
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "IP" -> ip = parser.getText();
+                    case "PrivatePort" -> privatePort = parser.getIntValue();
+                    case "PublicPort" -> publicPort = parser.getIntValue();
+                    case "Type" -> type = parser.getText();
+                    default -> parser.skipChildren();
+                }
+            }
+            if (publicPort > 0) {
+                String host = ip.contains(":") ? "[" + ip + "]" : ip;
+                ports.add(host + ":" + publicPort + "->" + privatePort + "/" + type);
+            }
+        }
+    }
+
+    /**
+     * Extract the health from a status such as "Up 2 minutes (healthy)".
+     */
+    static String parseHealth(String status) {
+        if (status.endsWith("(healthy)")) {
+            return "healthy";
+        } else if (status.endsWith("(unhealthy)")) {
+            return "unhealthy";
+        } else if (status.endsWith("(health: starting)")) {
+            return "starting";
+        }
+        return "";
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected JSON from the Docker daemon, expected " + expected + " but got " + actual);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A single entry from the Docker event stream (`docker events` / `GET /events`).
+ */
+public record DockerEvent(String type, String action, String actorId, Map<String, String> attributes, long timeNano) {
+
+    public static final String PROJECT_LABEL = "com.docker.compose.project";
+    public static final String CONFIG_FILES_LABEL = "com.docker.compose.project.config_files";
+
+    public DockerEvent {
+        attributes = attributes == null ? Map.of() : Map.copyOf(attributes);
+    }
+
+    /**
+     * The compose project the container belongs to, or null if it is not managed by compose.
+     */
+    public String project() {
+        return attributes.get(PROJECT_LABEL);
+    }
+
+    public String configFiles() {
+        return attributes.get(CONFIG_FILES_LABEL);
+    }
+
+    /**
+     * Parse an event as produced by `docker events --format '{{json .}}'` or `GET /events`.
+     */
+    public static DockerEvent fromJson(JsonNode node) {
+        JsonNode actor = node.path("Actor");
+        Map<String, String> attributes = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = actor.path("Attributes").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            attributes.put(field.getKey(), field.getValue().asText());
+        }
+        return new DockerEvent(
+                node.path("Type").asText(),
+                node.path("Action").asText(),
+                actor.path("ID").asText(),
+                attributes,
+                node.path("timeNano").asLong());
+    }
+}
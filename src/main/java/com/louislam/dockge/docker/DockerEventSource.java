@@ -0,0 +1,23 @@
+package com.louislam.dockge.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Source of container events for compose projects.
+ */
+public interface DockerEventSource {
+
+    /**
+     * Subscribe to compose container events.
+     *
+     * Events newer than {@code since} are replayed first, so a caller can take a snapshot
+     * and subscribe afterwards without losing anything in between.
+     *
+     * @param onClosed called once when the stream ends, with the cause if it failed
+     * @return a handle that stops the subscription when closed
+     */
+    Closeable subscribe(Instant since, Consumer<DockerEvent> consumer, Consumer<Throwable> onClosed) throws IOException;
+}
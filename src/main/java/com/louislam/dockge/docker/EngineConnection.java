@@ -0,0 +1,259 @@
+package com.louislam.dockge.docker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A single HTTP/1.1 keep-alive connection to the Docker daemon over its Unix domain socket.
+ */
+final class EngineConnection implements Closeable {
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private int requestCount;
+
+    private EngineConnection(SocketChannel channel) {
+        this.channel = channel;
+        this.in = new BufferedInputStream(Channels.newInputStream(channel), 16 * 1024);
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 1024);
+    }
+
+    static EngineConnection open(UnixDomainSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw new EngineUnreachableException("Cannot connect to " + address.getPath() + ": " + e.getMessage(), e);
+        }
+        return new EngineConnection(channel);
+    }
+
+    /**
+     * Whether this connection has already served a request, i.e. it came from the idle pool.
+     */
+    boolean isReused() {
+        return requestCount > 0;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Send a GET request and read the response head. The body must be consumed or the
+     * connection closed before the next request.
+     */
+    Response get(String pathAndQuery) throws IOException {
+        requestCount++;
+        out.write(("GET " + pathAndQuery + " HTTP/1.1\r\n"
+                + "Host: docker\r\n"
+                + "Accept: application/json\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("Connection closed by the Docker daemon");
+        }
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) {
+            throw new IOException("Malformed response from the Docker daemon: " + statusLine);
+        }
+        int status = Integer.parseInt(parts[1]);
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+
+        InputStream body;
+        boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = new ChunkedInputStream(in);
+        } else if (headers.containsKey("content-length")) {
+            body = new FixedLengthInputStream(in, Long.parseLong(headers.get("content-length")));
+        } else {
+            body = in;
+            keepAlive = false;
+        }
+        return new Response(status, body, keepAlive);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                return new String(bytes, 0, length > 0 && bytes[length - 1] == '\r' ? length - 1 : length,
+                        StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+    }
+
+    record Response(int status, InputStream body, boolean keepAlive) {
+
+        /**
+         * Read the rest of the body so the connection can serve the next request.
+         */
+        void drain() throws IOException {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Body with a Content-Length, ends without closing the underlying connection.
+     */
+    private static final class FixedLengthInputStream extends FilterInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of response body");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of response body");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // Keep the connection open
+        }
+    }
+
+    /**
+     * Body with Transfer-Encoding: chunked, used by the daemon for lists and the event stream.
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private long chunkRemaining;
+        private boolean eof;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (chunkRemaining == 0) {
+                String line = readLine(in);
+                // CRLF after the previous chunk
+                if (line != null && line.isEmpty()) {
+                    line = readLine(in);
+                }
+                if (line == null) {
+                    throw new EOFException("Unexpected end of chunked response body");
+                }
+                int semicolon = line.indexOf(';');
+                chunkRemaining = Long.parseLong((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+                if (chunkRemaining == 0) {
+                    // Trailers
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                        // ignore
+                    }
+                    eof = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of chunked response body");
+            }
+            chunkRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n == -1) {
+                throw new EOFException("Unexpected end of chunked response body");
+            }
+            chunkRemaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eof ? 0 : (int) Math.min(in.available(), chunkRemaining);
+        }
+
+        @Override
+        public void close() {
+            // Keep the connection open
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.louislam.dockge.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of idle keep-alive connections to the Docker daemon socket.
+ */
+final class EngineConnectionPool implements Closeable {
+
+    private final UnixDomainSocketAddress address;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<EngineConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    EngineConnectionPool(Path socketPath, int maxIdle) {
+        this.address = UnixDomainSocketAddress.of(socketPath);
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Take the most recently used idle connection, or open a new one.
+     */
+    EngineConnection borrow() throws IOException {
+        EngineConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (connection.isOpen()) {
+                return connection;
+            }
+        }
+        return open();
+    }
+
+    EngineConnection open() throws IOException {
+        return EngineConnection.open(address);
+    }
+
+    /**
+     * Return a connection whose response has been fully read.
+     */
+    void release(EngineConnection connection) {
+        if (!closed && connection.isOpen()) {
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offerFirst(connection);
+                return;
+            }
+            idleCount.decrementAndGet();
+        }
+        closeQuietly(connection);
+    }
+
+    int idleCount() {
+        return idleCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        EngineConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(connection);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.louislam.dockge.docker;
+
+import java.io.IOException;
+
+/**
+ * The Docker daemon socket could not be connected to, as opposed to an error reply from the daemon.
+ */
+public class EngineUnreachableException extends IOException {
+
+    public EngineUnreachableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
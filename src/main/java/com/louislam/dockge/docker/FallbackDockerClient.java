@@ -0,0 +1,83 @@
+package com.louislam.dockge.docker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Uses the Engine API when the daemon socket is reachable and falls back to the docker CLI
+ * otherwise, e.g. when DOCKER_HOST points to a remote daemon or a docker context is in use.
+ *
+ * Only a socket that cannot be connected to leads to the CLI. Error replies of a reachable daemon
+ * are passed on, the CLI would get the same answer from it.
+ */
+@Primary
+@Component
+public class FallbackDockerClient implements DockerClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(FallbackDockerClient.class);
+
+    private final DockerEngineClient engine;
+    private final DockerCli cli;
+    private final boolean engineEnabled;
+    private volatile boolean usingCli;
+
+    public FallbackDockerClient(DockerEngineClient engine, DockerCli cli,
+                                @Value("${dockge.docker.engine-api-enabled:true}") boolean engineEnabled) {
+        this.engine = engine;
+        this.cli = cli;
+        this.engineEnabled = engineEnabled;
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call(DockerClient client) throws IOException;
+    }
+
+    private <T> T call(Call<T> call) throws IOException {
+        if (engineEnabled) {
+            try {
+                T result = call.call(engine);
+                if (usingCli) {
+                    logger.info("Docker Engine API is reachable again");
+                    usingCli = false;
+                }
+                return result;
+            } catch (EngineUnreachableException e) {
+                if (!usingCli) {
+                    logger.warn("Docker Engine API is not available ({}), falling back to the docker CLI", e.getMessage());
+                    usingCli = true;
+                }
+            }
+        }
+        return call.call(cli);
+    }
+
+    @Override
+    public List<ComposeContainer> listComposeContainers() throws IOException {
+        return call(DockerClient::listComposeContainers);
+    }
+
+    @Override
+    public List<ServiceStatus> listServiceStatus(String project) throws IOException {
+        return call(client -> client.listServiceStatus(project));
+    }
+
+    @Override
+    public List<String> listNetworks() throws IOException {
+        return call(DockerClient::listNetworks);
+    }
+
+    @Override
+    public Closeable subscribe(Instant since, Consumer<DockerEvent> consumer, Consumer<Throwable> onClosed) throws IOException {
+        return call(client -> client.subscribe(since, consumer, onClosed));
+    }
+}
@@ -0,0 +1,24 @@
+package com.louislam.dockge.docker;
+
+import java.util.List;
+
+/**
+ * Status of a single compose service, as reported by `docker compose ps`.
+ *
+ * @param health "healthy", "unhealthy", "starting" or empty if the service has no health check
+ * @param ports  published ports only, e.g. "0.0.0.0:8080->80/tcp"
+ */
+public record ServiceStatus(String service, String state, String health, List<String> ports) {
+
+    public ServiceStatus {
+        health = health == null ? "" : health;
+        ports = ports == null ? List.of() : List.copyOf(ports);
+    }
+
+    /**
+     * The state shown in the UI, health takes precedence over the container state.
+     */
+    public String displayState() {
+        return health.isEmpty() ? state : health;
+    }
+}
@@ -0,0 +1,18 @@
+package com.louislam.dockge.exception;
+
+/**
+ * A docker compose command exited with a non-zero exit code.
+ */
+public class ComposeCommandException extends RuntimeException {
+
+    private final int exitCode;
+
+    public ComposeCommandException(String message, int exitCode) {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+}
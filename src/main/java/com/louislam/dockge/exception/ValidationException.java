@@ -0,0 +1,12 @@
+package com.louislam.dockge.exception;
+
+/**
+ * A request that cannot be fulfilled because of invalid input, ValidationError in util-server.ts.
+ * The message is shown to the user.
+ */
+public class ValidationException extends RuntimeException {
+
+    public ValidationException(String message) {
+        super(message);
+    }
+}
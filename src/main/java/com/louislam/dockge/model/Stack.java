@@ -8,7 +8,11 @@ import jakarta.persistence.Id;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Stack entity representing a Docker Compose stack in Dockge.
@@ -16,6 +20,12 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "stack")
 public class Stack {
+    public static final List<String> ACCEPTED_COMPOSE_FILE_NAMES = List.of(
+            "compose.yaml",
+            "docker-compose.yaml",
+            "docker-compose.yml",
+            "compose.yml");
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -38,6 +48,25 @@ public class Stack {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
 
+    // Runtime state, resolved from the stacks directory and docker
+    @Transient
+    private int status = StackStatus.UNKNOWN;
+
+    @Transient
+    private String composeFileName = "compose.yaml";
+
+    @Transient
+    private String configFilePath;
+
+    @Transient
+    private boolean managedByDockge;
+
+    @Transient
+    private boolean envFileExists;
+
+    @Transient
+    private long composeFileModified;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -96,4 +125,69 @@ public class Stack {
     public LocalDateTime getUpdatedAt() {
         return updatedAt;
     }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getComposeFileName() {
+        return composeFileName;
+    }
+
+    public void setComposeFileName(String composeFileName) {
+        this.composeFileName = composeFileName;
+    }
+
+    public String getConfigFilePath() {
+        return configFilePath;
+    }
+
+    public void setConfigFilePath(String configFilePath) {
+        this.configFilePath = configFilePath;
+    }
+
+    public boolean isManagedByDockge() {
+        return managedByDockge;
+    }
+
+    public void setManagedByDockge(boolean managedByDockge) {
+        this.managedByDockge = managedByDockge;
+    }
+
+    public boolean isEnvFileExists() {
+        return envFileExists;
+    }
+
+    public void setEnvFileExists(boolean envFileExists) {
+        this.envFileExists = envFileExists;
+    }
+
+    /**
+     * Last modified time of the compose file in epoch milliseconds, 0 if unknown.
+     */
+    public long getComposeFileModified() {
+        return composeFileModified;
+    }
+
+    public void setComposeFileModified(long composeFileModified) {
+        this.composeFileModified = composeFileModified;
+    }
+
+    /**
+     * The entry of this stack in the stack list sent to the frontend.
+     */
+    public Map<String, Object> toSimpleJson(String endpoint) {
+        Map<String, Object> obj = new LinkedHashMap<>();
+        obj.put("name", name);
+        obj.put("status", status);
+        obj.put("tags", List.of());
+        obj.put("isManagedByDockge", managedByDockge);
+        obj.put("composeFileName", composeFileName);
+        obj.put("endpoint", endpoint);
+        return obj;
+    }
 }
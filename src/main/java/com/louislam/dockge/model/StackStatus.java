@@ -0,0 +1,38 @@
+package com.louislam.dockge.model;
+
+/**
+ * Stack status codes shared with the frontend.
+ *
+ * Matches the constants in common/util-common.ts.
+ */
+public final class StackStatus {
+    public static final int UNKNOWN = 0;
+    public static final int CREATED_FILE = 1;
+    public static final int CREATED_STACK = 2;
+    public static final int RUNNING = 3;
+    public static final int EXITED = 4;
+
+    private StackStatus() {
+    }
+
+    /**
+     * Convert the status string from `docker compose ls` to the status number.
+     * Input example: "exited(1), running(1)"
+     */
+    public static int fromComposeStatus(String status) {
+        if (status == null) {
+            return UNKNOWN;
+        }
+        if (status.startsWith("created")) {
+            return CREATED_STACK;
+        } else if (status.contains("exited")) {
+            // If one of the service is exited, we consider the stack is exited
+            return EXITED;
+        } else if (status.startsWith("running")) {
+            // If there is no exited services, there should be only running services
+            return RUNNING;
+        } else {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ComposeCommandException;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.DockgeSocket;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same action on many stacks, a few at a time.
+ *
+ * Each stack still runs in its own compose terminal, so the usual per-stack terminal output is
+ * available. On top of it, a bulkStackProgress event is sent whenever a stack starts or finishes.
+ */
+@Service
+public class BulkStackOperationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkStackOperationService.class);
+
+    @FunctionalInterface
+    interface ActionRunner {
+        int run(DockgeSocket socket, StackAction action, String stackName);
+    }
+
+    public record StackResult(String stackName, boolean ok, int exitCode, String msg, long duration) {
+        public Map<String, Object> toJson() {
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("stackName", stackName);
+            obj.put("ok", ok);
+            obj.put("exitCode", exitCode);
+            obj.put("msg", msg);
+            obj.put("duration", duration);
+            return obj;
+        }
+    }
+
+    public record BulkResult(StackAction action, List<StackResult> results, long duration) {
+        public boolean isOk() {
+            return results.stream().allMatch(StackResult::ok);
+        }
+
+        public Map<String, Object> toJson() {
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("ok", isOk());
+            obj.put("action", action.name().toLowerCase(Locale.ROOT));
+            obj.put("succeeded", results.stream().filter(StackResult::ok).count());
+            obj.put("failed", results.stream().filter(r -> !r.ok()).count());
+            obj.put("duration", duration);
+            obj.put("results", results.stream().map(StackResult::toJson).toList());
+            return obj;
+        }
+    }
+
+    private final ActionRunner runner;
+    private final int maxParallelism;
+    private final ExecutorService executor;
+
+    @Autowired
+    public BulkStackOperationService(StackService stackService,
+                                     @Value("${dockge.bulk.max-parallelism:4}") int maxParallelism) {
+        this(stackService::run, maxParallelism);
+    }
+
+    BulkStackOperationService(ActionRunner runner, int maxParallelism) {
+        this.runner = runner;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.maxParallelism, r -> {
+            Thread thread = new Thread(r, "bulk-stack-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Run the action on every stack and wait for all of them. A failed stack does not stop the others.
+     *
+     * @param parallelism requested number of stacks run at once, capped by dockge.bulk.max-parallelism,
+     *                    0 or less for the maximum
+     */
+    public BulkResult run(DockgeSocket socket, StackAction action, List<String> stackNames, int parallelism) {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(stackNames));
+        if (names.isEmpty()) {
+            throw new ValidationException("No stacks selected");
+        }
+        int workers = Math.min(names.size(), parallelism <= 0 ? maxParallelism : Math.min(parallelism, maxParallelism));
+
+        long startTime = System.currentTimeMillis();
+        Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < names.size(); i++) {
+            pending.add(i);
+        }
+        StackResult[] results = new StackResult[names.size()];
+        AtomicInteger completed = new AtomicInteger();
+
+        // A fixed number of workers take the next stack from the queue, so one bulk request
+        // never has more than its parallelism in flight even when the shared pool is larger
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+        for (int w = 0; w < workers; w++) {
+            futures[w] = CompletableFuture.runAsync(() -> {
+                Integer index;
+                while ((index = pending.poll()) != null) {
+                    String name = names.get(index);
+                    sendProgress(socket, action, name, "running", null, completed.get(), names.size());
+                    StackResult result = runOne(socket, action, name);
+                    results[index] = result;
+                    sendProgress(socket, action, name, result.ok() ? "done" : "failed", result,
+                            completed.incrementAndGet(), names.size());
+                }
+            }, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+
+        BulkResult bulkResult = new BulkResult(action, List.of(results), System.currentTimeMillis() - startTime);
+        logger.info("Bulk {} of {} stacks finished in {} ms, {} failed", action, names.size(), bulkResult.duration(),
+                bulkResult.results().stream().filter(r -> !r.ok()).count());
+        return bulkResult;
+    }
+
+    private StackResult runOne(DockgeSocket socket, StackAction action, String stackName) {
+        long startTime = System.currentTimeMillis();
+        try {
+            int exitCode = runner.run(socket, action, stackName);
+            return new StackResult(stackName, true, exitCode, action.getDoneMessage(),
+                    System.currentTimeMillis() - startTime);
+        } catch (ComposeCommandException e) {
+            return new StackResult(stackName, false, e.getExitCode(), e.getMessage(),
+                    System.currentTimeMillis() - startTime);
+        } catch (RuntimeException e) {
+            logger.debug("Bulk {} of {} failed: {}", action, stackName, e.getMessage());
+            return new StackResult(stackName, false, -1, e.getMessage(), System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void sendProgress(DockgeSocket socket, StackAction action, String stackName, String status,
+                              StackResult result, int completed, int total) {
+        if (socket == null) {
+            return;
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("action", action.name().toLowerCase(Locale.ROOT));
+        progress.put("stackName", stackName);
+        progress.put("status", status);
+        if (result != null) {
+            progress.put("exitCode", result.exitCode());
+            progress.put("msg", result.msg());
+            progress.put("duration", result.duration());
+        }
+        progress.put("completed", completed);
+        progress.put("total", total);
+        try {
+            socket.emitAgent("bulkStackProgress", progress);
+        } catch (RuntimeException e) {
+            logger.debug("Failed to send bulk progress: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.util.YamlUtil;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compose or .env file as read from disk. The YAML and env maps are only parsed when first
+ * requested, and then kept for as long as the file is unchanged.
+ */
+public final class CachedFile {
+
+    private final Path path;
+    private final long lastModified;
+    private final long size;
+    private final String content;
+    private final AtomicLong parseCount;
+
+    private volatile Object yaml;
+    private volatile Map<String, String> env;
+
+    CachedFile(Path path, long lastModified, long size, String content, AtomicLong parseCount) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.content = content;
+        this.parseCount = parseCount;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * The parsed YAML document, shared between callers and must not be modified. Null if the file
+     * is empty. Throws a YAML exception if the file is invalid.
+     */
+    public Object getYaml() {
+        Object result = yaml;
+        if (result == null && !content.isBlank()) {
+            synchronized (this) {
+                result = yaml;
+                if (result == null) {
+                    parseCount.incrementAndGet();
+                    result = YamlUtil.parse(content);
+                    yaml = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Names of the services of a compose file, in file order.
+     */
+    public List<String> getServiceNames() {
+        if (getYaml() instanceof Map<?, ?> document && document.get("services") instanceof Map<?, ?> services) {
+            List<String> names = new ArrayList<>();
+            for (Object name : services.keySet()) {
+                names.add(String.valueOf(name));
+            }
+            return names;
+        }
+        return List.of();
+    }
+
+    /**
+     * The variables of a .env file.
+     */
+    public Map<String, String> getEnv() {
+        Map<String, String> result = env;
+        if (result == null) {
+            parseCount.incrementAndGet();
+            result = Collections.unmodifiableMap(YamlUtil.parseEnv(content));
+            env = result;
+        }
+        return result;
+    }
+
+    boolean matches(long lastModified, long size) {
+        return this.lastModified == lastModified && this.size == size;
+    }
+}
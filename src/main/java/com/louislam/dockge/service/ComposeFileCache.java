@@ -0,0 +1,129 @@
+package com.louislam.dockge.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of compose and .env files, keyed by path and validated by mtime and size.
+ *
+ * A lookup costs one stat when the file is unchanged. Entries are evicted least recently used
+ * first once the total size of the cached files exceeds the limit.
+ */
+@Component
+public class ComposeFileCache {
+
+    private final long maxWeight;
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<Path, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong parseCount = new AtomicLong();
+
+    public ComposeFileCache(@Value("${dockge.compose-cache.max-size:33554432}") long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * The file at the path, or null if it does not exist.
+     */
+    public CachedFile get(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            invalidate(path);
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        synchronized (this) {
+            CachedFile cached = entries.get(path);
+            if (cached != null && cached.matches(lastModified, size)) {
+                hitCount.incrementAndGet();
+                return cached;
+            }
+        }
+
+        missCount.incrementAndGet();
+        // Keyed by the attributes read before the content, so a concurrent write is picked up next time
+        CachedFile file = new CachedFile(path, lastModified, size, Files.readString(path), parseCount);
+        put(file);
+        return file;
+    }
+
+    /**
+     * The content of the file at the path, or an empty string if it does not exist or cannot be read.
+     */
+    public String getContent(Path path) {
+        try {
+            CachedFile file = get(path);
+            return file == null ? "" : file.getContent();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    public synchronized void invalidate(Path path) {
+        CachedFile removed = entries.remove(path);
+        if (removed != null) {
+            weight -= removed.getSize();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of times a cached file has been parsed as YAML or env.
+     */
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    private synchronized void put(CachedFile file) {
+        CachedFile old = entries.remove(file.getPath());
+        if (old != null) {
+            weight -= old.getSize();
+        }
+        if (file.getSize() > maxWeight) {
+            return;
+        }
+        entries.put(file.getPath(), file);
+        weight += file.getSize();
+
+        Iterator<Map.Entry<Path, CachedFile>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            CachedFile eldest = iterator.next().getValue();
+            iterator.remove();
+            weight -= eldest.getSize();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.config.JwtConfig;
+import com.louislam.dockge.model.User;
+import com.louislam.dockge.repository.UserRepository;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and verifies the login tokens, the counterpart of the jwt calls in main-socket-handler.ts.
+ *
+ * A token carries the username and h, a digest of the password hash, so that changing the password
+ * invalidates the tokens issued before. Verifying one takes an HMAC, a JSON parse and a user lookup,
+ * which adds up when every client reconnects at once after a network blip. Verified tokens are
+ * therefore cached for a short while, keyed by a digest of the token so the cache never holds a
+ * usable token. Entries expire with the token at the latest and are dropped by
+ * {@link #invalidateUser(long)}.
+ *
+ * {@link #revokeTokens(long, String)} rejects the tokens a user was issued so far, cached or not.
+ * Revocations are kept in memory only, and a token issued in the same second as the revocation
+ * stays valid, since tokens carry their issue time in seconds.
+ */
+@Service
+public class JwtService {
+
+    /**
+     * @param userId   id of the user the token was issued to
+     * @param username name of the user the token was issued to
+     */
+    public record VerifiedToken(long userId, String username) {
+    }
+
+    private record CachedToken(VerifiedToken token, long issuedAt, long expiresAt) {
+    }
+
+    /**
+     * @param notBefore tokens issued before this second, in epoch milliseconds, are rejected
+     * @param kept      digest of the token that stays valid, or null
+     */
+    private record Revocation(long notBefore, String kept) {
+        boolean rejects(long issuedAt, String tokenDigest) {
+            return issuedAt < notBefore && !tokenDigest.equals(kept);
+        }
+    }
+
+    private final SecretKey key;
+    private final long expiration;
+    private final Function<String, Optional<User>> users;
+    private final int maxSize;
+    private final long ttl;
+    private final LongSupplier currentTimeMillis;
+    private final JwtParser parser;
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, CachedToken> cache = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped by every invalidation, so a verification that started before one is not cached
+    private long generation;
+    // By user id, guarded by this
+    private final Map<Long, Revocation> revocations = new HashMap<>();
+
+    private final Counter cachedCounter;
+    private final Counter verifiedCounter;
+    private final Counter rejectedCounter;
+
+    @Autowired
+    public JwtService(JwtConfig jwtConfig, UserRepository userRepository, MeterRegistry meterRegistry,
+                      @Value("${dockge.jwt.cache-size:1000}") int maxSize,
+                      @Value("${dockge.jwt.cache-ttl:300000}") long ttl) {
+        this(jwtConfig.getSigningKey(), jwtConfig.getExpiration(), userRepository::findByUsername, meterRegistry,
+                maxSize, Duration.ofMillis(ttl), System::currentTimeMillis);
+    }
+
+    JwtService(SecretKey key, long expiration, Function<String, Optional<User>> users, MeterRegistry meterRegistry,
+               int maxSize, Duration ttl, LongSupplier currentTimeMillis) {
+        this.key = key;
+        this.expiration = expiration;
+        this.users = users;
+        this.maxSize = maxSize;
+        this.ttl = ttl.toMillis();
+        this.currentTimeMillis = currentTimeMillis;
+        this.parser = Jwts.parser()
+                .verifyWith(key)
+                .clock(() -> new Date(currentTimeMillis.getAsLong()))
+                .build();
+        this.cachedCounter = verifications(meterRegistry, "cached");
+        this.verifiedCounter = verifications(meterRegistry, "verified");
+        this.rejectedCounter = verifications(meterRegistry, "rejected");
+    }
+
+    private static Counter verifications(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("dockge.jwt.verifications")
+                .description("Login tokens checked, by whether the cache answered")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A token for the user, valid until the password changes or the configured expiration.
+     */
+    public String issue(User user) {
+        long now = currentTimeMillis.getAsLong();
+        return Jwts.builder()
+                .claim("username", user.getUsername())
+                .claim("h", passwordDigest(user.getPasswordHash()))
+                .issuedAt(new Date(now))
+                .expiration(new Date(now + expiration))
+                .signWith(key)
+                .compact();
+    }
+
+    /**
+     * The user of the token.
+     *
+     * @throws JwtException if the token is malformed, forged or expired, or its user is gone, inactive
+     *                      or has changed the password since
+     */
+    public VerifiedToken verify(String token) {
+        String cacheKey = tokenDigest(token);
+        long startGeneration;
+        synchronized (this) {
+            CachedToken cached = cache.get(cacheKey);
+            if (cached != null && isRevoked(cached.token().userId(), cached.issuedAt(), cacheKey)) {
+                cache.remove(cacheKey);
+                rejectedCounter.increment();
+                throw new JwtException("The token has been revoked");
+            }
+            if (cached != null && cached.expiresAt() > currentTimeMillis.getAsLong()) {
+                cachedCounter.increment();
+                return cached.token();
+            }
+            if (cached != null) {
+                cache.remove(cacheKey);
+            }
+            startGeneration = generation;
+        }
+
+        Claims claims;
+        VerifiedToken verified;
+        long issuedAt;
+        try {
+            claims = parser.parseSignedClaims(token).getPayload();
+            User user = users.apply(claims.get("username", String.class))
+                    .filter(User::isActive)
+                    .orElseThrow(() -> new JwtException("User not found"));
+            if (!passwordDigest(user.getPasswordHash()).equals(claims.get("h", String.class))) {
+                throw new JwtException("The token is invalid due to password change or old token");
+            }
+            issuedAt = claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime();
+            synchronized (this) {
+                if (isRevoked(user.getId(), issuedAt, cacheKey)) {
+                    throw new JwtException("The token has been revoked");
+                }
+            }
+            verified = new VerifiedToken(user.getId(), user.getUsername());
+        } catch (JwtException | IllegalArgumentException e) {
+            rejectedCounter.increment();
+            throw e instanceof JwtException jwtException ? jwtException : new JwtException(e.getMessage(), e);
+        }
+        verifiedCounter.increment();
+
+        long expiresAt = currentTimeMillis.getAsLong() + ttl;
+        if (claims.getExpiration() != null) {
+            expiresAt = Math.min(expiresAt, claims.getExpiration().getTime());
+        }
+        synchronized (this) {
+            if (generation == startGeneration) {
+                cache.put(cacheKey, new CachedToken(verified, issuedAt, expiresAt));
+                Iterator<CachedToken> iterator = cache.values().iterator();
+                while (cache.size() > maxSize && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Forget the verified tokens of the user, so the next use of any of them is checked against the
+     * database again. Call it when the password changes, or the user is deactivated or deleted.
+     */
+    public synchronized void invalidateUser(long userId) {
+        generation++;
+        cache.values().removeIf(cached -> cached.token().userId() == userId);
+    }
+
+    /**
+     * Reject every token issued to the user before now, except the one to keep, when the user logs
+     * out its other clients.
+     *
+     * @param kept the token of the client that stays logged in, or null
+     */
+    public synchronized void revokeTokens(long userId, String kept) {
+        revocations.put(userId, new Revocation(currentTimeMillis.getAsLong() / 1000 * 1000,
+                kept == null ? null : tokenDigest(kept)));
+        invalidateUser(userId);
+    }
+
+    // Guarded by this
+    private boolean isRevoked(long userId, long issuedAt, String tokenDigest) {
+        Revocation revocation = revocations.get(userId);
+        return revocation != null && revocation.rejects(issuedAt, tokenDigest);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.clear();
+    }
+
+    synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Digest of the password hash for the h claim, like shake256(password, 16) in the original.
+     */
+    static String passwordDigest(String passwordHash) {
+        byte[] digest = sha256(passwordHash);
+        return HexFormat.of().formatHex(digest, 0, 16);
+    }
+
+    private static String tokenDigest(String token) {
+        return Base64.getEncoder().encodeToString(sha256(token));
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
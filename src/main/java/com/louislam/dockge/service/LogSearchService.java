@@ -0,0 +1,362 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.terminal.LogSegmentStore;
+import com.louislam.dockge.terminal.SegmentedLog;
+import com.louislam.dockge.util.TrigramIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the log output kept by {@link LogSegmentStore}.
+ *
+ * Every sealed segment gets a {@link TrigramIndex}, built by a background thread when the
+ * segment is sealed and kept next to it, so writing output never waits for indexing. A search
+ * only scans the segments whose index might contain the query, plus the segments being written
+ * to and those not indexed yet. Matches are whole lines, ordered by stack, log and offset.
+ */
+@Service
+public class LogSearchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSearchService.class);
+
+    private static final int PAGE_SIZE = 50;
+    // How far a matching line is followed in each direction
+    private static final int MAX_LINE_BYTES = 4096;
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;?]*[ -/]*[@-~]");
+
+    /**
+     * A matching line.
+     *
+     * @param offset offset of the line in the log
+     */
+    public record Match(String stackName, String logName, long offset, String line) {
+        public Map<String, Object> toJson() {
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("stackName", stackName);
+            obj.put("logName", logName);
+            obj.put("offset", offset);
+            obj.put("line", line);
+            return obj;
+        }
+    }
+
+    private record Cursor(String stackName, String logName, long offset) {
+        static Cursor parse(String cursor) {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+            String[] parts = cursor.split("/", 3);
+            try {
+                return new Cursor(parts[0], parts[1], Long.parseLong(parts[2]));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new ValidationException("Invalid cursor");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return stackName + "/" + logName + "/" + offset;
+        }
+    }
+
+    private final LogSegmentStore logSegmentStore;
+    private final Map<Path, TrigramIndex> indexes = new ConcurrentHashMap<>();
+    private final ExecutorService indexer;
+    private final Semaphore searches;
+    private final int maxResults;
+    private final Counter scannedCounter;
+    private final Counter skippedCounter;
+
+    public LogSearchService(LogSegmentStore logSegmentStore, MeterRegistry meterRegistry,
+                            @Value("${dockge.log-search.max-concurrent:2}") int maxConcurrent,
+                            @Value("${dockge.log-search.max-results:1000}") int maxResults) {
+        this.logSegmentStore = logSegmentStore;
+        this.searches = new Semaphore(maxConcurrent);
+        this.maxResults = maxResults;
+        this.indexer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "log-indexer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.scannedCounter = Counter.builder("dockge.log.search.segments")
+                .tag("result", "scanned")
+                .description("Log segments read by searches")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("dockge.log.search.segments")
+                .tag("result", "skipped")
+                .description("Log segments a search skipped through their index")
+                .register(meterRegistry);
+
+        logSegmentStore.addSealListener(this::scheduleIndex);
+    }
+
+    @PreDestroy
+    public void stop() {
+        indexer.shutdownNow();
+    }
+
+    /**
+     * Start a search. Fails at once if the query is invalid or too many searches are running, the
+     * search itself happens in {@link Search#run}.
+     *
+     * @param stackName only search this stack, or all stacks if null
+     * @param since     skip output written before this time in epoch milliseconds, at segment granularity
+     * @param limit     matches to return before stopping with a cursor
+     * @param cursor    where the previous page stopped, or null
+     */
+    public Search begin(String text, String stackName, long since, int limit, String cursor) {
+        if (text == null || text.isEmpty()) {
+            throw new ValidationException("Search text must not be empty");
+        }
+        Cursor from = Cursor.parse(cursor);
+        if (!searches.tryAcquire()) {
+            throw new ValidationException("Too many searches are running, please try again later.");
+        }
+        int bounded = limit <= 0 ? maxResults : Math.min(limit, maxResults);
+        return new Search(lowercase(text), stackName, since, bounded, from);
+    }
+
+    public class Search {
+        private final byte[] query;
+        private final String stackName;
+        private final long since;
+        private final int limit;
+        private final Cursor from;
+
+        private Search(byte[] query, String stackName, long since, int limit, Cursor from) {
+            this.query = query;
+            this.stackName = stackName;
+            this.since = since;
+            this.limit = limit;
+            this.from = from;
+        }
+
+        /**
+         * Pass the matches to the consumer in pages as they are found.
+         *
+         * @return the cursor to continue from, or null once every log has been searched
+         */
+        public String run(Consumer<List<Match>> pages) {
+            try {
+                return search(pages);
+            } finally {
+                searches.release();
+            }
+        }
+
+        private String search(Consumer<List<Match>> pages) {
+            List<Match> page = new ArrayList<>();
+            int found = 0;
+            for (LogSegmentStore.StoredLog stored : logSegmentStore.getLogs()) {
+                if (stackName != null && !stackName.equals(stored.stackName())) {
+                    continue;
+                }
+                long fromOffset = 0;
+                if (from != null) {
+                    int order = compare(stored, from);
+                    if (order < 0) {
+                        continue;
+                    }
+                    fromOffset = order == 0 ? from.offset() : 0;
+                }
+
+                for (SegmentedLog.SegmentInfo segment : stored.log().getSegments()) {
+                    if (segment.start() + segment.size() <= fromOffset || segment.modified() < since) {
+                        continue;
+                    }
+                    if (segment.sealed() && !mightContain(segment.path(), query)) {
+                        skippedCounter.increment();
+                        continue;
+                    }
+                    ByteBuffer buffer;
+                    try {
+                        buffer = stored.log().map(segment);
+                    } catch (IOException e) {
+                        logger.warn("Failed to read {}: {}", segment.path(), e.getMessage());
+                        continue;
+                    }
+                    if (buffer == null) {
+                        continue;
+                    }
+                    scannedCounter.increment();
+
+                    int position = (int) Math.max(0, fromOffset - segment.start());
+                    int index;
+                    while ((index = indexOf(buffer, query, position)) >= 0) {
+                        int lineStart = lineStart(buffer, index);
+                        int lineEnd = lineEnd(buffer, index + query.length);
+                        long offset = segment.start() + lineStart;
+                        if (found == limit) {
+                            flush(page, pages);
+                            return new Cursor(stored.stackName(), stored.logName(), offset).toString();
+                        }
+                        page.add(new Match(stored.stackName(), stored.logName(), offset, line(buffer, lineStart, lineEnd)));
+                        found++;
+                        if (page.size() == PAGE_SIZE) {
+                            flush(page, pages);
+                        }
+                        position = lineEnd;
+                    }
+                }
+            }
+            flush(page, pages);
+            return null;
+        }
+    }
+
+    private static void flush(List<Match> page, Consumer<List<Match>> pages) {
+        if (!page.isEmpty()) {
+            pages.accept(List.copyOf(page));
+            page.clear();
+        }
+    }
+
+    private static int compare(LogSegmentStore.StoredLog stored, Cursor cursor) {
+        int order = stored.stackName().compareTo(cursor.stackName());
+        return order != 0 ? order : stored.logName().compareTo(cursor.logName());
+    }
+
+    /**
+     * Whether the sealed segment might contain the query. Segments without an index yet are
+     * scanned, and indexed in the background.
+     */
+    private boolean mightContain(Path segment, byte[] query) {
+        TrigramIndex index = indexes.get(segment);
+        if (index == null) {
+            scheduleIndex(segment);
+            return true;
+        }
+        return index.mightContain(query);
+    }
+
+    private void scheduleIndex(Path segment) {
+        try {
+            indexer.execute(() -> index(segment));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void index(Path segment) {
+        if (indexes.containsKey(segment) || !Files.exists(segment)) {
+            return;
+        }
+        Path indexPath = SegmentedLog.getIndexPath(segment);
+        try {
+            TrigramIndex index = null;
+            if (Files.exists(indexPath)) {
+                try {
+                    index = TrigramIndex.read(indexPath);
+                } catch (IOException e) {
+                    logger.debug("Rebuilding the index of {}: {}", segment, e.getMessage());
+                }
+            }
+            if (index == null) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    index = TrigramIndex.build(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+                index.write(indexPath);
+            }
+            indexes.put(segment, index);
+        } catch (IOException e) {
+            logger.warn("Failed to index {}: {}", segment, e.getMessage());
+        }
+        // Forget the indexes of deleted segments
+        indexes.keySet().removeIf(path -> !Files.exists(path));
+    }
+
+    /**
+     * Wait until the segments sealed so far are indexed.
+     */
+    void awaitIndexing() throws Exception {
+        indexer.submit(() -> {
+        }).get();
+    }
+
+    private static byte[] lowercase(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) TrigramIndex.lower(bytes[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Where the query starts in the buffer, skipping escape sequences as the index does, so that
+     * colored output matches too.
+     */
+    private static int indexOf(ByteBuffer buffer, byte[] query, int from) {
+        int end = buffer.limit();
+        int first = query[0] & 0xFF;
+        outer:
+        for (int i = TrigramIndex.skipEscapes(buffer, from, end); i < end;
+             i = TrigramIndex.skipEscapes(buffer, i + 1, end)) {
+            if (TrigramIndex.lower(buffer.get(i)) != first) {
+                continue;
+            }
+            int k = i + 1;
+            for (int j = 1; j < query.length; j++) {
+                k = TrigramIndex.skipEscapes(buffer, k, end);
+                if (k >= end || TrigramIndex.lower(buffer.get(k)) != (query[j] & 0xFF)) {
+                    continue outer;
+                }
+                k++;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int lineStart(ByteBuffer buffer, int index) {
+        int min = Math.max(0, index - MAX_LINE_BYTES);
+        for (int i = index - 1; i >= min; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return min;
+    }
+
+    private static int lineEnd(ByteBuffer buffer, int index) {
+        int max = Math.min(buffer.limit(), index + MAX_LINE_BYTES);
+        for (int i = index; i < max; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+
+    private static String line(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String line = new String(bytes, StandardCharsets.UTF_8).stripTrailing();
+        return ANSI_ESCAPE.matcher(line).replaceAll("");
+    }
+}
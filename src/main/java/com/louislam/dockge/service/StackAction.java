@@ -0,0 +1,37 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ValidationException;
+
+import java.util.Locale;
+
+/**
+ * Lifecycle operations that can be run on a stack, alone or in bulk.
+ */
+public enum StackAction {
+    START("Started"),
+    STOP("Stopped"),
+    RESTART("Restarted"),
+    UPDATE("Updated"),
+    DOWN("Downed");
+
+    private final String doneMessage;
+
+    StackAction(String doneMessage) {
+        this.doneMessage = doneMessage;
+    }
+
+    /**
+     * The i18n message sent once the action succeeded.
+     */
+    public String getDoneMessage() {
+        return doneMessage;
+    }
+
+    public static StackAction fromString(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new ValidationException("Unknown action: " + value);
+        }
+    }
+}
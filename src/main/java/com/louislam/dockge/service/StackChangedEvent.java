@@ -0,0 +1,8 @@
+package com.louislam.dockge.service;
+
+/**
+ * Published after an operation that changes a stack (deploy, start, stop, down, delete, save...)
+ * has completed, so cached views of the stack can be refreshed.
+ */
+public record StackChangedEvent(String stackName) {
+}
@@ -0,0 +1,9 @@
+package com.louislam.dockge.service;
+
+/**
+ * A stack directory as last seen in the stacks directory.
+ *
+ * @param lastModified last modified time of the compose file in epoch milliseconds
+ */
+public record StackDirectory(String name, String composeFileName, boolean envFileExists, long lastModified) {
+}
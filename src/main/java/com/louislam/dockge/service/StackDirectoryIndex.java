@@ -0,0 +1,436 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.model.Stack;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * In-memory index of the stacks directory.
+ *
+ * The directory is scanned once in parallel on startup and then kept current with a
+ * {@link WatchService} on the stacks directory and on every stack directory, so listing stacks
+ * does not touch the file system. When the watcher overflows the whole directory is rescanned.
+ * If the directory cannot be watched, every lookup scans it again like stack.ts does, and setting up
+ * the watcher is tried again on a rescan once the retry interval has passed.
+ */
+@Component
+public class StackDirectoryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackDirectoryIndex.class);
+
+    /**
+     * Notified after a stack directory is added, changed or removed.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onStackDirectoryChanged(String name);
+    }
+
+    private final Path stacksDir;
+    private final boolean watchEnabled;
+    private final int scanThreads;
+    private final long watchRetryInterval;
+    private final ExecutorService scanExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Map<String, StackDirectory> entries = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+    private final AtomicLong rescanCount = new AtomicLong();
+
+    // Guarded by this
+    private WatchService watchService;
+    private long nextWatchAttempt;
+    // Set when watching failed and not started since, so the failure is only logged once
+    private volatile boolean watchFailed;
+    private volatile boolean watching;
+
+    @Autowired
+    public StackDirectoryIndex(@Value("${dockge.stacks-dir:./stacks}") String stacksDir,
+                               @Value("${dockge.stacks-watch.enabled:true}") boolean watchEnabled,
+                               @Value("${dockge.stacks-watch.scan-threads:8}") int scanThreads,
+                               @Value("${dockge.stacks-watch.retry-interval:60000}") long watchRetryInterval) {
+        this.stacksDir = Path.of(stacksDir);
+        this.watchEnabled = watchEnabled;
+        this.scanThreads = Math.max(1, scanThreads);
+        this.watchRetryInterval = watchRetryInterval;
+    }
+
+    StackDirectoryIndex(String stacksDir, boolean watchEnabled, int scanThreads) {
+        this(stacksDir, watchEnabled, scanThreads, Duration.ofMinutes(1).toMillis());
+    }
+
+    @PostConstruct
+    public void start() {
+        rescan();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        watching = false;
+        closeWatchService();
+        scanExecutor.shutdownNow();
+    }
+
+    public Path getStacksDir() {
+        return stacksDir;
+    }
+
+    /**
+     * All stack directories that contain a compose file, sorted by name.
+     */
+    public Map<String, StackDirectory> getStacks() {
+        if (!watching) {
+            rescan();
+        }
+        return Collections.unmodifiableMap(new TreeMap<>(entries));
+    }
+
+    public StackDirectory get(String name) {
+        if (!watching) {
+            refresh(name);
+        }
+        return entries.get(name);
+    }
+
+    /**
+     * Whether the index is kept current by the watcher, rather than by scanning on every request.
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    public long getRescanCount() {
+        return rescanCount.get();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Scan the whole stacks directory, reading the stack directories in parallel.
+     */
+    public synchronized void rescan() {
+        rescanCount.incrementAndGet();
+        boolean started = false;
+        if (watchEnabled && !watching && System.currentTimeMillis() >= nextWatchAttempt
+                && Files.isDirectory(stacksDir)) {
+            nextWatchAttempt = System.currentTimeMillis() + watchRetryInterval;
+            started = startWatching();
+        }
+        try {
+            scan();
+        } finally {
+            // Registering a stack directory during the scan may have failed
+            if (started && watching) {
+                WatchService service = watchService;
+                Thread watcher = new Thread(() -> watch(service), "stacks-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+                if (watchFailed) {
+                    logger.info("Watching {} again", stacksDir);
+                    watchFailed = false;
+                }
+                logger.debug("Watching {} stack directories in {}", entries.size(), stacksDir);
+            }
+        }
+    }
+
+    private void scan() {
+
+        List<Path> dirs = new ArrayList<>();
+        if (Files.isDirectory(stacksDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(stacksDir)) {
+                for (Path dir : stream) {
+                    dirs.add(dir);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to scan stacks directory {}: {}", stacksDir, e.getMessage());
+                return;
+            }
+        }
+
+        List<StackDirectory> read = readAll(dirs);
+        if (read == null) {
+            // Keep the index as it is rather than dropping the stacks that were not read
+            return;
+        }
+        Map<String, StackDirectory> scanned = new HashMap<>();
+        for (StackDirectory entry : read) {
+            if (entry != null) {
+                scanned.put(entry.name(), entry);
+            }
+        }
+
+        Set<String> names = new HashSet<>(entries.keySet());
+        names.addAll(scanned.keySet());
+        for (String name : names) {
+            update(name, scanned.get(name));
+        }
+    }
+
+    /**
+     * Read one stack directory again.
+     */
+    synchronized void refresh(String name) {
+        update(name, readAndRegister(stacksDir.resolve(name)));
+    }
+
+    /**
+     * Returns null if the scan was interrupted or failed.
+     */
+    private List<StackDirectory> readAll(List<Path> dirs) {
+        StackDirectory[] result = new StackDirectory[dirs.size()];
+        if (dirs.size() <= 1 || scanThreads == 1) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = readAndRegister(dirs.get(i));
+            }
+            return Arrays.asList(result);
+        }
+
+        // At most scanThreads readers, each taking the next directory until none are left
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(scanThreads, dirs.size()); i++) {
+                futures.add(scanExecutor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < result.length) {
+                        result[index] = readAndRegister(dirs.get(index));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Failed to scan stacks directory {}", stacksDir, e.getCause());
+            return null;
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Watch a directory, even one without a compose file yet, then read it. Registering first
+     * ensures nothing written in between is missed.
+     */
+    private StackDirectory readAndRegister(Path dir) {
+        if (watching) {
+            tryRegister(dir);
+        }
+        return read(dir);
+    }
+
+    private void update(String name, StackDirectory entry) {
+        StackDirectory old = entry == null ? entries.remove(name) : entries.put(name, entry);
+        if (Objects.equals(old, entry)) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onStackDirectoryChanged(name);
+            } catch (RuntimeException e) {
+                logger.warn("Stack directory listener failed", e);
+            }
+        }
+    }
+
+    private void watch(WatchService service) {
+        while (watching) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchKeys.get(key);
+            boolean overflow = false;
+            Set<String> changed = new LinkedHashSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                } else if (dir == null) {
+                    continue;
+                } else if (dir.equals(stacksDir)) {
+                    changed.add(event.context().toString());
+                } else {
+                    changed.add(dir.getFileName().toString());
+                }
+            }
+
+            if (!key.reset()) {
+                watchKeys.remove(key);
+                if (dir != null) {
+                    watchedDirs.remove(dir);
+                    if (dir.equals(stacksDir)) {
+                        logger.warn("Stacks directory {} is no longer accessible, falling back to scanning", stacksDir);
+                        watching = false;
+                        continue;
+                    }
+                    changed.add(dir.getFileName().toString());
+                }
+            }
+
+            try {
+                if (overflow) {
+                    logger.info("Stacks watcher overflowed, rescanning {}", stacksDir);
+                    rescan();
+                } else {
+                    changed.forEach(this::refresh);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to update the stack directory index", e);
+            }
+        }
+    }
+
+    /**
+     * Start over with a new watch service on the stacks directory. The stack directories are
+     * registered by the scan that follows.
+     */
+    private boolean startWatching() {
+        closeWatchService();
+        watchKeys.clear();
+        watchedDirs.clear();
+        try {
+            watchService = stacksDir.getFileSystem().newWatchService();
+            register(stacksDir);
+            watching = true;
+            return true;
+        } catch (IOException e) {
+            if (!watchFailed) {
+                logger.warn("Unable to watch {}, the stacks directory will be scanned on every request: {}",
+                        stacksDir, e.getMessage());
+                watchFailed = true;
+            }
+            closeWatchService();
+            return false;
+        }
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                // Also ends the watcher thread of this service
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the stacks watcher", e);
+            }
+            watchService = null;
+        }
+    }
+
+    private void tryRegister(Path dir) {
+        try {
+            register(dir);
+        } catch (IOException e) {
+            // Most likely out of inotify watches, we can no longer trust the index
+            if (!watchFailed) {
+                logger.warn("Unable to watch {}, the stacks directory will be scanned on every request: {}",
+                        dir, e.getMessage());
+            }
+            watchFailed = true;
+            watching = false;
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        if (watchedDirs.add(dir)) {
+            try {
+                watchKeys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+            } catch (NoSuchFileException | NotDirectoryException e) {
+                watchedDirs.remove(dir);
+            } catch (IOException e) {
+                watchedDirs.remove(dir);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Read a stack directory with a single directory listing and a single stat of the compose
+     * file, instead of probing every accepted compose file name. Returns null if it is not a
+     * directory or has no compose file.
+     */
+    static StackDirectory read(Path dir) {
+        Set<String> files = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                files.add(file.getFileName().toString());
+            }
+        } catch (IOException e) {
+            // Gone, not a directory, or not readable
+            return null;
+        }
+
+        String composeFileName = null;
+        for (String filename : Stack.ACCEPTED_COMPOSE_FILE_NAMES) {
+            if (files.contains(filename)) {
+                composeFileName = filename;
+                break;
+            }
+        }
+        if (composeFileName == null) {
+            return null;
+        }
+
+        long lastModified = 0;
+        try {
+            lastModified = Files.getLastModifiedTime(dir.resolve(composeFileName)).toMillis();
+        } catch (IOException e) {
+            // Removed in the meantime, the watcher will catch up
+        }
+        return new StackDirectory(dir.getFileName().toString(), composeFileName, files.contains(".env"), lastModified);
+    }
+}
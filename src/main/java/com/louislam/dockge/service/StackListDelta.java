@@ -0,0 +1,48 @@
+package com.louislam.dockge.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The stack list changes between two versions, or the full list if {@code full} is set.
+ *
+ * @param changed entries that were added or changed, keyed by stack name; every entry if full
+ * @param removed names of the stacks that no longer exist
+ */
+public record StackListDelta(long fromVersion, long version, boolean full,
+                             Map<String, Map<String, Object>> changed, Set<String> removed) {
+
+    public boolean isEmpty() {
+        return !full && changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * The payload of the stackListDelta event, with the endpoint of the receiving socket.
+     */
+    public Map<String, Object> toPayload(String endpoint) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("ok", true);
+        payload.put("version", version);
+        if (full) {
+            payload.put("full", true);
+            payload.put("stackList", withEndpoint(changed, endpoint));
+        } else {
+            payload.put("from", fromVersion);
+            payload.put("changed", withEndpoint(changed, endpoint));
+            payload.put("removed", List.copyOf(removed));
+        }
+        return payload;
+    }
+
+    static Map<String, Object> withEndpoint(Map<String, Map<String, Object>> entries, String endpoint) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : entries.entrySet()) {
+            Map<String, Object> obj = new LinkedHashMap<>(entry.getValue());
+            obj.put("endpoint", endpoint);
+            map.put(entry.getKey(), obj);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,108 @@
+package com.louislam.dockge.service;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Versioned stack list that remembers the most recent changes.
+ *
+ * Every {@link #update} that changes something bumps the version and records the delta. A client
+ * that knows an older version gets the merged deltas since then, or a full snapshot if it is too
+ * far behind. Versions start at a random epoch, a multiple of 2^20 below 2^52, so that a version
+ * handed out before a restart is all but certainly unknown to the new journal rather than taken
+ * for a version of a different list. They stay below 2^53 to survive as JavaScript numbers.
+ */
+public class StackListJournal {
+
+    private static final int EPOCH_SHIFT = 20;
+    private static final long EPOCHS = 1L << (52 - EPOCH_SHIFT);
+
+    private final int maxDeltas;
+    private final Deque<StackListDelta> deltas = new ArrayDeque<>();
+    private Map<String, Map<String, Object>> entries = Map.of();
+    private long version;
+
+    public StackListJournal(int maxDeltas) {
+        this(maxDeltas, (ThreadLocalRandom.current().nextLong(EPOCHS - 1) + 1) << EPOCH_SHIFT);
+    }
+
+    StackListJournal(int maxDeltas, long initialVersion) {
+        this.maxDeltas = maxDeltas;
+        this.version = initialVersion;
+    }
+
+    /**
+     * Replace the list. Returns the delta, or null if nothing changed.
+     */
+    public synchronized StackListDelta update(Map<String, Map<String, Object>> current) {
+        Map<String, Map<String, Object>> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : current.entrySet()) {
+            if (!Objects.equals(entries.get(entry.getKey()), entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> removed = new LinkedHashSet<>();
+        for (String name : entries.keySet()) {
+            if (!current.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+
+        StackListDelta delta = new StackListDelta(version, version + 1, false,
+                Collections.unmodifiableMap(changed), Collections.unmodifiableSet(removed));
+        version++;
+        entries = Collections.unmodifiableMap(new LinkedHashMap<>(current));
+        deltas.addLast(delta);
+        while (deltas.size() > maxDeltas) {
+            deltas.removeFirst();
+        }
+        return delta;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized StackListDelta snapshot() {
+        return new StackListDelta(0, version, true, entries, Set.of());
+    }
+
+    /**
+     * Changes since the given version. A full snapshot is returned if the version is unknown.
+     */
+    public synchronized StackListDelta since(long clientVersion) {
+        if (clientVersion == version) {
+            return new StackListDelta(version, version, false, Map.of(), Set.of());
+        }
+        if (clientVersion > version || deltas.isEmpty() || clientVersion < deltas.peekFirst().fromVersion()) {
+            return snapshot();
+        }
+
+        Map<String, Map<String, Object>> changed = new LinkedHashMap<>();
+        Set<String> removed = new LinkedHashSet<>();
+        for (StackListDelta delta : deltas) {
+            if (delta.fromVersion() < clientVersion) {
+                continue;
+            }
+            for (Map.Entry<String, Map<String, Object>> entry : delta.changed().entrySet()) {
+                changed.put(entry.getKey(), entry.getValue());
+                removed.remove(entry.getKey());
+            }
+            for (String name : delta.removed()) {
+                changed.remove(name);
+                removed.add(name);
+            }
+        }
+        return new StackListDelta(clientVersion, version, false, changed, removed);
+    }
+}
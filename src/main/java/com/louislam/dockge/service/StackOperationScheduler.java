@@ -0,0 +1,261 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ValidationException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs stack operations one at a time per stack, and in parallel across stacks.
+ *
+ * Every stack has its own queue; an operation starts once the previous one on the same stack has
+ * finished. Queued operations can be cancelled, running ones always finish. The time spent
+ * waiting in the queue and running is recorded in dockge.stack.operation.wait and
+ * dockge.stack.operation.duration.
+ */
+@Component
+public class StackOperationScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackOperationScheduler.class);
+
+    /**
+     * An operation submitted to the scheduler. The future completes with the result of the task.
+     */
+    public final class Operation<T> {
+        private final String stackName;
+        private final String name;
+        private final Callable<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long queuedAt = System.nanoTime();
+        private boolean started;
+
+        private Operation(String stackName, String name, Callable<T> task) {
+            this.stackName = stackName;
+            this.name = name;
+            this.task = task;
+        }
+
+        public String getStackName() {
+            return stackName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public CompletableFuture<T> getFuture() {
+            return future;
+        }
+
+        /**
+         * Cancel the operation if it has not started yet.
+         */
+        public boolean cancel() {
+            return StackOperationScheduler.this.cancel(this);
+        }
+
+        private void run() {
+            long startedAt = System.nanoTime();
+            waitTimer(name).record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            String outcome = "success";
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                outcome = "failure";
+                future.completeExceptionally(e);
+            } finally {
+                durationTimer(name, outcome).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                next(stackName);
+            }
+        }
+    }
+
+    private static final class StackQueue {
+        final ArrayDeque<Operation<?>> queued = new ArrayDeque<>();
+        Operation<?> running;
+    }
+
+    private final Map<String, StackQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final int maxQueueDepth;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    public StackOperationScheduler(@Value("${dockge.stack-operations.max-queue-depth:8}") int maxQueueDepth,
+                                   MeterRegistry meterRegistry) {
+        this.maxQueueDepth = maxQueueDepth;
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "stack-operation-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("dockge.stack.operation.queued", queuedCount, AtomicInteger::get)
+                .description("Stack operations waiting for a previous operation on the same stack")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue an operation on a stack. It runs right away if nothing else is running on the stack.
+     *
+     * @throws ValidationException if too many operations are already waiting on the stack
+     */
+    public <T> Operation<T> submit(String stackName, String name, Callable<T> task) {
+        Operation<T> operation = new Operation<>(stackName, name, task);
+        boolean runNow;
+        synchronized (this) {
+            StackQueue queue = queues.computeIfAbsent(stackName, key -> new StackQueue());
+            runNow = queue.running == null;
+            if (runNow) {
+                queue.running = operation;
+                operation.started = true;
+            } else {
+                if (queue.queued.size() >= maxQueueDepth) {
+                    throw new ValidationException("Too many operations are waiting for this stack, please try again later.");
+                }
+                queue.queued.add(operation);
+                queuedCount.incrementAndGet();
+                logger.debug("{} on {} queued behind {}", name, stackName, queue.running.name);
+            }
+        }
+        if (runNow) {
+            start(operation);
+        }
+        return operation;
+    }
+
+    /**
+     * Submit an operation and wait for it. Runtime exceptions of the task are rethrown as they are.
+     */
+    public <T> T run(String stackName, String name, Callable<T> task) {
+        Operation<T> operation = submit(stackName, name, task);
+        try {
+            return operation.future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (CancellationException e) {
+            throw new ValidationException("The operation was cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            operation.cancel();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    /**
+     * Cancel every operation waiting on the stack. The running one, if any, is not affected.
+     *
+     * @return the number of cancelled operations
+     */
+    public int cancelQueued(String stackName) {
+        List<Operation<?>> cancelled;
+        synchronized (this) {
+            StackQueue queue = queues.get(stackName);
+            if (queue == null) {
+                return 0;
+            }
+            cancelled = new ArrayList<>(queue.queued);
+            queue.queued.clear();
+            queuedCount.addAndGet(-cancelled.size());
+        }
+        for (Operation<?> operation : cancelled) {
+            operation.future.cancel(false);
+        }
+        return cancelled.size();
+    }
+
+    private boolean cancel(Operation<?> operation) {
+        synchronized (this) {
+            StackQueue queue = queues.get(operation.stackName);
+            if (operation.started || queue == null || !queue.queued.remove(operation)) {
+                return false;
+            }
+            queuedCount.decrementAndGet();
+        }
+        return operation.future.cancel(false);
+    }
+
+    /**
+     * Number of operations waiting on the stack, not counting the running one.
+     */
+    public synchronized int getQueueDepth(String stackName) {
+        StackQueue queue = queues.get(stackName);
+        return queue == null ? 0 : queue.queued.size();
+    }
+
+    /**
+     * Name of the operation running on the stack, or null.
+     */
+    public synchronized String getRunning(String stackName) {
+        StackQueue queue = queues.get(stackName);
+        return queue == null || queue.running == null ? null : queue.running.name;
+    }
+
+    private void next(String stackName) {
+        Operation<?> next;
+        synchronized (this) {
+            StackQueue queue = queues.get(stackName);
+            next = queue.queued.poll();
+            queue.running = next;
+            if (next == null) {
+                queues.remove(stackName);
+                return;
+            }
+            next.started = true;
+            queuedCount.decrementAndGet();
+        }
+        start(next);
+    }
+
+    private void start(Operation<?> operation) {
+        try {
+            executor.execute(operation::run);
+        } catch (RuntimeException e) {
+            // Shutting down
+            operation.future.completeExceptionally(e);
+            next(operation.stackName);
+        }
+    }
+
+    private Timer waitTimer(String name) {
+        return Timer.builder("dockge.stack.operation.wait")
+                .description("Time a stack operation waited for the previous one on the same stack")
+                .tag("operation", name)
+                .register(meterRegistry);
+    }
+
+    private Timer durationTimer(String name, String outcome) {
+        return Timer.builder("dockge.stack.operation.duration")
+                .tag("operation", name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,529 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.docker.ComposeProject;
+import com.louislam.dockge.docker.DockerClient;
+import com.louislam.dockge.docker.ServiceStatus;
+import com.louislam.dockge.exception.ComposeCommandException;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.model.StackStatus;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.terminal.InteractiveTerminal;
+import com.louislam.dockge.terminal.LogMultiplexer;
+import com.louislam.dockge.terminal.LogSegmentStore;
+import com.louislam.dockge.terminal.SegmentedLog;
+import com.louislam.dockge.terminal.Terminal;
+import com.louislam.dockge.terminal.TerminalManager;
+import com.louislam.dockge.util.SingleFlight;
+import com.louislam.dockge.util.YamlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Docker Compose stack operations.
+ *
+ * Ports the stack list logic of stack.ts: managed stacks come from {@link StackDirectoryIndex},
+ * statuses and unmanaged stacks come from {@link StackStatusService}.
+ *
+ * Lookups are coalesced: concurrent callers share one scan, and the result is reused for a short
+ * time or until a {@link StackChangedEvent} or a status change invalidates it.
+ *
+ * Operations that change a stack go through {@link StackOperationScheduler}, so they run one at a
+ * time per stack.
+ */
+@Service
+public class StackService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackService.class);
+
+    private static final Pattern STACK_NAME_PATTERN = Pattern.compile("^[a-z0-9_-]+$");
+
+    private static final String COMBINED_LOG = "combined";
+
+    private final StackDirectoryIndex stackDirectoryIndex;
+    private final StackStatusService stackStatusService;
+    private final DockerClient dockerClient;
+    private final ComposeFileCache composeFileCache;
+    private final TerminalManager terminalManager;
+    private final LogMultiplexer logMultiplexer;
+    private final LogSegmentStore logSegmentStore;
+    private final StackOperationScheduler operationScheduler;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final SingleFlight<String, Map<String, Stack>> stackListCache;
+    private final SingleFlight<String, Map<String, ServiceStatus>> serviceStatusCache;
+
+    public StackService(StackDirectoryIndex stackDirectoryIndex,
+                        StackStatusService stackStatusService,
+                        DockerClient dockerClient,
+                        ComposeFileCache composeFileCache,
+                        TerminalManager terminalManager,
+                        LogMultiplexer logMultiplexer,
+                        LogSegmentStore logSegmentStore,
+                        StackOperationScheduler operationScheduler,
+                        ApplicationEventPublisher eventPublisher,
+                        @Value("${dockge.stack-list.cache-ttl:2000}") long cacheTtl) {
+        this.stackDirectoryIndex = stackDirectoryIndex;
+        this.stackStatusService = stackStatusService;
+        this.dockerClient = dockerClient;
+        this.composeFileCache = composeFileCache;
+        this.terminalManager = terminalManager;
+        this.logMultiplexer = logMultiplexer;
+        this.logSegmentStore = logSegmentStore;
+        this.operationScheduler = operationScheduler;
+        this.eventPublisher = eventPublisher;
+        this.stackListCache = new SingleFlight<>(Duration.ofMillis(cacheTtl));
+        this.serviceStatusCache = new SingleFlight<>(Duration.ofMillis(cacheTtl));
+
+        stackStatusService.addListener((name, project) -> invalidate(name));
+        stackDirectoryIndex.addListener(this::invalidate);
+    }
+
+    public Path getStacksDir() {
+        return stackDirectoryIndex.getStacksDir();
+    }
+
+    /**
+     * Get all stacks, including stacks that are deployed but not managed by Dockge.
+     * The map and its stacks are shared between callers and must not be modified.
+     */
+    public Map<String, Stack> getStackList() {
+        return stackListCache.get("", this::loadStackList);
+    }
+
+    private Map<String, Stack> loadStackList() {
+        Map<String, Stack> stackList = new LinkedHashMap<>();
+
+        for (StackDirectory dir : stackDirectoryIndex.getStacks().values()) {
+            Stack stack = new Stack();
+            stack.setName(dir.name());
+            stack.setComposeFileName(dir.composeFileName());
+            stack.setEnvFileExists(dir.envFileExists());
+            stack.setComposeFileModified(dir.lastModified());
+            stack.setManagedByDockge(true);
+            stack.setStatus(StackStatus.CREATED_FILE);
+            stackList.put(stack.getName(), stack);
+        }
+
+        for (ComposeProject project : stackStatusService.getProjects().values()) {
+            Stack stack = stackList.get(project.name());
+
+            // This stack probably is not managed by Dockge, but we still want to show it
+            if (stack == null) {
+                // Skip the dockge stack if it is not managed by Dockge
+                if ("dockge".equals(project.name())) {
+                    continue;
+                }
+                stack = new Stack();
+                stack.setName(project.name());
+                stackList.put(project.name(), stack);
+            }
+
+            stack.setStatus(StackStatus.fromComposeStatus(project.status()));
+            stack.setConfigFilePath(project.configFiles());
+        }
+
+        return Collections.unmodifiableMap(stackList);
+    }
+
+    /**
+     * Get a stack with its compose file and .env content, getStack in stack.ts. Stacks that are not
+     * in the stacks directory are looked up in the stack list, as they may be managed by docker
+     * compose directly.
+     */
+    public Stack getStack(String stackName) {
+        StackDirectory dir = isStackDirName(stackName) ? stackDirectoryIndex.get(stackName) : null;
+        if (dir == null) {
+            Stack listed = getStackList().get(stackName);
+            if (listed == null) {
+                throw new ValidationException("Stack not found");
+            }
+            // The listed stack is shared through the stack list cache, callers get their own
+            Stack stack = new Stack();
+            stack.setName(listed.getName());
+            stack.setComposeFileName(listed.getComposeFileName());
+            stack.setEnvFileExists(listed.isEnvFileExists());
+            stack.setComposeFileModified(listed.getComposeFileModified());
+            stack.setManagedByDockge(listed.isManagedByDockge());
+            stack.setStatus(listed.getStatus());
+            stack.setConfigFilePath(listed.getConfigFilePath());
+            return stack;
+        }
+
+        Path path = getStacksDir().resolve(stackName);
+        Stack stack = new Stack();
+        stack.setName(stackName);
+        stack.setComposeFileName(dir.composeFileName());
+        stack.setEnvFileExists(dir.envFileExists());
+        stack.setComposeFileModified(dir.lastModified());
+        stack.setManagedByDockge(true);
+        stack.setStatus(StackStatus.UNKNOWN);
+        stack.setConfigFilePath(path.toAbsolutePath().normalize().toString());
+        stack.setComposeContent(composeFileCache.getContent(path.resolve(dir.composeFileName())));
+        stack.setEnvironment(composeFileCache.getContent(path.resolve(".env")));
+        return stack;
+    }
+
+    /**
+     * Names of the services declared in the compose file of a managed stack.
+     */
+    public List<String> getServiceNames(String stackName) throws IOException {
+        StackDirectory dir = isStackDirName(stackName) ? stackDirectoryIndex.get(stackName) : null;
+        if (dir == null) {
+            throw new ValidationException("Stack not found");
+        }
+        CachedFile file = composeFileCache.get(getStacksDir().resolve(stackName).resolve(dir.composeFileName()));
+        return file == null ? List.of() : file.getServiceNames();
+    }
+
+    /**
+     * Validate and write the compose file and .env of a stack, save in stack.ts.
+     *
+     * @param isAdd true to create a new stack, which fails if the name is taken
+     */
+    public void save(String stackName, String composeYAML, String composeENV, boolean isAdd) {
+        validate(stackName, composeYAML, composeENV);
+        operationScheduler.run(stackName, "save", () -> {
+            writeStackFiles(stackName, composeYAML, composeENV, isAdd);
+            return null;
+        });
+    }
+
+    /**
+     * Save the stack, then bring it up.
+     */
+    public int deploy(DockgeSocket socket, String stackName, String composeYAML, String composeENV, boolean isAdd) {
+        validate(stackName, composeYAML, composeENV);
+        return operationScheduler.run(stackName, "deploy", () -> {
+            writeStackFiles(stackName, composeYAML, composeENV, isAdd);
+            return runCompose(socket, stackName, "Failed to deploy", "up", "-d", "--remove-orphans");
+        });
+    }
+
+    /**
+     * Bring the stack down and remove its directory.
+     */
+    public int delete(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "delete", () -> {
+            int exitCode = runCompose(socket, stackName, "Failed to delete", "down", "--remove-orphans");
+            if (isStackDirName(stackName)) {
+                deleteRecursively(getStacksDir().resolve(stackName));
+                logSegmentStore.delete(stackName);
+                stackDirectoryIndex.refresh(stackName);
+                eventPublisher.publishEvent(new StackChangedEvent(stackName));
+            }
+            return exitCode;
+        });
+    }
+
+    public int start(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "start",
+                () -> runCompose(socket, stackName, "Failed to start", "up", "-d", "--remove-orphans"));
+    }
+
+    public int stop(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "stop",
+                () -> runCompose(socket, stackName, "Failed to stop", "stop"));
+    }
+
+    public int restart(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "restart",
+                () -> runCompose(socket, stackName, "Failed to restart", "restart"));
+    }
+
+    public int down(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "down",
+                () -> runCompose(socket, stackName, "Failed to down", "down"));
+    }
+
+    /**
+     * Pull the images, then recreate the containers if the stack is running.
+     */
+    public int update(DockgeSocket socket, String stackName) {
+        return operationScheduler.run(stackName, "update", () -> {
+            int exitCode = runCompose(socket, stackName, "Failed to pull", "pull");
+            // If the stack is not running, we don't need to restart it
+            if (stackStatusService.getStatus(stackName) != StackStatus.RUNNING) {
+                return exitCode;
+            }
+            return runCompose(socket, stackName, "Failed to restart", "up", "-d", "--remove-orphans");
+        });
+    }
+
+    public int run(DockgeSocket socket, StackAction action, String stackName) {
+        return switch (action) {
+            case START -> start(socket, stackName);
+            case STOP -> stop(socket, stackName);
+            case RESTART -> restart(socket, stackName);
+            case UPDATE -> update(socket, stackName);
+            case DOWN -> down(socket, stackName);
+        };
+    }
+
+    /**
+     * Open a shell in a service container, or join the one already open.
+     */
+    public void joinContainerTerminal(DockgeSocket socket, String stackName, String serviceName, String shell,
+                                      int index) {
+        getStack(stackName);
+        String terminalName = Terminal.getContainerExecTerminalName(socket.getEndpoint(), stackName, serviceName, index);
+        Path dir = getStacksDir().resolve(stackName);
+        InteractiveTerminal terminal = terminalManager.getOrCreateInteractiveTerminal(terminalName,
+                getComposeOptions(dir, "exec", serviceName, shell), dir);
+        terminal.join(socket);
+        terminal.start();
+    }
+
+    /**
+     * Follow the logs of all services in the stack. One docker compose logs process per stack is
+     * shared by every socket viewing it, whatever endpoint they use, and is closed by the reaper
+     * once they have all left.
+     *
+     * The output is kept in the log store. When it already has output of the stack, only what
+     * was logged since is requested from docker.
+     */
+    public void joinCombinedTerminal(DockgeSocket socket, String stackName) {
+        getStack(stackName);
+        String streamName = Terminal.getCombinedStreamName(stackName);
+        Path dir = getStacksDir().resolve(stackName);
+        logMultiplexer.join(socket, streamName, Terminal.getCombinedTerminalName(socket.getEndpoint(), stackName), () -> {
+            SegmentedLog log = logSegmentStore.open(stackName, COMBINED_LOG);
+            List<String> args = new ArrayList<>(List.of("logs", "-f"));
+            if (log != null && log.getLastWrite() > 0) {
+                args.addAll(List.of("--since", Instant.ofEpochMilli(log.getLastWrite()).toString()));
+            } else {
+                args.addAll(List.of("--tail", "100"));
+            }
+            // Without a tty docker compose only colors its output when asked to
+            args.addAll(0, List.of("--ansi", "always"));
+
+            Terminal terminal = terminalManager.getOrCreateLogTerminal(streamName,
+                    getComposeOptions(dir, args.toArray(new String[0])), dir);
+            terminal.setRows(Terminal.COMBINED_TERMINAL_ROWS);
+            terminal.setCols(Terminal.COMBINED_TERMINAL_COLS);
+            terminal.setRecorder(log);
+            return terminal;
+        });
+    }
+
+    public void leaveCombinedTerminal(DockgeSocket socket, String stackName) {
+        logMultiplexer.leave(socket, Terminal.getCombinedTerminalName(socket.getEndpoint(), stackName));
+    }
+
+    /**
+     * The kept output of a combined terminal that is not running, for a client joining it by name.
+     * Empty for other terminals.
+     */
+    public String getCombinedTerminalReplay(DockgeSocket socket, String terminalName) {
+        String prefix = Terminal.getCombinedTerminalName(socket.getEndpoint(), "");
+        if (!terminalName.startsWith(prefix)) {
+            return "";
+        }
+        String stackName = terminalName.substring(prefix.length());
+        if (!STACK_NAME_PATTERN.matcher(stackName).matches() || !isStackDirName(stackName)) {
+            return "";
+        }
+        return logSegmentStore.readTail(stackName, COMBINED_LOG);
+    }
+
+    private static void validate(String stackName, String composeYAML, String composeENV) {
+        // Check name, allows [a-z][0-9] _ - only
+        if (!STACK_NAME_PATTERN.matcher(stackName).matches()) {
+            throw new ValidationException("Stack name can only contain [a-z][0-9] _ - only");
+        }
+
+        // Check YAML format
+        try {
+            YamlUtil.parse(composeYAML);
+        } catch (RuntimeException e) {
+            throw new ValidationException(e.getMessage());
+        }
+
+        // Check if the .env is able to pass docker-compose
+        // Prevent "setenv: The parameter is incorrect"
+        // It only happens when there is one line and it doesn't contain "="
+        String[] lines = composeENV.split("\n", -1);
+        if (lines.length == 1 && !lines[0].contains("=") && !lines[0].isEmpty()) {
+            throw new ValidationException("Invalid .env format");
+        }
+    }
+
+    private void writeStackFiles(String stackName, String composeYAML, String composeENV, boolean isAdd)
+            throws IOException {
+        Path dir = getStacksDir().resolve(stackName);
+
+        // Check if the name is used if isAdd
+        if (isAdd) {
+            if (Files.exists(dir)) {
+                throw new ValidationException("Stack name already exists");
+            }
+            // Create the stack folder
+            Files.createDirectories(dir);
+        } else if (!Files.exists(dir)) {
+            throw new ValidationException("Stack not found");
+        }
+
+        // Write or overwrite the compose file, keeping its current name
+        StackDirectory existing = stackDirectoryIndex.get(stackName);
+        String composeFileName = existing == null ? "compose.yaml" : existing.composeFileName();
+        Path composePath = dir.resolve(composeFileName);
+        Files.writeString(composePath, composeYAML);
+        composeFileCache.invalidate(composePath);
+
+        // If .env is not existing and the composeENV is empty, we don't need to write it
+        Path envPath = dir.resolve(".env");
+        if (Files.exists(envPath) || !composeENV.isBlank()) {
+            Files.writeString(envPath, composeENV);
+            composeFileCache.invalidate(envPath);
+        }
+
+        stackDirectoryIndex.refresh(stackName);
+        eventPublisher.publishEvent(new StackChangedEvent(stackName));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Run a docker compose command in the compose terminal of the stack, which the socket joins.
+     * Throws if the command fails. Cached views of the stack are refreshed either way.
+     */
+    private int runCompose(DockgeSocket socket, String stackName, String failureMessage, String... args) {
+        getStack(stackName);
+        String endpoint = socket == null ? "" : socket.getEndpoint();
+        String terminalName = Terminal.getComposeTerminalName(endpoint, stackName);
+        Path dir = getStacksDir().resolve(stackName);
+
+        int exitCode;
+        try {
+            exitCode = terminalManager.exec(socket, terminalName, getComposeOptions(dir, args), dir).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        } finally {
+            eventPublisher.publishEvent(new StackChangedEvent(stackName));
+        }
+
+        if (exitCode != 0) {
+            throw new ComposeCommandException(failureMessage + ", please check the terminal output for more information.", exitCode);
+        }
+        return exitCode;
+    }
+
+    /**
+     * The docker compose command line, with the global and stack .env files if there is a global one.
+     */
+    List<String> getComposeOptions(Path dir, String... args) {
+        List<String> options = new ArrayList<>(List.of("docker", "compose"));
+        if (Files.exists(getStacksDir().resolve("global.env"))) {
+            options.add("--env-file");
+            options.add("../global.env");
+            if (Files.exists(dir.resolve(".env"))) {
+                options.add("--env-file");
+                options.add("./.env");
+            }
+        }
+        options.addAll(List.of(args));
+        return options;
+    }
+
+    /**
+     * Whether the name refers to a direct child of the stacks directory.
+     */
+    private boolean isStackDirName(String stackName) {
+        Path stacksDir = getStacksDir().normalize();
+        Path dir = stacksDir.resolve(stackName).normalize();
+        return !stackName.isEmpty() && stacksDir.equals(dir.getParent());
+    }
+
+    /**
+     * Get the status list. Only stacks that are deployed or created in docker compose are included.
+     */
+    public Map<String, Integer> getStatusList() {
+        return stackStatusService.getStatusList();
+    }
+
+    public void updateStatus(Stack stack) {
+        stack.setStatus(stackStatusService.getStatus(stack.getName()));
+    }
+
+    /**
+     * Get the status of each running service of a stack, keyed by service name.
+     * The map is shared between callers and must not be modified.
+     */
+    public Map<String, ServiceStatus> getServiceStatusList(String stackName) {
+        try {
+            return serviceStatusCache.get(stackName, () -> loadServiceStatusList(stackName));
+        } catch (UncheckedIOException e) {
+            logger.error("Failed to get service status list of {}: {}", stackName, e.getCause().getMessage());
+            return Map.of();
+        }
+    }
+
+    private Map<String, ServiceStatus> loadServiceStatusList(String stackName) {
+        Map<String, ServiceStatus> statusList = new LinkedHashMap<>();
+        try {
+            for (ServiceStatus status : dockerClient.listServiceStatus(stackName)) {
+                statusList.put(status.service(), status);
+            }
+        } catch (IOException e) {
+            // Thrown unchecked so that the failure is not cached
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableMap(statusList);
+    }
+
+    /**
+     * Drop the cached stack list and the cached service status of the stack.
+     */
+    public void invalidate(String stackName) {
+        stackListCache.invalidate("");
+        serviceStatusCache.invalidate(stackName);
+    }
+
+    // Runs before listeners that read the stack list, such as the broadcaster
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener
+    public void onStackChanged(StackChangedEvent event) {
+        invalidate(event.stackName());
+    }
+
+    public List<String> getDockerNetworkList() throws IOException {
+        return dockerClient.listNetworks();
+    }
+}
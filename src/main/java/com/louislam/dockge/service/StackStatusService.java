@@ -0,0 +1,308 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.docker.ComposeContainer;
+import com.louislam.dockge.docker.ComposeProject;
+import com.louislam.dockge.docker.DockerClient;
+import com.louislam.dockge.docker.DockerEvent;
+import com.louislam.dockge.docker.DockerEventSource;
+import com.louislam.dockge.model.StackStatus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the status of every compose project in memory, driven by the Docker event stream.
+ *
+ * Replaces polling `docker compose ls` (Stack.getStatusList in stack.ts). A full resync only
+ * happens on startup and whenever the event stream drops; in between, every container event
+ * updates the status of its own project only.
+ */
+@Service
+public class StackStatusService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackStatusService.class);
+
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    /**
+     * Notified after the status of a project changes. The project is null once it no longer exists.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onStatusChanged(String name, ComposeProject project);
+    }
+
+    private final DockerEventSource eventSource;
+    private final Callable<List<ComposeContainer>> snapshotSource;
+    private final ScheduledExecutorService executor;
+    private final boolean enabled;
+
+    // Only touched from the executor thread
+    private final Map<String, Map<String, String>> containerStates = new HashMap<>();
+    private final Map<String, String> configFiles = new HashMap<>();
+    private Closeable subscription;
+    private Duration backoff = MIN_BACKOFF;
+    private boolean stopped;
+
+    private final Map<String, ComposeProject> projects = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean synced;
+
+    @Autowired
+    public StackStatusService(DockerClient dockerClient,
+                              @Value("${dockge.docker.events-enabled:true}") boolean enabled) {
+        this(dockerClient, dockerClient::listComposeContainers, Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stack-status");
+            thread.setDaemon(true);
+            return thread;
+        }), enabled);
+    }
+
+    StackStatusService(DockerEventSource eventSource, Callable<List<ComposeContainer>> snapshotSource,
+                       ScheduledExecutorService executor, boolean enabled) {
+        this.eventSource = eventSource;
+        this.snapshotSource = snapshotSource;
+        this.executor = executor;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("Docker event stream is disabled, stack status will not be tracked");
+            return;
+        }
+        executor.execute(this::connect);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.execute(() -> {
+            stopped = true;
+            closeSubscription();
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Status of every project known to docker compose, keyed by project name.
+     */
+    public Map<String, Integer> getStatusList() {
+        Map<String, Integer> statusList = new HashMap<>();
+        for (ComposeProject project : projects.values()) {
+            statusList.put(project.name(), StackStatus.fromComposeStatus(project.status()));
+        }
+        return statusList;
+    }
+
+    /**
+     * Projects known to docker compose, equivalent to `docker compose ls --all`.
+     */
+    public Map<String, ComposeProject> getProjects() {
+        return Collections.unmodifiableMap(projects);
+    }
+
+    public int getStatus(String name) {
+        ComposeProject project = projects.get(name);
+        return project == null ? StackStatus.UNKNOWN : StackStatus.fromComposeStatus(project.status());
+    }
+
+    /**
+     * Whether the map reflects a live event stream, rather than the last known state.
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Take a full snapshot, then follow the event stream from the moment before the snapshot.
+     */
+    private void connect() {
+        if (stopped) {
+            return;
+        }
+        Instant since = Instant.now();
+        try {
+            resync(snapshotSource.call());
+            subscription = eventSource.subscribe(since,
+                    event -> submit(() -> apply(event)),
+                    cause -> submit(() -> onStreamClosed(cause)));
+            synced = true;
+            backoff = MIN_BACKOFF;
+            logger.debug("Subscribed to docker events, tracking {} project(s)", projects.size());
+        } catch (Exception e) {
+            logger.warn("Unable to sync stack status from docker: {}", e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void onStreamClosed(Throwable cause) {
+        subscription = null;
+        synced = false;
+        if (stopped) {
+            return;
+        }
+        logger.info("Docker event stream closed ({}), resyncing", cause == null ? "closed" : cause.getMessage());
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (stopped || executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(this::connect, backoff.toMillis(), TimeUnit.MILLISECONDS);
+        backoff = backoff.multipliedBy(2);
+        if (backoff.compareTo(MAX_BACKOFF) > 0) {
+            backoff = MAX_BACKOFF;
+        }
+    }
+
+    private void closeSubscription() {
+        if (subscription != null) {
+            try {
+                subscription.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close docker event subscription", e);
+            }
+            subscription = null;
+        }
+    }
+
+    private void resync(List<ComposeContainer> containers) {
+        List<String> previous = new ArrayList<>(containerStates.keySet());
+        containerStates.clear();
+        configFiles.clear();
+
+        for (ComposeContainer container : containers) {
+            containerStates.computeIfAbsent(container.project(), k -> new HashMap<>())
+                    .put(container.id(), container.state());
+            if (container.configFiles() != null && !container.configFiles().isEmpty()) {
+                configFiles.put(container.project(), container.configFiles());
+            }
+        }
+
+        for (String name : previous) {
+            if (!containerStates.containsKey(name)) {
+                publish(name);
+            }
+        }
+        for (String name : containerStates.keySet()) {
+            publish(name);
+        }
+    }
+
+    void apply(DockerEvent event) {
+        String name = event.project();
+        if (name == null || !"container".equals(event.type())) {
+            return;
+        }
+
+        String state = switch (event.action()) {
+            case "create" -> "created";
+            case "start", "restart", "unpause" -> "running";
+            case "die" -> "exited";
+            case "pause" -> "paused";
+            case "destroy" -> null;
+            // kill, stop, exec_*, health_status etc. do not change the container state
+            default -> "";
+        };
+        if ("".equals(state)) {
+            return;
+        }
+
+        Map<String, String> containers = containerStates.computeIfAbsent(name, k -> new HashMap<>());
+        if (state == null) {
+            containers.remove(event.actorId());
+        } else {
+            containers.put(event.actorId(), state);
+        }
+        if (containers.isEmpty()) {
+            containerStates.remove(name);
+        }
+        if (event.configFiles() != null && !event.configFiles().isEmpty()) {
+            configFiles.put(name, event.configFiles());
+        }
+        publish(name);
+    }
+
+    private void publish(String name) {
+        Map<String, String> containers = containerStates.get(name);
+        ComposeProject project = null;
+        if (containers != null && !containers.isEmpty()) {
+            project = new ComposeProject(name, combinedStatus(containers.values()), configFiles.get(name));
+        }
+
+        ComposeProject old = project == null ? projects.remove(name) : projects.put(name, project);
+        if (Objects.equals(old, project)) {
+            return;
+        }
+        if (project == null) {
+            configFiles.remove(name);
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onStatusChanged(name, project);
+            } catch (RuntimeException e) {
+                logger.warn("Stack status listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Build the same status string as `docker compose ls`, e.g. "exited(1), running(2)".
+     */
+    static String combinedStatus(Iterable<String> states) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String state : states) {
+            counts.merge(state, 1, Integer::sum);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (!sb.isEmpty()) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append('(').append(entry.getValue()).append(')');
+        }
+        return sb.toString();
+    }
+}
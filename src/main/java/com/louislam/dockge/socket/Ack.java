@@ -0,0 +1,9 @@
+package com.louislam.dockge.socket;
+
+/**
+ * The callback a client passes as the last argument of an event.
+ */
+@FunctionalInterface
+public interface Ack {
+    void send(Object... args);
+}
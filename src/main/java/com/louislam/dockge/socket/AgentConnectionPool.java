@@ -0,0 +1,189 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Agent;
+import com.louislam.dockge.repository.AgentRepository;
+import com.louislam.dockge.socketio.RelayConnection;
+import com.louislam.dockge.socketio.SocketIoPacket;
+import com.louislam.dockge.socketio.SocketIoServer;
+import com.louislam.dockge.socketio.SocketIoSocket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * One connection per agent for the whole server, shared by all sockets, where the original has
+ * an AgentManager with its own connections per socket.
+ *
+ * Every active agent is connected at startup and stays connected, see {@link RelayConnection}.
+ * Agents added or removed while running are connected or closed at once.
+ */
+@Component
+public class AgentConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentConnectionPool.class);
+
+    private final AgentRepository agentRepository;
+    private final SocketIoServer socketIoServer;
+    private final ObjectMapper objectMapper;
+    private final WebSocketClient webSocketClient;
+    private final ScheduledExecutorService scheduler;
+    private final RelayConnection.Options options;
+
+    private final Map<String, Agent> agents = new ConcurrentHashMap<>();
+    private final Map<String, RelayConnection> connections = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AgentConnectionPool(AgentRepository agentRepository, SocketIoServer socketIoServer,
+                               ObjectMapper objectMapper,
+                               @Value("${dockge.agent.max-waiting:100}") int maxWaiting,
+                               @Value("${dockge.agent.min-backoff:1000}") long minBackoff,
+                               @Value("${dockge.agent.max-backoff:60000}") long maxBackoff,
+                               @Value("${dockge.agent.connect-timeout:20000}") long connectTimeout) {
+        this(agentRepository, socketIoServer, objectMapper, new StandardWebSocketClient(),
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "agent-reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                }), new RelayConnection.Options(maxWaiting, Duration.ofMillis(minBackoff),
+                        Duration.ofMillis(maxBackoff), Duration.ofMillis(connectTimeout)));
+    }
+
+    AgentConnectionPool(AgentRepository agentRepository, SocketIoServer socketIoServer, ObjectMapper objectMapper,
+                        WebSocketClient webSocketClient, ScheduledExecutorService scheduler,
+                        RelayConnection.Options options) {
+        this.agentRepository = agentRepository;
+        this.socketIoServer = socketIoServer;
+        this.objectMapper = objectMapper;
+        this.webSocketClient = webSocketClient;
+        this.scheduler = scheduler;
+        this.options = options;
+    }
+
+    @PostConstruct
+    public void start() {
+        socketIoServer.of(SocketIoPacket.MAIN_NAMESPACE).onDisconnect(this::unsubscribe);
+        for (Agent agent : agentRepository.findAll()) {
+            if (agent.isActive()) {
+                add(agent);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (RelayConnection connection : connections.values()) {
+            connection.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Connect to an agent, replacing the connection to the same endpoint if there is one.
+     */
+    public void add(Agent agent) {
+        String endpoint = RelayConnection.endpointOf(agent.getUrl());
+        RelayConnection connection = new RelayConnection(endpoint, agent.getUsername(), agent.getPassword(),
+                RelayConnection.socketUri(agent.getUrl()), objectMapper, socketIoServer.getEncoder(),
+                webSocketClient, scheduler, options);
+        agents.put(endpoint, agent);
+        RelayConnection previous = connections.put(endpoint, connection);
+        if (previous != null) {
+            for (SocketIoSocket socket : previous.getSubscribers()) {
+                connection.subscribe(socket);
+            }
+            previous.close();
+        }
+        logger.info("Connecting to agent {}", endpoint);
+        connection.connect();
+    }
+
+    /**
+     * Close the connection to the agent at the URL.
+     */
+    public void remove(String url) {
+        String endpoint = RelayConnection.endpointOf(url);
+        agents.remove(endpoint);
+        RelayConnection connection = connections.remove(endpoint);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The connection to the agent with the endpoint, or null if there is no such agent.
+     */
+    public RelayConnection get(String endpoint) {
+        return connections.get(endpoint);
+    }
+
+    /**
+     * Agent ids by endpoint.
+     */
+    public Map<String, Long> getAgentIds() {
+        Map<String, Long> ids = new LinkedHashMap<>();
+        agents.forEach((endpoint, agent) -> ids.put(endpoint, agent.getId()));
+        return ids;
+    }
+
+    /**
+     * Send the events of every agent to the socket, not only of those it used.
+     */
+    public void subscribe(SocketIoSocket socket) {
+        for (RelayConnection connection : connections.values()) {
+            connection.subscribe(socket);
+        }
+    }
+
+    public void unsubscribe(SocketIoSocket socket) {
+        for (RelayConnection connection : connections.values()) {
+            connection.unsubscribe(socket);
+        }
+    }
+
+    /**
+     * The agentList event data: this server under the empty endpoint, then the agents.
+     */
+    public Map<String, Map<String, String>> getAgentList() {
+        Map<String, Map<String, String>> list = new LinkedHashMap<>();
+        list.put("", agentInfo("", "", ""));
+        for (Map.Entry<String, Agent> entry : agents.entrySet()) {
+            Agent agent = entry.getValue();
+            list.put(entry.getKey(), agentInfo(agent.getUrl(), agent.getUsername(), entry.getKey()));
+        }
+        return list;
+    }
+
+    private static Map<String, String> agentInfo(String url, String username, String endpoint) {
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put("url", url);
+        info.put("username", username);
+        info.put("endpoint", endpoint);
+        return info;
+    }
+
+    /**
+     * Reconnect to agents that stopped pinging or did not log in in time.
+     */
+    @Scheduled(fixedRateString = "${dockge.agent.health-interval:5000}")
+    public void checkHealth() {
+        long now = System.currentTimeMillis();
+        for (RelayConnection connection : connections.values()) {
+            connection.checkHealth(now);
+        }
+    }
+}
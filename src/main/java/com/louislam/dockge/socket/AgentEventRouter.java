@@ -0,0 +1,52 @@
+package com.louislam.dockge.socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handlers of the events sent through the "agent" event, AgentSocket in agent-socket.ts.
+ *
+ * Unlike the reference, handlers are registered once and receive the socket as an argument,
+ * instead of being created for every connection.
+ */
+@Component
+public class AgentEventRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentEventRouter.class);
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(DockgeSocket socket, Object[] args, Ack callback) throws Exception;
+    }
+
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    public void on(String event, Handler handler) {
+        handlers.put(event, handler);
+    }
+
+    public boolean has(String event) {
+        return handlers.containsKey(event);
+    }
+
+    /**
+     * Run the handler of the event. Errors are sent to the callback like callbackError does.
+     */
+    public void call(DockgeSocket socket, String event, Object[] args, Ack callback) {
+        Handler handler = handlers.get(event);
+        if (handler == null) {
+            logger.debug("No handler for agent event {}", event);
+            return;
+        }
+        try {
+            handler.handle(socket, args, callback);
+        } catch (Exception e) {
+            logger.debug("Agent event {} failed: {}", event, e.getMessage());
+            SocketUtil.callbackError(e, callback);
+        }
+    }
+}
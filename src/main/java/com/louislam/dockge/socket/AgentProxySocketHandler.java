@@ -0,0 +1,62 @@
+package com.louislam.dockge.socket;
+
+import com.louislam.dockge.socketio.Namespace;
+import com.louislam.dockge.socketio.RelayConnection;
+import com.louislam.dockge.socketio.SocketIoPacket;
+import com.louislam.dockge.socketio.SocketIoServer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The "agent" event of the main namespace, from agent-proxy-socket-handler.ts.
+ *
+ * agent(endpoint, eventName, ...args) runs the event with {@link AgentEventRouter} when the
+ * endpoint is this server. Events for other agents are relayed through the
+ * {@link AgentConnectionPool} as they were received, before their arguments are parsed.
+ */
+@Component
+public class AgentProxySocketHandler {
+
+    private final SocketIoServer socketIoServer;
+    private final AgentEventRouter router;
+    private final AgentConnectionPool agentConnectionPool;
+
+    public AgentProxySocketHandler(SocketIoServer socketIoServer, AgentEventRouter router,
+                                   AgentConnectionPool agentConnectionPool) {
+        this.socketIoServer = socketIoServer;
+        this.router = router;
+        this.agentConnectionPool = agentConnectionPool;
+    }
+
+    @PostConstruct
+    public void register() {
+        Namespace main = socketIoServer.of(SocketIoPacket.MAIN_NAMESPACE);
+        main.onRaw("agent", (socket, packet, attachments, callback) -> {
+            List<String> head = packet.peekStrings(2);
+            if (head.size() < 2 || head.get(1).isEmpty() || head.get(1).equals(socket.getEndpoint())) {
+                return false;
+            }
+            SocketUtil.checkLogin(socket);
+            RelayConnection connection = agentConnectionPool.get(head.get(1));
+            if (connection == null) {
+                throw new IllegalStateException("Agent " + head.get(1) + " is not connected.");
+            }
+            connection.forward(socket, packet, attachments, callback);
+            return true;
+        });
+        main.on("agent", (socket, args, callback) -> {
+            String endpoint = SocketUtil.stringArg(args, 0, "Endpoint");
+            String eventName = SocketUtil.stringArg(args, 1, "Event name");
+            Object[] eventArgs = Arrays.copyOfRange(args, 2, args.length);
+
+            if (endpoint.isEmpty() || endpoint.equals(socket.getEndpoint())) {
+                router.call(socket, eventName, eventArgs, callback);
+            } else {
+                throw new IllegalStateException("Agent " + endpoint + " is not connected.");
+            }
+        });
+    }
+}
@@ -0,0 +1,198 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.model.User;
+import com.louislam.dockge.repository.SettingRepository;
+import com.louislam.dockge.repository.UserRepository;
+import com.louislam.dockge.service.JwtService;
+import com.louislam.dockge.socketio.Namespace;
+import com.louislam.dockge.socketio.SocketIoPacket;
+import com.louislam.dockge.socketio.SocketIoServer;
+import com.louislam.dockge.socketio.SocketIoSocket;
+import com.louislam.dockge.util.RateLimiter;
+import io.jsonwebtoken.JwtException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * login, loginByToken and disconnectOtherSocketClients, from main-socket-handler.ts.
+ *
+ * Tokens are issued and checked by {@link JwtService}, which answers the reconnects of a client from its cache.
+ * Hubs log in to a Java agent through the same login event as browsers. setup and changePassword are not
+ * ported yet; changePassword has to call {@link JwtService#invalidateUser(long)}. Two-factor authentication
+ * is not ported either, users that enabled it cannot log in.
+ *
+ * Login attempts are rate limited per client address like loginRateLimiter in the original, before
+ * the password is checked, since every check is a bcrypt hash.
+ *
+ * The token each socket logged in with is remembered, so that disconnectOtherSocketClients can revoke the
+ * tokens of the other clients and keep the one of the client asking.
+ */
+@Component
+public class AuthSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthSocketHandler.class);
+
+    private final SocketIoServer socketIoServer;
+    private final JwtService jwtService;
+    private final UserRepository userRepository;
+    private final SettingRepository settingRepository;
+    private final StackListBroadcaster stackListBroadcaster;
+    private final AgentConnectionPool agentConnectionPool;
+    private final ObjectMapper objectMapper;
+    private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final RateLimiter<String> loginRateLimiter;
+    // The token each logged-in socket used, by socket id
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    public AuthSocketHandler(SocketIoServer socketIoServer, JwtService jwtService, UserRepository userRepository,
+                             SettingRepository settingRepository, StackListBroadcaster stackListBroadcaster,
+                             AgentConnectionPool agentConnectionPool, ObjectMapper objectMapper,
+                             @Value("${dockge.login.rate-limit:20}") int loginsPerMinute) {
+        this.socketIoServer = socketIoServer;
+        this.jwtService = jwtService;
+        this.userRepository = userRepository;
+        this.settingRepository = settingRepository;
+        this.stackListBroadcaster = stackListBroadcaster;
+        this.agentConnectionPool = agentConnectionPool;
+        this.objectMapper = objectMapper;
+        this.loginRateLimiter = new RateLimiter<>(loginsPerMinute, Duration.ofMinutes(1), 10000);
+    }
+
+    @PostConstruct
+    public void register() {
+        Namespace main = socketIoServer.of(SocketIoPacket.MAIN_NAMESPACE);
+        main.onDisconnect(socket -> tokens.remove(socket.getId()));
+
+        // login({ username, password, token }, callback)
+        main.on("login", (socket, args, callback) -> {
+            String address = clientAddress(socket);
+            if (!loginRateLimiter.tryAcquire(address)) {
+                logger.warn("Too many login attempts from {}, socket {}", address, socket.getId());
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("ok", false);
+                result.put("msg", "Too frequently, try again later.");
+                SocketUtil.callbackResult(result, callback);
+                return;
+            }
+            if (!(args.length > 0 && args[0] instanceof Map<?, ?> data)) {
+                throw new ValidationException("Data must be an object");
+            }
+            String username = data.get("username") instanceof String value ? value : "";
+            String password = data.get("password") instanceof String value ? value : "";
+            Optional<User> user = userRepository.findByUsername(username)
+                    .filter(User::isActive)
+                    .filter(found -> passwordEncoder.matches(password, found.getPasswordHash()));
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            if (user.isEmpty()) {
+                logger.warn("Incorrect username or password for user {}, socket {}", username, socket.getId());
+                result.put("ok", false);
+                result.put("msg", "authIncorrectCreds");
+                result.put("msgi18n", true);
+            } else if (user.get().isTwofaStatus()) {
+                logger.warn("User {} has two-factor authentication enabled, which is not supported", username);
+                result.put("ok", false);
+                result.put("msg", "Two-factor authentication is not supported yet.");
+            } else {
+                String token = jwtService.issue(user.get());
+                afterLogin(socket, user.get().getId(), token);
+                logger.info("Successfully logged in user {}, socket {}", username, socket.getId());
+                result.put("ok", true);
+                result.put("token", token);
+            }
+            SocketUtil.callbackResult(result, callback);
+        });
+
+        // loginByToken(token, callback)
+        main.on("loginByToken", (socket, args, callback) -> {
+            String token = SocketUtil.stringArg(args, 0, "Token");
+            Map<String, Object> result = new LinkedHashMap<>();
+            try {
+                JwtService.VerifiedToken verified = jwtService.verify(token);
+                afterLogin(socket, verified.userId(), token);
+                result.put("ok", true);
+            } catch (JwtException e) {
+                logger.info("Invalid token from {}: {}", socket.getId(), e.getMessage());
+                result.put("ok", false);
+                result.put("msg", "authInvalidToken");
+                result.put("msgi18n", true);
+            }
+            SocketUtil.callbackResult(result, callback);
+        });
+
+        // disconnectOtherSocketClients(): the other clients of the user have to log in again
+        main.on("disconnectOtherSocketClients", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            Integer userId = socket.getUserId();
+            jwtService.revokeTokens(userId, tokens.get(socket.getId()));
+            for (SocketIoSocket other : main.getSockets()) {
+                if (userId.equals(other.getUserId()) && other.getSession() != socket.getSession()) {
+                    other.getSession().close(CloseStatus.NORMAL.withReason("Logged out by another client"));
+                }
+            }
+        });
+    }
+
+    /**
+     * afterLogin in dockge-server.ts: mark the socket as logged in and send it what the frontend
+     * needs to start, the info, the stack list and the agents, whose events it follows from now on.
+     */
+    private void afterLogin(SocketIoSocket socket, long userId, String token) {
+        socket.setUserId(Math.toIntExact(userId));
+        tokens.put(socket.getId(), token);
+        sendInfo(socket);
+        stackListBroadcaster.requestStackList(socket, null);
+
+        Map<String, Object> agentList = new LinkedHashMap<>();
+        agentList.put("ok", true);
+        agentList.put("agentList", agentConnectionPool.getAgentList());
+        socket.emit("agentList", agentList);
+        agentConnectionPool.subscribe(socket);
+    }
+
+    private static String clientAddress(SocketIoSocket socket) {
+        InetSocketAddress address = socket.getSession().getRemoteAddress();
+        if (address == null) {
+            return socket.getId();
+        }
+        return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+    }
+
+    private void sendInfo(SocketIoSocket socket) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("version", AuthSocketHandler.class.getPackage().getImplementationVersion());
+        info.put("latestVersion", null);
+        info.put("isContainer", "1".equals(System.getenv("DOCKGE_IS_CONTAINER")));
+        info.put("primaryHostname", getSetting("primaryHostname"));
+        socket.emit("info", info);
+    }
+
+    /**
+     * A setting, stored as JSON like Settings.get in the original.
+     */
+    private Object getSetting(String key) {
+        return settingRepository.findByKey(key).map(setting -> {
+            try {
+                return objectMapper.readValue(setting.getValue(), Object.class);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                return setting.getValue();
+            }
+        }).orElse(null);
+    }
+}
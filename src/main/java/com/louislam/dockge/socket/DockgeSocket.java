@@ -0,0 +1,69 @@
+package com.louislam.dockge.socket;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connected frontend client, the counterpart of DockgeSocket in util-server.ts.
+ */
+public interface DockgeSocket {
+
+    /**
+     * Stack list version of a client that only understands the full stackList event.
+     */
+    long LEGACY_STACK_LIST = -1;
+
+    String getId();
+
+    /**
+     * The endpoint this socket is connected as, empty for a direct connection.
+     */
+    String getEndpoint();
+
+    boolean isLoggedIn();
+
+    void emit(String event, Object... args);
+
+    /**
+     * Send an event that has already been serialized, typically shared with other sockets.
+     */
+    void send(EncodedPacket packet);
+
+    /**
+     * Whether the output queued for this client is small enough to send more. Producers that can
+     * hold back or drop output, such as log viewers, check it before sending.
+     */
+    default boolean isWritable() {
+        return true;
+    }
+
+    /**
+     * Run the task once this client is writable again, at once if it already is. The task must not
+     * block.
+     */
+    default void onWritable(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * Last stack list version sent to this client, or {@link #LEGACY_STACK_LIST}.
+     */
+    long getStackListVersion();
+
+    void setStackListVersion(long version);
+
+    /**
+     * Emit an event through the "agent" event, tagging the first argument with the endpoint.
+     */
+    default void emitAgent(String event, Object... args) {
+        Object[] agentArgs = new Object[args.length + 1];
+        agentArgs[0] = event;
+        System.arraycopy(args, 0, agentArgs, 1, args.length);
+        if (args.length > 0 && args[0] instanceof Map<?, ?> obj) {
+            Map<Object, Object> copy = new LinkedHashMap<>(obj);
+            copy.put("endpoint", getEndpoint());
+            agentArgs[1] = copy;
+        }
+        emit("agent", agentArgs);
+    }
+}
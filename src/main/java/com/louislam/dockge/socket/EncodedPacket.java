@@ -0,0 +1,98 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * A Socket.IO event that has been serialized once and can be written to any number of sessions.
+ *
+ * The frame is the Engine.IO message of a Socket.IO EVENT packet on the main namespace, e.g.
+ * {@code 42["agent","stackList",{...}]}. The bytes and the {@link TextMessage} are immutable,
+ * so the same instance is shared by every session it is sent to.
+ */
+public final class EncodedPacket {
+
+    private static final byte[] EVENT_PREFIX = {'4', '2'};
+
+    private final String event;
+    private final String agentEvent;
+    private final String endpoint;
+    private final byte[] bytes;
+    private final TextMessage message;
+
+    private EncodedPacket(String event, String agentEvent, String endpoint, byte[] bytes) {
+        this.event = event;
+        this.agentEvent = agentEvent;
+        this.endpoint = endpoint;
+        this.bytes = bytes;
+        this.message = new TextMessage(bytes);
+    }
+
+    /**
+     * Serialize an event with its arguments.
+     */
+    public static EncodedPacket event(ObjectMapper objectMapper, String event, Object... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.writeBytes(EVENT_PREFIX);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setCodec(objectMapper);
+            generator.writeStartArray();
+            generator.writeString(event);
+            for (Object arg : args) {
+                generator.writeObject(arg);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode event " + event, e);
+        }
+        String agentEvent = null;
+        String endpoint = null;
+        if ("agent".equals(event) && args.length > 0 && args[0] instanceof String name) {
+            agentEvent = name;
+            if (args.length > 1 && args[1] instanceof Map<?, ?> obj && obj.get("endpoint") instanceof String e) {
+                endpoint = e;
+            }
+        }
+        return new EncodedPacket(event, agentEvent, endpoint, out.toByteArray());
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * The event name inside an "agent" event, or null.
+     */
+    public String getAgentEvent() {
+        return agentEvent;
+    }
+
+    /**
+     * The endpoint the payload of an "agent" event is tagged with, or null.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * The frame, shared between all sessions. Do not modify.
+     */
+    public TextMessage asTextMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return message.getPayload();
+    }
+}
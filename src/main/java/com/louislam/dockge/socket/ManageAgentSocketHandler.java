@@ -0,0 +1,109 @@
+package com.louislam.dockge.socket;
+
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.model.Agent;
+import com.louislam.dockge.repository.AgentRepository;
+import com.louislam.dockge.socketio.Namespace;
+import com.louislam.dockge.socketio.SocketIoPacket;
+import com.louislam.dockge.socketio.SocketIoServer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * addAgent and removeAgent, from manage-agent-socket-handler.ts.
+ *
+ * The original makes the other clients reload to reconnect their own agent connections. Here the
+ * {@link AgentConnectionPool} is updated in place and every logged-in client gets the new
+ * agentList.
+ *
+ * getAggregatedStackList has no counterpart in the original, see {@link StackListAggregator}.
+ */
+@Component
+public class ManageAgentSocketHandler {
+
+    private final SocketIoServer socketIoServer;
+    private final AgentRepository agentRepository;
+    private final AgentConnectionPool agentConnectionPool;
+    private final SocketRegistry socketRegistry;
+    private final StackListAggregator stackListAggregator;
+
+    public ManageAgentSocketHandler(SocketIoServer socketIoServer, AgentRepository agentRepository,
+                                    AgentConnectionPool agentConnectionPool, SocketRegistry socketRegistry,
+                                    StackListAggregator stackListAggregator) {
+        this.socketIoServer = socketIoServer;
+        this.agentRepository = agentRepository;
+        this.agentConnectionPool = agentConnectionPool;
+        this.socketRegistry = socketRegistry;
+        this.stackListAggregator = stackListAggregator;
+    }
+
+    @PostConstruct
+    public void register() {
+        Namespace main = socketIoServer.of(SocketIoPacket.MAIN_NAMESPACE);
+
+        // addAgent({ url, username, password }, callback)
+        main.on("addAgent", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            if (!(args.length > 0 && args[0] instanceof Map<?, ?> data)) {
+                throw new ValidationException("Data must be an object");
+            }
+            String url = stringField(data, "url");
+            try {
+                URI uri = URI.create(url);
+                if (uri.getHost() == null) {
+                    throw new IllegalArgumentException();
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ValidationException("Invalid Dockge URL");
+            }
+            if (agentRepository.findByUrl(url).isPresent()) {
+                throw new ValidationException("The Dockge URL already exists");
+            }
+
+            Agent agent = new Agent();
+            agent.setUrl(url);
+            agent.setUsername(stringField(data, "username"));
+            agent.setPassword(stringField(data, "password"));
+            agentConnectionPool.add(agentRepository.save(agent));
+            agentConnectionPool.subscribe(socket);
+            sendAgentList();
+            SocketUtil.callbackResult(SocketUtil.okResult("agentAddedSuccessfully"), callback);
+        });
+
+        // removeAgent(url, callback)
+        main.on("removeAgent", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String url = SocketUtil.stringArg(args, 0, "URL");
+            agentRepository.findByUrl(url).ifPresent(agentRepository::delete);
+            agentConnectionPool.remove(url);
+            sendAgentList();
+            SocketUtil.callbackResult(SocketUtil.okResult("agentRemovedSuccessfully"), callback);
+        });
+
+        // getAggregatedStackList(callback): the stacks of this server and all agents, as far as they answer in time
+        main.on("getAggregatedStackList", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            SocketUtil.callbackResult(stackListAggregator.aggregate(socket.getEndpoint()).toJson(), callback);
+        });
+    }
+
+    private void sendAgentList() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("ok", true);
+        data.put("agentList", agentConnectionPool.getAgentList());
+        for (DockgeSocket socket : socketRegistry.getLoggedInSockets()) {
+            socket.emit("agentList", data);
+        }
+    }
+
+    private static String stringField(Map<?, ?> data, String name) {
+        if (data.get(name) instanceof String value && !value.isEmpty()) {
+            return value;
+        }
+        throw new ValidationException(name + " must be a string");
+    }
+}
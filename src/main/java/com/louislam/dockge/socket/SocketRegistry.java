@@ -0,0 +1,45 @@
+package com.louislam.dockge.socket;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sockets that are currently connected.
+ */
+@Component
+public class SocketRegistry {
+
+    private final Map<String, DockgeSocket> sockets = new ConcurrentHashMap<>();
+
+    public void register(DockgeSocket socket) {
+        sockets.put(socket.getId(), socket);
+    }
+
+    public void unregister(DockgeSocket socket) {
+        sockets.remove(socket.getId(), socket);
+    }
+
+    public DockgeSocket get(String id) {
+        return sockets.get(id);
+    }
+
+    public Collection<DockgeSocket> getSockets() {
+        return Collections.unmodifiableCollection(sockets.values());
+    }
+
+    public List<DockgeSocket> getLoggedInSockets() {
+        List<DockgeSocket> list = new ArrayList<>();
+        for (DockgeSocket socket : sockets.values()) {
+            if (socket.isLoggedIn()) {
+                list.add(socket);
+            }
+        }
+        return list;
+    }
+}
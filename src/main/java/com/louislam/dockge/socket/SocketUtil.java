@@ -0,0 +1,68 @@
+package com.louislam.dockge.socket;
+
+import com.louislam.dockge.exception.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Helpers shared by socket handlers, from util-server.ts.
+ */
+public final class SocketUtil {
+
+    private static final Logger logger = LoggerFactory.getLogger(SocketUtil.class);
+
+    public static final int ERROR_TYPE_VALIDATION = 1;
+
+    private SocketUtil() {
+    }
+
+    public static void checkLogin(DockgeSocket socket) {
+        if (!socket.isLoggedIn()) {
+            throw new IllegalStateException("You are not logged in.");
+        }
+    }
+
+    /**
+     * Returns the argument at the index if it is a string, otherwise throws a validation error.
+     */
+    public static String stringArg(Object[] args, int index, String what) {
+        if (index < args.length && args[index] instanceof String value) {
+            return value;
+        }
+        throw new ValidationException(what + " must be a string");
+    }
+
+    public static Map<String, Object> okResult(String msg) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ok", true);
+        result.put("msg", msg);
+        result.put("msgi18n", true);
+        return result;
+    }
+
+    public static void callbackResult(Object result, Ack callback) {
+        if (callback == null) {
+            logger.error("Callback is not a function");
+            return;
+        }
+        callback.send(result);
+    }
+
+    public static void callbackError(Throwable error, Ack callback) {
+        if (callback == null) {
+            logger.error("Callback is not a function");
+            return;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ok", false);
+        if (error instanceof ValidationException) {
+            result.put("type", ERROR_TYPE_VALIDATION);
+        }
+        result.put("msg", error.getMessage());
+        result.put("msgi18n", true);
+        callback.send(result);
+    }
+}
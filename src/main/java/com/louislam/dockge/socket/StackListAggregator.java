@@ -0,0 +1,246 @@
+package com.louislam.dockge.socket;
+
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.service.StackService;
+import com.louislam.dockge.socketio.RelayConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * The stack lists of this server and every connected agent in one answer.
+ *
+ * All agents are asked at once, each with the same deadline, and the answer is built from the
+ * agents that replied in time. Agents that did not are listed as timed out, so the overview never
+ * takes longer than the deadline however slow a single agent is.
+ *
+ * The last list of each agent is kept by agent id along with its version. The next request sends
+ * that version, and the agent answers notModified or only the changes. A delta from another
+ * version than the cached one, as after the agent restarted, is not applied: the full list is
+ * asked for again in the time left before the deadline. Reference agents, which
+ * have no getStackList, are asked with requestStackList instead (see
+ * {@link RelayConnection#getStackList}) and send the full list every time.
+ */
+@Component
+public class StackListAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackListAggregator.class);
+
+    @FunctionalInterface
+    interface StackListQuery {
+        /**
+         * The getStackList ack arguments of the agent, failing after the timeout.
+         *
+         * @param version the version of the list this server has, null for the full list
+         */
+        CompletableFuture<Object[]> query(String endpoint, Long version, Duration timeout);
+    }
+
+    /**
+     * @param stackList stacks by name, by endpoint
+     * @param timedOut  agents that did not answer before the deadline
+     * @param failed    error messages of agents that are not connected or answered with an error
+     */
+    public record AggregatedStackList(Map<String, Map<String, Object>> stackList, List<String> timedOut,
+                                      Map<String, String> failed, long duration) {
+        public boolean isPartial() {
+            return !timedOut.isEmpty() || !failed.isEmpty();
+        }
+
+        public Map<String, Object> toJson() {
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("ok", true);
+            obj.put("partial", isPartial());
+            obj.put("stackList", stackList);
+            obj.put("timedOut", timedOut);
+            obj.put("failed", failed);
+            obj.put("duration", duration);
+            return obj;
+        }
+    }
+
+    private record CachedStackList(long version, Map<String, Object> stacks) {
+    }
+
+    private final Supplier<Map<String, Stack>> stackListSource;
+    private final Supplier<Map<String, Long>> agentIds;
+    private final StackListQuery query;
+    private final Duration deadline;
+    private final Map<Long, CachedStackList> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StackListAggregator(StackService stackService, AgentConnectionPool agentConnectionPool,
+                               @Value("${dockge.agent.stack-list-deadline:3000}") long deadline) {
+        this(stackService::getStackList, agentConnectionPool, Duration.ofMillis(deadline));
+    }
+
+    StackListAggregator(Supplier<Map<String, Stack>> stackListSource, AgentConnectionPool agentConnectionPool,
+                        Duration deadline) {
+        this(stackListSource, agentConnectionPool::getAgentIds, (endpoint, version, timeout) -> {
+            RelayConnection connection = agentConnectionPool.get(endpoint);
+            if (connection == null) {
+                return CompletableFuture.failedFuture(
+                        new IllegalStateException("Agent " + endpoint + " is not connected."));
+            }
+            return connection.getStackList(version, timeout);
+        }, deadline);
+    }
+
+    StackListAggregator(Supplier<Map<String, Stack>> stackListSource, Supplier<Map<String, Long>> agentIds,
+                        StackListQuery query, Duration deadline) {
+        this.stackListSource = stackListSource;
+        this.agentIds = agentIds;
+        this.query = query;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Ask every agent for its stack list and wait at most the deadline for them.
+     *
+     * @param localEndpoint the endpoint the stacks of this server are listed under
+     */
+    public AggregatedStackList aggregate(String localEndpoint) {
+        long startTime = System.currentTimeMillis();
+        long deadlineAt = System.nanoTime() + deadline.toNanos();
+        Map<String, Long> ids = agentIds.get();
+        cache.keySet().retainAll(ids.values());
+
+        Map<String, CompletableFuture<Object[]>> futures = new LinkedHashMap<>();
+        // The cached lists the agents were asked relative to
+        Map<String, CachedStackList> sent = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> agent : ids.entrySet()) {
+            CachedStackList cached = agent.getValue() == null ? null : cache.get(agent.getValue());
+            if (cached != null) {
+                sent.put(agent.getKey(), cached);
+            }
+            futures.put(agent.getKey(), ask(agent.getKey(), cached, deadlineAt));
+        }
+
+        // While the agents are busy
+        Map<String, Map<String, Object>> stackList = new LinkedHashMap<>();
+        Map<String, Object> localStacks = new LinkedHashMap<>();
+        for (Map.Entry<String, Stack> entry : stackListSource.get().entrySet()) {
+            localStacks.put(entry.getKey(), entry.getValue().toSimpleJson(localEndpoint));
+        }
+        stackList.put(localEndpoint, localStacks);
+
+        // Every future ends by the deadline, so waiting for them in turn is bounded by it too
+        List<String> timedOut = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Object[]>> entry : futures.entrySet()) {
+            String endpoint = entry.getKey();
+            try {
+                Object[] args = entry.getValue().join();
+                Object result = args.length > 0 ? args[0] : null;
+                Map<String, Object> stacks = result instanceof Map<?, ?> map && Boolean.TRUE.equals(map.get("ok"))
+                        ? apply(ids.get(endpoint), sent.get(endpoint), map) : null;
+                if (stacks != null) {
+                    stackList.put(endpoint, stacks);
+                } else {
+                    Object msg = result instanceof Map<?, ?> map ? map.get("msg") : null;
+                    failed.put(endpoint, msg == null ? "Invalid stack list" : msg.toString());
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    timedOut.add(endpoint);
+                } else {
+                    failed.put(endpoint, String.valueOf(e.getCause().getMessage()));
+                }
+            }
+        }
+
+        AggregatedStackList aggregated = new AggregatedStackList(stackList, timedOut, failed,
+                System.currentTimeMillis() - startTime);
+        if (aggregated.isPartial()) {
+            logger.debug("Stack list of {} agents in {} ms, timed out: {}, failed: {}", futures.size(),
+                    aggregated.duration(), timedOut, failed.keySet());
+        }
+        return aggregated;
+    }
+
+    /**
+     * Ask the agent for the changes since the cached list, or for the full list again if it answers
+     * with changes to another version.
+     */
+    private CompletableFuture<Object[]> ask(String endpoint, CachedStackList cached, long deadlineAt) {
+        CompletableFuture<Object[]> answer;
+        try {
+            answer = query.query(endpoint, cached == null ? null : cached.version(), deadline);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (cached == null) {
+            return answer;
+        }
+        return answer.thenCompose(args -> {
+            if (!isOtherVersion(args, cached)) {
+                return CompletableFuture.completedFuture(args);
+            }
+            long remaining = deadlineAt - System.nanoTime();
+            if (remaining <= 0) {
+                return CompletableFuture.failedFuture(new TimeoutException());
+            }
+            logger.debug("Agent {} sent changes to another version than {}, asking for the full list", endpoint,
+                    cached.version());
+            return query.query(endpoint, null, Duration.ofNanos(remaining));
+        });
+    }
+
+    /**
+     * Whether the answer is a delta from another version than the cached one.
+     */
+    private static boolean isOtherVersion(Object[] args, CachedStackList cached) {
+        Object result = args.length > 0 ? args[0] : null;
+        return result instanceof Map<?, ?> map && Boolean.TRUE.equals(map.get("ok"))
+                && !(map.get("stackList") instanceof Map) && map.get("notModified") == null
+                && !(map.get("from") instanceof Number from && from.longValue() == cached.version());
+    }
+
+    /**
+     * Bring the cached list of the agent up to date with its answer.
+     *
+     * @param cached the list the agent was asked relative to, null if it was asked for the full list
+     * @return the stacks of the agent, null if the answer does not fit the cached list
+     */
+    private Map<String, Object> apply(Long agentId, CachedStackList cached, Map<?, ?> result) {
+        Map<String, Object> stacks;
+        if (result.get("stackList") instanceof Map<?, ?> full) {
+            stacks = new LinkedHashMap<>();
+            full.forEach((name, stack) -> stacks.put(String.valueOf(name), stack));
+        } else if (cached != null && result.get("notModified") != null) {
+            return cached.stacks();
+        } else if (cached != null && result.get("from") instanceof Number from && from.longValue() == cached.version()
+                && result.get("changed") instanceof Map<?, ?> changed
+                && result.get("removed") instanceof List<?> removed) {
+            stacks = new LinkedHashMap<>(cached.stacks());
+            changed.forEach((name, stack) -> stacks.put(String.valueOf(name), stack));
+            removed.forEach(stacks::remove);
+        } else {
+            if (agentId != null) {
+                cache.remove(agentId);
+            }
+            return null;
+        }
+
+        Map<String, Object> unmodifiable = Collections.unmodifiableMap(stacks);
+        // Agents without a version are asked for the full list every time
+        if (agentId != null && result.get("version") instanceof Number version) {
+            cache.put(agentId, new CachedStackList(version.longValue(), unmodifiable));
+        }
+        return unmodifiable;
+    }
+}
@@ -0,0 +1,188 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.service.StackChangedEvent;
+import com.louislam.dockge.service.StackListDelta;
+import com.louislam.dockge.service.StackListJournal;
+import com.louislam.dockge.service.StackService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Sends the stack list to logged-in sockets, sendStackList in dockge-server.ts.
+ *
+ * Clients that asked for deltas (requestStackList with a version) get a stackListDelta event with
+ * only the changed entries, and nothing at all when the list did not change. Other clients still
+ * get the full stackList event every time.
+ *
+ * Each distinct payload is serialized once per endpoint and the same {@link EncodedPacket} is
+ * written to every socket that should receive it, instead of building it for each socket.
+ */
+@Component
+public class StackListBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(StackListBroadcaster.class);
+
+    private final Supplier<Map<String, Stack>> stackListSource;
+    private final SocketRegistry socketRegistry;
+    private final ObjectMapper objectMapper;
+    private final StackListJournal journal;
+
+    @Autowired
+    public StackListBroadcaster(StackService stackService, SocketRegistry socketRegistry, ObjectMapper objectMapper,
+                                @Value("${dockge.stack-list.max-deltas:100}") int maxDeltas) {
+        this(stackService::getStackList, socketRegistry, objectMapper, new StackListJournal(maxDeltas));
+    }
+
+    StackListBroadcaster(Supplier<Map<String, Stack>> stackListSource, SocketRegistry socketRegistry,
+                         ObjectMapper objectMapper, StackListJournal journal) {
+        this.stackListSource = stackListSource;
+        this.socketRegistry = socketRegistry;
+        this.objectMapper = objectMapper;
+        this.journal = journal;
+    }
+
+    @Scheduled(fixedDelayString = "${dockge.stack-list.broadcast-interval:10000}")
+    public void scheduledSendStackList() {
+        sendStackList();
+    }
+
+    @EventListener
+    public void onStackChanged(StackChangedEvent event) {
+        sendStackList();
+    }
+
+    /**
+     * Send the stack list, or its changes, to every logged-in socket.
+     */
+    public synchronized void sendStackList() {
+        List<DockgeSocket> sockets = socketRegistry.getLoggedInSockets();
+        if (sockets.isEmpty()) {
+            return;
+        }
+
+        Map<String, Stack> stackList = refresh();
+        List<DockgeSocket> legacySockets = new ArrayList<>();
+        List<DockgeSocket> deltaSockets = new ArrayList<>();
+        for (DockgeSocket socket : sockets) {
+            if (socket.getStackListVersion() == DockgeSocket.LEGACY_STACK_LIST) {
+                legacySockets.add(socket);
+            } else if (socket.getStackListVersion() != journal.getVersion()) {
+                deltaSockets.add(socket);
+            }
+        }
+        sendFullStackList(stackList, legacySockets);
+        sendDeltas(deltaSockets);
+    }
+
+    /**
+     * Answer requestStackList. A client that passes the version it has gets the changes since that
+     * version and is switched to deltas; without a version it gets the legacy full stackList.
+     */
+    public synchronized void requestStackList(DockgeSocket socket, Long version) {
+        Map<String, Stack> stackList = refresh();
+        if (version == null) {
+            socket.setStackListVersion(DockgeSocket.LEGACY_STACK_LIST);
+            sendFullStackList(stackList, List.of(socket));
+        } else {
+            socket.setStackListVersion(version);
+            sendDeltas(List.of(socket));
+        }
+    }
+
+    /**
+     * The getStackList answer for a hub: the full list with its version, or with the version the hub
+     * has, the changes since then or notModified.
+     */
+    public synchronized Map<String, Object> getStackList(String endpoint, Long version) {
+        refresh();
+        if (version == null) {
+            return journal.snapshot().toPayload(endpoint);
+        }
+        StackListDelta delta = journal.since(version);
+        if (!delta.isEmpty()) {
+            return delta.toPayload(endpoint);
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("ok", true);
+        payload.put("version", delta.version());
+        payload.put("notModified", true);
+        return payload;
+    }
+
+    private Map<String, Stack> refresh() {
+        Map<String, Stack> stackList = stackListSource.get();
+        Map<String, Map<String, Object>> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, Stack> entry : stackList.entrySet()) {
+            // The endpoint differs per socket and is added when encoding
+            Map<String, Object> obj = entry.getValue().toSimpleJson(null);
+            obj.remove("endpoint");
+            entries.put(entry.getKey(), obj);
+        }
+        StackListDelta delta = journal.update(entries);
+        if (delta != null) {
+            logger.debug("Stack list version {}: {} changed, {} removed", delta.version(),
+                    delta.changed().size(), delta.removed().size());
+        }
+        return stackList;
+    }
+
+    /**
+     * Send the full stackList event, encoded once per endpoint.
+     */
+    void sendFullStackList(Map<String, Stack> stackList, Collection<DockgeSocket> sockets) {
+        Map<String, EncodedPacket> packets = new HashMap<>();
+        for (DockgeSocket socket : sockets) {
+            socket.send(packets.computeIfAbsent(socket.getEndpoint(), endpoint -> encodeStackList(stackList, endpoint)));
+        }
+    }
+
+    /**
+     * Send each socket the changes since its version, encoded once per endpoint and version.
+     */
+    private void sendDeltas(Collection<DockgeSocket> sockets) {
+        Map<Long, StackListDelta> deltas = new HashMap<>();
+        Map<String, Map<Long, EncodedPacket>> packets = new HashMap<>();
+        for (DockgeSocket socket : sockets) {
+            StackListDelta delta = deltas.computeIfAbsent(socket.getStackListVersion(), journal::since);
+            EncodedPacket packet = packets.computeIfAbsent(socket.getEndpoint(), endpoint -> new HashMap<>())
+                    .computeIfAbsent(socket.getStackListVersion(),
+                            version -> encodeAgentEvent("stackListDelta", delta.toPayload(socket.getEndpoint()), socket.getEndpoint()));
+            socket.setStackListVersion(delta.version());
+            socket.send(packet);
+        }
+    }
+
+    EncodedPacket encodeStackList(Map<String, Stack> stackList, String endpoint) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Stack> entry : stackList.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().toSimpleJson(endpoint));
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("ok", true);
+        payload.put("stackList", map);
+        return encodeAgentEvent("stackList", payload, endpoint);
+    }
+
+    /**
+     * Same frame as {@link DockgeSocket#emitAgent} would send.
+     */
+    private EncodedPacket encodeAgentEvent(String event, Map<String, Object> payload, String endpoint) {
+        payload.put("endpoint", endpoint);
+        return EncodedPacket.event(objectMapper, "agent", event, payload);
+    }
+}
@@ -0,0 +1,145 @@
+package com.louislam.dockge.socket.agent;
+
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.service.BulkStackOperationService;
+import com.louislam.dockge.service.StackAction;
+import com.louislam.dockge.service.StackOperationScheduler;
+import com.louislam.dockge.service.StackService;
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.AgentEventRouter;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.SocketUtil;
+import com.louislam.dockge.socket.StackListBroadcaster;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack events of the agent surface, from docker-socket-handler.ts.
+ */
+@Component
+public class DockerSocketHandler {
+
+    private final AgentEventRouter router;
+    private final StackService stackService;
+    private final StackListBroadcaster stackListBroadcaster;
+    private final BulkStackOperationService bulkStackOperationService;
+    private final StackOperationScheduler operationScheduler;
+
+    public DockerSocketHandler(AgentEventRouter router, StackService stackService,
+                               StackListBroadcaster stackListBroadcaster,
+                               BulkStackOperationService bulkStackOperationService,
+                               StackOperationScheduler operationScheduler) {
+        this.router = router;
+        this.stackService = stackService;
+        this.stackListBroadcaster = stackListBroadcaster;
+        this.bulkStackOperationService = bulkStackOperationService;
+        this.operationScheduler = operationScheduler;
+    }
+
+    @PostConstruct
+    public void register() {
+        router.on("deployStack", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String stackName = SocketUtil.stringArg(args, 0, "Stack name");
+            stackService.deploy(socket, stackName,
+                    SocketUtil.stringArg(args, 1, "Compose YAML"), SocketUtil.stringArg(args, 2, "Compose ENV"),
+                    Boolean.TRUE.equals(args.length > 3 ? args[3] : null));
+            SocketUtil.callbackResult(SocketUtil.okResult("Deployed"), callback);
+            stackService.joinCombinedTerminal(socket, stackName);
+        });
+
+        router.on("saveStack", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            stackService.save(SocketUtil.stringArg(args, 0, "Stack name"),
+                    SocketUtil.stringArg(args, 1, "Compose YAML"), SocketUtil.stringArg(args, 2, "Compose ENV"),
+                    Boolean.TRUE.equals(args.length > 3 ? args[3] : null));
+            SocketUtil.callbackResult(SocketUtil.okResult("Saved"), callback);
+        });
+
+        router.on("deleteStack", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            stackService.delete(socket, SocketUtil.stringArg(args, 0, "Name"));
+            SocketUtil.callbackResult(SocketUtil.okResult("Deleted"), callback);
+        });
+
+        router.on("requestStackList", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            Long version = args.length > 0 && args[0] instanceof Number n ? n.longValue() : null;
+            stackListBroadcaster.requestStackList(socket, version);
+            SocketUtil.callbackResult(SocketUtil.okResult("Updated"), callback);
+        });
+
+        // getStackList(version?, callback): the stack list in the callback, for the fleet overview of a hub.
+        // With the version the hub has, only the changes since then.
+        router.on("getStackList", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            Long version = args.length > 0 && args[0] instanceof Number n ? n.longValue() : null;
+            SocketUtil.callbackResult(stackListBroadcaster.getStackList(socket.getEndpoint(), version), callback);
+        });
+
+        router.on("startStack", (socket, args, callback) -> runAction(socket, StackAction.START, args, callback));
+        router.on("stopStack", (socket, args, callback) -> runAction(socket, StackAction.STOP, args, callback));
+        router.on("restartStack", (socket, args, callback) -> runAction(socket, StackAction.RESTART, args, callback));
+        router.on("updateStack", (socket, args, callback) -> runAction(socket, StackAction.UPDATE, args, callback));
+        router.on("downStack", (socket, args, callback) -> runAction(socket, StackAction.DOWN, args, callback));
+
+        // Drop the operations waiting behind the running one on a stack
+        router.on("cancelStackOperations", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            int cancelled = operationScheduler.cancelQueued(SocketUtil.stringArg(args, 0, "Stack name"));
+            Map<String, Object> result = SocketUtil.okResult("Cancelled");
+            result.put("cancelled", cancelled);
+            SocketUtil.callbackResult(result, callback);
+        });
+
+        // bulkStackAction(action, stackNames, { parallelism }?, callback)
+        router.on("bulkStackAction", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            StackAction action = StackAction.fromString(SocketUtil.stringArg(args, 0, "Action"));
+            List<String> stackNames = stackNamesArg(args, 1);
+            int parallelism = 0;
+            if (args.length > 2 && args[2] instanceof Map<?, ?> options
+                    && options.get("parallelism") instanceof Number n) {
+                parallelism = n.intValue();
+            }
+            BulkStackOperationService.BulkResult result =
+                    bulkStackOperationService.run(socket, action, stackNames, parallelism);
+            SocketUtil.callbackResult(result.toJson(), callback);
+        });
+    }
+
+    private void runAction(DockgeSocket socket, StackAction action, Object[] args, Ack callback) {
+        SocketUtil.checkLogin(socket);
+        String stackName = SocketUtil.stringArg(args, 0, "Stack name");
+        stackService.run(socket, action, stackName);
+        SocketUtil.callbackResult(SocketUtil.okResult(action.getDoneMessage()), callback);
+        if (action == StackAction.START || action == StackAction.RESTART || action == StackAction.UPDATE) {
+            stackService.joinCombinedTerminal(socket, stackName);
+        }
+    }
+
+    private static List<String> stackNamesArg(Object[] args, int index) {
+        Object value = index < args.length ? args[index] : null;
+        Collection<?> items;
+        if (value instanceof Collection<?> collection) {
+            items = collection;
+        } else if (value instanceof Object[] array) {
+            items = List.of(array);
+        } else {
+            throw new ValidationException("Stack names must be an array");
+        }
+        List<String> names = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (!(item instanceof String name)) {
+                throw new ValidationException("Stack name must be a string");
+            }
+            names.add(name);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,86 @@
+package com.louislam.dockge.socket.agent;
+
+import com.louislam.dockge.service.LogSearchService;
+import com.louislam.dockge.socket.AgentEventRouter;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.SocketUtil;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Search of the kept log output. Not part of the reference.
+ *
+ * searchLogs(text, { stackName, since, limit, cursor }?, callback) answers with a search id, then
+ * the matches follow as logSearchResult events with that id. The last one has done set, and a
+ * cursor to pass to get the next matches if the limit was reached.
+ */
+@Component
+public class LogSearchSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSearchSocketHandler.class);
+
+    private final AgentEventRouter router;
+    private final LogSearchService logSearchService;
+
+    public LogSearchSocketHandler(AgentEventRouter router, LogSearchService logSearchService) {
+        this.router = router;
+        this.logSearchService = logSearchService;
+    }
+
+    @PostConstruct
+    public void register() {
+        router.on("searchLogs", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String text = SocketUtil.stringArg(args, 0, "Search text");
+            String stackName = null;
+            long since = 0;
+            int limit = 0;
+            String cursor = null;
+            if (args.length > 1 && args[1] instanceof Map<?, ?> options) {
+                stackName = options.get("stackName") instanceof String s ? s : null;
+                since = options.get("since") instanceof Number n ? n.longValue() : 0;
+                limit = options.get("limit") instanceof Number n ? n.intValue() : 0;
+                cursor = options.get("cursor") instanceof String s ? s : null;
+            }
+
+            LogSearchService.Search search = logSearchService.begin(text, stackName, since, limit, cursor);
+            String searchId = UUID.randomUUID().toString();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", true);
+            result.put("searchId", searchId);
+            SocketUtil.callbackResult(result, callback);
+
+            Thread.ofVirtual().name("log-search-" + searchId).start(() -> run(socket, searchId, search));
+        });
+    }
+
+    private void run(DockgeSocket socket, String searchId, LogSearchService.Search search) {
+        Map<String, Object> last = new LinkedHashMap<>();
+        last.put("searchId", searchId);
+        try {
+            String cursor = search.run(matches -> {
+                Map<String, Object> page = new LinkedHashMap<>();
+                page.put("searchId", searchId);
+                page.put("matches", matches.stream().map(LogSearchService.Match::toJson).toList());
+                page.put("done", false);
+                socket.emitAgent("logSearchResult", page);
+            });
+            last.put("ok", true);
+            last.put("matches", List.of());
+            last.put("cursor", cursor);
+        } catch (RuntimeException e) {
+            logger.debug("Log search failed: {}", e.getMessage());
+            last.put("ok", false);
+            last.put("msg", e.getMessage());
+        }
+        last.put("done", true);
+        socket.emitAgent("logSearchResult", last);
+    }
+}
@@ -0,0 +1,115 @@
+package com.louislam.dockge.socket.agent;
+
+import com.louislam.dockge.service.StackService;
+import com.louislam.dockge.socket.AgentEventRouter;
+import com.louislam.dockge.socket.SocketUtil;
+import com.louislam.dockge.terminal.InteractiveTerminal;
+import com.louislam.dockge.terminal.LogMultiplexer;
+import com.louislam.dockge.terminal.Terminal;
+import com.louislam.dockge.terminal.TerminalManager;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Terminal events of the agent surface, from terminal-socket-handler.ts.
+ */
+@Component
+public class TerminalSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TerminalSocketHandler.class);
+
+    private final AgentEventRouter router;
+    private final TerminalManager terminalManager;
+    private final LogMultiplexer logMultiplexer;
+    private final StackService stackService;
+
+    public TerminalSocketHandler(AgentEventRouter router, TerminalManager terminalManager,
+                                 LogMultiplexer logMultiplexer, StackService stackService) {
+        this.router = router;
+        this.terminalManager = terminalManager;
+        this.logMultiplexer = logMultiplexer;
+        this.stackService = stackService;
+    }
+
+    @PostConstruct
+    public void register() {
+        router.on("terminalInput", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String terminalName = SocketUtil.stringArg(args, 0, "Terminal name");
+            if (!(args.length > 1 && args[1] instanceof String cmd)) {
+                throw new IllegalArgumentException("Command must be a string.");
+            }
+            if (!(terminalManager.getTerminal(terminalName) instanceof InteractiveTerminal terminal)) {
+                throw new IllegalArgumentException("Terminal not found or it is not a Interactive Terminal.");
+            }
+            terminal.write(cmd);
+        });
+
+        // Container Terminal
+        router.on("interactiveTerminal", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String stackName = SocketUtil.stringArg(args, 0, "Stack name");
+            String serviceName = SocketUtil.stringArg(args, 1, "Service name");
+            String shell = SocketUtil.stringArg(args, 2, "Shell");
+            stackService.joinContainerTerminal(socket, stackName, serviceName, shell, 0);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", true);
+            SocketUtil.callbackResult(result, callback);
+        });
+
+        // Leave Combined Terminal
+        router.on("leaveCombinedTerminal", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            String stackName = SocketUtil.stringArg(args, 0, "Stack name");
+            stackService.leaveCombinedTerminal(socket, stackName);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", true);
+            SocketUtil.callbackResult(result, callback);
+        });
+
+        // Join Output Terminal
+        router.on("terminalJoin", (socket, args, callback) -> {
+            if (callback == null) {
+                logger.debug("Callback is not a function.");
+                return;
+            }
+            SocketUtil.checkLogin(socket);
+            String terminalName = SocketUtil.stringArg(args, 0, "Terminal name");
+
+            Terminal terminal = terminalManager.getTerminal(terminalName);
+            if (terminal == null) {
+                // A combined terminal is a view of a shared log stream
+                terminal = logMultiplexer.getTerminal(terminalName);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", true);
+            result.put("buffer", terminal == null
+                    ? stackService.getCombinedTerminalReplay(socket, terminalName) : terminal.getBuffer());
+            callback.send(result);
+        });
+
+        // Resize Terminal
+        router.on("terminalResize", (socket, args, callback) -> {
+            try {
+                SocketUtil.checkLogin(socket);
+                String terminalName = SocketUtil.stringArg(args, 0, "Terminal name");
+                if (!(args.length > 2 && args[1] instanceof Number rows && args[2] instanceof Number cols)) {
+                    throw new IllegalArgumentException("Command must be a number.");
+                }
+                Terminal terminal = terminalManager.getTerminal(terminalName);
+                if (terminal == null) {
+                    throw new IllegalArgumentException(terminalName + " Terminal not found.");
+                }
+                terminal.setRows(rows.intValue());
+                terminal.setCols(cols.intValue());
+            } catch (RuntimeException e) {
+                logger.debug("terminalResize failed: {}", e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package com.louislam.dockge.socketio;
+
+/**
+ * A long-polling request that cannot be served, answered with HTTP 400 and the Engine.IO error
+ * code.
+ */
+public class EngineIoException extends RuntimeException {
+
+    public static final int UNKNOWN_TRANSPORT = 0;
+    public static final int UNKNOWN_SID = 1;
+    public static final int BAD_REQUEST = 3;
+    public static final int UNSUPPORTED_PROTOCOL_VERSION = 5;
+
+    private final int code;
+
+    public EngineIoException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
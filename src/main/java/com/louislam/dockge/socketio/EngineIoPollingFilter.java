@@ -0,0 +1,129 @@
+package com.louislam.dockge.socketio;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves the HTTP long-polling transport of Engine.IO for {@link SocketIoServer}.
+ *
+ * A GET without a session id opens a connection, a GET with one waits for packets and a POST
+ * delivers packets of the client. Other requests, such as the websocket handshake, pass through.
+ * A filter is used rather than a controller because a controller mapped to the socket.io path would
+ * answer websocket handshakes too.
+ */
+public class EngineIoPollingFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngineIoPollingFilter.class);
+
+    private final SocketIoServer server;
+    private final OriginCheckInterceptor originCheck;
+
+    public EngineIoPollingFilter(SocketIoServer server, OriginCheckInterceptor originCheck) {
+        this.server = server;
+        this.originCheck = originCheck;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"polling".equals(request.getParameter("transport"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ServletServerHttpRequest httpRequest = new ServletServerHttpRequest(request);
+        HttpHeaders headers = httpRequest.getHeaders();
+        InetSocketAddress remoteAddress = httpRequest.getRemoteAddress();
+        if (!originCheck.allows(headers, remoteAddress)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        String origin = headers.getOrigin();
+        if (origin != null) {
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        }
+
+        String sid = request.getParameter("sid");
+        try {
+            if (!"4".equals(request.getParameter("EIO"))) {
+                throw new EngineIoException(EngineIoException.UNSUPPORTED_PROTOCOL_VERSION,
+                        "Unsupported protocol version");
+            }
+            if ("GET".equals(request.getMethod()) && sid == null) {
+                write(response, server.openPolling(headers, remoteAddress));
+            } else if ("GET".equals(request.getMethod())) {
+                poll(request, response, server.poll(sid));
+            } else if ("POST".equals(request.getMethod()) && sid != null) {
+                String payload = readPayload(request);
+                if (payload == null) {
+                    response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+                server.receivePayload(sid, payload);
+                write(response, "ok");
+            } else {
+                throw new EngineIoException(EngineIoException.BAD_REQUEST, "Bad request");
+            }
+        } catch (EngineIoException e) {
+            logger.debug("Refusing {} {}: {}", request.getMethod(), sid, e.getMessage());
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"code\":" + e.getCode() + ",\"message\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    /**
+     * Answer the request asynchronously once the session has packets, so no thread waits for them.
+     */
+    private void poll(HttpServletRequest request, HttpServletResponse response, CompletableFuture<String> payload) {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(server.getPollTimeout());
+        payload.whenComplete((text, error) -> {
+            try {
+                write(response, error == null ? text : "1");
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Failed to answer a poll: {}", e.getMessage());
+            } finally {
+                try {
+                    async.complete();
+                } catch (IllegalStateException e) {
+                    // The request already timed out
+                }
+            }
+        });
+    }
+
+    /**
+     * The body of a POST, or null if it is larger than the max payload.
+     */
+    private String readPayload(HttpServletRequest request) throws IOException {
+        try (InputStream in = request.getInputStream()) {
+            byte[] body = in.readNBytes(server.getMaxPayload() + 1);
+            return body.length > server.getMaxPayload() ? null : new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void write(HttpServletResponse response, String payload) throws IOException {
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.flushBuffer();
+    }
+}
@@ -0,0 +1,418 @@
+package com.louislam.dockge.socketio;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An Engine.IO connection, carrying one {@link SocketIoSocket} per namespace.
+ *
+ * Writes never block the caller: frames go into an {@link OutboundQueue}, and the first writer to
+ * find the queue idle starts a drain on the executor that sends until the queue is empty. Only the
+ * drain calls {@link WebSocketSession#sendMessage}, so sends are never concurrent. A client that
+ * reads slower than it is written to is disconnected rather than buffered for without bound.
+ * Producers that can hold back their output wait for {@link #onWritable} instead of filling the
+ * queue in the first place.
+ *
+ * A connection opened with HTTP long-polling has no websocket until the client upgrades. Until
+ * then the drain hands the queued frames to the waiting {@link #poll()}, or leaves them queued
+ * for the next one.
+ */
+public class EngineIoSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngineIoSession.class);
+
+    // Frames that answer a poll without anything to send, or tell a polling client it was closed
+    static final TextMessage NOOP = new TextMessage("6");
+    static final TextMessage CLOSE = new TextMessage("1");
+
+    private final String id;
+    private final HttpHeaders handshakeHeaders;
+    private final InetSocketAddress remoteAddress;
+    private final Executor drainExecutor;
+    private final Consumer<EngineIoSession> closedListener;
+    // Null while the client is polling
+    private volatile WebSocketSession webSocket;
+    // The poll waiting for frames, guarded by this
+    private CompletableFuture<List<WebSocketMessage<?>>> poll;
+
+    private final OutboundQueue outbound;
+    // Packets queued since the drain last checked, the drain runs while it is not zero
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Counter coalescedCounter;
+    private final Counter evictedCounter;
+    private final Map<String, SocketIoSocket> sockets = new ConcurrentHashMap<>();
+    // Run by the drain once the queue is back under the low watermark
+    private final Queue<Runnable> writableTasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+    private volatile long pingSentAt;
+    private volatile long pongReceivedAt;
+
+    // A binary packet waiting for its attachments, only used by the receiving thread
+    private SocketIoPacket partial;
+    private List<byte[]> attachments;
+
+    /**
+     * @param webSocket      the websocket of the connection, or null if it starts with polling
+     * @param closedListener called when a polling connection is closed, the websocket handler
+     *                       learns about closed websockets itself
+     */
+    EngineIoSession(String id, WebSocketSession webSocket, HttpHeaders handshakeHeaders,
+                    InetSocketAddress remoteAddress, Executor drainExecutor, OutboundQueue.Limits limits,
+                    Counter coalescedCounter, Counter evictedCounter, Consumer<EngineIoSession> closedListener) {
+        this.id = id;
+        this.webSocket = webSocket;
+        this.handshakeHeaders = handshakeHeaders;
+        this.remoteAddress = remoteAddress;
+        this.drainExecutor = drainExecutor;
+        this.closedListener = closedListener;
+        this.outbound = new OutboundQueue(limits);
+        this.coalescedCounter = coalescedCounter;
+        this.evictedCounter = evictedCounter;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The websocket of the connection, null while the client is polling.
+     */
+    public WebSocketSession getWebSocket() {
+        return webSocket;
+    }
+
+    public HttpHeaders getHandshakeHeaders() {
+        return handshakeHeaders;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Queue the frames of one packet. Closes the connection if the client does not keep up.
+     *
+     * @param stateKey the key of a packet that supersedes the queued packet with the same key, or null
+     */
+    public void send(OutboundQueue.Priority priority, String stateKey, List<WebSocketMessage<?>> frames) {
+        if (closed) {
+            return;
+        }
+        if (outbound.offer(priority, stateKey, frames)) {
+            coalescedCounter.increment();
+        }
+        if (checkLimits(System.currentTimeMillis())) {
+            return;
+        }
+        wakeDrain();
+    }
+
+    private void wakeDrain() {
+        if (pending.getAndIncrement() == 0) {
+            try {
+                drainExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                pending.set(0);
+            }
+        }
+    }
+
+    public void send(List<WebSocketMessage<?>> frames) {
+        send(OutboundQueue.Priority.NORMAL, null, frames);
+    }
+
+    /**
+     * Queue an Engine.IO or Socket.IO control frame, it goes before queued events.
+     */
+    public void sendControl(WebSocketMessage<?> frame) {
+        send(OutboundQueue.Priority.CONTROL, null, List.of(frame));
+    }
+
+    /**
+     * Whether the queue is under the low watermark, see {@link OutboundQueue#isWritable()}.
+     */
+    public boolean isWritable() {
+        return !closed && outbound.isWritable();
+    }
+
+    /**
+     * Run the task once the queue is back under the low watermark, at once if it already is. Tasks
+     * run on the drain and must not block, they are dropped when the connection closes.
+     */
+    public void onWritable(Runnable task) {
+        if (closed) {
+            return;
+        }
+        writableTasks.add(task);
+        // The drain may have emptied the queue before the task was added
+        if (outbound.isWritable()) {
+            runWritableTasks();
+        }
+    }
+
+    private void runWritableTasks() {
+        Runnable task;
+        while ((task = writableTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.debug("Writable task of {} failed: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close the connection if its queue has grown past the maximum size, or stayed over the high
+     * watermark for longer than the deadline.
+     *
+     * @return whether it was closed
+     */
+    boolean checkLimits(long now) {
+        if (closed || !outbound.isOverLimit(now)) {
+            return false;
+        }
+        logger.info("Closing {}, the client is not reading fast enough ({} bytes queued)", id, outbound.getBytes());
+        evictedCounter.increment();
+        close(CloseStatus.POLICY_VIOLATION.withReason("Client too slow"));
+        return true;
+    }
+
+    private void drain() {
+        int missed = pending.get();
+        while (true) {
+            WebSocketSession current = webSocket;
+            if (current == null) {
+                flushPoll();
+            } else {
+                write(current);
+            }
+            missed = pending.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void write(WebSocketSession current) {
+        List<WebSocketMessage<?>> frames;
+        while ((frames = outbound.poll()) != null) {
+            if (closed) {
+                continue;
+            }
+            try {
+                for (WebSocketMessage<?> frame : frames) {
+                    current.sendMessage(frame);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to write to {}: {}", id, e.getMessage());
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+            if (!writableTasks.isEmpty() && outbound.isWritable()) {
+                runWritableTasks();
+            }
+        }
+    }
+
+    /**
+     * The frames for an HTTP long-polling request: what is queued, or a future that completes once
+     * something is. Null if another poll is already waiting, which the protocol does not allow.
+     */
+    synchronized CompletableFuture<List<WebSocketMessage<?>>> poll() {
+        if (poll != null && !poll.isDone()) {
+            return null;
+        }
+        poll = null;
+        if (closed) {
+            return CompletableFuture.completedFuture(List.of(CLOSE));
+        }
+        if (webSocket != null) {
+            // Upgraded, a poll still in flight only has to be answered
+            return CompletableFuture.completedFuture(List.of(NOOP));
+        }
+        List<WebSocketMessage<?>> frames = takeQueued();
+        if (!frames.isEmpty()) {
+            return CompletableFuture.completedFuture(frames);
+        }
+        poll = new CompletableFuture<>();
+        return poll;
+    }
+
+    /**
+     * Answer the waiting poll with what is queued, called by the drain.
+     */
+    private void flushPoll() {
+        synchronized (this) {
+            if (poll == null || poll.isDone()) {
+                return;
+            }
+            List<WebSocketMessage<?>> frames = takeQueued();
+            if (frames.isEmpty()) {
+                return;
+            }
+            poll.complete(frames);
+            poll = null;
+        }
+        if (!writableTasks.isEmpty() && outbound.isWritable()) {
+            runWritableTasks();
+        }
+    }
+
+    private List<WebSocketMessage<?>> takeQueued() {
+        List<WebSocketMessage<?>> frames = new ArrayList<>();
+        List<WebSocketMessage<?>> packet;
+        while ((packet = outbound.poll()) != null) {
+            frames.addAll(packet);
+        }
+        return frames;
+    }
+
+    /**
+     * Answer the waiting poll with a noop, so the client can upgrade.
+     */
+    synchronized void releasePoll() {
+        completePoll(NOOP);
+    }
+
+    // Guarded by this
+    private void completePoll(WebSocketMessage<?> frame) {
+        if (poll != null) {
+            poll.complete(List.of(frame));
+            poll = null;
+        }
+    }
+
+    /**
+     * Switch a polling connection to the websocket, which carries everything from now on.
+     */
+    void upgrade(WebSocketSession upgraded) {
+        synchronized (this) {
+            webSocket = upgraded;
+            completePoll(NOOP);
+        }
+        wakeDrain();
+    }
+
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    public void close(CloseStatus status) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+        writableTasks.clear();
+        WebSocketSession current = webSocket;
+        if (current == null) {
+            synchronized (this) {
+                completePoll(CLOSE);
+            }
+            closedListener.accept(this);
+            return;
+        }
+        try {
+            current.close(status);
+        } catch (IOException e) {
+            logger.debug("Failed to close {}: {}", id, e.getMessage());
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    void markClosed() {
+        closed = true;
+        outbound.clear();
+        writableTasks.clear();
+        synchronized (this) {
+            completePoll(CLOSE);
+        }
+    }
+
+    SocketIoSocket getSocket(String namespace) {
+        return sockets.get(namespace);
+    }
+
+    void addSocket(SocketIoSocket socket) {
+        sockets.put(socket.getNamespace().getName(), socket);
+    }
+
+    void removeSocket(SocketIoSocket socket) {
+        sockets.remove(socket.getNamespace().getName(), socket);
+    }
+
+    Collection<SocketIoSocket> getSockets() {
+        return new ArrayList<>(sockets.values());
+    }
+
+    /**
+     * Wait for the attachments of a binary packet.
+     */
+    void expectAttachments(SocketIoPacket packet) {
+        partial = packet;
+        attachments = new ArrayList<>(packet.getAttachments());
+    }
+
+    /**
+     * Add a received attachment, returns the binary packet once all its attachments arrived.
+     */
+    SocketIoPacket addAttachment(byte[] data) {
+        if (partial == null) {
+            throw new IllegalArgumentException("Unexpected binary frame");
+        }
+        attachments.add(data);
+        if (attachments.size() < partial.getAttachments()) {
+            return null;
+        }
+        SocketIoPacket packet = partial;
+        partial = null;
+        return packet;
+    }
+
+    List<byte[]> takeAttachments() {
+        List<byte[]> list = attachments;
+        attachments = null;
+        return list == null ? List.of() : list;
+    }
+
+    long getPingSentAt() {
+        return pingSentAt;
+    }
+
+    void setPingSentAt(long pingSentAt) {
+        this.pingSentAt = pingSentAt;
+    }
+
+    long getPongReceivedAt() {
+        return pongReceivedAt;
+    }
+
+    void setPongReceivedAt(long pongReceivedAt) {
+        this.pongReceivedAt = pongReceivedAt;
+    }
+}
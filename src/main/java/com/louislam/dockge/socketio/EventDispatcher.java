@@ -0,0 +1,261 @@
+package com.louislam.dockge.socketio;
+
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.SocketUtil;
+import com.louislam.dockge.util.SerialExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the handlers of incoming events on virtual threads, so that blocking handlers such as
+ * login, deployStack or getStack never hold a websocket container thread.
+ *
+ * The events of one socket run one after another in the order they arrived, on a
+ * {@link SerialExecutor} of their own. Long stack operations are the exception: they run at once,
+ * so a deploy does not hold back the other events of its socket, and the expensive ones are
+ * limited by a global bulkhead. A handler that runs past the timeout of its event, the wait for the
+ * bulkhead included, is interrupted and its ack answered with an error. The events queued behind it
+ * still wait until it has returned, so a handler that ignores the interrupt never runs alongside
+ * the next event of its socket.
+ *
+ * Events sent through the "agent" event are told apart by the name inside it.
+ */
+@Component
+public class EventDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventDispatcher.class);
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final long defaultTimeout;
+    private final Map<String, Long> timeouts;
+    private final Set<String> concurrentEvents;
+    private final Set<String> expensiveEvents;
+    private final Semaphore bulkhead;
+    private final int maxQueued;
+    private final Map<String, SerialExecutor> lanes = new ConcurrentHashMap<>();
+    private final Counter timeoutCounter;
+    private final Counter rejectedCounter;
+
+    @Autowired
+    public EventDispatcher(MeterRegistry meterRegistry,
+                           @Value("${dockge.socket-io.dispatch.default-timeout:60000}") long defaultTimeout,
+                           @Value("${dockge.socket-io.dispatch.timeouts:deployStack:1800000,updateStack:1800000,"
+                                   + "bulkStackAction:3600000,startStack:600000,stopStack:600000,"
+                                   + "restartStack:600000,downStack:600000,deleteStack:600000}") String timeouts,
+                           @Value("${dockge.socket-io.dispatch.concurrent-events:deployStack,updateStack,"
+                                   + "bulkStackAction,startStack,stopStack,restartStack,downStack,deleteStack,"
+                                   + "searchLogs}") List<String> concurrentEvents,
+                           @Value("${dockge.socket-io.dispatch.expensive-events:deployStack,updateStack,"
+                                   + "bulkStackAction}") List<String> expensiveEvents,
+                           @Value("${dockge.socket-io.dispatch.max-expensive:4}") int maxExpensive,
+                           @Value("${dockge.socket-io.dispatch.max-queued:256}") int maxQueued) {
+        this(meterRegistry, null, defaultTimeout, parseTimeouts(timeouts), Set.copyOf(concurrentEvents),
+                Set.copyOf(expensiveEvents), maxExpensive, maxQueued);
+    }
+
+    /**
+     * @param executor runs the handlers, a virtual thread per task if null
+     */
+    EventDispatcher(MeterRegistry meterRegistry, Executor executor, long defaultTimeout, Map<String, Long> timeouts,
+                    Set<String> concurrentEvents, Set<String> expensiveEvents, int maxExpensive, int maxQueued) {
+        this.ownedExecutor = executor == null
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("socket-io-event-", 0).factory())
+                : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.defaultTimeout = defaultTimeout;
+        this.timeouts = Map.copyOf(timeouts);
+        this.concurrentEvents = concurrentEvents;
+        this.expensiveEvents = expensiveEvents;
+        this.bulkhead = new Semaphore(maxExpensive);
+        this.maxQueued = maxQueued;
+
+        Gauge.builder("dockge.socketio.events.expensive", bulkhead, b -> maxExpensive - b.availablePermits())
+                .description("Expensive events running")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("dockge.socketio.events.timeouts")
+                .description("Event handlers interrupted after running past their timeout")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("dockge.socketio.events.rejected")
+                .description("Events refused because too many were queued or running")
+                .register(meterRegistry);
+    }
+
+    /**
+     * "name:milliseconds" pairs separated by commas, 0 for no timeout.
+     */
+    static Map<String, Long> parseTimeouts(String value) {
+        Map<String, Long> map = new HashMap<>();
+        for (String entry : value.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid event timeout: " + trimmed);
+            }
+            map.put(trimmed.substring(0, colon).trim(), Long.parseLong(trimmed.substring(colon + 1).trim()));
+        }
+        return map;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the handler of an event the socket sent.
+     *
+     * @param handler runs the event and answers the callback, errors included
+     */
+    public void dispatch(DockgeSocket socket, String event, Object[] args, Ack callback, Runnable handler) {
+        String name = nameOf(event, args);
+        Runnable task = () -> run(name, callback, handler);
+        try {
+            if (concurrentEvents.contains(name)) {
+                executor.execute(task);
+                return;
+            }
+            SerialExecutor lane = lanes.computeIfAbsent(socket.getId(), id -> new SerialExecutor(executor));
+            if (lane.getQueued() >= maxQueued) {
+                reject(name, callback, "Too many requests, please slow down.");
+                return;
+            }
+            lane.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            logger.debug("Dropping event {}", name);
+        }
+    }
+
+    /**
+     * Forget the lane of a disconnected socket. Events already queued still run.
+     */
+    public void remove(DockgeSocket socket) {
+        lanes.remove(socket.getId());
+    }
+
+    private void run(String name, Ack callback, Runnable handler) {
+        boolean expensive = expensiveEvents.contains(name);
+        long timeout = timeouts.getOrDefault(name, defaultTimeout);
+        // One deadline for the wait for the bulkhead and the handler together
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (expensive) {
+            try {
+                long wait = timeout > 0 ? deadline - System.nanoTime() : Long.MAX_VALUE;
+                if (!bulkhead.tryAcquire(wait, TimeUnit.NANOSECONDS)) {
+                    reject(name, callback, "Too many operations are running, please try again later.");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        try {
+            executor.execute(() -> {
+                worker.set(Thread.currentThread());
+                try {
+                    handler.run();
+                } finally {
+                    worker.set(null);
+                    if (expensive) {
+                        bulkhead.release();
+                    }
+                    done.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (expensive) {
+                bulkhead.release();
+            }
+            return;
+        }
+
+        try {
+            if (timeout > 0) {
+                done.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } else {
+                done.get();
+            }
+        } catch (TimeoutException e) {
+            timeoutCounter.increment();
+            logger.warn("Event {} did not finish within {} ms, interrupting it", name, timeout);
+            Thread thread = worker.get();
+            if (thread != null) {
+                thread.interrupt();
+            }
+            if (callback != null) {
+                SocketUtil.callbackError(new IllegalStateException(name + " timed out."), callback);
+            }
+            awaitReturn(name, done);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.debug("Event {} failed: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Hold the lane until a timed out handler has returned.
+     */
+    private static void awaitReturn(String name, CompletableFuture<Void> done) {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.debug("Event {} failed: {}", name, e.getMessage());
+        }
+    }
+
+    private void reject(String name, Ack callback, String message) {
+        rejectedCounter.increment();
+        logger.debug("Rejected event {}: {}", name, message);
+        if (callback != null) {
+            SocketUtil.callbackError(new ValidationException(message), callback);
+        }
+    }
+
+    /**
+     * The name of the event, or of the event inside an "agent" event: agent(endpoint, name, ...args).
+     */
+    static String nameOf(String event, Object[] args) {
+        if ("agent".equals(event) && args.length > 1 && args[1] instanceof String name) {
+            return name;
+        }
+        return event;
+    }
+}
@@ -0,0 +1,209 @@
+package com.louislam.dockge.socketio;
+
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.SocketUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A Socket.IO namespace: its event handlers, connected sockets and rooms.
+ *
+ * Broadcasts encode the packet once and queue the same frames on every socket.
+ */
+public class Namespace {
+
+    private static final Logger logger = LoggerFactory.getLogger(Namespace.class);
+
+    @FunctionalInterface
+    public interface EventHandler {
+        /**
+         * @param callback the ack, or null if the client did not ask for one
+         */
+        void handle(SocketIoSocket socket, Object[] args, Ack callback) throws Exception;
+    }
+
+    /**
+     * Handles an event before its JSON is parsed, to relay it as it is. Runs on the thread that
+     * received the frame, so it must not block.
+     */
+    @FunctionalInterface
+    public interface RawEventHandler {
+        /**
+         * @param callback the ack, or null if the client did not ask for one
+         * @return whether the event was handled, if not it is parsed and goes to the event handler
+         */
+        boolean handle(SocketIoSocket socket, SocketIoPacket packet, List<byte[]> attachments, Ack callback)
+                throws Exception;
+    }
+
+    private final String name;
+    private final SocketIoEncoder encoder;
+    private final Map<String, EventHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, RawEventHandler> rawHandlers = new ConcurrentHashMap<>();
+    private final List<Consumer<SocketIoSocket>> connectListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<SocketIoSocket>> disconnectListeners = new CopyOnWriteArrayList<>();
+    private final Set<SocketIoSocket> sockets = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<SocketIoSocket>> rooms = new ConcurrentHashMap<>();
+
+    Namespace(String name, SocketIoEncoder encoder) {
+        this.name = name;
+        this.encoder = encoder;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void on(String event, EventHandler handler) {
+        handlers.put(event, handler);
+    }
+
+    /**
+     * Look at an event before it is parsed, see {@link RawEventHandler}.
+     */
+    public void onRaw(String event, RawEventHandler handler) {
+        rawHandlers.put(event, handler);
+    }
+
+    public void onConnect(Consumer<SocketIoSocket> listener) {
+        connectListeners.add(listener);
+    }
+
+    public void onDisconnect(Consumer<SocketIoSocket> listener) {
+        disconnectListeners.add(listener);
+    }
+
+    public Collection<SocketIoSocket> getSockets() {
+        return Collections.unmodifiableSet(sockets);
+    }
+
+    /**
+     * Emit to every socket of the namespace.
+     */
+    public void emit(String event, Object... args) {
+        broadcast(sockets, event, args);
+    }
+
+    /**
+     * Emit to the sockets in a room.
+     */
+    public void emitTo(String room, String event, Object... args) {
+        Set<SocketIoSocket> members = rooms.get(room);
+        if (members != null) {
+            broadcast(members, event, args);
+        }
+    }
+
+    public int getRoomSize(String room) {
+        Set<SocketIoSocket> members = rooms.get(room);
+        return members == null ? 0 : members.size();
+    }
+
+    private void broadcast(Collection<SocketIoSocket> targets, String event, Object[] args) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        List<WebSocketMessage<?>> frames = encoder.event(name, -1, event, args);
+        String eventName = SocketIoSocket.nameOf(event, args);
+        OutboundQueue.Priority priority = SocketIoSocket.priorityOf(eventName);
+        String stateKey = SocketIoSocket.stateKeyOf(name, eventName, SocketIoSocket.endpointOf(event, args));
+        for (SocketIoSocket socket : targets) {
+            socket.getSession().send(priority, stateKey, frames);
+        }
+    }
+
+    void connect(SocketIoSocket socket) {
+        sockets.add(socket);
+        for (Consumer<SocketIoSocket> listener : connectListeners) {
+            try {
+                listener.accept(socket);
+            } catch (RuntimeException e) {
+                logger.warn("Connect listener of {} failed", name, e);
+            }
+        }
+    }
+
+    void disconnect(SocketIoSocket socket) {
+        if (!socket.markDisconnected()) {
+            return;
+        }
+        sockets.remove(socket);
+        socket.getSession().removeSocket(socket);
+        for (Consumer<SocketIoSocket> listener : disconnectListeners) {
+            try {
+                listener.accept(socket);
+            } catch (RuntimeException e) {
+                logger.warn("Disconnect listener of {} failed", name, e);
+            }
+        }
+    }
+
+    void join(String room, SocketIoSocket socket) {
+        rooms.compute(room, (key, members) -> {
+            Set<SocketIoSocket> set = members == null ? ConcurrentHashMap.newKeySet() : members;
+            set.add(socket);
+            return set;
+        });
+    }
+
+    void leave(String room, SocketIoSocket socket) {
+        rooms.computeIfPresent(room, (key, members) -> {
+            members.remove(socket);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    boolean hasRawHandlers() {
+        return !rawHandlers.isEmpty();
+    }
+
+    /**
+     * Offer an event that has not been parsed to its raw handler. Errors are sent to the ack and
+     * count as handled.
+     */
+    boolean dispatchRaw(SocketIoSocket socket, SocketIoPacket packet, List<byte[]> attachments, Ack callback) {
+        List<String> event = packet.peekStrings(1);
+        RawEventHandler handler = event.isEmpty() ? null : rawHandlers.get(event.get(0));
+        if (handler == null) {
+            return false;
+        }
+        try {
+            return handler.handle(socket, packet, attachments, callback);
+        } catch (Exception e) {
+            logger.debug("Raw event {} failed: {}", event.get(0), e.getMessage());
+            if (callback != null) {
+                SocketUtil.callbackError(e, callback);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Run the handler of an event. Errors are sent to the ack like callbackError does.
+     */
+    void dispatch(SocketIoSocket socket, String event, Object[] args, Ack callback) {
+        EventHandler handler = handlers.get(event);
+        if (handler == null) {
+            logger.debug("No handler for event {} on {}", event, name);
+            return;
+        }
+        try {
+            handler.handle(socket, args, callback);
+        } catch (Exception e) {
+            logger.debug("Event {} failed: {}", event, e.getMessage());
+            if (callback != null) {
+                SocketUtil.callbackError(e, callback);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.louislam.dockge.socketio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Refuses websocket handshakes, and long-polling connections through {@link #allows}, from
+ * browsers on other sites, the allowRequest check of dockge-server.ts.
+ *
+ * A browser always sends the Origin of the page, which has to match the Host header. Requests
+ * without an Origin do not come from a browser and are let through. Unlike Spring's same-origin
+ * check only the host and port are compared, so Dockge keeps working behind a proxy that
+ * terminates TLS.
+ */
+public class OriginCheckInterceptor implements HandshakeInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(OriginCheckInterceptor.class);
+
+    private final boolean bypass;
+
+    /**
+     * @param bypass accept any origin, for development
+     */
+    public OriginCheckInterceptor(boolean bypass) {
+        this.bypass = bypass;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                                   Map<String, Object> attributes) {
+        if (allows(request.getHeaders(), request.getRemoteAddress())) {
+            return true;
+        }
+        response.setStatusCode(HttpStatus.FORBIDDEN);
+        return false;
+    }
+
+    /**
+     * Whether a request with these headers may connect, also used for long-polling requests.
+     */
+    public boolean allows(HttpHeaders headers, InetSocketAddress remoteAddress) {
+        if (bypass) {
+            return true;
+        }
+        String origin = headers.getOrigin();
+        if (origin == null) {
+            logger.debug("Origin is not set, IP: {}", remoteAddress);
+            return true;
+        }
+        String host = headers.getFirst(HttpHeaders.HOST);
+        String originHost;
+        try {
+            originHost = URI.create(origin).getRawAuthority();
+        } catch (IllegalArgumentException e) {
+            originHost = null;
+        }
+        if (originHost != null && originHost.equalsIgnoreCase(host)) {
+            return true;
+        }
+        logger.warn("Origin ({}) does not match host ({}), IP: {}", origin, host, remoteAddress);
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                               Exception exception) {
+    }
+}
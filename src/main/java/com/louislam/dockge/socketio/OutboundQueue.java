@@ -0,0 +1,211 @@
+package com.louislam.dockge.socketio;
+
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The packets waiting to be written to one connection, counted in bytes.
+ *
+ * Packets are taken by priority: control packets first, then events and acks, then bulk output
+ * such as terminal output, each in the order they were queued. A state packet with a key makes
+ * the packet with the same key that is still queued redundant, it is dropped and the new one
+ * queued at the end. The queue tracks since when it has been above the high watermark, until it
+ * goes back below the low watermark.
+ *
+ * Lock-free, any thread can offer while one thread polls.
+ */
+public class OutboundQueue {
+
+    public enum Priority {
+        CONTROL, NORMAL, BULK
+    }
+
+    /**
+     * @param lowWatermark  bytes under which the queue is no longer considered over the limit
+     * @param highWatermark bytes over which the queue is considered over the limit
+     * @param maxSize       bytes over which the connection is closed at once
+     * @param deadline      how long the queue may stay over the limit before the connection is
+     *                      closed, in milliseconds
+     */
+    public record Limits(long lowWatermark, long highWatermark, long maxSize, long deadline) {
+        public Limits {
+            if (lowWatermark > highWatermark || highWatermark > maxSize) {
+                throw new IllegalArgumentException("Expected low watermark <= high watermark <= max size");
+            }
+        }
+    }
+
+    private record Frames(List<WebSocketMessage<?>> messages, int bytes) {
+    }
+
+    private static final class Slot extends AtomicReference<Frames> {
+        final String stateKey;
+
+        Slot(String stateKey, Frames frames) {
+            super(frames);
+            this.stateKey = stateKey;
+        }
+    }
+
+    private final Limits limits;
+    private final List<ConcurrentLinkedQueue<Slot>> queues = new ArrayList<>(Priority.values().length);
+    private final Map<String, Slot> latestState = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong overLimitSince = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong bulkOffered = new AtomicLong();
+
+    public OutboundQueue(Limits limits) {
+        this.limits = limits;
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Queue the frames of one packet.
+     *
+     * @param stateKey the key of a state packet that supersedes the previous one, or null
+     * @return whether an older packet with the same key was dropped
+     */
+    public boolean offer(Priority priority, String stateKey, List<WebSocketMessage<?>> messages) {
+        int size = 0;
+        for (WebSocketMessage<?> message : messages) {
+            size += message.getPayloadLength();
+        }
+        Slot slot = new Slot(stateKey, new Frames(messages, size));
+        add(size, 1);
+
+        boolean dropped = false;
+        if (stateKey != null) {
+            Slot previous = latestState.put(stateKey, slot);
+            if (previous != null) {
+                Frames superseded = previous.getAndSet(null);
+                if (superseded != null) {
+                    add(-superseded.bytes(), -1);
+                    coalesced.incrementAndGet();
+                    dropped = true;
+                }
+            }
+        }
+        if (priority == Priority.BULK) {
+            bulkOffered.incrementAndGet();
+        }
+        queues.get(priority.ordinal()).offer(slot);
+        return dropped;
+    }
+
+    /**
+     * The frames of the next packet, or null if the queue is empty.
+     */
+    public List<WebSocketMessage<?>> poll() {
+        for (ConcurrentLinkedQueue<Slot> queue : queues) {
+            Slot slot;
+            while ((slot = queue.poll()) != null) {
+                Frames frames = slot.getAndSet(null);
+                if (frames == null) {
+                    // Superseded
+                    continue;
+                }
+                if (slot.stateKey != null) {
+                    latestState.remove(slot.stateKey, slot);
+                }
+                add(-frames.bytes(), -1);
+                sentBytes.addAndGet(frames.bytes());
+                return frames.messages();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of bulk packets queued so far, to tell whether any were queued since an earlier call.
+     */
+    public long getBulkOffered() {
+        return bulkOffered.get();
+    }
+
+    /**
+     * Priority of an ack for an event received when {@link #getBulkOffered()} was the mark. Acks
+     * go with the events, but behind the bulk output queued since, so that an ack never arrives
+     * before output the handler emitted ahead of it.
+     */
+    public Priority ackPriority(long bulkMark) {
+        return bulkOffered.get() == bulkMark ? Priority.NORMAL : Priority.BULK;
+    }
+
+    private void add(long size, int count) {
+        long total = bytes.addAndGet(size);
+        packets.addAndGet(count);
+        if (total > limits.highWatermark()) {
+            overLimitSince.compareAndSet(0, System.currentTimeMillis());
+        } else if (total <= limits.lowWatermark()) {
+            overLimitSince.set(0);
+        }
+    }
+
+    /**
+     * Whether the queue is larger than allowed, or has been over the limit for longer than allowed.
+     */
+    public boolean isOverLimit(long now) {
+        if (bytes.get() > limits.maxSize()) {
+            return true;
+        }
+        long since = overLimitSince.get();
+        return since != 0 && now - since > limits.deadline();
+    }
+
+    /**
+     * Whether the queue is at or under the low watermark, so a producer that can hold back output
+     * should send more.
+     */
+    public boolean isWritable() {
+        return bytes.get() <= limits.lowWatermark();
+    }
+
+    public void clear() {
+        for (ConcurrentLinkedQueue<Slot> queue : queues) {
+            queue.clear();
+        }
+        latestState.clear();
+        bytes.set(0);
+        packets.set(0);
+        overLimitSince.set(0);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getPackets() {
+        return packets.get();
+    }
+
+    /**
+     * Since when the queue has been over the high watermark in epoch milliseconds, or 0.
+     */
+    public long getOverLimitSince() {
+        return overLimitSince.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Packets dropped because a newer state packet superseded them.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,819 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.SocketUtil;
+import com.louislam.dockge.terminal.Terminal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A websocket Socket.IO client connection to a Dockge agent, shared by all sockets of this server,
+ * which their "agent" events are relayed through without being parsed.
+ *
+ * An event from a socket keeps its JSON as it was received and only gets a new header with an
+ * ack id of this connection; the ack coming back gets the namespace and ack id of the socket.
+ * "agent" events emitted by the agent go to the subscribed sockets in the very frames they arrived
+ * in, terminal output only to the sockets that opened or joined the terminal through this
+ * connection. The login is the only packet that is ever parsed, along with the stackList events
+ * of agents without getStackList while a request of this server waits for one.
+ *
+ * The connection logs in with the agent credentials and reconnects with exponential backoff when
+ * it drops, fails to log in, or the agent stops pinging. Subscriptions outlive reconnects; events
+ * waiting for an ack are answered with an error. Subscribers are told about the state with
+ * agentStatus events.
+ *
+ * Frames are queued while the state lock is held and written after it is released, by whichever
+ * writer gets the write lock, so a slow agent never blocks a thread inside a monitor. An agent
+ * that stops reading is dropped once a write takes too long or too much is queued.
+ */
+public class RelayConnection extends AbstractWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RelayConnection.class);
+
+    private static final int SEND_TIME_LIMIT = 10000;
+    private static final int BUFFER_SIZE_LIMIT = 8 * 1024 * 1024;
+
+    // Terminal output, sent to the sockets of the terminal only
+    private static final Set<String> TERMINAL_EVENTS = Set.of("terminalWrite", "terminalExit");
+    // Stack operations whose output goes to the compose terminal of the stack
+    private static final Set<String> COMPOSE_EVENTS = Set.of("deployStack", "startStack", "stopStack",
+            "restartStack", "updateStack", "downStack", "deleteStack");
+    // Events naming the terminal in their first argument
+    private static final Set<String> TERMINAL_NAME_EVENTS = Set.of("terminalJoin", "terminalInput", "terminalResize");
+
+    public enum State {
+        CONNECTING, READY, DISCONNECTED, CLOSED
+    }
+
+    /**
+     * @param maxWaiting     events that can wait for the login before new ones are refused
+     * @param minBackoff     delay before the first reconnect, doubled after every failed attempt
+     * @param maxBackoff     longest delay between reconnects
+     * @param connectTimeout how long connecting and logging in may take
+     */
+    public record Options(int maxWaiting, Duration minBackoff, Duration maxBackoff, Duration connectTimeout) {
+    }
+
+    // The socket is null for requests of this server
+    private record PendingAck(SocketIoSocket socket, long ackId, long bulkMark, Ack callback) {
+    }
+
+    private record Waiting(SocketIoSocket socket, SocketIoPacket packet, List<byte[]> attachments, Ack callback) {
+    }
+
+    private record Outgoing(WebSocketSession session, WebSocketMessage<?> frame) {
+    }
+
+    private final String endpoint;
+    private final String username;
+    private final String password;
+    private final URI uri;
+    private final ObjectMapper objectMapper;
+    private final SocketIoEncoder encoder;
+    private final WebSocketClient client;
+    private final ScheduledExecutorService scheduler;
+    private final Options options;
+
+    private final Map<Long, PendingAck> pendingAcks = new ConcurrentHashMap<>();
+    private final Set<SocketIoSocket> subscribers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<SocketIoSocket>> terminals = new ConcurrentHashMap<>();
+    // Requests waiting for the next stackList event, see getStackList
+    private final Queue<CompletableFuture<Object[]>> stackListWaiters = new ConcurrentLinkedQueue<>();
+    // Whether the agent has getStackList, null until it has answered or not, see getStackList
+    private final AtomicReference<Boolean> getStackListSupported = new AtomicReference<>();
+
+    // Guarded by this: the state changes, the order of writes, and events waiting for the login
+    private final Queue<Waiting> waiting = new ArrayDeque<>();
+    private volatile State state = State.DISCONNECTED;
+    private volatile WebSocketSession current;
+
+    // Frames waiting to be written, added under this and written by the holder of writeLock
+    private final Queue<Outgoing> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicLong outgoingBytes = new AtomicLong();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // When the write in progress started, 0 if there is none
+    private volatile long writeStartedAt;
+    private long nextAckId;
+    private long loginAckId = -1;
+    private long connectStartedAt;
+    private Duration backoff;
+    private long pingDeadline;
+    private volatile long lastReceivedAt;
+
+    // Only touched by the thread reading the websocket
+    private SocketIoPacket partial;
+    private TextMessage partialMessage;
+    private final List<byte[]> partialAttachments = new ArrayList<>();
+
+    public RelayConnection(String endpoint, String username, String password, URI uri, ObjectMapper objectMapper,
+                           SocketIoEncoder encoder, WebSocketClient client, ScheduledExecutorService scheduler,
+                           Options options) {
+        this.endpoint = endpoint;
+        this.username = username;
+        this.password = password;
+        this.uri = uri;
+        this.objectMapper = objectMapper;
+        this.encoder = encoder;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.options = options;
+        this.backoff = options.minBackoff();
+    }
+
+    /**
+     * The endpoint of an agent URL: its host, and its port if it has one.
+     */
+    public static String endpointOf(String url) {
+        URI uri = URI.create(url);
+        return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * The websocket URI of the Socket.IO server at an agent URL.
+     */
+    public static URI socketUri(String url) {
+        URI uri = URI.create(url);
+        String scheme = "https".equalsIgnoreCase(uri.getScheme()) || "wss".equalsIgnoreCase(uri.getScheme())
+                ? "wss" : "ws";
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        if (!path.endsWith("/")) {
+            path += "/";
+        }
+        return URI.create(scheme + "://" + uri.getRawAuthority() + path + "socket.io/?EIO=4&transport=websocket");
+    }
+
+    /**
+     * Open the websocket, unless it is open or the connection has been closed for good.
+     */
+    public void connect() {
+        synchronized (this) {
+            if (state != State.DISCONNECTED) {
+                return;
+            }
+            state = State.CONNECTING;
+            connectStartedAt = System.currentTimeMillis();
+        }
+        emitStatus("connecting");
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.add("endpoint", endpoint);
+        client.execute(this, headers, uri).whenComplete((session, error) -> {
+            if (error != null) {
+                logger.info("Failed to connect to agent {}: {}", endpoint, error.getMessage());
+                disconnected(null);
+            }
+        });
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Send "agent" events emitted by the agent to the socket.
+     */
+    public void subscribe(SocketIoSocket socket) {
+        subscribers.add(socket);
+    }
+
+    /**
+     * Stop sending anything to the socket, when it disconnected.
+     */
+    public void unsubscribe(SocketIoSocket socket) {
+        subscribers.remove(socket);
+        for (String terminal : terminals.keySet()) {
+            leaveTerminal(terminal, socket);
+        }
+    }
+
+    public Collection<SocketIoSocket> getSubscribers() {
+        return Collections.unmodifiableSet(subscribers);
+    }
+
+    /**
+     * Relay an event a socket sent, its ack goes back to the socket. Events sent before the
+     * login wait for it.
+     *
+     * @throws IllegalStateException if the agent is not connected or too many events are waiting
+     */
+    public void forward(SocketIoSocket socket, SocketIoPacket packet, List<byte[]> attachments, Ack callback) {
+        // Before sending, the output may come back right away
+        subscribe(socket);
+        route(socket, packet.peekStrings(5));
+        synchronized (this) {
+            switch (state) {
+                case CONNECTING -> {
+                    if (waiting.size() >= options.maxWaiting()) {
+                        throw new IllegalStateException("Agent " + endpoint + " is not connected yet.");
+                    }
+                    waiting.add(new Waiting(socket, packet, attachments, callback));
+                }
+                case READY -> send(socket, packet, attachments, callback);
+                case DISCONNECTED, CLOSED ->
+                        throw new IllegalStateException("Agent " + endpoint + " is not connected.");
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Follow the terminals the event opens, joins or leaves for the socket.
+     *
+     * @param head "agent", the endpoint, the event name and its first arguments, as far as they are strings
+     */
+    private void route(SocketIoSocket socket, List<String> head) {
+        if (head.size() < 4) {
+            return;
+        }
+        String event = head.get(2);
+        String arg = head.get(3);
+        if (TERMINAL_NAME_EVENTS.contains(event)) {
+            joinTerminal(arg, socket);
+        } else if (COMPOSE_EVENTS.contains(event)) {
+            joinTerminal(Terminal.getComposeTerminalName(endpoint, arg), socket);
+            if ("deployStack".equals(event)) {
+                joinTerminal(Terminal.getCombinedTerminalName(endpoint, arg), socket);
+            }
+        } else if ("interactiveTerminal".equals(event) && head.size() > 4) {
+            joinTerminal(Terminal.getContainerExecTerminalName(endpoint, arg, head.get(4), 0), socket);
+        } else if ("leaveCombinedTerminal".equals(event)) {
+            leaveTerminal(Terminal.getCombinedTerminalName(endpoint, arg), socket);
+        }
+    }
+
+    private void joinTerminal(String terminal, SocketIoSocket socket) {
+        terminals.computeIfAbsent(terminal, key -> ConcurrentHashMap.newKeySet()).add(socket);
+    }
+
+    private void leaveTerminal(String terminal, SocketIoSocket socket) {
+        terminals.computeIfPresent(terminal, (key, members) -> {
+            members.remove(socket);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    /**
+     * Send an "agent" event of this server's own to the agent. The future completes with the
+     * arguments of the ack, or fails when the agent is not connected or does not answer in time.
+     */
+    public CompletableFuture<Object[]> request(String event, Object[] args, Duration timeout) {
+        CompletableFuture<Object[]> future = new CompletableFuture<>();
+        Object[] eventArgs = new Object[args.length + 2];
+        eventArgs[0] = endpoint;
+        eventArgs[1] = event;
+        System.arraycopy(args, 0, eventArgs, 2, args.length);
+        long ackId;
+        synchronized (this) {
+            if (state != State.READY) {
+                return CompletableFuture.failedFuture(
+                        new IllegalStateException("Agent " + endpoint + " is not connected."));
+            }
+            ackId = nextAckId++;
+            pendingAcks.put(ackId, new PendingAck(null, -1, 0, future::complete));
+            enqueue(encoder.event(SocketIoPacket.MAIN_NAMESPACE, ackId, "agent", eventArgs));
+        }
+        flush();
+        // Forget it when it timed out, a late ack is then ignored
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> pendingAcks.remove(ackId));
+    }
+
+    /**
+     * The stack list of the agent, as the arguments of the getStackList ack.
+     *
+     * The reference agents have no getStackList event and never answer it. They are asked with
+     * requestStackList instead, and the stackList event it makes them emit is the answer, with the
+     * full list and without a version. Until the agent has shown which kind it is, it is asked both
+     * ways, and the getStackList request is given the connect timeout to be answered.
+     *
+     * @param version the version of the list this server has, null for the full list
+     */
+    public CompletableFuture<Object[]> getStackList(Long version, Duration timeout) {
+        Object[] args = version == null ? new Object[0] : new Object[]{version};
+        Boolean supported = getStackListSupported.get();
+        if (Boolean.TRUE.equals(supported)) {
+            return request("getStackList", args, timeout);
+        }
+        if (Boolean.FALSE.equals(supported)) {
+            return requestStackListEvent(timeout);
+        }
+
+        CompletableFuture<Object[]> answer = request("getStackList", args, options.connectTimeout());
+        // Done at once when the agent is not connected
+        if (answer.isDone()) {
+            return answer;
+        }
+        CompletableFuture<Object[]> result = new CompletableFuture<>();
+        answer.whenComplete((answerArgs, error) -> {
+            if (error == null) {
+                getStackListSupported.set(true);
+                result.complete(answerArgs);
+            } else if (!(unwrap(error) instanceof TimeoutException)) {
+                result.completeExceptionally(error);
+            } else if (getStackListSupported.compareAndSet(null, false)) {
+                logger.info("Agent {} does not answer getStackList, asking for stackList events instead", endpoint);
+            }
+        });
+        requestStackListEvent(timeout).thenAccept(result::complete);
+        return result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send requestStackList, the future completes with the next stackList event of the agent.
+     */
+    private CompletableFuture<Object[]> requestStackListEvent(Duration timeout) {
+        CompletableFuture<Object[]> event = new CompletableFuture<>();
+        stackListWaiters.add(event);
+        event.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> stackListWaiters.remove(event));
+        CompletableFuture<Object[]> sent = request("requestStackList", new Object[0], timeout);
+        if (sent.isCompletedExceptionally()) {
+            event.completeExceptionally(unwrap(sent.exceptionNow()));
+        }
+        return event;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void send(SocketIoSocket socket, SocketIoPacket packet, List<byte[]> attachments, Ack callback) {
+        long ackId = -1;
+        if (packet.getId() >= 0) {
+            ackId = nextAckId++;
+            pendingAcks.put(ackId, new PendingAck(socket, packet.getId(),
+                    socket.getSession().getOutbound().getBulkOffered(), callback));
+        }
+        enqueue(encoder.reframe(packet, SocketIoPacket.EVENT, SocketIoPacket.MAIN_NAMESPACE, ackId, attachments));
+    }
+
+    /**
+     * Close for good, when the agent was removed or on shutdown.
+     */
+    public void close() {
+        WebSocketSession session;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            session = current;
+            state = State.CLOSED;
+            current = null;
+        }
+        closeQuietly(session, CloseStatus.NORMAL);
+        failPending();
+        emitStatus("offline");
+    }
+
+    /**
+     * Drop a connection that takes too long to log in, or whose agent stopped pinging.
+     */
+    public void checkHealth(long now) {
+        WebSocketSession session;
+        synchronized (this) {
+            boolean stuck = state == State.CONNECTING && now - connectStartedAt > options.connectTimeout().toMillis();
+            boolean silent = state == State.READY && now - lastReceivedAt > pingDeadline;
+            if (!stuck && !silent) {
+                return;
+            }
+            logger.info("Agent {} {}, reconnecting", endpoint, stuck ? "did not log in in time" : "stopped pinging");
+            session = current;
+        }
+        closeQuietly(session, CloseStatus.SESSION_NOT_RELIABLE);
+        disconnected(session);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        synchronized (this) {
+            if (state == State.CONNECTING && current == null) {
+                current = session;
+                lastReceivedAt = System.currentTimeMillis();
+                return;
+            }
+        }
+        // Closed or timed out meanwhile
+        closeQuietly(session, CloseStatus.GOING_AWAY);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        String payload = message.getPayload();
+        if (session != current || payload.isEmpty()) {
+            return;
+        }
+        lastReceivedAt = System.currentTimeMillis();
+        switch (payload.charAt(0)) {
+            case '0' -> open(payload);
+            case '1' -> {
+                closeQuietly(session, CloseStatus.NORMAL);
+                disconnected(session);
+            }
+            case '2' -> write(List.of(new TextMessage("3" + payload.substring(1))));
+            case '4' -> {
+                SocketIoPacket packet;
+                try {
+                    packet = SocketIoPacket.decodeHeader(payload, 1);
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Invalid packet from agent {}: {}", endpoint, e.getMessage());
+                    return;
+                }
+                if (packet.getAttachments() > 0) {
+                    partial = packet;
+                    partialMessage = message;
+                    partialAttachments.clear();
+                } else {
+                    receive(message, packet, List.of());
+                }
+            }
+            default -> logger.debug("Ignoring Engine.IO packet {} from agent {}", payload.charAt(0), endpoint);
+        }
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        if (session != current || partial == null) {
+            return;
+        }
+        lastReceivedAt = System.currentTimeMillis();
+        ByteBuffer buffer = message.getPayload();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        partialAttachments.add(data);
+        if (partialAttachments.size() == partial.getAttachments()) {
+            SocketIoPacket packet = partial;
+            partial = null;
+            receive(partialMessage, packet, List.copyOf(partialAttachments));
+        }
+    }
+
+    /**
+     * The Engine.IO handshake: remember how often the agent pings and connect to the main namespace.
+     */
+    private void open(String payload) {
+        long interval = 25000;
+        long timeout = 20000;
+        try {
+            JsonNode handshake = objectMapper.readTree(payload.substring(1));
+            interval = handshake.path("pingInterval").asLong(interval);
+            timeout = handshake.path("pingTimeout").asLong(timeout);
+        } catch (IOException e) {
+            logger.debug("Invalid handshake from agent {}: {}", endpoint, e.getMessage());
+        }
+        synchronized (this) {
+            pingDeadline = interval + timeout;
+        }
+        write(List.of(new TextMessage("40")));
+    }
+
+    private void receive(TextMessage message, SocketIoPacket packet, List<byte[]> attachments) {
+        switch (packet.getType()) {
+            case SocketIoPacket.CONNECT -> login();
+            case SocketIoPacket.CONNECT_ERROR, SocketIoPacket.DISCONNECT -> {
+                logger.info("Agent {} refused the connection", endpoint);
+                WebSocketSession session = current;
+                closeQuietly(session, CloseStatus.NORMAL);
+                disconnected(session);
+            }
+            case SocketIoPacket.EVENT, SocketIoPacket.BINARY_EVENT -> relay(message, packet, attachments);
+            case SocketIoPacket.ACK, SocketIoPacket.BINARY_ACK -> {
+                if (packet.getId() == loginAckId) {
+                    loggedIn(packet);
+                    return;
+                }
+                PendingAck pending = pendingAcks.remove(packet.getId());
+                if (pending != null && pending.socket() == null) {
+                    answer(packet, attachments, pending.callback());
+                } else if (pending != null) {
+                    SocketIoSocket socket = pending.socket();
+                    OutboundQueue.Priority priority = socket.getSession().getOutbound().ackPriority(pending.bulkMark());
+                    socket.getSession().send(priority, null, encoder.reframe(packet, SocketIoPacket.ACK,
+                            socket.getNamespace().getName(), pending.ackId(), attachments));
+                }
+            }
+            default -> logger.debug("Ignoring packet type {} from agent {}", packet.getType(), endpoint);
+        }
+    }
+
+    /**
+     * Send an "agent" event to the sockets it is for, in the frames it arrived in when they fit.
+     */
+    private void relay(TextMessage message, SocketIoPacket packet, List<byte[]> attachments) {
+        List<String> head = packet.peekStrings(3);
+        if (head.size() < 2 || !"agent".equals(head.get(0))) {
+            logger.debug("Ignoring event {} from agent {}", head.isEmpty() ? null : head.get(0), endpoint);
+            return;
+        }
+        String name = head.get(1);
+        if ("stackList".equals(name) && !stackListWaiters.isEmpty()) {
+            stackListReceived(packet, attachments);
+        }
+        Collection<SocketIoSocket> targets = subscribers;
+        if (TERMINAL_EVENTS.contains(name)) {
+            Set<SocketIoSocket> members = head.size() > 2 ? terminals.get(head.get(2)) : null;
+            if (members == null) {
+                return;
+            }
+            targets = members;
+            if ("terminalExit".equals(name)) {
+                terminals.remove(head.get(2));
+            }
+        }
+
+        List<WebSocketMessage<?>> frames;
+        if (packet.getId() < 0 && SocketIoPacket.MAIN_NAMESPACE.equals(packet.getNamespace())) {
+            frames = new ArrayList<>(attachments.size() + 1);
+            frames.add(message);
+            for (byte[] attachment : attachments) {
+                frames.add(new BinaryMessage(attachment));
+            }
+        } else {
+            frames = encoder.reframe(packet, SocketIoPacket.EVENT, SocketIoPacket.MAIN_NAMESPACE, -1, attachments);
+        }
+        OutboundQueue.Priority priority = SocketIoSocket.priorityOf(name);
+        String stateKey = SocketIoSocket.stateKeyOf(SocketIoPacket.MAIN_NAMESPACE, name, endpoint);
+        for (SocketIoSocket socket : targets) {
+            if (socket.isConnected()) {
+                socket.getSession().send(priority, stateKey, frames);
+            } else {
+                unsubscribe(socket);
+            }
+        }
+    }
+
+    /**
+     * Answer the requests waiting for a stackList event, with the event data as the ack argument.
+     */
+    private void stackListReceived(SocketIoPacket packet, List<byte[]> attachments) {
+        Object[] args;
+        try {
+            // "stackList", data
+            args = packet.withData(objectMapper).getArgs(attachments);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Invalid stack list from agent {}: {}", endpoint, e.getMessage());
+            return;
+        }
+        Object[] answer = args.length > 1 ? new Object[]{args[1]} : new Object[0];
+        CompletableFuture<Object[]> waiter;
+        while ((waiter = stackListWaiters.poll()) != null) {
+            waiter.complete(answer);
+        }
+    }
+
+    /**
+     * Parse the ack of a request of this server.
+     */
+    private void answer(SocketIoPacket packet, List<byte[]> attachments, Ack callback) {
+        try {
+            callback.send(packet.withData(objectMapper).getArgs(attachments));
+        } catch (IllegalArgumentException e) {
+            logger.debug("Invalid ack from agent {}: {}", endpoint, e.getMessage());
+            SocketUtil.callbackError(e, callback);
+        }
+    }
+
+    private void login() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("username", username);
+        data.put("password", password);
+        data.put("token", "");
+        synchronized (this) {
+            loginAckId = nextAckId++;
+            enqueue(encoder.event(SocketIoPacket.MAIN_NAMESPACE, loginAckId, "login", new Object[]{data}));
+        }
+        flush();
+    }
+
+    private void loggedIn(SocketIoPacket packet) {
+        Object result;
+        try {
+            Object[] args = packet.withData(objectMapper).getArgs(List.of());
+            result = args.length > 0 ? args[0] : null;
+        } catch (IllegalArgumentException e) {
+            result = null;
+        }
+        if (!(result instanceof Map<?, ?> map) || !Boolean.TRUE.equals(map.get("ok"))) {
+            Object msg = result instanceof Map<?, ?> map ? map.get("msg") : null;
+            logger.warn("Failed to log in to agent {}: {}", endpoint, msg);
+            WebSocketSession session = current;
+            closeQuietly(session, CloseStatus.NORMAL);
+            disconnected(session);
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CONNECTING) {
+                return;
+            }
+            state = State.READY;
+            backoff = options.minBackoff();
+            logger.info("Connected to agent {}", endpoint);
+            Waiting next;
+            while ((next = waiting.poll()) != null) {
+                send(next.socket(), next.packet(), next.attachments(), next.callback());
+            }
+        }
+        flush();
+        emitStatus("online");
+    }
+
+    private void write(List<WebSocketMessage<?>> frames) {
+        synchronized (this) {
+            enqueue(frames);
+        }
+        flush();
+    }
+
+    /**
+     * Queue the frames of a packet for the open websocket. Called holding this, so the frames of
+     * a packet stay together and packets are written in the order their ack ids were taken.
+     */
+    private void enqueue(List<WebSocketMessage<?>> frames) {
+        WebSocketSession session = current;
+        if (session == null) {
+            return;
+        }
+        for (WebSocketMessage<?> frame : frames) {
+            outgoingBytes.addAndGet(frame.getPayloadLength());
+            outgoing.add(new Outgoing(session, frame));
+        }
+    }
+
+    /**
+     * Write the queued frames, unless another thread is writing them already. Never called holding
+     * this.
+     */
+    private void flush() {
+        while (!outgoing.isEmpty()) {
+            if (!writeLock.tryLock()) {
+                checkWriteLimits();
+                return;
+            }
+            try {
+                Outgoing next;
+                while ((next = outgoing.poll()) != null) {
+                    outgoingBytes.addAndGet(-next.frame().getPayloadLength());
+                    WebSocketSession session = next.session();
+                    // Frames for a websocket that has been dropped meanwhile
+                    if (session != current) {
+                        continue;
+                    }
+                    writeStartedAt = System.currentTimeMillis();
+                    try {
+                        session.sendMessage(next.frame());
+                    } catch (IOException | RuntimeException e) {
+                        logger.debug("Failed to write to agent {}: {}", endpoint, e.getMessage());
+                        closeQuietly(session, CloseStatus.SESSION_NOT_RELIABLE);
+                        disconnected(session);
+                    } finally {
+                        writeStartedAt = 0;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drop the connection when the agent is not reading: the write in progress has been blocked
+     * for too long, or too much is waiting behind it.
+     */
+    private void checkWriteLimits() {
+        long startedAt = writeStartedAt;
+        boolean stuck = startedAt > 0 && System.currentTimeMillis() - startedAt > SEND_TIME_LIMIT;
+        if (!stuck && outgoingBytes.get() <= BUFFER_SIZE_LIMIT) {
+            return;
+        }
+        WebSocketSession session = current;
+        if (session == null) {
+            return;
+        }
+        logger.info("Agent {} does not keep up with writes, reconnecting", endpoint);
+        closeQuietly(session, CloseStatus.SESSION_NOT_RELIABLE);
+        disconnected(session);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.debug("Transport error on the connection to {}: {}", endpoint, exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        disconnected(session);
+    }
+
+    /**
+     * The websocket is gone: answer what waits for the agent with an error and retry later.
+     *
+     * @param session the websocket that closed, null if it never opened
+     */
+    private void disconnected(WebSocketSession session) {
+        long delay;
+        synchronized (this) {
+            if (state == State.CLOSED || state == State.DISCONNECTED || session != current) {
+                return;
+            }
+            state = State.DISCONNECTED;
+            current = null;
+            // It may come back as another agent
+            getStackListSupported.set(null);
+            delay = backoff.toMillis();
+            backoff = backoff.multipliedBy(2);
+            if (backoff.compareTo(options.maxBackoff()) > 0) {
+                backoff = options.maxBackoff();
+            }
+        }
+        failPending();
+        emitStatus("offline");
+        try {
+            scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void failPending() {
+        List<Ack> callbacks = new ArrayList<>();
+        synchronized (this) {
+            for (Waiting next : waiting) {
+                callbacks.add(next.callback());
+            }
+            waiting.clear();
+        }
+        for (PendingAck pending : pendingAcks.values()) {
+            callbacks.add(pending.callback());
+        }
+        pendingAcks.clear();
+        IllegalStateException error = new IllegalStateException("Agent " + endpoint + " is not connected.");
+        CompletableFuture<Object[]> waiter;
+        while ((waiter = stackListWaiters.poll()) != null) {
+            waiter.completeExceptionally(error);
+        }
+        for (Ack callback : callbacks) {
+            if (callback != null) {
+                SocketUtil.callbackError(error, callback);
+            }
+        }
+    }
+
+    private void emitStatus(String status) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("endpoint", endpoint);
+        data.put("status", status);
+        for (SocketIoSocket socket : subscribers) {
+            if (socket.isConnected()) {
+                socket.emit("agentStatus", data);
+            }
+        }
+    }
+
+    private void closeQuietly(WebSocketSession session, CloseStatus status) {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.close(status);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to close the connection to {}: {}", endpoint, e.getMessage());
+        }
+    }
+}
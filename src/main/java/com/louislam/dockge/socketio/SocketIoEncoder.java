@@ -0,0 +1,187 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes Socket.IO packets as Engine.IO websocket frames.
+ *
+ * The header and the JSON are written into one byte buffer that becomes the {@link TextMessage},
+ * without building the frame out of strings. Byte arrays anywhere in the arguments are sent as
+ * binary attachments after the packet, with a placeholder in the JSON.
+ */
+public final class SocketIoEncoder {
+
+    private static final String ATTACHMENTS = "socketio.attachments";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter writer;
+
+    public SocketIoEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        ObjectMapper placeholderMapper = objectMapper.copy()
+                .registerModule(new SimpleModule().addSerializer(byte[].class, new PlaceholderSerializer()));
+        this.writer = placeholderMapper.writer();
+    }
+
+    /**
+     * An event, with an ack id or -1.
+     */
+    public List<WebSocketMessage<?>> event(String namespace, long ackId, String event, Object[] args) {
+        return encode(SocketIoPacket.EVENT, namespace, ackId, event, args);
+    }
+
+    public List<WebSocketMessage<?>> ack(String namespace, long ackId, Object[] args) {
+        return encode(SocketIoPacket.ACK, namespace, ackId, null, args);
+    }
+
+    /**
+     * The packet with a new header and its JSON as it was received, for relaying a packet between
+     * connections without parsing it. The attachments follow as binary frames.
+     *
+     * @param type EVENT or ACK, made binary if there are attachments
+     */
+    public List<WebSocketMessage<?>> reframe(SocketIoPacket packet, int type, String namespace, long ackId,
+                                             List<byte[]> attachments) {
+        String text = packet.getText();
+        int dataOffset = packet.getDataOffset();
+        StringBuilder header = new StringBuilder(text.length() - dataOffset + namespace.length() + 16);
+        header.append('4');
+        if (attachments.isEmpty()) {
+            header.append(type);
+        } else {
+            header.append(type == SocketIoPacket.EVENT ? SocketIoPacket.BINARY_EVENT : SocketIoPacket.BINARY_ACK)
+                    .append(attachments.size()).append('-');
+        }
+        if (!SocketIoPacket.MAIN_NAMESPACE.equals(namespace)) {
+            header.append(namespace).append(',');
+        }
+        if (ackId >= 0) {
+            header.append(ackId);
+        }
+        header.append(text, dataOffset, text.length());
+
+        if (attachments.isEmpty()) {
+            return List.of(new TextMessage(header.toString()));
+        }
+        List<WebSocketMessage<?>> frames = new ArrayList<>(attachments.size() + 1);
+        frames.add(new TextMessage(header.toString()));
+        for (byte[] attachment : attachments) {
+            frames.add(new BinaryMessage(attachment));
+        }
+        return frames;
+    }
+
+    /**
+     * A CONNECT, DISCONNECT or CONNECT_ERROR packet with an optional object payload.
+     */
+    public TextMessage control(int type, String namespace, Object payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeHeader(out, type, namespace, -1);
+        if (payload != null) {
+            try {
+                objectMapper.writeValue(out, payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to encode packet", e);
+            }
+        }
+        return new TextMessage(out.toByteArray());
+    }
+
+    private List<WebSocketMessage<?>> encode(int type, String namespace, long ackId, String event, Object[] args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        writeHeader(out, type, namespace, ackId);
+        List<byte[]> attachments = new ArrayList<>(0);
+        ObjectWriter attachmentWriter = writer.withAttribute(ATTACHMENTS, attachments);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            if (event != null) {
+                generator.writeString(event);
+            }
+            for (Object arg : args) {
+                attachmentWriter.writeValue(generator, arg);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode " + (event != null ? "event " + event : "ack"), e);
+        }
+
+        if (attachments.isEmpty()) {
+            return List.of(new TextMessage(out.toByteArray()));
+        }
+
+        // Rare: turn the header into a binary one, "45" becomes "451-"
+        byte[] plain = out.toByteArray();
+        byte[] count = (attachments.size() + "-").getBytes(StandardCharsets.US_ASCII);
+        byte[] binary = new byte[plain.length + count.length];
+        binary[0] = plain[0];
+        binary[1] = (byte) ('0' + (type == SocketIoPacket.EVENT ? SocketIoPacket.BINARY_EVENT : SocketIoPacket.BINARY_ACK));
+        System.arraycopy(count, 0, binary, 2, count.length);
+        System.arraycopy(plain, 2, binary, 2 + count.length, plain.length - 2);
+
+        List<WebSocketMessage<?>> frames = new ArrayList<>(attachments.size() + 1);
+        frames.add(new TextMessage(binary));
+        for (byte[] attachment : attachments) {
+            frames.add(new BinaryMessage(attachment));
+        }
+        return frames;
+    }
+
+    /**
+     * Write the Engine.IO message type and the Socket.IO header.
+     */
+    private static void writeHeader(ByteArrayOutputStream out, int type, String namespace, long ackId) {
+        out.write('4');
+        out.write('0' + type);
+        if (!SocketIoPacket.MAIN_NAMESPACE.equals(namespace)) {
+            out.writeBytes(namespace.getBytes(StandardCharsets.UTF_8));
+            out.write(',');
+        }
+        if (ackId >= 0) {
+            writeDigits(out, ackId);
+        }
+    }
+
+    private static void writeDigits(ByteArrayOutputStream out, long value) {
+        if (value >= 10) {
+            writeDigits(out, value / 10);
+        }
+        out.write('0' + (int) (value % 10));
+    }
+
+    private static final class PlaceholderSerializer extends StdSerializer<byte[]> {
+
+        PlaceholderSerializer() {
+            super(byte[].class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void serialize(byte[] value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            List<byte[]> attachments = (List<byte[]>) provider.getAttribute(ATTACHMENTS);
+            if (attachments == null) {
+                generator.writeBinary(value);
+                return;
+            }
+            generator.writeStartObject();
+            generator.writeBooleanField("_placeholder", true);
+            generator.writeNumberField("num", attachments.size());
+            generator.writeEndObject();
+            attachments.add(value);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Socket.IO packet received from a client, as described by the socket.io-protocol v5.
+ *
+ * {@code <type>[<attachments>-][<namespace>,][<id>][<json>]}, e.g. {@code 2/admin,12["event",1]}.
+ * Binary attachments arrive as separate frames and replace the placeholders in the data.
+ *
+ * A packet can be decoded in two steps: {@link #decodeHeader} reads the header only, so that
+ * packets which are just relayed are never parsed, and {@link #withData} parses the JSON.
+ */
+public final class SocketIoPacket {
+
+    public static final int CONNECT = 0;
+    public static final int DISCONNECT = 1;
+    public static final int EVENT = 2;
+    public static final int ACK = 3;
+    public static final int CONNECT_ERROR = 4;
+    public static final int BINARY_EVENT = 5;
+    public static final int BINARY_ACK = 6;
+
+    public static final String MAIN_NAMESPACE = "/";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int type;
+    private final String namespace;
+    private final long id;
+    private final int attachments;
+    private final String text;
+    private final int dataOffset;
+    private final boolean decoded;
+    private final JsonNode data;
+
+    private SocketIoPacket(int type, String namespace, long id, int attachments, String text, int dataOffset,
+                           boolean decoded, JsonNode data) {
+        this.type = type;
+        this.namespace = namespace;
+        this.id = id;
+        this.attachments = attachments;
+        this.text = text;
+        this.dataOffset = dataOffset;
+        this.decoded = decoded;
+        this.data = data;
+    }
+
+    /**
+     * Parse the packet that starts at the offset of the text, after the Engine.IO packet type.
+     *
+     * @throws IllegalArgumentException if the packet is malformed
+     */
+    public static SocketIoPacket decode(ObjectMapper objectMapper, String text, int offset) {
+        return decodeHeader(text, offset).withData(objectMapper);
+    }
+
+    /**
+     * Parse the header of the packet only, the JSON is left as it is until {@link #withData}.
+     *
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    public static SocketIoPacket decodeHeader(String text, int offset) {
+        int length = text.length();
+        if (offset >= length) {
+            throw new IllegalArgumentException("Empty packet");
+        }
+        int type = text.charAt(offset) - '0';
+        if (type < CONNECT || type > BINARY_ACK) {
+            throw new IllegalArgumentException("Unknown packet type " + text.charAt(offset));
+        }
+        int i = offset + 1;
+
+        int attachments = 0;
+        if (type == BINARY_EVENT || type == BINARY_ACK) {
+            int dash = text.indexOf('-', i);
+            if (dash < 0) {
+                throw new IllegalArgumentException("Missing attachment count");
+            }
+            attachments = parseNumber(text, i, dash);
+            i = dash + 1;
+        }
+
+        String namespace = MAIN_NAMESPACE;
+        if (i < length && text.charAt(i) == '/') {
+            int comma = text.indexOf(',', i);
+            int end = comma < 0 ? length : comma;
+            namespace = text.substring(i, end);
+            i = comma < 0 ? length : comma + 1;
+        }
+
+        long id = -1;
+        int idStart = i;
+        while (i < length && Character.isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i > idStart) {
+            id = parseNumber(text, idStart, i);
+        }
+        return new SocketIoPacket(type, namespace, id, attachments, text, i, false, null);
+    }
+
+    /**
+     * This packet with its JSON parsed.
+     *
+     * @throws IllegalArgumentException if the JSON is malformed or does not fit the packet type
+     */
+    public SocketIoPacket withData(ObjectMapper objectMapper) {
+        if (decoded) {
+            return this;
+        }
+        JsonNode parsed = null;
+        if (dataOffset < text.length()) {
+            try {
+                parsed = objectMapper.readTree(text.substring(dataOffset));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Invalid payload: " + e.getOriginalMessage());
+            }
+        }
+        if ((type == EVENT || type == BINARY_EVENT) && (parsed == null || !parsed.isArray() || parsed.isEmpty()
+                || !parsed.get(0).isTextual())) {
+            throw new IllegalArgumentException("Event without a name");
+        }
+        if ((type == ACK || type == BINARY_ACK) && (id < 0 || parsed == null || !parsed.isArray())) {
+            throw new IllegalArgumentException("Invalid ack");
+        }
+        return new SocketIoPacket(type, namespace, id, attachments, text, dataOffset, true, parsed);
+    }
+
+    /**
+     * The leading strings of the JSON array, up to count of them, without parsing the rest. Fewer
+     * are returned if the array has fewer strings before something else, none if the data is not
+     * an array.
+     */
+    public List<String> peekStrings(int count) {
+        List<String> strings = new ArrayList<>(count);
+        if (dataOffset >= text.length()) {
+            return strings;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(text.substring(dataOffset,
+                Math.min(text.length(), dataOffset + 4096)))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return strings;
+            }
+            while (strings.size() < count && parser.nextToken() == JsonToken.VALUE_STRING) {
+                strings.add(parser.getText());
+            }
+        } catch (IOException e) {
+            // Cut off or malformed, keep what was read
+        }
+        return strings;
+    }
+
+    private static int parseNumber(String text, int start, int end) {
+        if (start == end || end - start > 9) {
+            throw new IllegalArgumentException("Invalid number");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid number");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * The ack id, or -1 if the sender does not expect an ack.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Number of binary frames that follow this packet.
+     */
+    public int getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * Whether the JSON has been parsed, see {@link #withData}.
+     */
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * The parsed JSON, null if there is none or it has not been parsed.
+     */
+    public JsonNode getData() {
+        return data;
+    }
+
+    /**
+     * The text the packet was read from.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Where the JSON starts in the text, its length if there is none.
+     */
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * The event name of an event packet.
+     */
+    public String getEvent() {
+        return data.get(0).asText();
+    }
+
+    /**
+     * The arguments as plain Java values: maps, lists, strings, numbers, booleans and null, with
+     * the attachments as byte arrays. The event name of an event packet is left out.
+     */
+    public Object[] getArgs(List<byte[]> attachmentData) {
+        if (data == null || !data.isArray()) {
+            return new Object[0];
+        }
+        int skip = type == EVENT || type == BINARY_EVENT ? 1 : 0;
+        Object[] args = new Object[data.size() - skip];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = toJava(data.get(i + skip), attachmentData);
+        }
+        return args;
+    }
+
+    private static Object toJava(JsonNode node, List<byte[]> attachmentData) {
+        switch (node.getNodeType()) {
+            case OBJECT -> {
+                if (node.path("_placeholder").asBoolean(false) && node.path("num").isInt()) {
+                    int num = node.get("num").asInt();
+                    if (num < 0 || num >= attachmentData.size()) {
+                        throw new IllegalArgumentException("Invalid attachment " + num);
+                    }
+                    return attachmentData.get(num);
+                }
+                Map<String, Object> map = new LinkedHashMap<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    map.put(field.getKey(), toJava(field.getValue(), attachmentData));
+                }
+                return map;
+            }
+            case ARRAY -> {
+                List<Object> list = new ArrayList<>(node.size());
+                for (JsonNode element : node) {
+                    list.add(toJava(element, attachmentData));
+                }
+                return list;
+            }
+            case STRING -> {
+                return node.textValue();
+            }
+            case NUMBER -> {
+                return node.numberValue();
+            }
+            case BOOLEAN -> {
+                return node.booleanValue();
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+}
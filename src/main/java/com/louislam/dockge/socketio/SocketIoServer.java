@@ -0,0 +1,565 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket.IO server on a plain websocket handler, what socket.io's Server is to dockge-server.ts.
+ *
+ * Speaks Engine.IO v4 and Socket.IO v5. Clients connect with a websocket, or with HTTP
+ * long-polling served through {@link EngineIoPollingFilter} and then upgrade to a websocket, as
+ * socket.io clients do by default. Sockets of the main namespace are added to the
+ * {@link SocketRegistry}.
+ *
+ * Event handlers run on virtual threads, in order per socket, see {@link EventDispatcher}. Writes
+ * are queued per connection and sent by a virtual thread, see {@link EngineIoSession}.
+ * Connections whose queue stays over the high watermark past the deadline, or grows past the
+ * maximum size, are closed.
+ */
+@Component
+public class SocketIoServer extends AbstractWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SocketIoServer.class);
+
+    private static final TextMessage PING = new TextMessage("2");
+    // Separates the packets of a long-polling payload
+    private static final String RECORD_SEPARATOR = "\u001e";
+    // Attribute of a websocket holding the id of its Engine.IO session
+    private static final String SESSION_ID = "engine.io.sid";
+
+    /**
+     * A snapshot of the outbound queue of one connection for monitoring.
+     *
+     * @param overLimitSince since when the queue has been over the high watermark, or 0
+     */
+    public record SessionStats(String id, long queuedBytes, long queuedPackets, long sentBytes, long coalesced,
+                               long overLimitSince) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final SocketIoEncoder encoder;
+    private final EventDispatcher eventDispatcher;
+    private final Executor drainExecutor;
+    private final ExecutorService ownedExecutor;
+    private final long pingInterval;
+    private final long pingTimeout;
+    private final int maxPayload;
+    private final OutboundQueue.Limits limits;
+    private final Counter coalescedCounter;
+    private final Counter evictedCounter;
+    private final DistributionSummary queuedSummary;
+
+    private final Map<String, EngineIoSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SocketIoServer(ObjectMapper objectMapper, SocketRegistry socketRegistry, MeterRegistry meterRegistry,
+                          EventDispatcher eventDispatcher,
+                          @Value("${dockge.socket-io.ping-interval:25000}") long pingInterval,
+                          @Value("${dockge.socket-io.ping-timeout:20000}") long pingTimeout,
+                          @Value("${dockge.socket-io.max-payload:1000000}") int maxPayload,
+                          @Value("${dockge.socket-io.outbound.low-watermark:262144}") long lowWatermark,
+                          @Value("${dockge.socket-io.outbound.high-watermark:1048576}") long highWatermark,
+                          @Value("${dockge.socket-io.outbound.max-size:8388608}") long maxSize,
+                          @Value("${dockge.socket-io.outbound.deadline:30000}") long deadline) {
+        this(objectMapper, socketRegistry, meterRegistry, eventDispatcher, null, pingInterval, pingTimeout, maxPayload,
+                new OutboundQueue.Limits(lowWatermark, highWatermark, maxSize, deadline));
+    }
+
+    /**
+     * @param drainExecutor runs the writes of the sessions, a virtual thread per drain if null
+     */
+    SocketIoServer(ObjectMapper objectMapper, SocketRegistry socketRegistry, MeterRegistry meterRegistry,
+                   EventDispatcher eventDispatcher, Executor drainExecutor, long pingInterval, long pingTimeout,
+                   int maxPayload, OutboundQueue.Limits limits) {
+        this.objectMapper = objectMapper;
+        this.encoder = new SocketIoEncoder(objectMapper);
+        this.eventDispatcher = eventDispatcher;
+        this.ownedExecutor = drainExecutor == null
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("socket-io-writer-", 0).factory())
+                : null;
+        this.drainExecutor = drainExecutor == null ? ownedExecutor : drainExecutor;
+        this.pingInterval = pingInterval;
+        this.pingTimeout = pingTimeout;
+        this.maxPayload = maxPayload;
+        this.limits = limits;
+
+        Namespace main = of(SocketIoPacket.MAIN_NAMESPACE);
+        main.onConnect(socketRegistry::register);
+        main.onDisconnect(socketRegistry::unregister);
+
+        Gauge.builder("dockge.socketio.sessions", sessions, Map::size)
+                .description("Open Engine.IO connections")
+                .register(meterRegistry);
+        Gauge.builder("dockge.socketio.outbound.bytes", this, SocketIoServer::getQueuedBytes)
+                .description("Bytes queued for all connections and not written yet")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.queuedSummary = DistributionSummary.builder("dockge.socketio.outbound.queued")
+                .description("Bytes queued per connection, sampled at every heartbeat")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("dockge.socketio.outbound.coalesced")
+                .description("Queued state packets dropped because a newer one replaced them")
+                .register(meterRegistry);
+        this.evictedCounter = Counter.builder("dockge.socketio.evicted")
+                .description("Connections closed because the client did not read fast enough")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (EngineIoSession session : sessions.values()) {
+            session.close(CloseStatus.GOING_AWAY);
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * The namespace with the name, created if needed. Clients can only connect to namespaces
+     * that have been created.
+     */
+    public Namespace of(String name) {
+        return namespaces.computeIfAbsent(name, key -> {
+            Namespace namespace = new Namespace(key, encoder);
+            namespace.onDisconnect(eventDispatcher::remove);
+            return namespace;
+        });
+    }
+
+    public SocketIoEncoder getEncoder() {
+        return encoder;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public List<SessionStats> getSessionStats() {
+        List<SessionStats> stats = new ArrayList<>(sessions.size());
+        for (EngineIoSession session : sessions.values()) {
+            OutboundQueue outbound = session.getOutbound();
+            stats.add(new SessionStats(session.getId(), outbound.getBytes(), outbound.getPackets(),
+                    outbound.getSentBytes(), outbound.getCoalesced(), outbound.getOverLimitSince()));
+        }
+        return stats;
+    }
+
+    private double getQueuedBytes() {
+        long total = 0;
+        for (EngineIoSession session : sessions.values()) {
+            total += session.getOutbound().getBytes();
+        }
+        return total;
+    }
+
+    public int getMaxPayload() {
+        return maxPayload;
+    }
+
+    /**
+     * How long a long-polling request may wait, it is answered after the ping interval at the latest.
+     */
+    public long getPollTimeout() {
+        return pingInterval + pingTimeout;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession webSocket) {
+        MultiValueMap<String, String> query = webSocket.getUri() == null ? new LinkedMultiValueMap<>()
+                : UriComponentsBuilder.fromUri(webSocket.getUri()).build().getQueryParams();
+        String version = query.getFirst("EIO");
+        if (!"4".equals(version)) {
+            logger.debug("Unsupported Engine.IO version: {}", version);
+            close(webSocket, CloseStatus.PROTOCOL_ERROR);
+            return;
+        }
+        webSocket.setTextMessageSizeLimit(maxPayload);
+        webSocket.setBinaryMessageSizeLimit(maxPayload);
+
+        String sid = query.getFirst("sid");
+        if (sid != null) {
+            // A polling client probing the websocket, it takes over once the client sends the upgrade
+            EngineIoSession polling = sessions.get(sid);
+            if (polling == null || polling.getWebSocket() != null) {
+                logger.debug("Upgrade of unknown session {}", sid);
+                close(webSocket, CloseStatus.PROTOCOL_ERROR);
+                return;
+            }
+            webSocket.getAttributes().put(SESSION_ID, sid);
+            return;
+        }
+
+        EngineIoSession session = open(webSocket, webSocket.getHandshakeHeaders(), webSocket.getRemoteAddress());
+        webSocket.getAttributes().put(SESSION_ID, session.getId());
+        try {
+            session.sendControl(new TextMessage(handshake(session, List.of())));
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to encode the handshake", e);
+            session.close(CloseStatus.SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Open a connection with HTTP long-polling.
+     *
+     * @return the handshake, which answers the request
+     */
+    public String openPolling(HttpHeaders headers, InetSocketAddress remoteAddress) {
+        EngineIoSession session = open(null, headers, remoteAddress);
+        try {
+            return handshake(session, List.of("websocket"));
+        } catch (JsonProcessingException e) {
+            session.close(CloseStatus.SERVER_ERROR);
+            throw new IllegalStateException("Failed to encode the handshake", e);
+        }
+    }
+
+    /**
+     * The payload answering a long-polling request, once there is something to send.
+     *
+     * @throws EngineIoException if the session is unknown or already has a poll waiting
+     */
+    public CompletableFuture<String> poll(String sid) {
+        EngineIoSession session = pollingSession(sid);
+        CompletableFuture<List<WebSocketMessage<?>>> frames = session.poll();
+        if (frames == null) {
+            logger.debug("Overlapping polls on {}", sid);
+            session.close(CloseStatus.PROTOCOL_ERROR);
+            throw new EngineIoException(EngineIoException.BAD_REQUEST, "Overlapping polls");
+        }
+        return frames.completeOnTimeout(List.of(EngineIoSession.NOOP), pingInterval, TimeUnit.MILLISECONDS)
+                .thenApply(SocketIoServer::encodePayload);
+    }
+
+    /**
+     * Handle the packets a long-polling client posted.
+     *
+     * @throws EngineIoException if the session is unknown or the payload is invalid
+     */
+    public void receivePayload(String sid, String payload) {
+        EngineIoSession session = pollingSession(sid);
+        for (String packet : payload.split(RECORD_SEPARATOR)) {
+            if (!packet.startsWith("b")) {
+                receive(session, packet);
+                continue;
+            }
+            byte[] data;
+            try {
+                data = Base64.getDecoder().decode(packet.substring(1));
+            } catch (IllegalArgumentException e) {
+                session.close(CloseStatus.PROTOCOL_ERROR);
+                throw new EngineIoException(EngineIoException.BAD_REQUEST, "Invalid binary packet");
+            }
+            receiveBinary(session, data);
+        }
+    }
+
+    private EngineIoSession pollingSession(String sid) {
+        EngineIoSession session = sid == null ? null : sessions.get(sid);
+        if (session == null) {
+            throw new EngineIoException(EngineIoException.UNKNOWN_SID, "Session ID unknown");
+        }
+        return session;
+    }
+
+    private EngineIoSession open(WebSocketSession webSocket, HttpHeaders headers, InetSocketAddress remoteAddress) {
+        EngineIoSession session = new EngineIoSession(UUID.randomUUID().toString(), webSocket, headers,
+                remoteAddress, drainExecutor, limits, coalescedCounter, evictedCounter, this::closed);
+        session.setPongReceivedAt(System.currentTimeMillis());
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    private String handshake(EngineIoSession session, List<String> upgrades) throws JsonProcessingException {
+        Map<String, Object> handshake = new LinkedHashMap<>();
+        handshake.put("sid", session.getId());
+        handshake.put("upgrades", upgrades);
+        handshake.put("pingInterval", pingInterval);
+        handshake.put("pingTimeout", pingTimeout);
+        handshake.put("maxPayload", maxPayload);
+        return "0" + objectMapper.writeValueAsString(handshake);
+    }
+
+    /**
+     * Long-polling payload of the frames: text packets as they are, binary ones base64 encoded
+     * after a b, separated by a record separator.
+     */
+    private static String encodePayload(List<WebSocketMessage<?>> frames) {
+        StringBuilder payload = new StringBuilder();
+        for (WebSocketMessage<?> frame : frames) {
+            if (!payload.isEmpty()) {
+                payload.append(RECORD_SEPARATOR);
+            }
+            if (frame instanceof BinaryMessage binary) {
+                ByteBuffer buffer = binary.getPayload().duplicate();
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                payload.append('b').append(Base64.getEncoder().encodeToString(data));
+            } else {
+                payload.append(((TextMessage) frame).getPayload());
+            }
+        }
+        return payload.toString();
+    }
+
+    private EngineIoSession sessionOf(WebSocketSession webSocket) {
+        Object sid = webSocket.getAttributes().get(SESSION_ID);
+        return sid == null ? null : sessions.get(sid);
+    }
+
+    /**
+     * The probe and upgrade of a polling client on its new websocket.
+     */
+    private void probe(EngineIoSession session, WebSocketSession webSocket, String payload) {
+        if ("2probe".equals(payload)) {
+            try {
+                webSocket.sendMessage(new TextMessage("3probe"));
+            } catch (IOException e) {
+                logger.debug("Failed to answer the probe of {}: {}", session.getId(), e.getMessage());
+                return;
+            }
+            // The client waits for its poll to return before it upgrades
+            session.releasePoll();
+        } else if ("5".equals(payload)) {
+            session.upgrade(webSocket);
+        } else {
+            logger.debug("Ignoring {} from {} before the upgrade", payload, session.getId());
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession webSocket, TextMessage message) {
+        EngineIoSession session = sessionOf(webSocket);
+        String payload = message.getPayload();
+        if (session == null || payload.isEmpty()) {
+            return;
+        }
+        if (session.getWebSocket() != webSocket) {
+            probe(session, webSocket, payload);
+            return;
+        }
+        receive(session, payload);
+    }
+
+    private void receive(EngineIoSession session, String payload) {
+        if (payload.isEmpty()) {
+            return;
+        }
+        switch (payload.charAt(0)) {
+            case '1' -> session.close(CloseStatus.NORMAL);
+            case '2' -> session.sendControl(new TextMessage("3" + payload.substring(1)));
+            case '3' -> session.setPongReceivedAt(System.currentTimeMillis());
+            case '4' -> {
+                SocketIoPacket packet;
+                try {
+                    packet = SocketIoPacket.decodeHeader(payload, 1);
+                    if (!mayRelay(packet)) {
+                        packet = packet.withData(objectMapper);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Invalid packet from {}: {}", session.getId(), e.getMessage());
+                    session.close(CloseStatus.PROTOCOL_ERROR);
+                    return;
+                }
+                if (packet.getAttachments() > 0) {
+                    session.expectAttachments(packet);
+                } else {
+                    dispatch(session, packet, List.of());
+                }
+            }
+            default -> logger.debug("Ignoring Engine.IO packet {} from {}", payload.charAt(0), session.getId());
+        }
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession webSocket, BinaryMessage message) {
+        EngineIoSession session = sessionOf(webSocket);
+        if (session == null || session.getWebSocket() != webSocket) {
+            return;
+        }
+        ByteBuffer buffer = message.getPayload();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        receiveBinary(session, data);
+    }
+
+    private void receiveBinary(EngineIoSession session, byte[] data) {
+        try {
+            SocketIoPacket packet = session.addAttachment(data);
+            if (packet != null) {
+                dispatch(session, packet, session.takeAttachments());
+            }
+        } catch (IllegalArgumentException e) {
+            logger.debug("Invalid attachment from {}: {}", session.getId(), e.getMessage());
+            session.close(CloseStatus.PROTOCOL_ERROR);
+        }
+    }
+
+    /**
+     * Whether the event could be taken by a raw handler, then its JSON is only parsed if not.
+     */
+    private boolean mayRelay(SocketIoPacket packet) {
+        if (packet.getType() != SocketIoPacket.EVENT && packet.getType() != SocketIoPacket.BINARY_EVENT) {
+            return false;
+        }
+        Namespace namespace = namespaces.get(packet.getNamespace());
+        return namespace != null && namespace.hasRawHandlers();
+    }
+
+    private void dispatch(EngineIoSession session, SocketIoPacket packet, List<byte[]> attachments) {
+        String namespaceName = packet.getNamespace();
+        if (packet.getType() == SocketIoPacket.CONNECT) {
+            connect(session, namespaceName);
+            return;
+        }
+
+        SocketIoSocket socket = session.getSocket(namespaceName);
+        if (socket == null) {
+            logger.debug("Packet for {} which {} is not connected to", namespaceName, session.getId());
+            return;
+        }
+        switch (packet.getType()) {
+            case SocketIoPacket.DISCONNECT -> socket.getNamespace().disconnect(socket);
+            case SocketIoPacket.EVENT, SocketIoPacket.BINARY_EVENT -> {
+                Ack callback = packet.getId() >= 0 ? socket.ack(packet.getId()) : null;
+                SocketIoPacket decoded;
+                try {
+                    if (!packet.isDecoded()
+                            && socket.getNamespace().dispatchRaw(socket, packet, attachments, callback)) {
+                        return;
+                    }
+                    decoded = packet.withData(objectMapper);
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Invalid packet from {}: {}", session.getId(), e.getMessage());
+                    session.close(CloseStatus.PROTOCOL_ERROR);
+                    return;
+                }
+                String event = decoded.getEvent();
+                Object[] args = decoded.getArgs(attachments);
+                eventDispatcher.dispatch(socket, event, args, callback,
+                        () -> socket.getNamespace().dispatch(socket, event, args, callback));
+            }
+            case SocketIoPacket.ACK, SocketIoPacket.BINARY_ACK ->
+                    socket.receiveAck(packet.getId(), packet.getArgs(attachments));
+            default -> logger.debug("Ignoring packet type {} from {}", packet.getType(), session.getId());
+        }
+    }
+
+    private void connect(EngineIoSession session, String namespaceName) {
+        Namespace namespace = namespaces.get(namespaceName);
+        if (namespace == null) {
+            session.sendControl(encoder.control(SocketIoPacket.CONNECT_ERROR, namespaceName,
+                    Map.of("message", "Invalid namespace")));
+            return;
+        }
+        if (session.getSocket(namespaceName) != null) {
+            return;
+        }
+        SocketIoSocket socket = new SocketIoSocket(session, namespace, encoder, UUID.randomUUID().toString());
+        // A hub connecting to this server as an agent tells it its endpoint
+        String endpoint = session.getHandshakeHeaders().getFirst("endpoint");
+        if (endpoint != null) {
+            socket.setEndpoint(endpoint);
+        }
+        session.addSocket(socket);
+        session.sendControl(encoder.control(SocketIoPacket.CONNECT, namespaceName, Map.of("sid", socket.getId())));
+        namespace.connect(socket);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession webSocket, Throwable exception) {
+        logger.debug("Transport error on {}: {}", webSocket.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession webSocket, CloseStatus status) {
+        EngineIoSession session = sessionOf(webSocket);
+        // A probe that never upgraded leaves the polling connection open
+        if (session != null && session.getWebSocket() == webSocket) {
+            closed(session);
+        }
+    }
+
+    private void closed(EngineIoSession session) {
+        if (!sessions.remove(session.getId(), session)) {
+            return;
+        }
+        session.markClosed();
+        for (SocketIoSocket socket : session.getSockets()) {
+            socket.getNamespace().disconnect(socket);
+        }
+    }
+
+    /**
+     * Ping every connection, and close those that did not answer the previous ping in time or
+     * have been over their queue limit for too long.
+     */
+    @Scheduled(fixedRateString = "${dockge.socket-io.ping-interval:25000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (EngineIoSession session : sessions.values()) {
+            long pingSentAt = session.getPingSentAt();
+            if (pingSentAt > session.getPongReceivedAt() && now - pingSentAt > pingTimeout) {
+                logger.debug("Ping timeout on {}", session.getId());
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+                continue;
+            }
+            if (session.checkLimits(now)) {
+                continue;
+            }
+            queuedSummary.record(session.getOutbound().getBytes());
+            session.setPingSentAt(now);
+            session.sendControl(PING);
+        }
+    }
+
+    private static void close(WebSocketSession webSocket, CloseStatus status) {
+        try {
+            webSocket.close(status);
+        } catch (Exception e) {
+            logger.debug("Failed to close {}: {}", webSocket.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.louislam.dockge.socketio;
+
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.EncodedPacket;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client connected to a namespace, the counterpart of a socket.io Socket.
+ */
+public class SocketIoSocket implements DockgeSocket {
+
+    // Terminal output and other streams, sent after everything else
+    private static final Set<String> BULK_EVENTS = Set.of("terminalWrite", "terminalExit", "logSearchResult");
+    // Full state that replaces the previous one, only the latest queued one is sent
+    private static final Set<String> STATE_EVENTS = Set.of("stackList", "agentList", "info");
+
+    private final EngineIoSession session;
+    private final Namespace namespace;
+    private final SocketIoEncoder encoder;
+    private final String id;
+
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextAckId = new AtomicLong();
+    private final Map<Long, Ack> acks = new ConcurrentHashMap<>();
+    private final AtomicBoolean connected = new AtomicBoolean(true);
+
+    private volatile String endpoint = "";
+    private volatile Integer userId;
+    private volatile long stackListVersion = LEGACY_STACK_LIST;
+
+    SocketIoSocket(EngineIoSession session, Namespace namespace, SocketIoEncoder encoder, String id) {
+        this.session = session;
+        this.namespace = namespace;
+        this.encoder = encoder;
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public EngineIoSession getSession() {
+        return session;
+    }
+
+    public Namespace getNamespace() {
+        return namespace;
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * The id of the logged-in user, or null.
+     */
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return userId != null;
+    }
+
+    @Override
+    public void emit(String event, Object... args) {
+        String name = nameOf(event, args);
+        session.send(priorityOf(name), stateKeyOf(namespace.getName(), name, endpointOf(event, args)),
+                encoder.event(namespace.getName(), -1, event, args));
+    }
+
+    /**
+     * Emit an event and call the ack with the arguments the client answers with.
+     */
+    public void emitWithAck(String event, Ack ack, Object... args) {
+        long ackId = nextAckId.getAndIncrement();
+        acks.put(ackId, ack);
+        session.send(encoder.event(namespace.getName(), ackId, event, args));
+    }
+
+    /**
+     * Send a packet encoded for the main namespace.
+     */
+    @Override
+    public void send(EncodedPacket packet) {
+        if (!SocketIoPacket.MAIN_NAMESPACE.equals(namespace.getName())) {
+            throw new IllegalStateException("Encoded packets are for the main namespace, not " + namespace.getName());
+        }
+        String name = packet.getAgentEvent() != null ? packet.getAgentEvent() : packet.getEvent();
+        session.send(priorityOf(name), stateKeyOf(namespace.getName(), name, packet.getEndpoint()),
+                List.of(packet.asTextMessage()));
+    }
+
+    @Override
+    public boolean isWritable() {
+        return session.isWritable();
+    }
+
+    @Override
+    public void onWritable(Runnable task) {
+        session.onWritable(task);
+    }
+
+    @Override
+    public long getStackListVersion() {
+        return stackListVersion;
+    }
+
+    @Override
+    public void setStackListVersion(long version) {
+        this.stackListVersion = version;
+    }
+
+    public void join(String room) {
+        if (rooms.add(room)) {
+            namespace.join(room, this);
+        }
+    }
+
+    public void leave(String room) {
+        if (rooms.remove(room)) {
+            namespace.leave(room, this);
+        }
+    }
+
+    public Set<String> getRooms() {
+        return Collections.unmodifiableSet(rooms);
+    }
+
+    public boolean isConnected() {
+        return connected.get();
+    }
+
+    /**
+     * Disconnect from the namespace, the connection stays open for other namespaces.
+     */
+    public void disconnect() {
+        if (isConnected()) {
+            session.sendControl(encoder.control(SocketIoPacket.DISCONNECT, namespace.getName(), null));
+            namespace.disconnect(this);
+        }
+    }
+
+    /**
+     * The ack to pass to a handler of an event the client sent with an ack id.
+     */
+    Ack ack(long ackId) {
+        AtomicBoolean sent = new AtomicBoolean();
+        long bulkMark = session.getOutbound().getBulkOffered();
+        return args -> {
+            if (sent.compareAndSet(false, true)) {
+                session.send(session.getOutbound().ackPriority(bulkMark), null,
+                        encoder.ack(namespace.getName(), ackId, args));
+            }
+        };
+    }
+
+    /**
+     * The name of the event, or of the event inside an "agent" event.
+     */
+    static String nameOf(String event, Object[] args) {
+        return "agent".equals(event) && args.length > 0 && args[0] instanceof String name ? name : event;
+    }
+
+    static String endpointOf(String event, Object[] args) {
+        if ("agent".equals(event) && args.length > 1 && args[1] instanceof Map<?, ?> obj
+                && obj.get("endpoint") instanceof String endpoint) {
+            return endpoint;
+        }
+        return null;
+    }
+
+    static OutboundQueue.Priority priorityOf(String name) {
+        return BULK_EVENTS.contains(name) ? OutboundQueue.Priority.BULK : OutboundQueue.Priority.NORMAL;
+    }
+
+    static String stateKeyOf(String namespace, String name, String endpoint) {
+        if (!STATE_EVENTS.contains(name)) {
+            return null;
+        }
+        return endpoint == null ? namespace + " " + name : namespace + " " + name + " " + endpoint;
+    }
+
+    void receiveAck(long ackId, Object[] args) {
+        Ack ack = acks.remove(ackId);
+        if (ack != null) {
+            ack.send(args);
+        }
+    }
+
+    /**
+     * Returns false if already disconnected.
+     */
+    boolean markDisconnected() {
+        if (!connected.compareAndSet(true, false)) {
+            return false;
+        }
+        for (String room : rooms) {
+            namespace.leave(room, this);
+        }
+        rooms.clear();
+        acks.clear();
+        return true;
+    }
+}
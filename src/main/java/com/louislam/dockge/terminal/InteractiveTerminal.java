@@ -0,0 +1,30 @@
+package com.louislam.dockge.terminal;
+
+import com.louislam.dockge.util.ByteRingBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Terminal that accepts user input. Its output is flushed in low-latency mode so that typed
+ * characters are echoed without waiting for the coalescing window.
+ */
+public class InteractiveTerminal extends Terminal {
+
+    InteractiveTerminal(TerminalManager manager, String name, List<String> command, Path cwd, ByteRingBuffer buffer) {
+        super(manager, name, command, cwd, true, buffer, true);
+    }
+
+    public synchronized void write(String input) throws IOException {
+        Process process = getProcess();
+        if (process == null) {
+            return;
+        }
+        OutputStream out = process.getOutputStream();
+        out.write(input.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        touch();
+    }
+}
@@ -0,0 +1,208 @@
+package com.louislam.dockge.terminal;
+
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Shares one upstream log terminal, such as docker compose logs -f, between all the sockets
+ * following it.
+ *
+ * Every viewer has a bounded queue of its own (see {@link LogViewer}), the upstream terminal only
+ * hands each batch to the queues, so a slow socket neither delays the other viewers nor makes
+ * output pile up in memory. A viewer only sends while its connection is writable, so the bound
+ * holds all the way to the socket. Viewers keep the terminal name they know, which may differ between
+ * endpoints.
+ */
+@Component
+public class LogMultiplexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogMultiplexer.class);
+
+    private final Map<String, LogStream> streams = new ConcurrentHashMap<>();
+    private final SocketRegistry socketRegistry;
+    private final TerminalManager terminalManager;
+    private final int viewerBufferSize;
+    private final LogViewer.Overflow overflow;
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter droppedCounter;
+
+    public LogMultiplexer(TerminalManager terminalManager, SocketRegistry socketRegistry, MeterRegistry meterRegistry,
+                          @Value("${dockge.terminal.logs.viewer-buffer:262144}") int viewerBufferSize,
+                          @Value("${dockge.terminal.logs.overflow:drop-oldest}") String overflow) {
+        this.terminalManager = terminalManager;
+        this.socketRegistry = socketRegistry;
+        this.viewerBufferSize = viewerBufferSize;
+        this.overflow = LogViewer.Overflow.valueOf(overflow.toUpperCase(Locale.ROOT).replace('-', '_'));
+
+        this.droppedCounter = Counter.builder("dockge.terminal.logs.dropped")
+                .description("Log output dropped because a viewer could not keep up")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("dockge.terminal.logs.streams", streams, Map::size)
+                .description("Upstream log terminals")
+                .register(meterRegistry);
+        Gauge.builder("dockge.terminal.logs.viewers", this, LogMultiplexer::getViewerCount)
+                .description("Sockets following a log terminal")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sendExecutor.shutdownNow();
+    }
+
+    /**
+     * Follow the stream, starting the upstream terminal from the supplier if nobody follows it yet.
+     *
+     * @param streamName   name of the upstream terminal
+     * @param terminalName name the socket knows the output by
+     */
+    public void join(DockgeSocket socket, String streamName, String terminalName, Supplier<Terminal> upstream) {
+        LogStream stream = streams.compute(streamName, (key, existing) -> {
+            LogStream current = existing == null || existing.closed ? new LogStream(key, upstream.get()) : existing;
+            LogViewer viewer = new LogViewer(socket, terminalName, viewerBufferSize, overflow, sendExecutor,
+                    current::encode, droppedCounter);
+            LogViewer previous = current.viewers.put(socket.getId(), viewer);
+            if (previous != null) {
+                previous.close();
+            }
+            return current;
+        });
+        stream.upstream.touch();
+        stream.upstream.start();
+    }
+
+    /**
+     * Stop following, the upstream terminal is left to the reaper once nobody follows it.
+     */
+    public void leave(DockgeSocket socket, String terminalName) {
+        for (LogStream stream : streams.values()) {
+            LogViewer viewer = stream.viewers.get(socket.getId());
+            if (viewer != null && viewer.getTerminalName().equals(terminalName)) {
+                remove(stream, socket);
+            }
+        }
+    }
+
+    /**
+     * The upstream terminal a socket knows by this name, for its scrollback.
+     */
+    public Terminal getTerminal(String terminalName) {
+        for (LogStream stream : streams.values()) {
+            for (LogViewer viewer : stream.viewers.values()) {
+                if (viewer.getTerminalName().equals(terminalName)) {
+                    return stream.upstream;
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getViewerCount() {
+        int count = 0;
+        for (LogStream stream : streams.values()) {
+            count += stream.viewers.size();
+        }
+        return count;
+    }
+
+    /**
+     * Drop the viewers whose socket has disconnected.
+     */
+    @Scheduled(fixedDelayString = "${dockge.terminal.reap-interval:60000}")
+    public void reap() {
+        for (LogStream stream : streams.values()) {
+            for (LogViewer viewer : stream.viewers.values()) {
+                DockgeSocket socket = viewer.getSocket();
+                if (socketRegistry.get(socket.getId()) != socket) {
+                    logger.debug("Kicking disconnected client {} from log stream {}", socket.getId(), stream.name);
+                    remove(stream, socket);
+                }
+            }
+        }
+    }
+
+    private void remove(LogStream stream, DockgeSocket socket) {
+        streams.computeIfPresent(stream.name, (key, current) -> {
+            if (current != stream) {
+                return current;
+            }
+            LogViewer viewer = stream.viewers.remove(socket.getId());
+            if (viewer != null) {
+                viewer.close();
+            }
+            if (!stream.viewers.isEmpty()) {
+                return stream;
+            }
+            stream.detach();
+            return null;
+        });
+    }
+
+    private record EncodedBatch(String terminalName, String text, EncodedPacket packet) {
+    }
+
+    private class LogStream {
+        final String name;
+        final Terminal upstream;
+        final Map<String, LogViewer> viewers = new ConcurrentHashMap<>();
+        final Consumer<String> listener = this::publish;
+        volatile boolean closed;
+        // Viewers that keep up send the same batch, it is encoded once for them
+        volatile EncodedBatch lastBatch;
+
+        LogStream(String name, Terminal upstream) {
+            this.name = name;
+            this.upstream = upstream;
+            upstream.addOutputListener(listener);
+            upstream.onExit(this::exit);
+        }
+
+        EncodedPacket encode(String terminalName, String text) {
+            EncodedBatch batch = lastBatch;
+            if (batch != null && batch.text() == text && batch.terminalName().equals(terminalName)) {
+                return batch.packet();
+            }
+            EncodedPacket packet = terminalManager.encode("agent", "terminalWrite", terminalName, text);
+            lastBatch = new EncodedBatch(terminalName, text, packet);
+            return packet;
+        }
+
+        private void publish(String text) {
+            for (LogViewer viewer : viewers.values()) {
+                viewer.offer(text);
+            }
+        }
+
+        private void exit(int exitCode) {
+            closed = true;
+            streams.remove(name, this);
+            for (LogViewer viewer : viewers.values()) {
+                viewer.finish(exitCode);
+            }
+        }
+
+        void detach() {
+            closed = true;
+            upstream.removeOutputListener(listener);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.louislam.dockge.terminal;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Keeps terminal output of each stack on disk under dockge.data-dir/logs/{stack}/{log}, so a
+ * client that reconnects gets the recent output straight from the files.
+ *
+ * Every log is a {@link SegmentedLog}. Retention is by total size per log and by age, checked
+ * when a segment is full and every cleanup interval.
+ */
+@Component
+public class LogSegmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSegmentStore.class);
+
+    /**
+     * A log kept on disk.
+     */
+    public record StoredLog(String stackName, String logName, SegmentedLog log) {
+    }
+
+    private final Map<Path, SegmentedLog> logs = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> sealListeners = new CopyOnWriteArrayList<>();
+    private final Path root;
+    private final boolean enabled;
+    private final long segmentSize;
+    private final long maxSize;
+    private final long maxAge;
+    private final int replaySize;
+
+    public LogSegmentStore(@Value("${dockge.data-dir:./data}") String dataDir,
+                           @Value("${dockge.terminal.log-store.enabled:true}") boolean enabled,
+                           @Value("${dockge.terminal.log-store.segment-size:4194304}") long segmentSize,
+                           @Value("${dockge.terminal.log-store.max-size:67108864}") long maxSize,
+                           @Value("${dockge.terminal.log-store.max-age:604800000}") long maxAge,
+                           @Value("${dockge.terminal.log-store.replay-size:1048576}") int replaySize) {
+        this.root = Path.of(dataDir, "logs");
+        this.enabled = enabled;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.replaySize = replaySize;
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (SegmentedLog log : logs.values()) {
+            log.close();
+        }
+    }
+
+    /**
+     * The log of the stack with the name, or null if logs are not kept.
+     */
+    public SegmentedLog open(String stackName, String logName) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            return logs.computeIfAbsent(root.resolve(stackName).resolve(logName), dir -> {
+                try {
+                    return new SegmentedLog(dir, segmentSize, maxSize, maxAge, replaySize, this::sealed);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            logger.warn("Failed to open log {} of {}: {}", logName, stackName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Be told when a segment is no longer written to. Listeners are called on the thread writing
+     * the output and must not block.
+     */
+    public void addSealListener(Consumer<Path> listener) {
+        sealListeners.add(listener);
+    }
+
+    private void sealed(Path segment) {
+        for (Consumer<Path> listener : sealListeners) {
+            listener.accept(segment);
+        }
+    }
+
+    /**
+     * The recent output kept for the stack, empty if there is none.
+     */
+    public String readTail(String stackName, String logName) {
+        if (!enabled || !Files.isDirectory(root.resolve(stackName).resolve(logName))) {
+            return "";
+        }
+        SegmentedLog log = open(stackName, logName);
+        return log == null ? "" : log.readTail();
+    }
+
+    /**
+     * Delete all the logs of a stack.
+     */
+    public void delete(String stackName) {
+        Path stackDir = root.resolve(stackName);
+        logs.entrySet().removeIf(entry -> {
+            if (!entry.getKey().getParent().equals(stackDir)) {
+                return false;
+            }
+            try {
+                entry.getValue().delete();
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}: {}", entry.getKey(), e.getMessage());
+            }
+            return true;
+        });
+        try {
+            Files.deleteIfExists(stackDir);
+        } catch (IOException e) {
+            logger.debug("Failed to delete {}: {}", stackDir, e.getMessage());
+        }
+    }
+
+    /**
+     * All the logs on disk, including those of stacks not open since startup, by stack name.
+     */
+    public List<StoredLog> getLogs() {
+        List<StoredLog> list = new ArrayList<>();
+        if (!enabled || !Files.isDirectory(root)) {
+            return list;
+        }
+        try (Stream<Path> stackDirs = Files.list(root)) {
+            for (Path stackDir : stackDirs.sorted().toList()) {
+                if (!Files.isDirectory(stackDir)) {
+                    continue;
+                }
+                try (Stream<Path> logDirs = Files.list(stackDir)) {
+                    for (Path logDir : logDirs.sorted().toList()) {
+                        String stackName = stackDir.getFileName().toString();
+                        String logName = logDir.getFileName().toString();
+                        SegmentedLog log = open(stackName, logName);
+                        if (log != null) {
+                            list.add(new StoredLog(stackName, logName, log));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list {}: {}", root, e.getMessage());
+        }
+        return list;
+    }
+
+    /**
+     * Apply the retention to every log on disk.
+     */
+    @Scheduled(fixedDelayString = "${dockge.terminal.log-store.cleanup-interval:3600000}")
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        for (StoredLog stored : getLogs()) {
+            stored.log().enforceRetention(now);
+        }
+    }
+}
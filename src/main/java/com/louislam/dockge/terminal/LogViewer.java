@@ -0,0 +1,273 @@
+package com.louislam.dockge.terminal;
+
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.EncodedPacket;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * One socket following a shared log stream.
+ *
+ * Output is queued up to a byte limit and sent by a task of its own, so a socket that cannot
+ * keep up only ever delays itself. The task only sends while the socket is
+ * {@link DockgeSocket#isWritable() writable} and otherwise waits for it to catch up, so the output
+ * piles up here rather than in the outbound queue of the connection. When the queue is full,
+ * output is dropped according to the {@link Overflow} policy and the viewer is told how much it
+ * missed.
+ */
+class LogViewer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogViewer.class);
+
+    enum Overflow {
+        /**
+         * Drop the oldest queued output until the new output fits.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop everything queued and continue from the new output.
+         */
+        SKIP_TO_LIVE
+    }
+
+    private final DockgeSocket socket;
+    private final String terminalName;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Executor executor;
+    private final BiFunction<String, String, EncodedPacket> encoder;
+    private final Counter droppedCounter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private long missedBytes;
+    private Integer exitCode;
+    private boolean draining;
+    private boolean closed;
+
+    /**
+     * @param encoder encodes a terminalWrite frame from the terminal name and the text
+     */
+    LogViewer(DockgeSocket socket, String terminalName, int capacity, Overflow overflow, Executor executor,
+              BiFunction<String, String, EncodedPacket> encoder, Counter droppedCounter) {
+        this.socket = socket;
+        this.terminalName = terminalName;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.executor = executor;
+        this.encoder = encoder;
+        this.droppedCounter = droppedCounter;
+    }
+
+    DockgeSocket getSocket() {
+        return socket;
+    }
+
+    String getTerminalName() {
+        return terminalName;
+    }
+
+    /**
+     * Queue output for the socket. Never blocks.
+     */
+    void offer(String text) {
+        lock.lock();
+        try {
+            if (closed || exitCode != null) {
+                return;
+            }
+            queue.add(text);
+            queuedBytes += utf8Length(text);
+            if (queuedBytes > capacity) {
+                trim();
+            }
+        } finally {
+            lock.unlock();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Send terminalExit once the queued output has been sent.
+     */
+    void finish(int exitCode) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            this.exitCode = exitCode;
+        } finally {
+            lock.unlock();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Stop sending, whatever is queued is discarded.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void trim() {
+        long dropped = 0;
+        if (overflow == Overflow.SKIP_TO_LIVE) {
+            String newest = queue.pollLast();
+            while (!queue.isEmpty()) {
+                dropped += utf8Length(queue.poll());
+            }
+            queue.add(newest);
+        } else {
+            while (queue.size() > 1 && queuedBytes - dropped > capacity) {
+                dropped += utf8Length(queue.poll());
+            }
+        }
+        queuedBytes -= dropped;
+
+        // A single batch larger than the whole queue, keep as much of its end as fits
+        if (queuedBytes > capacity) {
+            String text = queue.poll();
+            int start = text.length();
+            long tailBytes = 0;
+            while (start > 0) {
+                int codePoint = text.codePointBefore(start);
+                int bytes = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                if (tailBytes + bytes > capacity) {
+                    break;
+                }
+                tailBytes += bytes;
+                start -= Character.charCount(codePoint);
+            }
+            String tail = text.substring(start);
+            dropped += queuedBytes - tailBytes;
+            queuedBytes = tailBytes;
+            queue.add(tail);
+        }
+
+        missedBytes += dropped;
+        droppedCounter.increment(dropped);
+    }
+
+    private void scheduleDrain() {
+        lock.lock();
+        try {
+            if (draining || closed) {
+                return;
+            }
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            close();
+        }
+    }
+
+    private void resume() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            close();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            if (!socket.isWritable()) {
+                // Still draining, offers only queue until the socket has caught up
+                socket.onWritable(this::resume);
+                return;
+            }
+            String text;
+            Integer exit = null;
+            lock.lock();
+            try {
+                if (closed || (queue.isEmpty() && missedBytes == 0)) {
+                    exit = closed ? null : exitCode;
+                    closed |= exit != null;
+                    draining = false;
+                    text = null;
+                } else {
+                    StringBuilder builder = new StringBuilder();
+                    if (missedBytes > 0) {
+                        builder.append("\r\n\u001b[33m[Missed ").append(missedBytes)
+                                .append(" bytes of output]\u001b[0m\r\n");
+                        missedBytes = 0;
+                    }
+                    text = queue.size() == 1 && builder.isEmpty() ? queue.poll() : drainInto(builder);
+                    queuedBytes = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (text == null) {
+                if (exit != null) {
+                    socket.emitAgent("terminalExit", terminalName, exit);
+                }
+                return;
+            }
+            try {
+                socket.send(encoder.apply(terminalName, text));
+            } catch (RuntimeException e) {
+                logger.debug("Failed to send log output to {}: {}", socket.getId(), e.getMessage());
+                close();
+            }
+        }
+    }
+
+    private String drainInto(StringBuilder builder) {
+        String chunk;
+        while ((chunk = queue.poll()) != null) {
+            builder.append(chunk);
+        }
+        return builder.toString();
+    }
+
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
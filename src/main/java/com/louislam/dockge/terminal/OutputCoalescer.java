@@ -0,0 +1,105 @@
+package com.louislam.dockge.terminal;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Batches the output of one terminal into fewer frames.
+ *
+ * Output is held for up to the window, or until the threshold is reached, then passed to the
+ * sink in one piece. In low-latency mode, output that arrives after a quiet window is flushed
+ * right away, so keystroke echo is not delayed; bursts are still batched.
+ *
+ * The scheduler only triggers flushes at the end of a window, the sink is called on the flush
+ * executor so a slow socket does not hold up the other terminals.
+ */
+public class OutputCoalescer {
+
+    private final Consumer<String> sink;
+    private final ScheduledExecutorService scheduler;
+    private final Executor flushExecutor;
+    private final long windowNanos;
+    private final int threshold;
+    private final boolean lowLatency;
+    private final Counter chunkCounter;
+    private final Counter frameCounter;
+
+    // A lock rather than synchronized, so a virtual thread blocked in the sink does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StringBuilder pending = new StringBuilder();
+    private ScheduledFuture<?> scheduledFlush;
+    private long lastFlush;
+
+    OutputCoalescer(Consumer<String> sink, ScheduledExecutorService scheduler, Executor flushExecutor,
+                    long windowMillis, int threshold, boolean lowLatency, Counter chunkCounter, Counter frameCounter) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.flushExecutor = flushExecutor;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.threshold = threshold;
+        this.lowLatency = lowLatency;
+        this.chunkCounter = chunkCounter;
+        this.frameCounter = frameCounter;
+        this.lastFlush = System.nanoTime() - windowNanos;
+    }
+
+    public void append(String text) {
+        lock.lock();
+        try {
+            chunkCounter.increment();
+            pending.append(text);
+
+            if (windowNanos <= 0 || pending.length() >= threshold) {
+                flush();
+            } else if (lowLatency && scheduledFlush == null && System.nanoTime() - lastFlush >= windowNanos) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::scheduledFlush, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduledFlush() {
+        try {
+            flushExecutor.execute(this::flush);
+        } catch (RuntimeException e) {
+            // Shutting down
+            flush();
+        }
+    }
+
+    /**
+     * Send what is pending now. The sink is called under the lock so frames keep their order.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            String text = pending.toString();
+            pending.setLength(0);
+            lastFlush = System.nanoTime();
+            frameCounter.increment();
+            sink.accept(text);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+}
@@ -0,0 +1,42 @@
+package com.louislam.dockge.terminal;
+
+import com.pty4j.PtyProcessBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts the process behind a terminal.
+ */
+@FunctionalInterface
+interface ProcessLauncher {
+
+    /**
+     * @param pty run in a pseudo terminal, otherwise through pipes with stderr merged into stdout
+     */
+    Process launch(List<String> command, Path cwd, int cols, int rows, boolean pty) throws IOException;
+
+    ProcessLauncher DEFAULT = (command, cwd, cols, rows, pty) -> {
+        if (!pty) {
+            ProcessBuilder builder = new ProcessBuilder(command)
+                    .directory(cwd.toFile())
+                    .redirectErrorStream(true);
+            builder.environment().put("COLUMNS", Integer.toString(cols));
+            builder.environment().put("LINES", Integer.toString(rows));
+            return builder.start();
+        }
+
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.putIfAbsent("TERM", "xterm-256color");
+        return new PtyProcessBuilder(command.toArray(new String[0]))
+                .setDirectory(cwd.toString())
+                .setEnvironment(env)
+                .setInitialColumns(cols)
+                .setInitialRows(rows)
+                .setRedirectErrorStream(true)
+                .start();
+    };
+}
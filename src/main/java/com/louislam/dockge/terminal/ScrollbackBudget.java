@@ -0,0 +1,51 @@
+package com.louislam.dockge.terminal;
+
+import com.louislam.dockge.util.ByteRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out terminal scrollback buffers within a per-terminal and a global byte budget.
+ *
+ * A terminal gets the per-terminal size while the global budget allows it, then whatever is left.
+ * The bytes return to the budget when the terminal exits.
+ */
+@Component
+public class ScrollbackBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScrollbackBudget.class);
+
+    private final int perTerminal;
+    private final long global;
+    private long allocated;
+
+    public ScrollbackBudget(@Value("${dockge.terminal.scrollback.per-terminal:65536}") int perTerminal,
+                            @Value("${dockge.terminal.scrollback.global:67108864}") long global) {
+        this.perTerminal = perTerminal;
+        this.global = global;
+    }
+
+    public synchronized ByteRingBuffer allocate() {
+        int capacity = (int) Math.max(0, Math.min(perTerminal, global - allocated));
+        if (capacity < perTerminal) {
+            logger.warn("Terminal scrollback budget of {} bytes is exhausted, new terminal gets {} bytes",
+                    global, capacity);
+        }
+        allocated += capacity;
+        return new ByteRingBuffer(capacity);
+    }
+
+    public synchronized void release(ByteRingBuffer buffer) {
+        allocated -= buffer.capacity();
+    }
+
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    public long getGlobal() {
+        return global;
+    }
+}
@@ -0,0 +1,422 @@
+package com.louislam.dockge.terminal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Terminal output appended to rolling segment files in a directory of its own.
+ *
+ * Each segment is named by the offset of its first byte and holds up to the segment size. Reads
+ * map the segments read-only, so replaying the tail does not go through a heap byte array, and
+ * segments past the size or age limit are deleted oldest first.
+ */
+public class SegmentedLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private static final String SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * A segment as of when it was listed.
+     *
+     * @param sealed whether it is no longer written to
+     */
+    public record SegmentInfo(Path path, long start, long size, long modified, boolean sealed) {
+    }
+
+    private final Path dir;
+    private final long segmentSize;
+    private final long maxSize;
+    private final long maxAge;
+    private final int replaySize;
+    private final Consumer<Path> sealListener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Oldest first, the last one is written to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private FileChannel channel;
+    private long lastWrite;
+
+    private static final class Segment {
+        final Path path;
+        final long start;
+        long size;
+        long modified;
+        // Mapping of a segment that is no longer written to
+        MappedByteBuffer sealed;
+
+        Segment(Path path, long start, long size, long modified) {
+            this.path = path;
+            this.start = start;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    SegmentedLog(Path dir, long segmentSize, long maxSize, long maxAge, int replaySize) throws IOException {
+        this(dir, segmentSize, maxSize, maxAge, replaySize, path -> {
+        });
+    }
+
+    /**
+     * @param sealListener called with the path of a segment once it is no longer written to, it
+     *                     runs on the writing thread and must not block
+     */
+    SegmentedLog(Path dir, long segmentSize, long maxSize, long maxAge, int replaySize,
+                 Consumer<Path> sealListener) throws IOException {
+        this.dir = dir;
+        this.sealListener = sealListener;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.replaySize = replaySize;
+
+        Files.createDirectories(dir);
+        List<Segment> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String fileName = path.getFileName().toString();
+                if (!fileName.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    long start = Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+                    found.add(new Segment(path, start, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                } catch (NumberFormatException e) {
+                    logger.debug("Ignoring {}", path);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.start, b.start));
+        segments.addAll(found);
+        if (!segments.isEmpty()) {
+            lastWrite = segments.getLast().modified;
+        }
+    }
+
+    /**
+     * Append raw output. Failures are logged, the output is still shown, just not kept.
+     */
+    public void append(byte[] data, int offset, int length) {
+        lock.lock();
+        try {
+            if (channel == null || segments.getLast().size >= segmentSize) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            Segment current = segments.getLast();
+            current.size += length;
+            current.modified = lastWrite = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.warn("Failed to write to {}: {}", dir, e.getMessage());
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        long start = 0;
+        Segment previous = null;
+        if (!segments.isEmpty()) {
+            previous = segments.getLast();
+            start = previous.start + previous.size;
+        }
+        closeChannel();
+        if (previous != null && previous.size > 0) {
+            sealListener.accept(previous.path);
+        }
+
+        Path path = dir.resolve(String.format("%020d%s", start, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (segments.isEmpty() || !segments.getLast().path.equals(path)) {
+            segments.add(new Segment(path, start, 0, System.currentTimeMillis()));
+        }
+        enforceRetention(System.currentTimeMillis());
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close {}: {}", dir, e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Delete the oldest segments while the log is larger or older than allowed. The segment being
+     * written to is kept.
+     */
+    public void enforceRetention(long now) {
+        lock.lock();
+        try {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += segment.size;
+            }
+            Iterator<Segment> iterator = segments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                boolean current = channel != null && segment == segments.getLast();
+                if (current || (total <= maxSize && now - segment.modified <= maxAge)) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(segment.path);
+                    Files.deleteIfExists(getIndexPath(segment.path));
+                } catch (IOException e) {
+                    logger.warn("Failed to delete {}: {}", segment.path, e.getMessage());
+                    break;
+                }
+                total -= segment.size;
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The last replay size bytes of output.
+     */
+    public String readTail() {
+        return readTail(replaySize);
+    }
+
+    public String readTail(long maxBytes) {
+        List<ByteBuffer> slices = new ArrayList<>();
+        lock.lock();
+        try {
+            long remaining = maxBytes;
+            Iterator<Segment> iterator = segments.descendingIterator();
+            while (iterator.hasNext() && remaining > 0) {
+                Segment segment = iterator.next();
+                ByteBuffer mapped = map(segment, segment == segments.getLast() && channel != null);
+                if (mapped == null) {
+                    continue;
+                }
+                int length = (int) Math.min(remaining, mapped.limit());
+                slices.add(0, mapped.slice(mapped.limit() - length, length));
+                remaining -= length;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read {}: {}", dir, e.getMessage());
+            return "";
+        } finally {
+            lock.unlock();
+        }
+        return decode(slices);
+    }
+
+    /**
+     * The segments, oldest first.
+     */
+    public List<SegmentInfo> getSegments() {
+        lock.lock();
+        try {
+            List<SegmentInfo> list = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                boolean current = channel != null && segment == segments.getLast();
+                list.add(new SegmentInfo(segment.path, segment.start, segment.size, segment.modified, !current));
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Map the segment read-only, up to the size it had when it was listed. Null if it has been
+     * deleted since.
+     */
+    public ByteBuffer map(SegmentInfo info) throws IOException {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.path.equals(info.path())) {
+                    ByteBuffer mapped = map(segment, !info.sealed());
+                    return mapped == null ? null : mapped.slice(0, (int) Math.min(info.size(), mapped.limit()));
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Where the search index of a segment is kept.
+     */
+    public static Path getIndexPath(Path segmentPath) {
+        String fileName = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(fileName.substring(0, fileName.length() - SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static ByteBuffer map(Segment segment, boolean current) throws IOException {
+        if (segment.sealed != null) {
+            return segment.sealed;
+        }
+        if (segment.size == 0) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel file = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(segment.size, file.size()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // The segment being written to grows, it is mapped again on the next read
+        if (!current) {
+            segment.sealed = mapped;
+        }
+        return mapped;
+    }
+
+    private static String decode(List<ByteBuffer> slices) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        long total = 0;
+        for (ByteBuffer slice : slices) {
+            total += slice.remaining();
+        }
+        StringBuilder builder = new StringBuilder((int) Math.min(total, Integer.MAX_VALUE - 8));
+        CharBuffer chars = CharBuffer.allocate(8192);
+        byte[] carry = new byte[0];
+
+        for (int i = 0; i < slices.size(); i++) {
+            ByteBuffer in = slices.get(i);
+            if (i == 0) {
+                // The oldest bytes may have been cut in the middle of a character, skip to the next one
+                int skipped = 0;
+                while (in.hasRemaining() && skipped < 3 && (in.get(in.position()) & 0xC0) == 0x80) {
+                    in.position(in.position() + 1);
+                    skipped++;
+                }
+            }
+            if (carry.length > 0) {
+                // A character split between two segments
+                ByteBuffer head = ByteBuffer.allocate(carry.length + Math.min(3, in.remaining()));
+                head.put(carry).put(in.slice(in.position(), head.remaining())).flip();
+                decode(decoder, head, chars, builder);
+                in.position(in.position() + Math.max(0, head.position() - carry.length));
+            }
+            decode(decoder, in, chars, builder);
+            carry = new byte[in.remaining()];
+            in.get(carry);
+        }
+        decoder.decode(ByteBuffer.wrap(carry), chars, true);
+        decoder.flush(chars);
+        builder.append(chars.flip());
+        return builder.toString();
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer chars, StringBuilder builder) {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, false);
+            builder.append(chars.flip());
+            chars.clear();
+            if (!result.isOverflow()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Time of the last write in epoch milliseconds, 0 if the log is empty.
+     */
+    public long getLastWrite() {
+        lock.lock();
+        try {
+            return lastWrite;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSize() {
+        lock.lock();
+        try {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += segment.size;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return getSegmentCount() == 0;
+    }
+
+    /**
+     * Stop writing, the log can still be read and is reopened on the next append.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close and delete the segments.
+     */
+    void delete() throws IOException {
+        lock.lock();
+        try {
+            closeChannel();
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(getIndexPath(segment.path));
+            }
+            segments.clear();
+            Files.deleteIfExists(dir);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
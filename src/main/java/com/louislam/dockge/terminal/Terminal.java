@@ -0,0 +1,388 @@
+package com.louislam.dockge.terminal;
+
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.util.ByteRingBuffer;
+import com.pty4j.PtyProcess;
+import com.pty4j.WinSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Terminal for running commands, no user interaction. Ports Terminal in terminal.ts.
+ *
+ * The command runs in a pseudo terminal, or through pipes for output-only streams such as logs.
+ * Pipes are read by a virtual thread, so thousands of log streams do not need thousands of
+ * platform threads. A pseudo terminal is read by a platform thread, since its reads block in native
+ * code and would hold a carrier thread for as long as the terminal is open.
+ *
+ * Its output is kept in a byte ring buffer for sockets that join later, sized by
+ * {@link ScrollbackBudget}, and sent to every joined socket as terminalWrite events. terminalExit is
+ * sent when the process exits.
+ *
+ * Output is batched by an {@link OutputCoalescer}, and each batch is serialized once for all the
+ * joined sockets.
+ */
+public class Terminal {
+
+    private static final Logger logger = LoggerFactory.getLogger(Terminal.class);
+
+    public static final int TERMINAL_COLS = 105;
+    public static final int TERMINAL_ROWS = 10;
+    public static final int PROGRESS_TERMINAL_ROWS = 8;
+
+    public static final int COMBINED_TERMINAL_COLS = 58;
+    public static final int COMBINED_TERMINAL_ROWS = 20;
+
+    private final TerminalManager manager;
+    private final String name;
+    private final List<String> command;
+    private final Path cwd;
+    private final boolean pty;
+
+    private final ByteRingBuffer buffer;
+    private final OutputCoalescer coalescer;
+    private final Map<String, DockgeSocket> sockets = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> outputListeners = new CopyOnWriteArrayList<>();
+    private final List<IntConsumer> exitCallbacks = new CopyOnWriteArrayList<>();
+
+    private volatile int rows = TERMINAL_ROWS;
+    private volatile int cols = TERMINAL_COLS;
+    private volatile boolean keepAlive;
+    private volatile SegmentedLog recorder;
+    private Process process;
+    private boolean exited;
+
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long lastActivity = createdAt;
+    private long sampledBytes;
+    private long sampledAt = System.nanoTime();
+    private volatile double bytesPerSecond;
+
+    // Undecoded bytes at the end of the last chunk, only touched by the reader thread
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+
+    Terminal(TerminalManager manager, String name, List<String> command, Path cwd, boolean pty,
+             ByteRingBuffer buffer, boolean lowLatency) {
+        this.manager = manager;
+        this.name = name;
+        this.command = List.copyOf(command);
+        this.cwd = cwd;
+        this.pty = pty;
+        this.buffer = buffer;
+        this.coalescer = manager.createCoalescer(this::broadcast, lowLatency);
+    }
+
+    public static String getComposeTerminalName(String endpoint, String stack) {
+        return "compose-" + endpoint + "-" + stack;
+    }
+
+    public static String getCombinedTerminalName(String endpoint, String stack) {
+        return "combined-" + endpoint + "-" + stack;
+    }
+
+    /**
+     * The upstream of the combined terminals of a stack, shared by all endpoints.
+     */
+    public static String getCombinedStreamName(String stack) {
+        return "combined-logs-" + stack;
+    }
+
+    public static String getContainerTerminalName(String endpoint, String container) {
+        return "container-" + endpoint + "-" + container;
+    }
+
+    public static String getContainerExecTerminalName(String endpoint, String stackName, String container, int index) {
+        return "container-exec-" + endpoint + "-" + stackName + "-" + container + "-" + index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+        resize();
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public void setCols(int cols) {
+        this.cols = cols;
+        resize();
+    }
+
+    /**
+     * Close the terminal once no socket is joined, checked when terminals are reaped.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    private synchronized void resize() {
+        if (!(process instanceof PtyProcess ptyProcess)) {
+            return;
+        }
+        try {
+            ptyProcess.setWinSize(new WinSize(cols, rows));
+        } catch (RuntimeException e) {
+            logger.debug("Failed to resize terminal: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void start() {
+        if (process != null) {
+            return;
+        }
+
+        try {
+            process = manager.launch(command, cwd, cols, rows, pty);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to start terminal {}: {}", name, e.getMessage());
+            byte[] message = (e.getMessage() + "\r\n").getBytes(StandardCharsets.UTF_8);
+            write(message, message.length, StandardCharsets.UTF_8.newDecoder());
+            exit(1);
+            return;
+        }
+
+        Process started = process;
+        // A pty read blocks in native code while holding a lock, which would pin a carrier thread
+        Thread.Builder reader = pty ? Thread.ofPlatform().daemon() : Thread.ofVirtual();
+        reader.name("terminal-" + name).start(() -> pump(started));
+    }
+
+    private void pump(Process process) {
+        byte[] chunk = new byte[4096];
+        // Decodes across chunks, a multi-byte character may be split between two reads
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try (InputStream in = process.getInputStream()) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                write(chunk, n, decoder);
+            }
+        } catch (IOException e) {
+            logger.debug("Terminal {} output closed: {}", name, e.getMessage());
+        }
+
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            exitCode = -1;
+        }
+        exit(exitCode);
+    }
+
+    private void write(byte[] data, int length, CharsetDecoder decoder) {
+        lastActivity = System.currentTimeMillis();
+        manager.recordRead(length);
+        buffer.write(data, 0, length);
+        SegmentedLog log = recorder;
+        if (log != null) {
+            log.append(data, 0, length);
+        }
+        if (sockets.isEmpty() && outputListeners.isEmpty()) {
+            // Nobody to decode for
+            pending = ByteBuffer.allocate(0);
+            return;
+        }
+
+        ByteBuffer in = ByteBuffer.allocate(pending.remaining() + length);
+        in.put(pending).put(data, 0, length).flip();
+        CharBuffer out = CharBuffer.allocate(in.remaining());
+        decoder.decode(in, out, false);
+        pending = in;
+        if (out.position() == 0) {
+            return;
+        }
+
+        coalescer.append(out.flip().toString());
+    }
+
+    private void broadcast(String text) {
+        for (Consumer<String> listener : outputListeners) {
+            listener.accept(text);
+        }
+        if (sockets.isEmpty()) {
+            return;
+        }
+        EncodedPacket packet = manager.encode("agent", "terminalWrite", name, text);
+        for (DockgeSocket socket : sockets.values()) {
+            try {
+                socket.send(packet);
+            } catch (RuntimeException e) {
+                logger.debug("Failed to send terminal output to {}: {}", socket.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void exit(int exitCode) {
+        synchronized (this) {
+            if (exited) {
+                return;
+            }
+            exited = true;
+        }
+        coalescer.flush();
+        for (DockgeSocket socket : sockets.values()) {
+            socket.emitAgent("terminalExit", name, exitCode);
+        }
+        sockets.clear();
+
+        manager.remove(this);
+        logger.debug("Terminal {} exited with code {}", name, exitCode);
+
+        for (IntConsumer callback : exitCallbacks) {
+            callback.accept(exitCode);
+        }
+    }
+
+    public void onExit(IntConsumer callback) {
+        exitCallbacks.add(callback);
+    }
+
+    /**
+     * Receive the output batches as they are flushed. The listener is called on the flush path,
+     * so it must not block.
+     */
+    void addOutputListener(Consumer<String> listener) {
+        outputListeners.add(listener);
+    }
+
+    void removeOutputListener(Consumer<String> listener) {
+        outputListeners.remove(listener);
+    }
+
+    public void join(DockgeSocket socket) {
+        lastActivity = System.currentTimeMillis();
+        sockets.put(socket.getId(), socket);
+    }
+
+    public void leave(DockgeSocket socket) {
+        sockets.remove(socket.getId());
+    }
+
+    /**
+     * Also keep the output on disk, it is then replayed from there to sockets that join.
+     */
+    public void setRecorder(SegmentedLog recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * The recent output, decoded straight from the recorded log or the scrollback bytes.
+     */
+    public String getBuffer() {
+        SegmentedLog log = recorder;
+        if (log != null) {
+            return log.readTail();
+        }
+        byte[] bytes = buffer.snapshot();
+        // The oldest bytes may have been cut in the middle of a character, skip to the next one
+        int start = 0;
+        while (start < bytes.length && start < 3 && (bytes[start] & 0xC0) == 0x80) {
+            start++;
+        }
+        return new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8);
+    }
+
+    ByteRingBuffer getScrollback() {
+        return buffer;
+    }
+
+    synchronized Process getProcess() {
+        return process;
+    }
+
+    Iterable<DockgeSocket> getSockets() {
+        return sockets.values();
+    }
+
+    public int getSocketCount() {
+        return sockets.size();
+    }
+
+    /**
+     * Whether a socket or an output listener still reads the output.
+     */
+    boolean isWatched() {
+        return !sockets.isEmpty() || !outputListeners.isEmpty();
+    }
+
+    /**
+     * Bytes of output read since the terminal started.
+     */
+    public long getBytesRead() {
+        return buffer.getTotalWritten();
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Last time output was read, input was written or a socket joined.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Output rate between the last two samples.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Called by the reaper only.
+     */
+    void sampleThroughput() {
+        long now = System.nanoTime();
+        long bytes = getBytesRead();
+        if (now > sampledAt) {
+            bytesPerSecond = (bytes - sampledBytes) * 1e9 / (now - sampledAt);
+        }
+        sampledBytes = bytes;
+        sampledAt = now;
+    }
+
+    public synchronized void close() {
+        if (process != null) {
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.louislam.dockge.terminal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.DockgeSocket;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the running terminals by name, the static terminalMap of terminal.ts.
+ *
+ * At most dockge.terminal.max-terminals terminals can be open. Every reap interval, sockets that
+ * have disconnected are removed from their terminals, and keep-alive terminals without sockets
+ * and interactive terminals idle for longer than dockge.terminal.idle-timeout are closed.
+ */
+@Component
+public class TerminalManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(TerminalManager.class);
+
+    /**
+     * A snapshot of one terminal for monitoring.
+     */
+    public record TerminalStats(String name, int sockets, long bytesRead, double bytesPerSecond,
+                                long createdAt, long lastActivity) {
+    }
+
+    private final Map<String, Terminal> terminals = new ConcurrentHashMap<>();
+    private final ScrollbackBudget scrollbackBudget;
+    private final ObjectMapper objectMapper;
+    private final SocketRegistry socketRegistry;
+    private final ProcessLauncher processLauncher;
+
+    private final long coalesceWindow;
+    private final int coalesceThreshold;
+    private final int maxTerminals;
+    private final long idleTimeout;
+    private final ScheduledExecutorService flushScheduler;
+    private final ExecutorService flushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter chunkCounter;
+    private final Counter frameCounter;
+    private final Counter byteCounter;
+    private final Counter reapedCounter;
+
+    @Autowired
+    public TerminalManager(ScrollbackBudget scrollbackBudget, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                           SocketRegistry socketRegistry,
+                           @Value("${dockge.terminal.output.coalesce-window:16}") long coalesceWindow,
+                           @Value("${dockge.terminal.output.coalesce-threshold:16384}") int coalesceThreshold,
+                           @Value("${dockge.terminal.max-terminals:10000}") int maxTerminals,
+                           @Value("${dockge.terminal.idle-timeout:1800000}") long idleTimeout) {
+        this(scrollbackBudget, objectMapper, meterRegistry, socketRegistry, ProcessLauncher.DEFAULT,
+                coalesceWindow, coalesceThreshold, maxTerminals, idleTimeout);
+    }
+
+    TerminalManager(ScrollbackBudget scrollbackBudget, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                    SocketRegistry socketRegistry, ProcessLauncher processLauncher, long coalesceWindow,
+                    int coalesceThreshold, int maxTerminals, long idleTimeout) {
+        this.scrollbackBudget = scrollbackBudget;
+        this.objectMapper = objectMapper;
+        this.socketRegistry = socketRegistry;
+        this.processLauncher = processLauncher;
+        this.coalesceWindow = coalesceWindow;
+        this.coalesceThreshold = coalesceThreshold;
+        this.maxTerminals = maxTerminals;
+        this.idleTimeout = idleTimeout;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "terminal-output-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.chunkCounter = Counter.builder("dockge.terminal.output.chunks")
+                .description("Output chunks read from terminals")
+                .register(meterRegistry);
+        this.frameCounter = Counter.builder("dockge.terminal.output.frames")
+                .description("terminalWrite frames sent after coalescing")
+                .register(meterRegistry);
+        FunctionCounter.builder("dockge.terminal.output.frames.saved", this,
+                        manager -> manager.chunkCounter.count() - manager.frameCounter.count())
+                .description("Frames that were merged into another frame")
+                .register(meterRegistry);
+        this.byteCounter = Counter.builder("dockge.terminal.output.bytes")
+                .description("Output bytes read from terminals")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.reapedCounter = Counter.builder("dockge.terminal.reaped")
+                .description("Terminals closed because they were idle or had no socket left")
+                .register(meterRegistry);
+        Gauge.builder("dockge.terminal.count", terminals, Map::size)
+                .description("Open terminals")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flushScheduler.shutdownNow();
+        flushExecutor.shutdownNow();
+    }
+
+    /**
+     * Get a running and non-exited terminal.
+     */
+    public Terminal getTerminal(String name) {
+        return terminals.get(name);
+    }
+
+    public Terminal getOrCreateTerminal(String name, List<String> command, Path cwd) {
+        return terminals.computeIfAbsent(name, key -> {
+            checkLimit();
+            return new Terminal(this, key, command, cwd, true, scrollbackBudget.allocate(), false);
+        });
+    }
+
+    /**
+     * Get or create a keep-alive terminal for an output-only stream, such as docker compose logs.
+     * It runs without a pseudo terminal, so the virtual thread reading it never pins its carrier.
+     */
+    public Terminal getOrCreateLogTerminal(String name, List<String> command, Path cwd) {
+        Terminal terminal = terminals.computeIfAbsent(name, key -> {
+            checkLimit();
+            return new Terminal(this, key, command, cwd, false, scrollbackBudget.allocate(), false);
+        });
+        terminal.setKeepAlive(true);
+        return terminal;
+    }
+
+    /**
+     * Get the interactive terminal with the name, or create one. Fails if a terminal that does
+     * not take input already has the name.
+     */
+    public InteractiveTerminal getOrCreateInteractiveTerminal(String name, List<String> command, Path cwd) {
+        Terminal terminal = terminals.computeIfAbsent(name, key -> {
+            checkLimit();
+            return new InteractiveTerminal(this, key, command, cwd, scrollbackBudget.allocate());
+        });
+        if (!(terminal instanceof InteractiveTerminal interactive)) {
+            throw new ValidationException("Terminal not found or it is not a Interactive Terminal.");
+        }
+        return interactive;
+    }
+
+    /**
+     * Run a command in a new terminal, joined by the socket if there is one. Only one terminal
+     * with the same name can run at a time. The future completes with the exit code.
+     */
+    public CompletableFuture<Integer> exec(DockgeSocket socket, String name, List<String> command, Path cwd) {
+        if (terminals.containsKey(name)) {
+            return CompletableFuture.failedFuture(
+                    new ValidationException("Another operation is already running, please try again later."));
+        }
+        try {
+            checkLimit();
+        } catch (ValidationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Terminal terminal = new Terminal(this, name, command, cwd, true, scrollbackBudget.allocate(), false);
+        if (terminals.putIfAbsent(name, terminal) != null) {
+            scrollbackBudget.release(terminal.getScrollback());
+            return CompletableFuture.failedFuture(
+                    new ValidationException("Another operation is already running, please try again later."));
+        }
+        terminal.setRows(Terminal.PROGRESS_TERMINAL_ROWS);
+        if (socket != null) {
+            terminal.join(socket);
+        }
+
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        terminal.onExit(future::complete);
+        terminal.start();
+        return future;
+    }
+
+    private void checkLimit() {
+        if (terminals.size() >= maxTerminals) {
+            throw new ValidationException("Too many terminals are open, please try again later.");
+        }
+    }
+
+    public int getTerminalCount() {
+        return terminals.size();
+    }
+
+    public List<TerminalStats> getStats() {
+        List<TerminalStats> stats = new ArrayList<>(terminals.size());
+        for (Terminal terminal : terminals.values()) {
+            stats.add(new TerminalStats(terminal.getName(), terminal.getSocketCount(), terminal.getBytesRead(),
+                    terminal.getBytesPerSecond(), terminal.getCreatedAt(), terminal.getLastActivity()));
+        }
+        return stats;
+    }
+
+    /**
+     * Remove disconnected sockets, close terminals nobody needs, and sample the throughput.
+     */
+    @Scheduled(fixedDelayString = "${dockge.terminal.reap-interval:60000}")
+    public void reap() {
+        long now = System.currentTimeMillis();
+        int reaped = 0;
+        for (Terminal terminal : terminals.values()) {
+            terminal.sampleThroughput();
+
+            for (DockgeSocket socket : terminal.getSockets()) {
+                if (socketRegistry.get(socket.getId()) != socket) {
+                    logger.debug("Kicking disconnected client {} from terminal {}", socket.getId(), terminal.getName());
+                    terminal.leave(socket);
+                }
+            }
+            if (terminal.isWatched()) {
+                continue;
+            }
+
+            boolean idle = terminal instanceof InteractiveTerminal && idleTimeout > 0
+                    && now - terminal.getLastActivity() > idleTimeout;
+            if (terminal.isKeepAlive() || idle) {
+                logger.debug("Terminal {} has no client, closing...", terminal.getName());
+                terminal.close();
+                reaped++;
+            }
+        }
+        if (reaped > 0) {
+            reapedCounter.increment(reaped);
+            logger.info("Closed {} unused terminals, {} open", reaped, terminals.size());
+        }
+    }
+
+    Process launch(List<String> command, Path cwd, int cols, int rows, boolean pty) throws IOException {
+        return processLauncher.launch(command, cwd, cols, rows, pty);
+    }
+
+    OutputCoalescer createCoalescer(Consumer<String> sink, boolean lowLatency) {
+        return new OutputCoalescer(sink, flushScheduler, flushExecutor, coalesceWindow, coalesceThreshold,
+                lowLatency, chunkCounter, frameCounter);
+    }
+
+    void recordRead(int bytes) {
+        byteCounter.increment(bytes);
+    }
+
+    EncodedPacket encode(String event, Object... args) {
+        return EncodedPacket.event(objectMapper, event, args);
+    }
+
+    void remove(Terminal terminal) {
+        if (terminals.remove(terminal.getName(), terminal)) {
+            scrollbackBudget.release(terminal.getScrollback());
+        }
+    }
+}
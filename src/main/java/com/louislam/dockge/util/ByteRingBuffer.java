@@ -0,0 +1,120 @@
+package com.louislam.dockge.util;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fixed-capacity byte buffer that keeps the most recent bytes written to it.
+ *
+ * Meant for one writer and many readers: the writer never waits for readers, readers copy the
+ * content optimistically and only fall back to locking when a write happened during the copy.
+ */
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final StampedLock lock = new StampedLock();
+
+    // Next write position and number of valid bytes, guarded by the lock
+    private int head;
+    private int size;
+    private long totalWritten;
+
+    public ByteRingBuffer(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.buffer = new byte[capacity];
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Append bytes, overwriting the oldest ones once the buffer is full.
+     */
+    public void write(byte[] data, int offset, int length) {
+        int capacity = buffer.length;
+        long stamp = lock.writeLock();
+        try {
+            totalWritten += length;
+            if (capacity == 0) {
+                return;
+            }
+            // Only the tail of a chunk larger than the buffer can be kept
+            if (length >= capacity) {
+                System.arraycopy(data, offset + length - capacity, buffer, 0, capacity);
+                head = 0;
+                size = capacity;
+                return;
+            }
+            int first = Math.min(length, capacity - head);
+            System.arraycopy(data, offset, buffer, head, first);
+            System.arraycopy(data, offset + first, buffer, 0, length - first);
+            head = (head + length) % capacity;
+            size = Math.min(capacity, size + length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copy of the buffered bytes, oldest first.
+     */
+    public byte[] snapshot() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            byte[] copy = copy(head, size);
+            if (lock.validate(stamp)) {
+                return copy;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return copy(head, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private byte[] copy(int head, int size) {
+        int capacity = buffer.length;
+        // The values may be inconsistent in an optimistic read, the copy is discarded then
+        if (size < 0 || size > capacity || head < 0 || head > capacity) {
+            return new byte[0];
+        }
+        byte[] copy = new byte[size];
+        int start = size < capacity ? head - size : head;
+        if (start < 0) {
+            start += capacity;
+        }
+        int first = Math.min(size, capacity - start);
+        System.arraycopy(buffer, start, copy, 0, first);
+        System.arraycopy(buffer, 0, copy, first, size - first);
+        return copy;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Number of bytes written since the buffer was created, including the overwritten ones.
+     */
+    public long getTotalWritten() {
+        long stamp = lock.readLock();
+        try {
+            return totalWritten;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.louislam.dockge.util;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket per key, the counterpart of KumaRateLimiter in rate-limiter.ts.
+ *
+ * Each key may take {@code permits} tokens per interval, refilled continuously. Keys whose bucket
+ * is full again are forgotten once there are more than {@code maxKeys}, so the map does not grow
+ * with every address that ever tried.
+ */
+public class RateLimiter<K> {
+
+    private record Bucket(double tokens, long updatedAt) {
+    }
+
+    private final ConcurrentHashMap<K, Bucket> buckets = new ConcurrentHashMap<>();
+    private final int permits;
+    private final double permitsPerNano;
+    private final int maxKeys;
+    private final LongSupplier nanoTime;
+
+    public RateLimiter(int permits, Duration interval, int maxKeys) {
+        this(permits, interval, maxKeys, System::nanoTime);
+    }
+
+    RateLimiter(int permits, Duration interval, int maxKeys, LongSupplier nanoTime) {
+        this.permits = permits;
+        this.permitsPerNano = (double) permits / interval.toNanos();
+        this.maxKeys = maxKeys;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Take a token for the key, false if it has none left.
+     */
+    public boolean tryAcquire(K key) {
+        long now = nanoTime.getAsLong();
+        if (buckets.size() > maxKeys) {
+            buckets.values().removeIf(bucket -> available(bucket, now) >= permits);
+        }
+        boolean[] acquired = new boolean[1];
+        buckets.compute(key, (k, bucket) -> {
+            double tokens = bucket == null ? permits : available(bucket, now);
+            acquired[0] = tokens >= 1;
+            return new Bucket(acquired[0] ? tokens - 1 : tokens, now);
+        });
+        return acquired[0];
+    }
+
+    private double available(Bucket bucket, long now) {
+        return Math.min(permits, bucket.tokens() + (now - bucket.updatedAt()) * permitsPerNano);
+    }
+
+    int getKeyCount() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,73 @@
+package com.louislam.dockge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time in the order they were submitted, on another executor.
+ *
+ * Nothing runs while the queue is empty, so an idle instance costs no thread. Submitting never
+ * blocks: the first task submitted to an idle instance starts a run on the delegate that keeps
+ * going until the queue is empty.
+ */
+public final class SerialExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor delegate;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Tasks submitted since the run last checked, the run goes on while it is not zero
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        queued.incrementAndGet();
+        if (pending.getAndIncrement() == 0) {
+            try {
+                delegate.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                tasks.clear();
+                queued.set(0);
+                pending.set(0);
+                throw e;
+            }
+        }
+    }
+
+    private void run() {
+        int missed = pending.get();
+        while (true) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                queued.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Task failed", e);
+                }
+            }
+            missed = pending.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tasks submitted and not started yet.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+}
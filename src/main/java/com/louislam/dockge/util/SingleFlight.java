@@ -0,0 +1,108 @@
+package com.louislam.dockge.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent lookups of the same key into one computation.
+ *
+ * Callers that arrive while a value is being computed wait for it instead of starting their own,
+ * and a completed value is served to later callers until it is older than the freshness window
+ * or the key is invalidated. Failures are never cached.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long freshNanos;
+    private final LongSupplier nanoTime;
+    private final AtomicLong loadCount = new AtomicLong();
+
+    public SingleFlight(Duration freshFor) {
+        this(freshFor, System::nanoTime);
+    }
+
+    SingleFlight(Duration freshFor, LongSupplier nanoTime) {
+        this.freshNanos = freshFor.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    private static final class Entry<V> {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        volatile long completedAt;
+    }
+
+    /**
+     * Returns the fresh value of the key, joining an in-flight computation or running the loader
+     * on the calling thread if there is none.
+     */
+    public V get(K key, Supplier<V> loader) {
+        while (true) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && !isExpired(entry)) {
+                return join(entry);
+            }
+
+            Entry<V> created = new Entry<>();
+            boolean owner = entry == null
+                    ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, entry, created);
+            if (!owner) {
+                // Lost the race to another caller, join theirs
+                continue;
+            }
+
+            loadCount.incrementAndGet();
+            try {
+                V value = loader.get();
+                created.completedAt = nanoTime.getAsLong();
+                created.future.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                entries.remove(key, created);
+                created.future.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drop the cached value of the key. A computation that is already running still completes for
+     * its waiters, but the next caller starts a new one.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Number of times a loader has been run, for monitoring the hit rate.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return entry.future.isDone() && nanoTime.getAsLong() - entry.completedAt >= freshNanos;
+    }
+
+    private static <V> V join(Entry<V> entry) {
+        try {
+            return entry.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
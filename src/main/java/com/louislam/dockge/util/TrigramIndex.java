@@ -0,0 +1,149 @@
+package com.louislam.dockge.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * Which byte trigrams occur in a block of text, ignoring ASCII case and ANSI escape sequences,
+ * hashed into a bit set.
+ *
+ * Like a Bloom filter it can say that a query is certainly not in the block, or that it might
+ * be. Queries shorter than three bytes might always be. The bit set is sized from the number of
+ * distinct trigrams in the block, at 8 to 16 bits each, so that it stays sparse for text with many
+ * of them such as ids and base64 and small for repetitive text.
+ */
+public final class TrigramIndex {
+
+    // "TRI3", so that index files built with the escape sequences in the text are rebuilt
+    private static final int MAGIC = 0x54524933;
+    private static final byte ESC = 0x1B;
+    private static final int BITS_PER_TRIGRAM = 8;
+    private static final int MIN_BITS_LOG2 = 10;
+    private static final int MAX_BITS_LOG2 = 22;
+
+    private final BitSet bits;
+    private final int bitsLog2;
+
+    private TrigramIndex(BitSet bits, int bitsLog2) {
+        this.bits = bits;
+        this.bitsLog2 = bitsLog2;
+    }
+
+    /**
+     * Index the remaining bytes of the buffer, without moving its position.
+     */
+    public static TrigramIndex build(ByteBuffer buffer) {
+        // Every trigram exactly first, 2 MiB whatever the size of the block
+        BitSet exact = new BitSet(1 << 24);
+        int end = buffer.limit();
+        int window = 0;
+        int count = 0;
+        for (int i = skipEscapes(buffer, buffer.position(), end); i < end; i = skipEscapes(buffer, i + 1, end)) {
+            window = ((window << 8) | lower(buffer.get(i))) & 0xFFFFFF;
+            if (++count >= 3) {
+                exact.set(window);
+            }
+        }
+
+        int bitsLog2 = MIN_BITS_LOG2;
+        long wanted = (long) exact.cardinality() * BITS_PER_TRIGRAM;
+        while (bitsLog2 < MAX_BITS_LOG2 && (1L << bitsLog2) < wanted) {
+            bitsLog2++;
+        }
+        BitSet bits = new BitSet(1 << bitsLog2);
+        for (int trigram = exact.nextSetBit(0); trigram >= 0; trigram = exact.nextSetBit(trigram + 1)) {
+            bits.set(hash(trigram, bitsLog2));
+        }
+        return new TrigramIndex(bits, bitsLog2);
+    }
+
+    /**
+     * Whether the bytes might occur in the indexed block. The query must be lowercase already.
+     */
+    public boolean mightContain(byte[] lowerQuery) {
+        for (int i = 0; i + 2 < lowerQuery.length; i++) {
+            int trigram = ((lowerQuery[i] & 0xFF) << 16) | ((lowerQuery[i + 1] & 0xFF) << 8) | (lowerQuery[i + 2] & 0xFF);
+            if (!bits.get(hash(trigram, bitsLog2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Size of the bit set, in bits.
+     */
+    public int size() {
+        return 1 << bitsLog2;
+    }
+
+    /**
+     * Fraction of the bits that are set, roughly the chance of a trigram that is not in the block
+     * passing.
+     */
+    public double fillRatio() {
+        return (double) bits.cardinality() / size();
+    }
+
+    public void write(Path path) throws IOException {
+        byte[] data = bits.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + data.length);
+        buffer.putInt(MAGIC).putInt(bitsLog2).put(data);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException also if the file is not an index of this format
+     */
+    public static TrigramIndex read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a trigram index: " + path);
+        }
+        int bitsLog2 = buffer.getInt();
+        if (bitsLog2 < MIN_BITS_LOG2 || bitsLog2 > MAX_BITS_LOG2) {
+            throw new IOException("Invalid trigram index size in " + path);
+        }
+        return new TrigramIndex(BitSet.valueOf(buffer), bitsLog2);
+    }
+
+    /**
+     * The position after the ANSI escape sequences starting at the position, such as colors, or
+     * the position itself if none does. A sequence cut off by the end is not skipped.
+     */
+    public static int skipEscapes(ByteBuffer buffer, int position, int end) {
+        while (position + 1 < end && buffer.get(position) == ESC && buffer.get(position + 1) == '[') {
+            int i = position + 2;
+            while (i < end && isParameter(buffer.get(i))) {
+                i++;
+            }
+            while (i < end && buffer.get(i) >= 0x20 && buffer.get(i) <= 0x2F) {
+                i++;
+            }
+            if (i >= end || buffer.get(i) < 0x40 || buffer.get(i) > 0x7E) {
+                return position;
+            }
+            position = i + 1;
+        }
+        return position;
+    }
+
+    private static boolean isParameter(byte b) {
+        return b >= '0' && b <= '9' || b == ';' || b == '?';
+    }
+
+    public static int lower(byte b) {
+        int c = b & 0xFF;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int hash(int trigram, int bitsLog2) {
+        return (trigram * 0x9E3779B1) >>> (32 - bitsLog2);
+    }
+}
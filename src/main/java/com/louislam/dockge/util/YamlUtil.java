@@ -0,0 +1,59 @@
+package com.louislam.dockge.util;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * YAML and .env parsing helpers.
+ */
+public final class YamlUtil {
+
+    private YamlUtil() {
+    }
+
+    /**
+     * Parse a YAML document into plain maps, lists and scalars. Only standard tags are allowed.
+     * An empty document is returned as null.
+     */
+    public static Object parse(String yaml) {
+        // Yaml instances are not thread-safe
+        return new Yaml(new SafeConstructor(new LoaderOptions())).load(yaml);
+    }
+
+    /**
+     * Parse a .env file: KEY=VALUE lines, with optional quotes, "export " prefixes and # comments.
+     */
+    public static Map<String, String> parseEnv(String env) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String line : env.split("\n")) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("export ")) {
+                line = line.substring("export ".length()).strip();
+            }
+            int index = line.indexOf('=');
+            if (index <= 0) {
+                continue;
+            }
+            String key = line.substring(0, index).strip();
+            String value = line.substring(index + 1).strip();
+            if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                    && value.charAt(value.length() - 1) == value.charAt(0)) {
+                value = value.substring(1, value.length() - 1);
+            } else {
+                int comment = value.indexOf(" #");
+                if (comment >= 0) {
+                    value = value.substring(0, comment).strip();
+                }
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+}
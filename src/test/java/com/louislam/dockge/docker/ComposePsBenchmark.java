@@ -0,0 +1,94 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding `docker compose ps --format json`: splitting the whole output into lines and parsing
+ * each into a tree, as getServiceStatusList in stack.ts does, versus {@link ComposePsDecoder}.
+ *
+ * Run with {@code mvn test -Pbenchmark -DskipTests -Dbenchmark.includes=ComposePsBenchmark}, add
+ * {@code -prof gc} to the JMH arguments to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComposePsBenchmark {
+
+    @Param({"10", "60"})
+    int services;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < services; i++) {
+            sb.append("{\"Command\":\"\\\"/docker-entrypoint.sh nginx -g 'daemon off;'\\\"\",")
+                    .append("\"CreatedAt\":\"2024-01-01 00:00:00 +0000 UTC\",\"ExitCode\":0,\"Health\":\"")
+                    .append(i % 2 == 0 ? "healthy" : "").append("\",\"ID\":\"")
+                    .append("0123456789abcdef".repeat(4)).append("\",\"Image\":\"nginx:latest\",")
+                    .append("\"Labels\":\"com.docker.compose.project=web,com.docker.compose.service=svc").append(i)
+                    .append(",com.docker.compose.version=2.24.0\",\"LocalVolumes\":\"0\",\"Mounts\":\"\",")
+                    .append("\"Name\":\"web-svc").append(i).append("-1\",\"Names\":\"web-svc").append(i).append("-1\",")
+                    .append("\"Networks\":\"web_default\",\"Ports\":\"0.0.0.0:").append(8000 + i)
+                    .append("->80/tcp, :::").append(8000 + i).append("->80/tcp, 443/tcp\",")
+                    .append("\"Project\":\"web\",\"Publishers\":[{\"URL\":\"0.0.0.0\",\"TargetPort\":80,")
+                    .append("\"PublishedPort\":").append(8000 + i).append(",\"Protocol\":\"tcp\"}],")
+                    .append("\"RunningFor\":\"2 hours ago\",\"Service\":\"svc").append(i).append("\",")
+                    .append("\"Size\":\"0B\",\"State\":\"running\",\"Status\":\"Up 2 hours\"}\n");
+        }
+        output = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<ServiceStatus> splitAndParseLines() {
+        List<ServiceStatus> list = new ArrayList<>();
+        String stdout = new String(output, StandardCharsets.UTF_8);
+        for (String line : stdout.split("\n")) {
+            try {
+                JsonNode obj = objectMapper.readTree(line);
+                List<String> ports = new ArrayList<>();
+                for (String port : obj.path("Ports").asText().split(",\\s*")) {
+                    if (port.contains("->")) {
+                        ports.add(port);
+                    }
+                }
+                list.add(new ServiceStatus(obj.path("Service").asText(), obj.path("State").asText(),
+                        obj.path("Health").asText(), ports));
+            } catch (IOException e) {
+                // skip
+            }
+        }
+        return list;
+    }
+
+    @Benchmark
+    public List<ServiceStatus> streamingDecoder() throws IOException {
+        return ComposePsDecoder.decode(jsonFactory, new ByteArrayInputStream(output));
+    }
+}
@@ -0,0 +1,64 @@
+package com.louislam.dockge.docker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ComposePsDecoderTest {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    public void testNdjson() throws IOException {
+        String output = """
+                {"Command":"\\"/docker-entrypoint.…\\"","ID":"c1","Labels":"a=b,c=d","Name":"web-nginx-1","Ports":"0.0.0.0:8080->80/tcp, :::8080->80/tcp, 443/tcp","Publishers":[{"URL":"0.0.0.0","TargetPort":80,"PublishedPort":8080,"Protocol":"tcp"}],"Service":"nginx","State":"running","Health":"healthy","ExitCode":0}
+                {"ID":"c2","Name":"web-db-1","Ports":"","Publishers":null,"Service":"db","State":"exited","Health":"","ExitCode":1}
+                """;
+
+        List<ServiceStatus> list = decode(output);
+
+        assertThat(list).containsExactly(
+                new ServiceStatus("nginx", "running", "healthy", List.of("0.0.0.0:8080->80/tcp", "[::]:8080->80/tcp")),
+                new ServiceStatus("db", "exited", "", List.of()));
+        assertThat(list.get(0).displayState()).isEqualTo("healthy");
+        assertThat(list.get(1).displayState()).isEqualTo("exited");
+        // Known values are shared constants
+        assertThat(list.get(0).state()).isSameAs("running");
+    }
+
+    @Test
+    public void testArray() throws IOException {
+        String output = "[{\"Service\":\"a\",\"State\":\"running\",\"Ports\":\"1.2.3.4:1->2/udp\"},"
+                + "{\"Service\":\"b\",\"State\":\"something new\"}]\n";
+
+        assertThat(decode(output)).containsExactly(
+                new ServiceStatus("a", "running", "", List.of("1.2.3.4:1->2/udp")),
+                new ServiceStatus("b", "something new", "", List.of()));
+    }
+
+    @Test
+    public void testIpv6PortsAreBracketed() throws IOException {
+        String output = "{\"Service\":\"a\",\"State\":\"running\",\"Ports\":\":::8080->80/tcp, "
+                + "[::]:8081->81/tcp, fe80::1:9000-9001->9000-9001/udp, 127.0.0.1:53->53/udp, 443/tcp\"}\n";
+
+        // The same as DockerEngineClient formats the ports of the Engine API
+        assertThat(decode(output)).singleElement().extracting(ServiceStatus::ports).asList().containsExactly(
+                "[::]:8080->80/tcp", "[::]:8081->81/tcp", "[fe80::1]:9000-9001->9000-9001/udp", "127.0.0.1:53->53/udp");
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertThat(decode("")).isEmpty();
+        assertThat(decode("[]\n")).isEmpty();
+    }
+
+    private List<ServiceStatus> decode(String output) throws IOException {
+        return ComposePsDecoder.decode(jsonFactory, new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+    }
+}
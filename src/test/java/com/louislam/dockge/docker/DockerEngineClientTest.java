@@ -0,0 +1,242 @@
+package com.louislam.dockge.docker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DockerEngineClientTest {
+
+    private static final String CONTAINERS = """
+            [{"Id":"c1","Names":["/web-nginx-1"],"State":"running","Status":"Up 2 minutes (healthy)",
+              "Labels":{"com.docker.compose.project":"web","com.docker.compose.service":"nginx",
+                        "com.docker.compose.project.config_files":"/opt/stacks/web/compose.yaml","other":"x"},
+              "Ports":[{"IP":"0.0.0.0","PrivatePort":80,"PublicPort":8080,"Type":"tcp"},
+                       {"IP":"::","PrivatePort":80,"PublicPort":8080,"Type":"tcp"},{"PrivatePort":443,"Type":"tcp"}],
+              "NetworkSettings":{"Networks":{"web_default":{"IPAddress":"172.18.0.2"}}}},
+             {"Id":"c2","State":"exited","Status":"Exited (0) 1 hour ago",
+              "Labels":{"com.docker.compose.project":"db","com.docker.compose.service":"postgres"},"Ports":[]}]
+            """;
+
+    private Path dir;
+    private StubDockerDaemon daemon;
+    private DockerEngineClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("docker-stub");
+        Path socket = dir.resolve("docker.sock");
+        daemon = new StubDockerDaemon(socket);
+        client = new DockerEngineClient(socket.toString(), 4);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        daemon.close();
+        Files.deleteIfExists(dir.resolve("docker.sock"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testListComposeContainers() throws IOException {
+        daemon.routes.put("/containers/json", new StubResponse(200, CONTAINERS, true));
+
+        List<ComposeContainer> containers = client.listComposeContainers();
+
+        assertThat(containers).containsExactly(
+                new ComposeContainer("c1", "web", "running", "/opt/stacks/web/compose.yaml"),
+                new ComposeContainer("c2", "db", "exited", null));
+    }
+
+    @Test
+    public void testListServiceStatus() throws IOException {
+        daemon.routes.put("/containers/json", new StubResponse(200, CONTAINERS, false));
+
+        List<ServiceStatus> services = client.listServiceStatus("web");
+
+        assertThat(services.get(0)).isEqualTo(
+                new ServiceStatus("nginx", "running", "healthy", List.of("0.0.0.0:8080->80/tcp", "[::]:8080->80/tcp")));
+        assertThat(services.get(0).displayState()).isEqualTo("healthy");
+        assertThat(services.get(1).displayState()).isEqualTo("exited");
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws IOException {
+        daemon.routes.put("/networks", new StubResponse(200,
+                "[{\"Name\":\"host\",\"Id\":\"1\"},{\"Name\":\"bridge\",\"Labels\":{}}]", false));
+        daemon.routes.put("/containers/json", new StubResponse(200, CONTAINERS, true));
+
+        assertThat(client.listNetworks()).containsExactly("bridge", "host");
+        assertThat(client.listComposeContainers()).hasSize(2);
+        assertThat(client.listNetworks()).containsExactly("bridge", "host");
+
+        assertThat(daemon.accepted.get()).isEqualTo(1);
+        assertThat(client.idleConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testErrorResponse() {
+        daemon.routes.put("/networks", new StubResponse(500, "{\"message\":\"boom\"}", false));
+
+        assertThatThrownBy(() -> client.listNetworks())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("500")
+                .hasMessageContaining("boom")
+                .isNotInstanceOf(EngineUnreachableException.class);
+    }
+
+    @Test
+    public void testUnreachableSocket() {
+        DockerEngineClient missing = new DockerEngineClient(dir.resolve("missing.sock").toString(), 4);
+
+        assertThatThrownBy(missing::listNetworks).isInstanceOf(EngineUnreachableException.class);
+        missing.close();
+    }
+
+    @Test
+    public void testSubscribeEvents() throws Exception {
+        BlockingQueue<DockerEvent> events = new LinkedBlockingQueue<>();
+        BlockingQueue<Object> closed = new LinkedBlockingQueue<>();
+
+        daemon.eventStream = out -> {
+            writeChunk(out, "{\"Type\":\"container\",\"Action\":\"start\",\"Actor\":{\"ID\":\"c1\","
+                    + "\"Attributes\":{\"com.docker.compose.project\":\"web\"}},\"timeNano\":1}\n");
+            writeChunk(out, "{\"Type\":\"container\",\"Action\":\"die\",\"Actor\":{\"ID\":\"c1\","
+                    + "\"Attributes\":{\"com.docker.compose.project\":\"web\"}},\"timeNano\":2}\n");
+        };
+
+        Closeable subscription = client.subscribe(Instant.ofEpochSecond(100), events::add,
+                cause -> closed.add(cause == null ? "none" : cause));
+
+        DockerEvent first = events.poll(5, TimeUnit.SECONDS);
+        DockerEvent second = events.poll(5, TimeUnit.SECONDS);
+        assertThat(first.action()).isEqualTo("start");
+        assertThat(first.project()).isEqualTo("web");
+        assertThat(second.action()).isEqualTo("die");
+        assertThat(daemon.lastEventsQuery).contains("since=100");
+
+        subscription.close();
+        assertThat(closed.poll(5, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    private static void writeChunk(OutputStream out, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        out.write((Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private record StubResponse(int status, String body, boolean chunked) {
+    }
+
+    @FunctionalInterface
+    private interface EventWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A tiny HTTP/1.1 server on a Unix domain socket standing in for the Docker daemon.
+     */
+    private static class StubDockerDaemon implements Closeable {
+        final Map<String, StubResponse> routes = new ConcurrentHashMap<>();
+        final AtomicInteger accepted = new AtomicInteger();
+        volatile EventWriter eventStream;
+        volatile String lastEventsQuery;
+        private final ServerSocketChannel server;
+
+        StubDockerDaemon(Path socket) throws IOException {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        SocketChannel channel = server.accept();
+                        accepted.incrementAndGet();
+                        Thread handler = new Thread(() -> serve(channel));
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void serve(SocketChannel channel) {
+            try (channel) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.US_ASCII));
+                OutputStream out = Channels.newOutputStream(channel);
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        // skip headers
+                    }
+                    String target = requestLine.split(" ")[1];
+                    String path = target.contains("?") ? target.substring(0, target.indexOf('?')) : target;
+
+                    if (path.equals("/events")) {
+                        lastEventsQuery = target;
+                        out.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                        eventStream.write(out);
+                        // Keep the stream open until the client goes away
+                        while (in.read() != -1) {
+                            // wait
+                        }
+                        return;
+                    }
+
+                    StubResponse response = routes.getOrDefault(path, new StubResponse(404, "{\"message\":\"not found\"}", false));
+                    byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+                    String head = "HTTP/1.1 " + response.status() + " X\r\nContent-Type: application/json\r\n";
+                    if (response.chunked()) {
+                        out.write((head + "Transfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                        int half = body.length / 2;
+                        writeChunk(out, new String(body, 0, half, StandardCharsets.UTF_8));
+                        writeChunk(out, new String(body, half, body.length - half, StandardCharsets.UTF_8));
+                        out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    } else {
+                        out.write((head + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                        out.write(body);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.louislam.dockge.docker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FallbackDockerClientTest {
+
+    private Path dir;
+    private DockerEngineClient engine;
+
+    /**
+     * A CLI that answers without forking docker.
+     */
+    private static class StubCli extends DockerCli {
+        @Override
+        public List<String> listNetworks() {
+            return List.of("from-cli");
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("docker-fallback");
+        engine = new DockerEngineClient(dir.resolve("docker.sock").toString(), 4);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        engine.close();
+        Files.deleteIfExists(dir.resolve("docker.sock"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testFallsBackWhenSocketIsUnreachable() throws IOException {
+        FallbackDockerClient client = new FallbackDockerClient(engine, new StubCli(), true);
+
+        assertThat(client.listNetworks()).containsExactly("from-cli");
+    }
+
+    @Test
+    public void testErrorReplyIsNotRetriedWithCli() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(dir.resolve("docker.sock")));
+            Thread daemon = new Thread(() -> {
+                try (SocketChannel channel = server.accept()) {
+                    String body = "{\"message\":\"permission denied\"}";
+                    Channels.newOutputStream(channel).write(("HTTP/1.1 403 Forbidden\r\nContent-Length: "
+                            + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+                    Channels.newInputStream(channel).read();
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            daemon.setDaemon(true);
+            daemon.start();
+
+            FallbackDockerClient client = new FallbackDockerClient(engine, new StubCli(), true);
+            assertThatThrownBy(client::listNetworks)
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("403");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ComposeCommandException;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.RecordingSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkStackOperationServiceTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private BulkStackOperationService service;
+
+    @AfterEach
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    /**
+     * Runs until as many actions as the barrier has parties are running, so they overlap.
+     */
+    private int action(String stackName, CyclicBarrier together) {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+            if (together != null) {
+                together.await(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            running.decrementAndGet();
+        }
+        if (stackName.startsWith("broken")) {
+            throw new ComposeCommandException("Failed to restart", 17);
+        }
+        return 0;
+    }
+
+    @Test
+    public void testParallelismIsBounded() {
+        CyclicBarrier pairs = new CyclicBarrier(2);
+        service = new BulkStackOperationService((socket, action, name) -> action(name, pairs), 4);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            names.add("stack" + i);
+        }
+
+        BulkStackOperationService.BulkResult result = service.run(null, StackAction.RESTART, names, 2);
+        assertThat(result.isOk()).isTrue();
+        assertThat(result.results()).extracting(BulkStackOperationService.StackResult::stackName)
+                .containsExactlyElementsOf(names);
+        assertThat(maxRunning.get()).isEqualTo(2);
+
+        // The requested parallelism is capped by the configured maximum
+        service.stop();
+        CyclicBarrier fours = new CyclicBarrier(4);
+        service = new BulkStackOperationService((socket, action, name) -> action(name, fours), 4);
+        maxRunning.set(0);
+        assertThat(service.run(null, StackAction.RESTART, names, 100).isOk()).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void testFailuresAreAggregated() {
+        service = new BulkStackOperationService((socket, action, name) -> {
+            if (name.equals("missing")) {
+                throw new ValidationException("Stack not found");
+            }
+            return action(name, null);
+        }, 4);
+
+        BulkStackOperationService.BulkResult result = service.run(null, StackAction.UPDATE,
+                List.of("web", "broken", "missing", "db", "web"), 0);
+
+        assertThat(result.isOk()).isFalse();
+        assertThat(result.results()).hasSize(4);
+        assertThat(result.results().get(0).ok()).isTrue();
+        assertThat(result.results().get(0).msg()).isEqualTo("Updated");
+        assertThat(result.results().get(1).ok()).isFalse();
+        assertThat(result.results().get(1).exitCode()).isEqualTo(17);
+        assertThat(result.results().get(2).msg()).isEqualTo("Stack not found");
+        assertThat(result.results().get(3).ok()).isTrue();
+
+        Map<String, Object> json = result.toJson();
+        assertThat(json.get("ok")).isEqualTo(false);
+        assertThat(json.get("succeeded")).isEqualTo(2L);
+        assertThat(json.get("failed")).isEqualTo(2L);
+
+        assertThatThrownBy(() -> service.run(null, StackAction.UPDATE, List.of(), 0))
+                .isInstanceOf(ValidationException.class);
+    }
+
+    @Test
+    public void testProgress() {
+        CyclicBarrier all = new CyclicBarrier(3);
+        service = new BulkStackOperationService((socket, action, name) -> action(name, all), 4);
+        RecordingSocket socket = new RecordingSocket("a", "agent:5001");
+
+        service.run(socket, StackAction.STOP, List.of("a", "broken", "c"), 3);
+        List<Map<?, ?>> progress = socket.getEmitted().stream()
+                .filter(emitted -> emitted.args().get(0).equals("bulkStackProgress"))
+                .<Map<?, ?>>map(emitted -> (Map<?, ?>) emitted.args().get(1))
+                .toList();
+
+        assertThat(progress).hasSize(6);
+        assertThat(progress).filteredOn(p -> p.get("status").equals("running")).hasSize(3);
+        Map<?, ?> failed = progress.stream().filter(p -> p.get("status").equals("failed")).findFirst().get();
+        assertThat(failed.get("stackName")).isEqualTo("broken");
+        assertThat(failed.get("exitCode")).isEqualTo(17);
+        assertThat(failed.get("endpoint")).isEqualTo("agent:5001");
+        assertThat(progress.stream().mapToInt(p -> (Integer) p.get("completed")).max().getAsInt())
+                .isEqualTo(3);
+    }
+}
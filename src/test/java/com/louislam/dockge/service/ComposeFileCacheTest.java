@@ -0,0 +1,118 @@
+package com.louislam.dockge.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ComposeFileCacheTest {
+
+    private static final String COMPOSE = """
+            services:
+              nginx:
+                image: nginx
+                ports:
+                  - "8080:80"
+              db:
+                image: postgres
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testUnchangedFileIsNotReadOrParsedAgain() throws IOException {
+        ComposeFileCache cache = new ComposeFileCache(1024 * 1024);
+        Path path = Files.writeString(dir.resolve("compose.yaml"), COMPOSE);
+
+        CachedFile first = cache.get(path);
+        assertThat(first.getContent()).isEqualTo(COMPOSE);
+        // Parsed lazily
+        assertThat(cache.getParseCount()).isZero();
+        assertThat(first.getServiceNames()).containsExactly("nginx", "db");
+        assertThat(first.getServiceNames()).containsExactly("nginx", "db");
+        assertThat(cache.getParseCount()).isEqualTo(1);
+
+        CachedFile second = cache.get(path);
+        assertThat(second).isSameAs(first);
+        assertThat(second.getServiceNames()).containsExactly("nginx", "db");
+        assertThat(cache.getParseCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedFileIsReadAgain() throws IOException {
+        ComposeFileCache cache = new ComposeFileCache(1024 * 1024);
+        Path path = Files.writeString(dir.resolve("compose.yaml"), COMPOSE);
+        CachedFile first = cache.get(path);
+
+        // Same size, different mtime
+        Files.writeString(path, COMPOSE.replace("nginx", "caddy"));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(first.getLastModified() + 2000));
+        CachedFile second = cache.get(path);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getServiceNames()).containsExactly("caddy", "db");
+
+        // Same mtime, different size
+        Files.writeString(path, "services:\n  web: {}\n");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(second.getLastModified()));
+        assertThat(cache.get(path).getServiceNames()).containsExactly("web");
+
+        Files.delete(path);
+        assertThat(cache.get(path)).isNull();
+        assertThat(cache.getContent(path)).isEmpty();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBySize() throws IOException {
+        ComposeFileCache cache = new ComposeFileCache(250);
+        Path a = Files.writeString(dir.resolve("a.yaml"), "a".repeat(100));
+        Path b = Files.writeString(dir.resolve("b.yaml"), "b".repeat(100));
+        Path c = Files.writeString(dir.resolve("c.yaml"), "c".repeat(100));
+        Path big = Files.writeString(dir.resolve("big.yaml"), "d".repeat(300));
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertThat(cache.size()).isEqualTo(2);
+
+        long misses = cache.getMissCount();
+        cache.get(a);
+        cache.get(c);
+        assertThat(cache.getMissCount()).isEqualTo(misses);
+        cache.get(b);
+        assertThat(cache.getMissCount()).isEqualTo(misses + 1);
+
+        // Larger than the whole cache, never kept
+        assertThat(cache.get(big).getContent()).hasSize(300);
+        assertThat(cache.get(big)).isNotSameAs(cache.get(big));
+    }
+
+    @Test
+    public void testEnv() throws IOException {
+        ComposeFileCache cache = new ComposeFileCache(1024 * 1024);
+        Path path = Files.writeString(dir.resolve(".env"), """
+                # comment
+                A=1
+                export B="two words"
+                C='x=y'
+                D=value # trailing comment
+                invalid
+                """);
+
+        assertThat(cache.get(path).getEnv())
+                .containsEntry("A", "1")
+                .containsEntry("B", "two words")
+                .containsEntry("C", "x=y")
+                .containsEntry("D", "value")
+                .hasSize(4);
+    }
+}
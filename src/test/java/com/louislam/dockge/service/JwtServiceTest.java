@@ -0,0 +1,191 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.config.JwtConfig;
+import com.louislam.dockge.model.User;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JwtServiceTest {
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private JwtService service(String secret, int maxSize) {
+        return new JwtService(JwtConfig.deriveKey(secret), Duration.ofDays(7).toMillis(), username -> {
+            lookups.incrementAndGet();
+            return Optional.ofNullable(users.get(username));
+        }, meterRegistry, maxSize, Duration.ofMinutes(5), now::get);
+    }
+
+    private User user(long id, String username, String passwordHash) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setPasswordHash(passwordHash);
+        users.put(username, user);
+        return user;
+    }
+
+    private double verifications(String result) {
+        return meterRegistry.get("dockge.jwt.verifications").tag("result", result).counter().count();
+    }
+
+    @Test
+    public void testReconnectIsAnsweredFromCache() {
+        JwtService service = service("secret", 100);
+        String token = service.issue(user(1, "admin", "$2a$10$hash"));
+
+        for (int i = 0; i < 10; i++) {
+            JwtService.VerifiedToken verified = service.verify(token);
+            assertThat(verified.userId()).isEqualTo(1);
+            assertThat(verified.username()).isEqualTo("admin");
+        }
+        assertThat(lookups.get()).isEqualTo(1);
+        assertThat(verifications("verified")).isEqualTo(1);
+        assertThat(verifications("cached")).isEqualTo(9);
+    }
+
+    @Test
+    public void testInvalidTokensAreRejected() {
+        JwtService service = service("secret", 100);
+        String token = service.issue(user(1, "admin", "hash"));
+        String forged = service("other-secret", 100).issue(users.get("admin"));
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThatThrownBy(() -> service.verify(forged)).isInstanceOf(JwtException.class);
+        assertThatThrownBy(() -> service.verify(tampered)).isInstanceOf(JwtException.class);
+        assertThatThrownBy(() -> service.verify("not a token")).isInstanceOf(JwtException.class);
+        assertThat(verifications("rejected")).isEqualTo(3);
+        // Failures are not cached
+        assertThatThrownBy(() -> service.verify(forged)).isInstanceOf(JwtException.class);
+        assertThat(service.getCacheSize()).isZero();
+
+        users.get("admin").setActive(false);
+        assertThatThrownBy(() -> service.verify(token)).isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    public void testPasswordChange() {
+        JwtService service = service("secret", 100);
+        User user = user(1, "admin", "old");
+        String token = service.issue(user);
+        service.verify(token);
+
+        user.setPasswordHash("new");
+        service.invalidateUser(1);
+        assertThatThrownBy(() -> service.verify(token))
+                .isInstanceOf(JwtException.class)
+                .hasMessageContaining("password change");
+        assertThat(service.verify(service.issue(user)).userId()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidateUserKeepsOtherUsers() {
+        JwtService service = service("secret", 100);
+        String admin = service.issue(user(1, "admin", "hash"));
+        String other = service.issue(user(2, "other", "hash"));
+        service.verify(admin);
+        service.verify(other);
+
+        service.invalidateUser(1);
+        assertThat(service.getCacheSize()).isEqualTo(1);
+        service.verify(other);
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRevokeTokens() {
+        JwtService service = service("secret", 100);
+        User user = user(1, "admin", "hash");
+        String kept = service.issue(user);
+        now.addAndGet(1000);
+        String revoked = service.issue(user);
+        String other = service.issue(user(2, "other", "hash"));
+        service.verify(kept);
+        service.verify(revoked);
+        service.verify(other);
+
+        now.addAndGet(1000);
+        service.revokeTokens(1, kept);
+        assertThatThrownBy(() -> service.verify(revoked))
+                .isInstanceOf(JwtException.class)
+                .hasMessageContaining("revoked");
+        assertThat(service.verify(kept).userId()).isEqualTo(1);
+        assertThat(service.verify(other).userId()).isEqualTo(2);
+
+        // Still rejected once the cache entries would have expired
+        now.addAndGet(Duration.ofMinutes(5).toMillis());
+        assertThatThrownBy(() -> service.verify(revoked)).isInstanceOf(JwtException.class);
+        assertThat(service.verify(kept).userId()).isEqualTo(1);
+
+        // Tokens issued after the revocation are valid
+        assertThat(service.verify(service.issue(user)).userId()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRevokeWithoutKeptToken() {
+        JwtService service = service("secret", 100);
+        User user = user(1, "admin", "hash");
+        String token = service.issue(user);
+        service.verify(token);
+
+        now.addAndGet(1000);
+        service.revokeTokens(1, null);
+        assertThatThrownBy(() -> service.verify(token)).isInstanceOf(JwtException.class);
+        assertThat(service.getCacheSize()).isZero();
+    }
+
+    @Test
+    public void testExpiry() {
+        JwtService service = service("secret", 100);
+        String token = service.issue(user(1, "admin", "hash"));
+        service.verify(token);
+
+        // Checked again once the cache entry is older than the TTL
+        now.addAndGet(Duration.ofMinutes(5).toMillis());
+        service.verify(token);
+        assertThat(lookups.get()).isEqualTo(2);
+
+        // Not served from the cache after the token itself expired
+        now.addAndGet(Duration.ofDays(7).toMillis());
+        assertThatThrownBy(() -> service.verify(token)).isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        JwtService service = service("secret", 2);
+        User user = user(1, "admin", "hash");
+        // Tokens are only distinct if issued in different seconds
+        String first = service.issue(user);
+        now.addAndGet(1000);
+        String second = service.issue(user);
+        now.addAndGet(1000);
+        String third = service.issue(user);
+
+        service.verify(first);
+        service.verify(second);
+        service.verify(first);
+        service.verify(third);
+        assertThat(service.getCacheSize()).isEqualTo(2);
+
+        // The least recently used one was evicted
+        lookups.set(0);
+        service.verify(first);
+        assertThat(lookups.get()).isZero();
+        service.verify(second);
+        assertThat(lookups.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,137 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.terminal.LogSegmentStore;
+import com.louislam.dockge.terminal.SegmentedLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LogSearchServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LogSegmentStore store;
+    private LogSearchService service;
+
+    @BeforeEach
+    public void setUp() {
+        store = new LogSegmentStore(dir.toString(), true, 64, 1 << 20, Long.MAX_VALUE, 1024);
+        service = new LogSearchService(store, meterRegistry, 1, 1000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.stop();
+        store.stop();
+    }
+
+    private void write(String stackName, String text) {
+        SegmentedLog log = store.open(stackName, "combined");
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        log.append(bytes, 0, bytes.length);
+    }
+
+    private List<LogSearchService.Match> search(String text, String stackName, int limit, String cursor,
+                                                String[] next) {
+        List<LogSearchService.Match> matches = new ArrayList<>();
+        next[0] = service.begin(text, stackName, 0, limit, cursor).run(matches::addAll);
+        return matches;
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            write("web", "web-1  | GET /index.html " + i + "\r\n");
+            write("db", "db-1   | checkpoint complete " + i + "\n");
+        }
+        write("db", "db-1   | \u001b[31mERROR\u001b[0m: could not connect\n");
+        for (int i = 0; i < 20; i++) {
+            write("db", "db-1   | checkpoint starting " + i + "\n");
+        }
+        write("web", "web-1  | upstream error: connection refused\r\n");
+        service.awaitIndexing();
+
+        String[] next = new String[1];
+        List<LogSearchService.Match> matches = search("Error", null, 0, null, next);
+        assertThat(matches).extracting(LogSearchService.Match::stackName).containsExactly("db", "web");
+        // Escape codes and the line ending are removed
+        assertThat(matches.get(0).line()).isEqualTo("db-1   | ERROR: could not connect");
+        assertThat(matches.get(1).line()).isEqualTo("web-1  | upstream error: connection refused");
+        assertThat(next[0]).isNull();
+
+        // Sealed segments without the trigrams of the query are not read
+        assertThat(meterRegistry.get("dockge.log.search.segments").tag("result", "skipped").counter().count())
+                .isPositive();
+
+        assertThat(search("error", "web", 0, null, next)).singleElement()
+                .satisfies(match -> assertThat(match.stackName()).isEqualTo("web"));
+        assertThat(search("no such text", null, 0, null, next)).isEmpty();
+    }
+
+    @Test
+    public void testSearchSkipsEscapeSequences() throws Exception {
+        write("web", "web-1  | \u001b[1mconn\u001b[0mection reset by peer\n");
+        for (int i = 0; i < 20; i++) {
+            write("web", "web-1  | GET /index.html " + i + "\n");
+        }
+        write("web", "web-1  | \u001b[33mconnection\u001b[0m \u001b[1mreset\u001b[0m again\n");
+        service.awaitIndexing();
+
+        String[] next = new String[1];
+        assertThat(search("connection reset", null, 0, null, next))
+                .extracting(LogSearchService.Match::line)
+                .containsExactly("web-1  | connection reset by peer", "web-1  | connection reset again");
+        assertThat(search("0m", null, 0, null, next)).isEmpty();
+    }
+
+    @Test
+    public void testPagination() {
+        for (int i = 0; i < 10; i++) {
+            write("a", "line " + i + "\n");
+            write("b", "line " + i + "\n");
+        }
+
+        List<String> lines = new ArrayList<>();
+        String[] next = new String[1];
+        String cursor = null;
+        int pages = 0;
+        do {
+            for (LogSearchService.Match match : search("line", null, 3, cursor, next)) {
+                lines.add(match.stackName() + " " + match.line());
+            }
+            cursor = next[0];
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(7);
+        assertThat(lines).hasSize(20).doesNotHaveDuplicates();
+        assertThat(lines.get(0)).isEqualTo("a line 0");
+        assertThat(lines.get(19)).isEqualTo("b line 9");
+    }
+
+    @Test
+    public void testLimits() {
+        assertThatThrownBy(() -> service.begin("", null, 0, 0, null)).isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> service.begin("x", null, 0, 0, "bad")).isInstanceOf(ValidationException.class);
+
+        LogSearchService.Search running = service.begin("x", null, 0, 0, null);
+        assertThatThrownBy(() -> service.begin("x", null, 0, 0, null)).isInstanceOf(ValidationException.class);
+        running.run(matches -> {
+        });
+        service.begin("x", null, 0, 0, null).run(matches -> {
+        });
+    }
+}
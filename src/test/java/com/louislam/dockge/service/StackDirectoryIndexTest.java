@@ -0,0 +1,136 @@
+package com.louislam.dockge.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackDirectoryIndexTest {
+
+    @TempDir
+    Path stacksDir;
+
+    private StackDirectoryIndex index;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        createStack("web", "compose.yaml", true);
+        createStack("db", "docker-compose.yml", false);
+        // Both names present, the first accepted name wins
+        createStack("both", "compose.yml", false);
+        Files.writeString(stacksDir.resolve("both").resolve("docker-compose.yaml"), "services: {}\n");
+        Files.createDirectories(stacksDir.resolve("empty"));
+        Files.writeString(stacksDir.resolve("README.md"), "not a stack");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (index != null) {
+            index.stop();
+        }
+    }
+
+    @Test
+    public void testInitialScan() {
+        index = new StackDirectoryIndex(stacksDir.toString(), true, 4);
+        index.start();
+
+        assertThat(index.isWatching()).isTrue();
+        assertThat(index.getStacks()).containsOnlyKeys("both", "db", "web");
+        assertThat(index.get("web").composeFileName()).isEqualTo("compose.yaml");
+        assertThat(index.get("web").envFileExists()).isTrue();
+        assertThat(index.get("web").lastModified()).isPositive();
+        assertThat(index.get("db").composeFileName()).isEqualTo("docker-compose.yml");
+        assertThat(index.get("db").envFileExists()).isFalse();
+        assertThat(index.get("both").composeFileName()).isEqualTo("docker-compose.yaml");
+    }
+
+    @Test
+    public void testWatcherKeepsIndexCurrent() throws Exception {
+        index = new StackDirectoryIndex(stacksDir.toString(), true, 4);
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        index.addListener(changes::add);
+        index.start();
+        long rescans = index.getRescanCount();
+
+        createStack("new", "compose.yaml", false);
+        waitFor(() -> index.getStacks().containsKey("new"));
+
+        // A directory without a compose file is still watched
+        Files.writeString(stacksDir.resolve("empty").resolve("compose.yaml"), "services: {}\n");
+        waitFor(() -> index.getStacks().containsKey("empty"));
+
+        Files.writeString(stacksDir.resolve("db").resolve(".env"), "A=1\n");
+        waitFor(() -> index.get("db").envFileExists());
+
+        Files.delete(stacksDir.resolve("web").resolve("compose.yaml"));
+        waitFor(() -> !index.getStacks().containsKey("web"));
+
+        assertThat(changes).contains("new", "empty", "db", "web");
+        assertThat(index.getRescanCount()).isEqualTo(rescans);
+    }
+
+    @Test
+    public void testRescanWithoutWatcher() throws IOException {
+        index = new StackDirectoryIndex(stacksDir.toString(), false, 4);
+        index.start();
+        assertThat(index.isWatching()).isFalse();
+
+        createStack("new", "compose.yaml", false);
+        assertThat(index.getStacks()).containsOnlyKeys("both", "db", "new", "web");
+    }
+
+    @Test
+    public void testMissingStacksDir() {
+        index = new StackDirectoryIndex(stacksDir.resolve("missing").toString(), true, 4);
+        index.start();
+
+        assertThat(index.isWatching()).isFalse();
+        assertThat(index.getStacks()).isEmpty();
+    }
+
+    @Test
+    public void testWatchIsRetried() throws Exception {
+        Path missing = stacksDir.resolve("later");
+        index = new StackDirectoryIndex(missing.toString(), true, 4, 0);
+        index.start();
+        assertThat(index.isWatching()).isFalse();
+
+        Files.createDirectories(missing.resolve("web"));
+        Files.writeString(missing.resolve("web").resolve("compose.yaml"), "services: {}\n");
+        assertThat(index.getStacks()).containsOnlyKeys("web");
+        assertThat(index.isWatching()).isTrue();
+
+        long rescans = index.getRescanCount();
+        Files.createDirectories(missing.resolve("db"));
+        Files.writeString(missing.resolve("db").resolve("compose.yaml"), "services: {}\n");
+        waitFor(() -> index.getStacks().containsKey("db"));
+        assertThat(index.getRescanCount()).isEqualTo(rescans);
+    }
+
+    private void createStack(String name, String composeFileName, boolean env) throws IOException {
+        Path dir = Files.createDirectories(stacksDir.resolve(name));
+        Files.writeString(dir.resolve(composeFileName), "services: {}\n");
+        if (env) {
+            Files.writeString(dir.resolve(".env"), "");
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
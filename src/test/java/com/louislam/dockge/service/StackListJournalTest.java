@@ -0,0 +1,120 @@
+package com.louislam.dockge.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackListJournalTest {
+
+    @Test
+    public void testUpdateOnlyRecordsChanges() {
+        StackListJournal journal = new StackListJournal(10, 100);
+
+        StackListDelta first = journal.update(list("web", 3, "db", 3));
+        assertThat(first.fromVersion()).isEqualTo(100);
+        assertThat(first.version()).isEqualTo(101);
+        assertThat(first.changed()).containsOnlyKeys("web", "db");
+
+        assertThat(journal.update(list("web", 3, "db", 3))).isNull();
+        assertThat(journal.getVersion()).isEqualTo(101);
+
+        StackListDelta second = journal.update(list("web", 4, "cache", 1));
+        assertThat(second.version()).isEqualTo(102);
+        assertThat(second.changed()).containsOnlyKeys("web", "cache");
+        assertThat(second.changed().get("web")).containsEntry("status", 4);
+        assertThat(second.removed()).containsExactly("db");
+    }
+
+    @Test
+    public void testSinceMergesDeltas() {
+        StackListJournal journal = new StackListJournal(10, 100);
+        journal.update(list("web", 3, "db", 3));
+        journal.update(list("web", 4, "db", 3));
+        journal.update(list("web", 4));
+        journal.update(list("web", 4, "db", 1));
+
+        StackListDelta delta = journal.since(101);
+        assertThat(delta.full()).isFalse();
+        assertThat(delta.fromVersion()).isEqualTo(101);
+        assertThat(delta.version()).isEqualTo(104);
+        assertThat(delta.changed()).containsOnlyKeys("web", "db");
+        assertThat(delta.changed().get("db")).containsEntry("status", 1);
+        assertThat(delta.removed()).isEmpty();
+
+        delta = journal.since(102);
+        assertThat(delta.changed()).containsOnlyKeys("db");
+
+        assertThat(journal.since(104).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testFullSnapshotWhenBehind() {
+        StackListJournal journal = new StackListJournal(2, 100);
+        journal.update(list("web", 1));
+        journal.update(list("web", 2));
+        journal.update(list("web", 3));
+        journal.update(list("web", 3, "db", 3));
+
+        // Only the deltas from 102 on are kept
+        assertThat(journal.since(102).full()).isFalse();
+        assertThat(journal.since(101).full()).isTrue();
+        // Unknown versions, e.g. from before a restart
+        assertThat(journal.since(0).full()).isTrue();
+        assertThat(journal.since(1000).full()).isTrue();
+
+        StackListDelta snapshot = journal.since(101);
+        assertThat(snapshot.version()).isEqualTo(104);
+        assertThat(snapshot.changed()).containsOnlyKeys("web", "db");
+    }
+
+    @Test
+    public void testVersionsOfAnotherJournalAreUnknown() {
+        StackListJournal before = new StackListJournal(10);
+        before.update(list("web", 1));
+        long clientVersion = before.getVersion();
+
+        // Restarted, with as many updates since
+        StackListJournal after = new StackListJournal(10);
+        after.update(list("db", 1));
+        assertThat(after.getVersion()).isNotEqualTo(clientVersion).isLessThan(1L << 53);
+        assertThat(after.since(clientVersion).full()).isTrue();
+        assertThat(after.since(clientVersion).changed()).containsOnlyKeys("db");
+    }
+
+    @Test
+    public void testPayload() {
+        StackListJournal journal = new StackListJournal(10, 100);
+        journal.update(list("web", 3, "db", 3));
+        journal.update(list("web", 4));
+
+        Map<String, Object> payload = journal.since(101).toPayload("agent:5001");
+        assertThat(payload).containsEntry("ok", true)
+                .containsEntry("version", 102L)
+                .containsEntry("from", 101L)
+                .containsEntry("removed", List.of("db"));
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> changed = (Map<String, Map<String, Object>>) payload.get("changed");
+        assertThat(changed.get("web"))
+                .containsEntry("status", 4)
+                .containsEntry("endpoint", "agent:5001");
+
+        payload = journal.snapshot().toPayload("");
+        assertThat(payload).containsEntry("full", true).containsKey("stackList");
+    }
+
+    private static Map<String, Map<String, Object>> list(Object... nameAndStatus) {
+        Map<String, Map<String, Object>> list = new LinkedHashMap<>();
+        for (int i = 0; i < nameAndStatus.length; i += 2) {
+            String name = (String) nameAndStatus[i];
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("name", name);
+            obj.put("status", nameAndStatus[i + 1]);
+            list.put(name, obj);
+        }
+        return list;
+    }
+}
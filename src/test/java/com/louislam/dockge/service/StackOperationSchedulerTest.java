@@ -0,0 +1,119 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.exception.ValidationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StackOperationSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StackOperationScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new StackOperationScheduler(3, meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testSerialPerStackParallelAcrossStacks() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch otherStackStarted = new CountDownLatch(1);
+
+        // The first operation on "web" only finishes once "db" has started, which would
+        // deadlock if stacks were serialized against each other
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        futures.add(scheduler.submit("web", "start", () -> {
+            assertThat(otherStackStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            return track(running, maxRunning, order, 0);
+        }).getFuture());
+        for (int i = 1; i < 4; i++) {
+            int index = i;
+            futures.add(scheduler.submit("web", "restart", () -> track(running, maxRunning, order, index)).getFuture());
+        }
+        scheduler.submit("db", "start", () -> {
+            otherStackStarted.countDown();
+            return 0;
+        });
+
+        for (CompletableFuture<Integer> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(order).containsExactly(0, 1, 2, 3);
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(scheduler.getQueueDepth("web")).isZero();
+    }
+
+    private static int track(AtomicInteger running, AtomicInteger maxRunning, List<Integer> order, int index)
+            throws InterruptedException {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(10);
+        order.add(index);
+        running.decrementAndGet();
+        return index;
+    }
+
+    @Test
+    public void testQueueDepthAndCancel() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StackOperationScheduler.Operation<Integer> running = scheduler.submit("web", "update", () -> {
+            release.await();
+            return 0;
+        });
+        List<StackOperationScheduler.Operation<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queued.add(scheduler.submit("web", "restart", () -> 1));
+        }
+        assertThat(scheduler.getQueueDepth("web")).isEqualTo(3);
+        assertThat(scheduler.getRunning("web")).isEqualTo("update");
+
+        assertThatThrownBy(() -> scheduler.submit("web", "stop", () -> 1))
+                .isInstanceOf(ValidationException.class);
+
+        // Running operations cannot be cancelled, queued ones can
+        assertThat(running.cancel()).isFalse();
+        assertThat(queued.get(0).cancel()).isTrue();
+        assertThat(scheduler.cancelQueued("web")).isEqualTo(2);
+        assertThat(queued).allMatch(operation -> operation.getFuture().isCancelled());
+        assertThat(scheduler.getQueueDepth("web")).isZero();
+
+        release.countDown();
+        assertThat(running.getFuture().get(5, TimeUnit.SECONDS)).isZero();
+
+        // The stack accepts operations again
+        assertThat(scheduler.run("web", "start", () -> 2)).isEqualTo(2);
+    }
+
+    @Test
+    public void testErrorsAndMetrics() {
+        assertThatThrownBy(() -> scheduler.run("web", "start", () -> {
+            throw new ValidationException("Stack not found");
+        })).isInstanceOf(ValidationException.class).hasMessage("Stack not found");
+        scheduler.run("web", "start", () -> 0);
+
+        assertThat(meterRegistry.get("dockge.stack.operation.wait").tag("operation", "start").timer().count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.get("dockge.stack.operation.duration").tag("outcome", "failure").timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("dockge.stack.operation.queued").gauge().value()).isZero();
+    }
+}
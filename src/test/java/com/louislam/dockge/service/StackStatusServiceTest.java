@@ -0,0 +1,160 @@
+package com.louislam.dockge.service;
+
+import com.louislam.dockge.docker.ComposeContainer;
+import com.louislam.dockge.docker.DockerEvent;
+import com.louislam.dockge.docker.DockerEventSource;
+import com.louislam.dockge.model.StackStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackStatusServiceTest {
+
+    private final FakeEventSource eventSource = new FakeEventSource();
+    private final List<ComposeContainer> snapshot = new ArrayList<>();
+    private final AtomicInteger snapshotCount = new AtomicInteger();
+    private ScheduledExecutorService executor;
+    private StackStatusService service;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        service = new StackStatusService(eventSource, () -> {
+            snapshotCount.incrementAndGet();
+            return List.copyOf(snapshot);
+        }, executor, true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testInitialSnapshot() throws Exception {
+        snapshot.add(new ComposeContainer("a1", "web", "running", "/opt/stacks/web/compose.yaml"));
+        snapshot.add(new ComposeContainer("a2", "web", "exited", "/opt/stacks/web/compose.yaml"));
+        snapshot.add(new ComposeContainer("b1", "db", "running", ""));
+        snapshot.add(new ComposeContainer("c1", "new", "created", ""));
+
+        service.start();
+        flush();
+
+        assertThat(service.isSynced()).isTrue();
+        assertThat(service.getStatusList()).isEqualTo(Map.of(
+                "web", StackStatus.EXITED,
+                "db", StackStatus.RUNNING,
+                "new", StackStatus.CREATED_STACK));
+        assertThat(service.getProjects().get("web").status()).isEqualTo("exited(1), running(1)");
+        assertThat(service.getProjects().get("web").configFiles()).isEqualTo("/opt/stacks/web/compose.yaml");
+    }
+
+    @Test
+    public void testEventsUpdateStatus() throws Exception {
+        snapshot.add(new ComposeContainer("a1", "web", "running", ""));
+        List<String> changed = new ArrayList<>();
+        service.addListener((name, project) -> changed.add(name));
+
+        service.start();
+        flush();
+        changed.clear();
+
+        eventSource.emit(event("die", "a1", "web"));
+        flush();
+        assertThat(service.getStatus("web")).isEqualTo(StackStatus.EXITED);
+
+        eventSource.emit(event("start", "a1", "web"));
+        flush();
+        assertThat(service.getStatus("web")).isEqualTo(StackStatus.RUNNING);
+
+        // Not a state change
+        eventSource.emit(event("kill", "a1", "web"));
+        flush();
+
+        eventSource.emit(event("create", "x1", "other"));
+        flush();
+        assertThat(service.getStatus("other")).isEqualTo(StackStatus.CREATED_STACK);
+
+        eventSource.emit(event("destroy", "x1", "other"));
+        flush();
+        assertThat(service.getStatusList()).doesNotContainKey("other");
+
+        assertThat(changed).containsExactly("web", "web", "other", "other");
+        assertThat(snapshotCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testResyncWhenStreamDrops() throws Exception {
+        snapshot.add(new ComposeContainer("a1", "web", "running", ""));
+        service.start();
+        flush();
+
+        // Changes that happened while the stream was down are picked up by the resync
+        snapshot.clear();
+        snapshot.add(new ComposeContainer("b1", "db", "running", ""));
+        eventSource.fail();
+        flush();
+        assertThat(service.isSynced()).isFalse();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!service.isSynced() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        flush();
+
+        assertThat(service.isSynced()).isTrue();
+        assertThat(snapshotCount.get()).isEqualTo(2);
+        assertThat(eventSource.subscriptions.get()).isEqualTo(2);
+        assertThat(service.getStatusList()).isEqualTo(Map.of("db", StackStatus.RUNNING));
+    }
+
+    @Test
+    public void testCombinedStatusMatchesComposeLs() {
+        assertThat(StackStatusService.combinedStatus(List.of("running", "exited", "running")))
+                .isEqualTo("exited(1), running(2)");
+    }
+
+    private void flush() throws Exception {
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static DockerEvent event(String action, String id, String project) {
+        return new DockerEvent("container", action, id, Map.of(DockerEvent.PROJECT_LABEL, project), 0);
+    }
+
+    private static class FakeEventSource implements DockerEventSource {
+        private final AtomicInteger subscriptions = new AtomicInteger();
+        private volatile Consumer<DockerEvent> consumer;
+        private volatile Consumer<Throwable> onClosed;
+
+        @Override
+        public Closeable subscribe(Instant since, Consumer<DockerEvent> consumer, Consumer<Throwable> onClosed) {
+            subscriptions.incrementAndGet();
+            this.consumer = consumer;
+            this.onClosed = onClosed;
+            return () -> { };
+        }
+
+        void emit(DockerEvent event) {
+            consumer.accept(event);
+        }
+
+        void fail() {
+            onClosed.accept(new EOFException("stream dropped"));
+        }
+    }
+}
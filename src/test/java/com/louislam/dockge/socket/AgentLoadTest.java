@@ -0,0 +1,289 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Agent;
+import com.louislam.dockge.socketio.EventDispatcher;
+import com.louislam.dockge.socketio.InMemoryWebSocketClient;
+import com.louislam.dockge.socketio.RelayConnection;
+import com.louislam.dockge.socketio.SimulatedAgent;
+import com.louislam.dockge.socketio.SocketIoServer;
+import com.louislam.dockge.socketio.SocketIoSocket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A hub with 40 {@link SimulatedAgent}s of 50 stacks each, a few of them slow, failing or down,
+ * connected over {@link InMemoryWebSocketClient} so it runs offline. Reports the latency of the
+ * aggregated stack list and of relayed events, the connections and the heap.
+ * Not part of the default build: mvn test -Pload-tests
+ */
+public class AgentLoadTest {
+
+    private static final int AGENTS = 40;
+    private static final int STACKS = 50;
+    private static final int SLOW = 2;
+    private static final int FAILING = 2;
+    private static final int DOWN = 1;
+    private static final int BROWSERS = 20;
+    private static final int REQUESTS = 50;
+    private static final int ROUNDS = 20;
+    private static final Duration DEADLINE = Duration.ofMillis(500);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testManyAgents() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        InMemoryWebSocketClient network = new InMemoryWebSocketClient();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SocketIoServer hub = new SocketIoServer(objectMapper, new SocketRegistry(), meterRegistry,
+                new EventDispatcher(meterRegistry, 60000, "", List.of(), List.of(), 4, 256),
+                25000, 20000, 10000000, 262144, 1048576, 8388608, 30000);
+        network.register("hub:5001", hub);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        AgentConnectionPool pool = new AgentConnectionPool(null, hub, objectMapper, network, scheduler,
+                new RelayConnection.Options(100, Duration.ofMillis(100), Duration.ofSeconds(2), Duration.ofSeconds(5)));
+        new AgentProxySocketHandler(hub, new AgentEventRouter(), pool).register();
+        StackListAggregator aggregator = new StackListAggregator(Map::of, pool, DEADLINE);
+
+        // The first agents are slow, then failing, then down
+        List<SimulatedAgent> agents = new ArrayList<>();
+        List<String> slow = new ArrayList<>();
+        List<String> failing = new ArrayList<>();
+        List<String> healthy = new ArrayList<>();
+        for (int i = 0; i < AGENTS; i++) {
+            String endpoint = "sim-" + i + ":5001";
+            Duration latency = i < SLOW ? DEADLINE.multipliedBy(3) : Duration.ofMillis(2);
+            double failureRate = i >= SLOW && i < SLOW + FAILING ? 1 : 0;
+            SimulatedAgent agent = new SimulatedAgent(endpoint,
+                    new SimulatedAgent.Config(STACKS, latency, failureRate));
+            agents.add(agent);
+            (i < SLOW ? slow : failureRate > 0 ? failing : healthy).add(endpoint);
+            if (i < AGENTS - DOWN) {
+                network.register(endpoint, agent.getServer());
+            }
+        }
+        healthy.subList(healthy.size() - DOWN, healthy.size()).clear();
+
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < AGENTS; i++) {
+            Agent agent = new Agent();
+            agent.setId((long) i + 1);
+            agent.setUrl("http://sim-" + i + ":5001");
+            agent.setUsername("admin");
+            agent.setPassword("secret");
+            pool.add(agent);
+        }
+        awaitReady(pool, agents.subList(0, AGENTS - DOWN));
+        long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+        assertThat(network.getOpenConnections()).isEqualTo(AGENTS - DOWN);
+        assertThat(agents.stream().mapToInt(SimulatedAgent::getConnectedSockets).sum()).isEqualTo(AGENTS - DOWN);
+
+        // Aggregated stack list, the first round full and the others conditional
+        List<Long> aggregateMillis = new ArrayList<>();
+        long fullBytes = 0;
+        long conditionalBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            if (round > 0) {
+                agents.forEach(agent -> agent.changeStacks(3));
+            }
+            long bytesBefore = network.getBytes();
+            long start = System.nanoTime();
+            StackListAggregator.AggregatedStackList result = aggregator.aggregate("");
+            aggregateMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (round == 0) {
+                fullBytes = network.getBytes() - bytesBefore;
+            } else {
+                conditionalBytes += network.getBytes() - bytesBefore;
+            }
+
+            assertThat(result.timedOut()).containsExactlyInAnyOrderElementsOf(slow);
+            assertThat(result.failed()).containsOnlyKeys(concat(failing, List.of("sim-" + (AGENTS - 1) + ":5001")));
+            for (String endpoint : healthy) {
+                assertThat(result.stackList().get(endpoint)).hasSize(STACKS);
+            }
+        }
+        conditionalBytes /= ROUNDS - 1;
+
+        // Events relayed for browsers, each waiting for its ack before sending the next
+        List<Browser> browsers = new ArrayList<>();
+        for (int i = 0; i < BROWSERS; i++) {
+            Browser browser = new Browser();
+            network.execute(browser, new WebSocketHttpHeaders(),
+                    URI.create("ws://hub:5001/socket.io/?EIO=4&transport=websocket")).join();
+            browser.connected.get(5, TimeUnit.SECONDS);
+            browsers.add(browser);
+        }
+        for (SocketIoSocket socket : hub.of("/").getSockets()) {
+            socket.setUserId(1);
+        }
+        List<Long> relayMillis = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Browser browser : browsers) {
+                clients.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < REQUESTS; i++) {
+                        String endpoint = healthy.get(ThreadLocalRandom.current().nextInt(healthy.size()));
+                        long start = System.nanoTime();
+                        String ack = browser.emit("[\"agent\",\"" + endpoint + "\",\"getStack\",\"stack-"
+                                + ThreadLocalRandom.current().nextInt(STACKS) + "\"]").join();
+                        relayMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        if (!ack.contains("\"ok\":true")) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+        }
+        assertThat(failures.get()).isZero();
+        assertThat(relayMillis).hasSize(BROWSERS * REQUESTS);
+
+        // Terminal output only reaches the browser that started the stack
+        String target = healthy.get(0);
+        browsers.get(0).emit("[\"agent\",\"" + target + "\",\"startStack\",\"stack-1\"]").get(5, TimeUnit.SECONDS);
+        browsers.get(1).emit("[\"agent\",\"" + target + "\",\"getStack\",\"stack-1\"]").get(5, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (browsers.get(0).terminalFrames.get() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(browsers.get(0).terminalFrames.get()).isEqualTo(6);
+        assertThat(browsers.get(1).terminalFrames.get()).isZero();
+
+        // Agents that restart are reconnected
+        long reconnectStart = System.nanoTime();
+        agents.subList(SLOW + FAILING, SLOW + FAILING + 10).forEach(SimulatedAgent::disconnectAll);
+        Thread.sleep(50);
+        awaitReady(pool, agents.subList(0, AGENTS - DOWN));
+        long reconnectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reconnectStart);
+
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+        System.out.printf("%d agents x %d stacks (%d slow, %d failing, %d down), connected in %d ms%n",
+                AGENTS, STACKS, SLOW, FAILING, DOWN, connectMillis);
+        System.out.printf("Aggregated stack list: p50 %d ms, p95 %d ms, p99 %d ms, deadline %d ms%n",
+                percentile(aggregateMillis, 0.5), percentile(aggregateMillis, 0.95),
+                percentile(aggregateMillis, 0.99), DEADLINE.toMillis());
+        System.out.printf("Aggregated stack list traffic: %d bytes full, %d bytes conditional%n",
+                fullBytes, conditionalBytes);
+        System.out.printf("Relayed events (%d browsers): p50 %d ms, p95 %d ms, p99 %d ms%n", BROWSERS,
+                percentile(relayMillis, 0.5), percentile(relayMillis, 0.95), percentile(relayMillis, 0.99));
+        System.out.printf("Connections: %d open, %d hub sockets, reconnected 10 agents in %d ms%n",
+                network.getOpenConnections(), hub.of("/").getSockets().size(), reconnectMillis);
+        System.out.printf("Heap: %d KB before, %d KB after, %d KB per agent%n", heapBefore / 1024,
+                heapAfter / 1024, Math.max(0, heapAfter - heapBefore) / 1024 / AGENTS);
+
+        // The slow agents never hold the others back
+        assertThat(percentile(aggregateMillis, 0.99)).isLessThan(DEADLINE.toMillis() + 500);
+        assertThat(conditionalBytes).isLessThan(fullBytes / 2);
+        assertThat(percentile(relayMillis, 0.99)).isLessThan(1000);
+        assertThat(network.getOpenConnections()).isEqualTo(AGENTS - DOWN + BROWSERS);
+
+        pool.stop();
+        hub.stop();
+        agents.forEach(SimulatedAgent::stop);
+        network.stop();
+    }
+
+    private static void awaitReady(AgentConnectionPool pool, List<SimulatedAgent> agents) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        for (SimulatedAgent agent : agents) {
+            while (pool.get(agent.getEndpoint()).getState() != RelayConnection.State.READY) {
+                assertThat(System.currentTimeMillis()).as("%s ready", agent.getEndpoint()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static long percentile(List<Long> values, double quantile) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(Math.max(0, (int) Math.ceil(quantile * sorted.size()) - 1));
+    }
+
+    private static List<String> concat(List<String> a, List<String> b) {
+        List<String> list = new ArrayList<>(a);
+        list.addAll(b);
+        return list;
+    }
+
+    /**
+     * A browser that sends events with acks and counts the terminal output it gets.
+     */
+    private static class Browser extends TextWebSocketHandler {
+        private final CompletableFuture<Void> connected = new CompletableFuture<>();
+        private final Map<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+        private final AtomicLong terminalFrames = new AtomicLong();
+        private volatile WebSocketSession session;
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            String payload = message.getPayload();
+            if (payload.startsWith("0")) {
+                session.sendMessage(new TextMessage("40"));
+            } else if (payload.equals("2")) {
+                session.sendMessage(new TextMessage("3"));
+            } else if (payload.startsWith("40")) {
+                connected.complete(null);
+            } else if (payload.startsWith("43")) {
+                CompletableFuture<String> ack = pending.remove(Long.parseLong(payload.substring(2,
+                        payload.indexOf('['))));
+                if (ack != null) {
+                    ack.complete(payload);
+                }
+            } else if (payload.startsWith("42[\"agent\",\"terminal")) {
+                terminalFrames.incrementAndGet();
+            }
+        }
+
+        /**
+         * Send the event with an ack, the future completes with the ack frame.
+         */
+        CompletableFuture<String> emit(String json) {
+            long id = nextId.getAndIncrement();
+            CompletableFuture<String> ack = new CompletableFuture<>();
+            pending.put(id, ack);
+            try {
+                session.sendMessage(new TextMessage("42" + id + json));
+            } catch (Exception e) {
+                pending.remove(id);
+                ack.completeExceptionally(e);
+            }
+            return ack;
+        }
+    }
+}
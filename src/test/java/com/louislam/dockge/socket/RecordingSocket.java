@@ -0,0 +1,171 @@
+package com.louislam.dockge.socket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A client that keeps the events emitted to it, and the packets sent to it or only hands them to a
+ * listener. Sends can be held back to play a client that stopped reading.
+ */
+public class RecordingSocket implements DockgeSocket {
+
+    /**
+     * An event passed to {@link #emit(String, Object...)}.
+     */
+    public record Emitted(String event, List<Object> args) {
+    }
+
+    private final String id;
+    private final String endpoint;
+    private final boolean record;
+    private final List<EncodedPacket> sent = new ArrayList<>();
+    private final List<Emitted> emitted = new ArrayList<>();
+    private volatile Consumer<EncodedPacket> listener = packet -> {
+    };
+    private volatile boolean loggedIn = true;
+    private volatile long stackListVersion = LEGACY_STACK_LIST;
+    private volatile CountDownLatch blocked;
+
+    public RecordingSocket(String id) {
+        this(id, "", true);
+    }
+
+    public RecordingSocket(String id, String endpoint) {
+        this(id, endpoint, true);
+    }
+
+    /**
+     * @param record keep the packets sent, false for load tests and benchmarks
+     */
+    public RecordingSocket(String id, String endpoint, boolean record) {
+        this.id = id;
+        this.endpoint = endpoint;
+        this.record = record;
+    }
+
+    public synchronized List<EncodedPacket> getSent() {
+        return List.copyOf(sent);
+    }
+
+    public synchronized List<Emitted> getEmitted() {
+        return List.copyOf(emitted);
+    }
+
+    /**
+     * The packets sent so far, once the condition holds for them or the timeout passed.
+     */
+    public synchronized List<EncodedPacket> awaitSent(Predicate<List<EncodedPacket>> condition, long timeout,
+                                                      TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!condition.test(sent)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getSent();
+    }
+
+    /**
+     * The first event matching the condition, or null if none was emitted before the timeout.
+     */
+    public synchronized Emitted awaitEmitted(Predicate<Emitted> condition, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            for (Emitted event : emitted) {
+                if (condition.test(event)) {
+                    return event;
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * Called with every packet, whether it is kept or not.
+     */
+    public void onSent(Consumer<EncodedPacket> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Hold back every send until {@link #unblock()}.
+     */
+    public void block() {
+        blocked = new CountDownLatch(1);
+    }
+
+    public void unblock() {
+        CountDownLatch latch = blocked;
+        blocked = null;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    public void setLoggedIn(boolean loggedIn) {
+        this.loggedIn = loggedIn;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return loggedIn;
+    }
+
+    @Override
+    public synchronized void emit(String event, Object... args) {
+        emitted.add(new Emitted(event, Collections.unmodifiableList(Arrays.asList(args.clone()))));
+        notifyAll();
+    }
+
+    @Override
+    public void send(EncodedPacket packet) {
+        CountDownLatch latch = blocked;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        listener.accept(packet);
+        synchronized (this) {
+            if (record) {
+                sent.add(packet);
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public long getStackListVersion() {
+        return stackListVersion;
+    }
+
+    @Override
+    public void setStackListVersion(long version) {
+        this.stackListVersion = version;
+    }
+}
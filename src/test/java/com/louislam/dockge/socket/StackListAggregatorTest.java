@@ -0,0 +1,152 @@
+package com.louislam.dockge.socket;
+
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.model.StackStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackListAggregatorTest {
+
+    private static Stack stack(String name) {
+        Stack stack = new Stack();
+        stack.setName(name);
+        stack.setStatus(StackStatus.RUNNING);
+        stack.setManagedByDockge(true);
+        return stack;
+    }
+
+    private static Object[] ok(String endpoint, String... names) {
+        Map<String, Object> stackList = new LinkedHashMap<>();
+        for (String name : names) {
+            stackList.put(name, stack(name).toSimpleJson(endpoint));
+        }
+        return new Object[]{Map.of("ok", true, "stackList", stackList)};
+    }
+
+    private static Map<String, Long> agents() {
+        Map<String, Long> agents = new LinkedHashMap<>();
+        agents.put("fast:5001", 1L);
+        agents.put("slow:5001", 2L);
+        agents.put("down:5001", 3L);
+        agents.put("broken:5001", null);
+        return agents;
+    }
+
+    @Test
+    public void testPartialResults() {
+        StackListAggregator aggregator = new StackListAggregator(() -> Map.of("web", stack("web")),
+                StackListAggregatorTest::agents, (endpoint, version, timeout) -> {
+                    CompletableFuture<Object[]> future = new CompletableFuture<>();
+                    switch (endpoint) {
+                        case "fast:5001" -> CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS)
+                                .execute(() -> future.complete(ok(endpoint, "db", "cache")));
+                        // Never answers
+                        case "slow:5001" -> { }
+                        case "down:5001" -> future.completeExceptionally(
+                                new IllegalStateException("Agent down:5001 is not connected."));
+                        default -> future.complete(new Object[]{Map.of("ok", false, "msg", "You are not logged in.")});
+                    }
+                    return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                }, Duration.ofMillis(200));
+
+        StackListAggregator.AggregatedStackList result = aggregator.aggregate("hub:5001");
+
+        assertThat(result.duration()).isLessThan(2000);
+        assertThat(result.isPartial()).isTrue();
+        assertThat(result.stackList()).containsOnlyKeys("hub:5001", "fast:5001");
+        assertThat(result.stackList().get("hub:5001")).containsOnlyKeys("web");
+        assertThat(result.stackList().get("fast:5001")).containsOnlyKeys("db", "cache");
+        assertThat(result.timedOut()).containsExactly("slow:5001");
+        assertThat(result.failed()).containsOnly(Map.entry("down:5001", "Agent down:5001 is not connected."),
+                Map.entry("broken:5001", "You are not logged in."));
+
+        Map<String, Object> json = result.toJson();
+        assertThat(json).containsEntry("ok", true).containsEntry("partial", true);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> web = (Map<String, Object>) result.stackList().get("hub:5001").get("web");
+        assertThat(web).containsEntry("endpoint", "hub:5001");
+    }
+
+    @Test
+    public void testNoAgents() {
+        StackListAggregator aggregator = new StackListAggregator(() -> Map.of("web", stack("web")), Map::of,
+                (endpoint, version, timeout) -> {
+                    throw new AssertionError();
+                }, Duration.ofMillis(200));
+
+        StackListAggregator.AggregatedStackList result = aggregator.aggregate("");
+        assertThat(result.isPartial()).isFalse();
+        assertThat(result.stackList()).containsOnlyKeys("");
+    }
+
+    @Test
+    public void testRefetchKeepsTheDeadline() {
+        List<Long> versions = new ArrayList<>();
+        CompletableFuture<Object[]> late = new CompletableFuture<>();
+        StackListAggregator aggregator = new StackListAggregator(Map::of, () -> Map.of("agent:5001", 7L),
+                (endpoint, version, timeout) -> {
+                    versions.add(version);
+                    if (versions.size() == 1) {
+                        return CompletableFuture.completedFuture(new Object[]{Map.of("ok", true, "version", 5,
+                                "stackList", Map.of("web", Map.of()))});
+                    }
+                    if (versions.size() == 2) {
+                        return CompletableFuture.completedFuture(new Object[]{Map.of("ok", true, "version", 2,
+                                "from", 1, "changed", Map.of(), "removed", List.of())});
+                    }
+                    assertThat(timeout).isLessThanOrEqualTo(Duration.ofMillis(100));
+                    return late.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                }, Duration.ofMillis(100));
+        aggregator.aggregate("");
+
+        StackListAggregator.AggregatedStackList result = aggregator.aggregate("");
+        assertThat(result.timedOut()).containsExactly("agent:5001");
+        assertThat(result.duration()).isLessThan(1000);
+        assertThat(versions).containsExactly(null, 5L, null);
+    }
+
+    @Test
+    public void testConditionalFetch() {
+        List<Long> versions = new ArrayList<>();
+        Queue<Map<String, Object>> answers = new ArrayDeque<>();
+        StackListAggregator aggregator = new StackListAggregator(Map::of, () -> Map.of("agent:5001", 7L),
+                (endpoint, version, timeout) -> {
+                    versions.add(version);
+                    return CompletableFuture.completedFuture(new Object[]{answers.poll()});
+                }, Duration.ofMillis(200));
+
+        answers.add(Map.of("ok", true, "version", 5, "full", true,
+                "stackList", Map.of("web", Map.of("status", 3), "db", Map.of("status", 3))));
+        assertThat(aggregator.aggregate("").stackList().get("agent:5001")).containsOnlyKeys("web", "db");
+
+        answers.add(Map.of("ok", true, "version", 5, "notModified", true));
+        assertThat(aggregator.aggregate("").stackList().get("agent:5001")).containsOnlyKeys("web", "db");
+
+        answers.add(Map.of("ok", true, "version", 6, "from", 5,
+                "changed", Map.of("cache", Map.of("status", 3)), "removed", List.of("db")));
+        assertThat(aggregator.aggregate("").stackList().get("agent:5001")).containsOnlyKeys("web", "cache");
+
+        // A delta from another version is refused and the whole list fetched again in the same request
+        answers.add(Map.of("ok", true, "version", 9, "from", 8, "changed", Map.of(), "removed", List.of()));
+        answers.add(Map.of("ok", true, "version", 9, "full", true, "stackList", Map.of("app", Map.of())));
+        StackListAggregator.AggregatedStackList result = aggregator.aggregate("");
+        assertThat(result.isPartial()).isFalse();
+        assertThat(result.stackList().get("agent:5001")).containsOnlyKeys("app");
+
+        answers.add(Map.of("ok", true, "version", 9, "notModified", true));
+        assertThat(aggregator.aggregate("").stackList().get("agent:5001")).containsOnlyKeys("app");
+
+        assertThat(versions).containsExactly(null, 5L, 5L, 6L, null, 9L);
+    }
+}
@@ -0,0 +1,92 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.model.StackStatus;
+import com.louislam.dockge.service.StackListJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasting the full stack list: serializing it for every socket, as sendStackList in
+ * dockge-server.ts does, versus once per endpoint with a shared {@link EncodedPacket}.
+ *
+ * Run with {@code mvn test -Pbenchmark -DskipTests -Dbenchmark.includes=StackListBroadcastBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackListBroadcastBenchmark {
+
+    @Param({"500"})
+    int sessions;
+
+    @Param({"1000"})
+    int stacks;
+
+    @Param({"1", "4"})
+    int endpoints;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Stack> stackList = new LinkedHashMap<>();
+    private final List<DockgeSocket> sockets = new ArrayList<>();
+    private StackListBroadcaster broadcaster;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < stacks; i++) {
+            Stack stack = new Stack();
+            stack.setName("stack-" + i);
+            stack.setStatus(i % 3 == 0 ? StackStatus.EXITED : StackStatus.RUNNING);
+            stack.setManagedByDockge(true);
+            stackList.put(stack.getName(), stack);
+        }
+        for (int i = 0; i < sessions; i++) {
+            sockets.add(new RecordingSocket("socket-" + i, endpoints == 1 ? "" : "agent-" + (i % endpoints) + ":5001",
+                    false));
+        }
+        broadcaster = new StackListBroadcaster(() -> stackList, new SocketRegistry(), objectMapper,
+                new StackListJournal(10));
+    }
+
+    @Benchmark
+    public void serializePerSocket(Blackhole blackhole) {
+        for (DockgeSocket socket : sockets) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<String, Stack> entry : stackList.entrySet()) {
+                map.put(entry.getKey(), entry.getValue().toSimpleJson(socket.getEndpoint()));
+            }
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("ok", true);
+            payload.put("stackList", map);
+            payload.put("endpoint", socket.getEndpoint());
+            EncodedPacket packet = EncodedPacket.event(objectMapper, "agent", "stackList", payload);
+            blackhole.consume(packet.asTextMessage());
+        }
+    }
+
+    @Benchmark
+    public void serializeOncePerEndpoint(Blackhole blackhole) {
+        broadcaster.sendFullStackList(stackList, sockets);
+        blackhole.consume(sockets);
+    }
+}
@@ -0,0 +1,127 @@
+package com.louislam.dockge.socket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.model.StackStatus;
+import com.louislam.dockge.service.StackListJournal;
+import org.junit.jupiter.api.BeforeEach;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StackListBroadcasterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SocketRegistry registry = new SocketRegistry();
+    private final Map<String, Stack> stackList = new LinkedHashMap<>();
+    private StackListBroadcaster broadcaster;
+
+    @BeforeEach
+    public void setUp() {
+        stackList.put("web", stack("web", StackStatus.RUNNING));
+        stackList.put("db", stack("db", StackStatus.EXITED));
+        broadcaster = new StackListBroadcaster(() -> new LinkedHashMap<>(stackList), registry, objectMapper,
+                new StackListJournal(10));
+    }
+
+    @Test
+    public void testFullListIsEncodedOncePerEndpoint() throws Exception {
+        RecordingSocket a = register("a", "", DockgeSocket.LEGACY_STACK_LIST);
+        RecordingSocket b = register("b", "", DockgeSocket.LEGACY_STACK_LIST);
+        RecordingSocket c = register("c", "agent:5001", DockgeSocket.LEGACY_STACK_LIST);
+        RecordingSocket loggedOut = register("d", "", DockgeSocket.LEGACY_STACK_LIST);
+        loggedOut.setLoggedIn(false);
+
+        broadcaster.sendStackList();
+
+        assertThat(a.getSent()).hasSize(1);
+        assertThat(b.getSent().get(0)).isSameAs(a.getSent().get(0));
+        assertThat(c.getSent().get(0)).isNotSameAs(a.getSent().get(0));
+        assertThat(loggedOut.getSent()).isEmpty();
+
+        JsonNode frame = decode(c.getSent().get(0));
+        assertThat(frame.get(0).asText()).isEqualTo("agent");
+        assertThat(frame.get(1).asText()).isEqualTo("stackList");
+        assertThat(frame.get(2).get("endpoint").asText()).isEqualTo("agent:5001");
+        assertThat(frame.get(2).at("/stackList/web/status").asInt()).isEqualTo(StackStatus.RUNNING);
+        assertThat(frame.get(2).at("/stackList/web/endpoint").asText()).isEqualTo("agent:5001");
+
+        // Legacy clients get the full list every time
+        broadcaster.sendStackList();
+        assertThat(a.getSent()).hasSize(2);
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+        RecordingSocket a = register("a", "", 0);
+        RecordingSocket b = register("b", "", 0);
+
+        broadcaster.requestStackList(a, 0L);
+        JsonNode snapshot = decode(a.getSent().get(0));
+        assertThat(snapshot.get(1).asText()).isEqualTo("stackListDelta");
+        assertThat(snapshot.get(2).get("full").asBoolean()).isTrue();
+        assertThat(snapshot.get(2).get("stackList").size()).isEqualTo(2);
+        long version = snapshot.get(2).get("version").asLong();
+        assertThat(a.getStackListVersion()).isEqualTo(version);
+
+        // Nothing changed, only b which has never received the list gets it
+        broadcaster.sendStackList();
+        assertThat(a.getSent()).hasSize(1);
+        assertThat(b.getSent()).hasSize(1);
+
+        stackList.get("web").setStatus(StackStatus.EXITED);
+        stackList.remove("db");
+        broadcaster.sendStackList();
+
+        JsonNode delta = decode(a.getSent().get(1));
+        assertThat(delta.get(2).get("from").asLong()).isEqualTo(version);
+        assertThat(delta.get(2).get("version").asLong()).isEqualTo(version + 1);
+        assertThat(delta.get(2).get("changed").has("web")).isTrue();
+        assertThat(delta.get(2).get("removed").get(0).asText()).isEqualTo("db");
+        assertThat(b.getSent().get(1)).isSameAs(a.getSent().get(1));
+    }
+
+    private JsonNode decode(EncodedPacket packet) throws Exception {
+        String frame = packet.asTextMessage().getPayload();
+        assertThat(frame).startsWith("42");
+        return objectMapper.readTree(frame.substring(2));
+    }
+
+    private RecordingSocket register(String id, String endpoint, long version) {
+        RecordingSocket socket = new RecordingSocket(id, endpoint);
+        socket.setStackListVersion(version);
+        registry.register(socket);
+        return socket;
+    }
+
+    @Test
+    public void testGetStackList() {
+        Map<String, Object> full = broadcaster.getStackList("agent:5001", null);
+        assertThat(full).containsEntry("full", true);
+        assertThat(full.get("stackList")).asInstanceOf(InstanceOfAssertFactories.MAP).containsOnlyKeys("web", "db");
+        long version = (Long) full.get("version");
+
+        assertThat(broadcaster.getStackList("agent:5001", version)).containsEntry("notModified", true)
+                .containsEntry("version", version);
+
+        stackList.remove("db");
+        Map<String, Object> delta = broadcaster.getStackList("agent:5001", version);
+        assertThat(delta).containsEntry("from", version).containsEntry("version", version + 1)
+                .containsEntry("removed", List.of("db"));
+        assertThat(delta.get("changed")).asInstanceOf(InstanceOfAssertFactories.MAP).isEmpty();
+    }
+
+    private static Stack stack(String name, int status) {
+        Stack stack = new Stack();
+        stack.setName(name);
+        stack.setStatus(status);
+        stack.setManagedByDockge(true);
+        return stack;
+    }
+}
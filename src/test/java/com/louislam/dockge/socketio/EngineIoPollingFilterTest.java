@@ -0,0 +1,83 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EngineIoPollingFilterTest {
+
+    private final SocketIoServer server = new SocketIoServer(new ObjectMapper(), new SocketRegistry(),
+            new SimpleMeterRegistry(), SocketIoServerTest.inlineDispatcher(), Runnable::run, 25000, 0, 1000,
+            new OutboundQueue.Limits(262144, 1048576, 8388608, 30000));
+    private final EngineIoPollingFilter filter = new EngineIoPollingFilter(server, new OriginCheckInterceptor(false));
+
+    private MockHttpServletResponse request(String method, String query, String body, String origin)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/socket.io/");
+        request.setQueryString(query);
+        for (String param : query.split("&")) {
+            String[] pair = param.split("=", 2);
+            request.addParameter(pair[0], pair.length > 1 ? pair[1] : "");
+        }
+        request.addHeader("Host", "localhost:5001");
+        if (origin != null) {
+            request.addHeader("Origin", origin);
+        }
+        if (body != null) {
+            request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        }
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        MockHttpServletResponse handshake = request("GET", "EIO=4&transport=polling", null,
+                "http://localhost:5001");
+        assertThat(handshake.getStatus()).isEqualTo(200);
+        assertThat(handshake.getContentType()).isEqualTo("text/plain; charset=UTF-8");
+        assertThat(handshake.getHeader("Access-Control-Allow-Origin")).isEqualTo("http://localhost:5001");
+        String sid = (String) new ObjectMapper().readValue(handshake.getContentAsString().substring(1), Map.class)
+                .get("sid");
+
+        MockHttpServletResponse posted = request("POST", "EIO=4&transport=polling&sid=" + sid, "40", null);
+        assertThat(posted.getContentAsString()).isEqualTo("ok");
+        MockHttpServletResponse polled = request("GET", "EIO=4&transport=polling&sid=" + sid, null, null);
+        assertThat(polled.getContentAsString()).startsWith("40{\"sid\":\"");
+
+        MockHttpServletResponse tooLarge = request("POST", "EIO=4&transport=polling&sid=" + sid,
+                "4" + "x".repeat(1000), null);
+        assertThat(tooLarge.getStatus()).isEqualTo(413);
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        MockHttpServletResponse unknown = request("GET", "EIO=4&transport=polling&sid=nope", null, null);
+        assertThat(unknown.getStatus()).isEqualTo(400);
+        assertThat(unknown.getContentAsString()).isEqualTo("{\"code\":1,\"message\":\"Session ID unknown\"}");
+
+        MockHttpServletResponse version = request("GET", "EIO=3&transport=polling", null, null);
+        assertThat(version.getContentAsString())
+                .isEqualTo("{\"code\":5,\"message\":\"Unsupported protocol version\"}");
+
+        MockHttpServletResponse foreign = request("GET", "EIO=4&transport=polling", null, "https://evil.example.com");
+        assertThat(foreign.getStatus()).isEqualTo(403);
+        assertThat(server.getSessionCount()).isZero();
+
+        // Websocket handshakes are left to the handler
+        MockHttpServletResponse websocket = request("GET", "EIO=4&transport=websocket", null, null);
+        assertThat(websocket.getStatus()).isEqualTo(200);
+        assertThat(websocket.getContentAsString()).isEmpty();
+    }
+}
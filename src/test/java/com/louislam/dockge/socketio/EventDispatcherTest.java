@@ -0,0 +1,222 @@
+package com.louislam.dockge.socketio;
+
+import com.louislam.dockge.socket.RecordingSocket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventDispatcherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EventDispatcher dispatcher = new EventDispatcher(meterRegistry, null, 5000,
+            Map.of("slow", 50L), Set.of("deployStack"), Set.of("deployStack"), 1, 3);
+
+    @AfterEach
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testOrderPerSocket() throws Exception {
+        RecordingSocket first = new RecordingSocket("a");
+        RecordingSocket second = new RecordingSocket("b");
+        List<String> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+
+        dispatcher.dispatch(first, "login", new Object[0], null, () -> {
+            await(release);
+            handled.add("a1");
+            done.countDown();
+        });
+        dispatcher.dispatch(first, "getStack", new Object[0], null, () -> {
+            handled.add("a2");
+            done.countDown();
+        });
+        // Not held back by the other socket
+        dispatcher.dispatch(second, "getStack", new Object[0], null, () -> {
+            handled.add("b1");
+            release.countDown();
+            done.countDown();
+        });
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).containsExactly("b1", "a1", "a2");
+    }
+
+    @Test
+    public void testConcurrentEvents() throws Exception {
+        RecordingSocket socket = new RecordingSocket("a");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<Object> acks = new CopyOnWriteArrayList<>();
+
+        dispatcher.dispatch(socket, "agent", new Object[]{"", "deployStack", "nginx"}, null, () -> {
+            await(release);
+            done.countDown();
+        });
+        dispatcher.dispatch(socket, "getStack", new Object[0], null, () -> {
+            release.countDown();
+            done.countDown();
+        });
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // One expensive event at a time, the second waits for the permit and gives up
+        CountDownLatch hold = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher.dispatch(socket, "deployStack", new Object[0], null, () -> {
+            started.countDown();
+            await(hold);
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CountDownLatch rejected = new CountDownLatch(1);
+        EventDispatcher impatient = new EventDispatcher(meterRegistry, null, 20, Map.of(), Set.of("deployStack"),
+                Set.of("deployStack"), 0, 3);
+        impatient.dispatch(socket, "deployStack", new Object[0], args -> {
+            acks.add(args[0]);
+            rejected.countDown();
+        }, () -> acks.add("ran"));
+        assertThat(rejected.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(acks).singleElement().asString().contains("ok=false", "Too many operations");
+        hold.countDown();
+        impatient.stop();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        RecordingSocket socket = new RecordingSocket("a");
+        List<Object> acks = new CopyOnWriteArrayList<>();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch next = new CountDownLatch(1);
+
+        dispatcher.dispatch(socket, "slow", new Object[0], args -> acks.add(args[0]), () -> {
+            awaitInterrupt(interrupted);
+        });
+        dispatcher.dispatch(socket, "getStack", new Object[0], null, next::countDown);
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(next.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(acks).singleElement().asString().contains("ok=false", "slow timed out");
+        assertThat(meterRegistry.get("dockge.socketio.events.timeouts").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTimedOutHandlerHoldsTheLane() throws Exception {
+        RecordingSocket socket = new RecordingSocket("a");
+        List<Object> acks = new CopyOnWriteArrayList<>();
+        List<String> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch timedOut = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch next = new CountDownLatch(1);
+
+        // Ignores the interrupt and keeps going until released
+        dispatcher.dispatch(socket, "slow", new Object[0], args -> {
+            acks.add(args[0]);
+            timedOut.countDown();
+        }, () -> {
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    handled.add("interrupted");
+                }
+            }
+            handled.add("slow");
+        });
+        dispatcher.dispatch(socket, "getStack", new Object[0], null, () -> {
+            handled.add("next");
+            next.countDown();
+        });
+
+        assertThat(timedOut.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(acks).singleElement().asString().contains("slow timed out");
+        assertThat(next.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        release.countDown();
+        assertThat(next.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).containsExactly("interrupted", "slow", "next");
+    }
+
+    @Test
+    public void testBulkheadWaitCountsAgainstTheTimeout() throws Exception {
+        EventDispatcher shortLived = new EventDispatcher(meterRegistry, null, 5000, Map.of("deployStack", 300L),
+                Set.of("deployStack"), Set.of("deployStack"), 1, 3);
+        RecordingSocket socket = new RecordingSocket("a");
+        CountDownLatch hold = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        shortLived.dispatch(socket, "deployStack", new Object[0], null, () -> {
+            started.countDown();
+            await(hold);
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Gets the permit after 200 ms, so only about 100 ms are left for the handler
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch answered = new CountDownLatch(1);
+        List<Object> acks = new CopyOnWriteArrayList<>();
+        long start = System.nanoTime();
+        shortLived.dispatch(socket, "deployStack", new Object[0], args -> {
+            acks.add(args[0]);
+            answered.countDown();
+        }, () -> {
+            awaitInterrupt(interrupted);
+        });
+        assertThat(answered.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        hold.countDown();
+
+        assertThat(answered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+        assertThat(acks).singleElement().asString().contains("deployStack timed out");
+        shortLived.stop();
+    }
+
+    @Test
+    public void testMaxQueued() throws Exception {
+        RecordingSocket socket = new RecordingSocket("a");
+        List<Object> acks = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        dispatcher.dispatch(socket, "login", new Object[0], null, () -> {
+            started.countDown();
+            await(release);
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(socket, "getStack", new Object[0], args -> acks.add(args[0]), () -> {
+            });
+        }
+        assertThat(acks).singleElement().asString().contains("Too many requests");
+        assertThat(meterRegistry.get("dockge.socketio.events.rejected").counter().count()).isEqualTo(1);
+        release.countDown();
+    }
+
+    /**
+     * Block until interrupted, then count down the latch.
+     */
+    private static void awaitInterrupt(CountDownLatch interrupted) {
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.louislam.dockge.socketio;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A websocket that keeps what is sent to it, or only counts it. Sends can be held back to play a
+ * client that stopped reading.
+ */
+public class FakeWebSocketSession implements WebSocketSession {
+
+    private final String id;
+    private final boolean record;
+    private final List<WebSocketMessage<?>> sent = new ArrayList<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private volatile CloseStatus closeStatus;
+    private volatile CountDownLatch blocked;
+    private volatile URI uri = URI.create("ws://localhost/socket.io/?EIO=4&transport=websocket");
+
+    public FakeWebSocketSession(String id, boolean record) {
+        this.id = id;
+        this.record = record;
+    }
+
+    /**
+     * The text of the frames sent so far, binary frames as "<binary N bytes>", and forget them.
+     */
+    public synchronized List<String> take() {
+        List<String> frames = new ArrayList<>();
+        for (WebSocketMessage<?> message : sent) {
+            frames.add(message.getPayload() instanceof String text ? text : "<binary " + message.getPayloadLength() + " bytes>");
+        }
+        sent.clear();
+        return frames;
+    }
+
+    /**
+     * Wait until a recorded text frame contains the text, and return the frames like {@link #take()}.
+     */
+    public synchronized List<String> awaitText(String text, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (sent.stream().noneMatch(m -> m.getPayload() instanceof String s && s.contains(text))) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return take();
+    }
+
+    /**
+     * Hold back every send until {@link #unblock()}.
+     */
+    public void block() {
+        blocked = new CountDownLatch(1);
+    }
+
+    public void unblock() {
+        CountDownLatch latch = blocked;
+        blocked = null;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    long getSentCount() {
+        return sentCount.get();
+    }
+
+    public CloseStatus getCloseStatus() {
+        return closeStatus;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        CountDownLatch latch = blocked;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            sentCount.incrementAndGet();
+            if (record) {
+                sent.add(message);
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    void setUri(URI uri) {
+        this.uri = uri;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return new HttpHeaders();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return List.of();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return closeStatus == null;
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        closeStatus = status;
+    }
+}
@@ -0,0 +1,246 @@
+package com.louislam.dockge.socketio;
+
+import com.louislam.dockge.util.SerialExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Websockets between handlers of the same JVM, to run servers and clients without a network.
+ *
+ * Servers are registered by the authority of their URI. Each direction of a connection delivers
+ * its frames in order on virtual threads, so neither side ever runs on the thread of the other.
+ */
+public class InMemoryWebSocketClient implements WebSocketClient {
+
+    private final Map<String, WebSocketHandler> servers = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Accept connections to the authority, host:port, with the handler.
+     */
+    public void register(String authority, WebSocketHandler server) {
+        servers.put(authority, server);
+    }
+
+    /**
+     * Refuse new connections to the authority.
+     */
+    public void unregister(String authority) {
+        servers.remove(authority);
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<WebSocketSession> execute(WebSocketHandler handler, String uriTemplate,
+                                                       Object... uriVariables) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<WebSocketSession> execute(WebSocketHandler handler, WebSocketHttpHeaders headers,
+                                                       URI uri) {
+        WebSocketHandler server = servers.get(uri.getRawAuthority());
+        if (server == null) {
+            return CompletableFuture.failedFuture(new ConnectException("Connection refused: " + uri));
+        }
+        String id = String.valueOf(nextId.incrementAndGet());
+        AtomicBoolean open = new AtomicBoolean(true);
+        End client = new End("client-" + id, uri, new HttpHeaders(), handler, open);
+        End serverEnd = new End("server-" + id, uri, headers, server, open);
+        client.peer = serverEnd;
+        serverEnd.peer = client;
+        openConnections.incrementAndGet();
+        try {
+            handler.afterConnectionEstablished(client);
+            server.afterConnectionEstablished(serverEnd);
+        } catch (Exception e) {
+            client.close(CloseStatus.SERVER_ERROR);
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.completedFuture(client);
+    }
+
+    /**
+     * One side of a connection: what is sent to it goes to the handler of the other side.
+     */
+    private class End implements WebSocketSession {
+        private final String id;
+        private final URI uri;
+        private final HttpHeaders headers;
+        private final WebSocketHandler handler;
+        private final AtomicBoolean open;
+        private final SerialExecutor inbound = new SerialExecutor(executor);
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private End peer;
+
+        End(String id, URI uri, HttpHeaders headers, WebSocketHandler handler, AtomicBoolean open) {
+            this.id = id;
+            this.uri = uri;
+            this.headers = headers;
+            this.handler = handler;
+            this.open = open;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (!open.get()) {
+                throw new IOException("Closed");
+            }
+            WebSocketMessage<?> copy = message;
+            if (message instanceof BinaryMessage binary) {
+                ByteBuffer payload = binary.getPayload().duplicate();
+                byte[] data = new byte[payload.remaining()];
+                payload.get(data);
+                copy = new BinaryMessage(data);
+            } else if (!(message instanceof TextMessage)) {
+                return;
+            }
+            frames.incrementAndGet();
+            bytes.addAndGet(message.getPayloadLength());
+            WebSocketMessage<?> delivered = copy;
+            peer.inbound.execute(() -> {
+                if (!open.get()) {
+                    return;
+                }
+                try {
+                    peer.handler.handleMessage(peer, delivered);
+                } catch (Exception e) {
+                    close(CloseStatus.SERVER_ERROR);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            if (!open.compareAndSet(true, false)) {
+                return;
+            }
+            openConnections.decrementAndGet();
+            for (End end : List.of(this, peer)) {
+                end.inbound.execute(() -> {
+                    try {
+                        end.handler.afterConnectionClosed(end, status);
+                    } catch (Exception e) {
+                        // Nothing to tell
+                    }
+                });
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open.get();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.louislam.dockge.socketio;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OriginCheckInterceptorTest {
+
+    private static boolean handshake(OriginCheckInterceptor interceptor, String host, String origin,
+                                     MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/socket.io/");
+        request.addHeader("Host", host);
+        if (origin != null) {
+            request.addHeader("Origin", origin);
+        }
+        return interceptor.beforeHandshake(new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(response), null, new HashMap<>());
+    }
+
+    @Test
+    public void testOriginMustMatchHost() {
+        OriginCheckInterceptor interceptor = new OriginCheckInterceptor(false);
+
+        assertThat(handshake(interceptor, "dockge.example.com:5001", "http://dockge.example.com:5001",
+                new MockHttpServletResponse())).isTrue();
+        // Behind a proxy that terminates TLS
+        assertThat(handshake(interceptor, "dockge.example.com", "https://dockge.example.com",
+                new MockHttpServletResponse())).isTrue();
+        // Not from a browser
+        assertThat(handshake(interceptor, "dockge.example.com", null, new MockHttpServletResponse())).isTrue();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(handshake(interceptor, "dockge.example.com", "https://evil.example.com", response)).isFalse();
+        assertThat(response.getStatus()).isEqualTo(403);
+        assertThat(handshake(interceptor, "dockge.example.com:5001", "http://dockge.example.com:8080",
+                new MockHttpServletResponse())).isFalse();
+        assertThat(handshake(interceptor, "dockge.example.com", "null", new MockHttpServletResponse())).isFalse();
+    }
+
+    @Test
+    public void testBypass() {
+        OriginCheckInterceptor interceptor = new OriginCheckInterceptor(true);
+
+        assertThat(handshake(interceptor, "localhost:5001", "http://localhost:5000",
+                new MockHttpServletResponse())).isTrue();
+    }
+}
@@ -0,0 +1,103 @@
+package com.louislam.dockge.socketio;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboundQueueTest {
+
+    private static List<WebSocketMessage<?>> frames(String text) {
+        return List.of(new TextMessage(text));
+    }
+
+    private static List<String> drain(OutboundQueue queue) {
+        List<String> texts = new ArrayList<>();
+        List<WebSocketMessage<?>> frames;
+        while ((frames = queue.poll()) != null) {
+            for (WebSocketMessage<?> frame : frames) {
+                texts.add((String) frame.getPayload());
+            }
+        }
+        return texts;
+    }
+
+    @Test
+    public void testPriorities() {
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Limits(1000, 1000, 1000, 1000));
+        queue.offer(OutboundQueue.Priority.BULK, null, frames("output 1"));
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("event 1"));
+        queue.offer(OutboundQueue.Priority.CONTROL, null, frames("ping"));
+        queue.offer(OutboundQueue.Priority.BULK, null, frames("output 2"));
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("event 2"));
+
+        assertThat(queue.getPackets()).isEqualTo(5);
+        assertThat(drain(queue)).containsExactly("ping", "event 1", "event 2", "output 1", "output 2");
+        assertThat(queue.getBytes()).isZero();
+        assertThat(queue.getSentBytes()).isEqualTo(34);
+    }
+
+    @Test
+    public void testAcksDoNotOvertakeEarlierOutput() {
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Limits(1000, 1000, 1000, 1000));
+        queue.offer(OutboundQueue.Priority.BULK, null, frames("earlier output"));
+
+        // A handler that only emits events
+        long mark = queue.getBulkOffered();
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("event"));
+        queue.offer(queue.ackPriority(mark), null, frames("ack 1"));
+        assertThat(drain(queue)).containsExactly("event", "ack 1", "earlier output");
+
+        // A handler that writes terminal output
+        mark = queue.getBulkOffered();
+        queue.offer(OutboundQueue.Priority.BULK, null, frames("output"));
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("exit event"));
+        queue.offer(queue.ackPriority(mark), null, frames("ack 2"));
+        assertThat(drain(queue)).containsExactly("exit event", "output", "ack 2");
+    }
+
+    @Test
+    public void testCoalescing() {
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Limits(1000, 1000, 1000, 1000));
+        assertThat(queue.offer(OutboundQueue.Priority.NORMAL, "stackList", frames("list 1"))).isFalse();
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("delta"));
+        assertThat(queue.offer(OutboundQueue.Priority.NORMAL, "stackList", frames("list 2"))).isTrue();
+        queue.offer(OutboundQueue.Priority.NORMAL, "info", frames("info"));
+
+        assertThat(queue.getPackets()).isEqualTo(3);
+        assertThat(queue.getCoalesced()).isEqualTo(1);
+        // The latest list takes the place of the newest packet, after the delta
+        assertThat(drain(queue)).containsExactly("delta", "list 2", "info");
+        assertThat(queue.getBytes()).isZero();
+
+        // Once sent, the next one is queued again
+        assertThat(queue.offer(OutboundQueue.Priority.NORMAL, "stackList", frames("list 3"))).isFalse();
+        assertThat(drain(queue)).containsExactly("list 3");
+    }
+
+    @Test
+    public void testWatermarks() {
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Limits(5, 20, 100, 1000));
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("x".repeat(15)));
+        assertThat(queue.getOverLimitSince()).isZero();
+
+        queue.offer(OutboundQueue.Priority.NORMAL, null, frames("y".repeat(10)));
+        long since = queue.getOverLimitSince();
+        assertThat(since).isPositive();
+        assertThat(queue.isOverLimit(since + 1000)).isFalse();
+        assertThat(queue.isOverLimit(since + 1001)).isTrue();
+
+        // Still over until it goes under the low watermark
+        queue.poll();
+        assertThat(queue.getOverLimitSince()).isEqualTo(since);
+        queue.poll();
+        assertThat(queue.getOverLimitSince()).isZero();
+
+        queue.offer(OutboundQueue.Priority.BULK, null, frames("z".repeat(101)));
+        assertThat(queue.isOverLimit(System.currentTimeMillis())).isTrue();
+    }
+}
@@ -0,0 +1,324 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelayConnectionTest {
+
+    private static final String CONNECTING = status("connecting");
+    private static final String ONLINE = status("online");
+    private static final String OFFLINE = status("offline");
+
+    private final BlockingQueue<WebSocketHttpHeaders> attempts = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private SocketIoServer server;
+    private RelayConnection relay;
+    private FakeWebSocketSession browser;
+    private FakeWebSocketSession upstream;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        server = new SocketIoServer(objectMapper, new SocketRegistry(), new SimpleMeterRegistry(),
+                SocketIoServerTest.inlineDispatcher(), Runnable::run, 25000, 0, 1000000,
+                new OutboundQueue.Limits(262144, 1048576, 8388608, 30000));
+        WebSocketClient client = new WebSocketClient() {
+            @Override
+            public CompletableFuture<WebSocketSession> execute(WebSocketHandler handler, String uriTemplate,
+                                                               Object... uriVariables) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<WebSocketSession> execute(WebSocketHandler handler, WebSocketHttpHeaders headers,
+                                                               URI uri) {
+                attempts.add(headers);
+                return new CompletableFuture<>();
+            }
+        };
+        relay = new RelayConnection("agent:5001", "admin", "secret",
+                URI.create("ws://agent:5001/socket.io/?EIO=4&transport=websocket"), objectMapper,
+                server.getEncoder(), client, scheduler,
+                new RelayConnection.Options(2, Duration.ofMillis(200), Duration.ofMillis(400), Duration.ofSeconds(5)));
+        server.of("/").onRaw("agent", (socket, packet, attachments, callback) -> {
+            relay.forward(socket, packet, attachments, callback);
+            return true;
+        });
+
+        browser = connectBrowser("browser");
+        relay.connect();
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.CONNECTING);
+        upstream = nextAttempt("upstream");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static String status(String status) {
+        return "42[\"agentStatus\",{\"endpoint\":\"agent:5001\",\"status\":\"" + status + "\"}]";
+    }
+
+    private FakeWebSocketSession connectBrowser(String id) {
+        FakeWebSocketSession webSocket = new FakeWebSocketSession(id, true);
+        server.afterConnectionEstablished(webSocket);
+        server.handleTextMessage(webSocket, new TextMessage("40"));
+        webSocket.take();
+        return webSocket;
+    }
+
+    /**
+     * Wait for the connection to open a websocket, and open it.
+     */
+    private FakeWebSocketSession nextAttempt(String id) throws InterruptedException {
+        WebSocketHttpHeaders headers = attempts.poll(5, TimeUnit.SECONDS);
+        assertThat(headers).isNotNull();
+        assertThat(headers.getFirst("endpoint")).isEqualTo("agent:5001");
+        FakeWebSocketSession session = new FakeWebSocketSession(id, true);
+        relay.afterConnectionEstablished(session);
+        return session;
+    }
+
+    private void fromAgent(String text) {
+        relay.handleTextMessage(upstream, new TextMessage(text));
+    }
+
+    private void fromBrowser(FakeWebSocketSession webSocket, String text) {
+        server.handleTextMessage(webSocket, new TextMessage(text));
+    }
+
+    private void logIn() {
+        fromAgent("0{\"sid\":\"s\",\"upgrades\":[],\"pingInterval\":25000,\"pingTimeout\":20000}");
+        assertThat(upstream.take()).containsExactly("40");
+        fromAgent("40{\"sid\":\"a\"}");
+        String login = upstream.take().get(0);
+        assertThat(login).endsWith("[\"login\",{\"username\":\"admin\",\"password\":\"secret\",\"token\":\"\"}]");
+        fromAgent("43" + login.substring(2, login.indexOf('[')) + "[{\"ok\":true,\"token\":\"jwt\"}]");
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.READY);
+    }
+
+    @Test
+    public void testUris() {
+        assertThat(RelayConnection.endpointOf("http://10.0.0.2:5001")).isEqualTo("10.0.0.2:5001");
+        assertThat(RelayConnection.endpointOf("https://dockge.example.com")).isEqualTo("dockge.example.com");
+        assertThat(RelayConnection.socketUri("https://dockge.example.com"))
+                .isEqualTo(URI.create("wss://dockge.example.com/socket.io/?EIO=4&transport=websocket"));
+        assertThat(RelayConnection.socketUri("http://10.0.0.2:5001/"))
+                .isEqualTo(URI.create("ws://10.0.0.2:5001/socket.io/?EIO=4&transport=websocket"));
+    }
+
+    @Test
+    public void testForward() {
+        // Waits for the login
+        fromBrowser(browser, "4217[\"agent\",\"agent:5001\",\"getStack\",\"nginx\"]");
+        assertThat(upstream.take()).isEmpty();
+        logIn();
+        assertThat(upstream.take()).containsExactly("421[\"agent\",\"agent:5001\",\"getStack\",\"nginx\"]");
+        assertThat(browser.take()).containsExactly(ONLINE);
+
+        fromBrowser(browser, "4218[\"agent\",\"agent:5001\",\"getStack\",{\"big\":\"\\u00e9\"}]");
+        assertThat(upstream.take())
+                .containsExactly("422[\"agent\",\"agent:5001\",\"getStack\",{\"big\":\"\\u00e9\"}]");
+
+        // Acks go back with the ids of the browser
+        fromAgent("432[{\"ok\":true,\"n\":2}]");
+        fromAgent("431[{\"ok\":true,\"n\":1}]");
+        fromAgent("431[{\"ok\":true,\"n\":1}]");
+        assertThat(browser.take()).containsExactly("4318[{\"ok\":true,\"n\":2}]", "4317[{\"ok\":true,\"n\":1}]");
+
+        fromAgent("2");
+        assertThat(upstream.take()).containsExactly("3");
+    }
+
+    @Test
+    public void testRequest() {
+        CompletableFuture<Object[]> notConnected = relay.request("getStackList", new Object[0], Duration.ofSeconds(5));
+        assertThat(notConnected).isCompletedExceptionally();
+        logIn();
+
+        CompletableFuture<Object[]> request = relay.request("getStackList", new Object[0], Duration.ofSeconds(5));
+        assertThat(upstream.take()).containsExactly("421[\"agent\",\"agent:5001\",\"getStackList\"]");
+        fromAgent("431[{\"ok\":true,\"stackList\":{}}]");
+        assertThat(request.join()).containsExactly(Map.of("ok", true, "stackList", Map.of()));
+
+        // Forgotten once timed out
+        CompletableFuture<Object[]> slow = relay.request("getStackList", new Object[0], Duration.ofMillis(10));
+        assertThat(slow).failsWithin(Duration.ofSeconds(5));
+        fromAgent("432[{\"ok\":true}]");
+        assertThat(browser.take()).isEmpty();
+    }
+
+    @Test
+    public void testSlowAgentDoesNotBlockOtherWriters() throws Exception {
+        logIn();
+        upstream.block();
+        Thread writer = Thread.ofVirtual().start(
+                () -> relay.request("first", new Object[0], Duration.ofSeconds(5)));
+        writer.join(50);
+        assertThat(writer.isAlive()).isTrue();
+
+        // Queued behind the blocked write instead of waiting for it
+        CompletableFuture<Object[]> second = CompletableFuture.supplyAsync(
+                () -> relay.request("second", new Object[0], Duration.ofSeconds(5))).get(5, TimeUnit.SECONDS);
+        assertThat(second).isNotDone();
+        fromBrowser(browser, "4217[\"agent\",\"agent:5001\",\"getStack\",\"nginx\"]");
+        relay.checkHealth(System.currentTimeMillis());
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.READY);
+
+        upstream.unblock();
+        writer.join(5000);
+        assertThat(upstream.take()).containsExactly("421[\"agent\",\"agent:5001\",\"first\"]",
+                "422[\"agent\",\"agent:5001\",\"second\"]", "423[\"agent\",\"agent:5001\",\"getStack\",\"nginx\"]");
+    }
+
+    @Test
+    public void testGetStackList() {
+        logIn();
+
+        // A reference agent never answers getStackList, the stackList event it sends instead is the answer
+        CompletableFuture<Object[]> reference = relay.getStackList(null, Duration.ofSeconds(5));
+        assertThat(upstream.take()).containsExactly("421[\"agent\",\"agent:5001\",\"getStackList\"]",
+                "422[\"agent\",\"agent:5001\",\"requestStackList\"]");
+        fromAgent("42[\"agent\",\"stackList\",{\"ok\":true,\"stackList\":{\"web\":{}}}]");
+        assertThat(reference.join()).containsExactly(Map.of("ok", true, "stackList", Map.of("web", Map.of())));
+
+        // Once an agent has answered getStackList, it is only asked that
+        CompletableFuture<Object[]> first = relay.getStackList(null, Duration.ofSeconds(5));
+        assertThat(upstream.take()).hasSize(2);
+        fromAgent("433[{\"ok\":true,\"version\":3,\"stackList\":{}}]");
+        assertThat(first.join()).containsExactly(Map.of("ok", true, "version", 3, "stackList", Map.of()));
+
+        CompletableFuture<Object[]> second = relay.getStackList(3L, Duration.ofSeconds(5));
+        assertThat(upstream.take()).containsExactly("425[\"agent\",\"agent:5001\",\"getStackList\",3]");
+        fromAgent("435[{\"ok\":true,\"version\":3,\"notModified\":true}]");
+        assertThat(second.join()).containsExactly(Map.of("ok", true, "version", 3, "notModified", true));
+
+        // Not waiting for the event when the agent is not connected
+        relay.close();
+        assertThat(relay.getStackList(null, Duration.ofSeconds(5))).isCompletedExceptionally();
+    }
+
+    @Test
+    public void testGetStackListTimesOut() {
+        logIn();
+        CompletableFuture<Object[]> request = relay.getStackList(null, Duration.ofMillis(50));
+        assertThat(request).failsWithin(Duration.ofSeconds(5))
+                .withThrowableOfType(ExecutionException.class)
+                .withRootCauseInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    public void testRelayEvents() {
+        logIn();
+        fromAgent("42[\"agent\",\"stackList\",{\"endpoint\":\"agent:5001\"}]");
+        assertThat(browser.take()).isEmpty();
+
+        // Subscribed by their first event
+        FakeWebSocketSession other = connectBrowser("other");
+        fromBrowser(browser, "42[\"agent\",\"agent:5001\",\"deployStack\",\"web\",\"services: {}\",\"\",true]");
+        fromBrowser(other, "42[\"agent\",\"agent:5001\",\"requestStackList\"]");
+        assertThat(upstream.take()).hasSize(2);
+        fromAgent("42[\"agent\",\"stackList\",{\"endpoint\":\"agent:5001\"}]");
+        fromAgent("42[\"agent\",\"terminalWrite\",\"compose-agent:5001-web\",\"pulling\"]");
+        fromAgent("42[\"agent\",\"terminalWrite\",\"compose-agent:5001-db\",\"out\"]");
+        fromAgent("42[\"info\",{}]");
+        assertThat(browser.take()).containsExactly("42[\"agent\",\"stackList\",{\"endpoint\":\"agent:5001\"}]",
+                "42[\"agent\",\"terminalWrite\",\"compose-agent:5001-web\",\"pulling\"]");
+        assertThat(other.take()).containsExactly("42[\"agent\",\"stackList\",{\"endpoint\":\"agent:5001\"}]");
+
+        // Terminals joined by name and left
+        fromBrowser(other, "42[\"agent\",\"agent:5001\",\"terminalJoin\",\"combined-agent:5001-web\"]");
+        fromBrowser(browser, "42[\"agent\",\"agent:5001\",\"leaveCombinedTerminal\",\"web\"]");
+        upstream.take();
+        fromAgent("42[\"agent\",\"terminalWrite\",\"combined-agent:5001-web\",\"log\"]");
+        assertThat(browser.take()).isEmpty();
+        assertThat(other.take()).containsExactly("42[\"agent\",\"terminalWrite\",\"combined-agent:5001-web\",\"log\"]");
+
+        // Binary both ways
+        fromBrowser(browser, "451-3[\"agent\",\"agent:5001\",\"upload\",{\"_placeholder\":true,\"num\":0}]");
+        server.handleBinaryMessage(browser, new BinaryMessage(new byte[]{1, 2}));
+        assertThat(upstream.take()).containsExactly(
+                "451-1[\"agent\",\"agent:5001\",\"upload\",{\"_placeholder\":true,\"num\":0}]", "<binary 2 bytes>");
+        fromAgent("461-1[{\"_placeholder\":true,\"num\":0}]");
+        relay.handleBinaryMessage(upstream, new BinaryMessage(new byte[]{3, 4, 5}));
+        assertThat(browser.take()).containsExactly("461-3[{\"_placeholder\":true,\"num\":0}]", "<binary 3 bytes>");
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        fromBrowser(browser, "421[\"agent\",\"agent:5001\",\"deployStack\",\"a\"]");
+        fromBrowser(browser, "422[\"agent\",\"agent:5001\",\"deployStack\",\"b\"]");
+        // Too many waiting for the login
+        fromBrowser(browser, "423[\"agent\",\"agent:5001\",\"deployStack\",\"c\"]");
+        assertThat(browser.take()).singleElement().asString().startsWith("433[").contains("not connected yet");
+
+        logIn();
+        upstream.take();
+        browser.take();
+        relay.afterConnectionClosed(upstream, CloseStatus.GOING_AWAY);
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.DISCONNECTED);
+        List<String> frames = browser.take();
+        assertThat(frames).hasSize(3).last().isEqualTo(OFFLINE);
+        assertThat(frames.subList(0, 2)).allSatisfy(frame ->
+                assertThat(frame).contains("\"ok\":false", "Agent agent:5001 is not connected."));
+        fromBrowser(browser, "424[\"agent\",\"agent:5001\",\"getStack\",\"d\"]");
+        assertThat(browser.take()).singleElement().asString().startsWith("434[").contains("\"ok\":false");
+
+        // Retried after the backoff on a new websocket, the old one is ignored
+        FakeWebSocketSession old = upstream;
+        upstream = nextAttempt("upstream-2");
+        assertThat(browser.take()).containsExactly(CONNECTING);
+        logIn();
+        relay.handleTextMessage(old, new TextMessage("2"));
+        fromBrowser(browser, "425[\"agent\",\"agent:5001\",\"getStack\",\"e\"]");
+        assertThat(upstream.take()).singleElement().asString()
+                .endsWith("[\"agent\",\"agent:5001\",\"getStack\",\"e\"]");
+        assertThat(old.take()).isEmpty();
+
+        // An agent that stops pinging is dropped
+        relay.checkHealth(System.currentTimeMillis() + 1000);
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.READY);
+        relay.checkHealth(System.currentTimeMillis() + 60000);
+        assertThat(upstream.getCloseStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+        upstream = nextAttempt("upstream-3");
+
+        // One that does not log in as well
+        relay.checkHealth(System.currentTimeMillis() + 1000);
+        assertThat(upstream.getCloseStatus()).isNull();
+        relay.checkHealth(System.currentTimeMillis() + 10000);
+        assertThat(upstream.getCloseStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+        nextAttempt("upstream-4");
+
+        relay.close();
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.CLOSED);
+        relay.connect();
+        assertThat(relay.getState()).isEqualTo(RelayConnection.State.CLOSED);
+    }
+}
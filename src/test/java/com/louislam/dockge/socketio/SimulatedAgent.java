@@ -0,0 +1,240 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.model.Stack;
+import com.louislam.dockge.model.StackStatus;
+import com.louislam.dockge.service.StackListDelta;
+import com.louislam.dockge.service.StackListJournal;
+import com.louislam.dockge.socket.Ack;
+import com.louislam.dockge.socket.SocketRegistry;
+import com.louislam.dockge.socket.SocketUtil;
+import com.louislam.dockge.terminal.Terminal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Dockge agent without Docker: a Socket.IO server of its own that answers the agent events of a
+ * hub from a made-up stack list.
+ *
+ * It logs any login in and handles requestStackList, getStackList, getStack, the stack actions,
+ * which write a few lines to the compose terminal, and the terminal events. Every event waits for
+ * the configured latency first and fails with the configured probability.
+ */
+public class SimulatedAgent {
+
+    /**
+     * @param stacks      number of stacks
+     * @param latency     how long every event takes
+     * @param failureRate probability of an event failing, 0 to 1
+     */
+    public record Config(int stacks, Duration latency, double failureRate) {
+    }
+
+    private static final Set<String> STACK_ACTIONS = Set.of("deployStack", "startStack", "stopStack",
+            "restartStack", "updateStack", "downStack");
+    private static final int OUTPUT_LINES = 5;
+
+    private final String endpoint;
+    private final SocketIoServer server;
+    private final Map<String, Stack> stacks = new LinkedHashMap<>();
+    private final StackListJournal journal = new StackListJournal(100);
+    private final AtomicLong events = new AtomicLong();
+    private volatile Config config;
+
+    public SimulatedAgent(String endpoint, Config config) {
+        this.endpoint = endpoint;
+        this.config = config;
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        this.server = new SocketIoServer(new ObjectMapper(), new SocketRegistry(), meterRegistry,
+                new EventDispatcher(meterRegistry, null, 60000, Map.of(), Set.of(), Set.of(), 4, 256), null,
+                25000, 20000, 10000000, new OutboundQueue.Limits(262144, 1048576, 8388608, 30000));
+        for (int i = 0; i < config.stacks(); i++) {
+            Stack stack = new Stack();
+            stack.setName("stack-" + i);
+            stack.setComposeFileName("compose.yaml");
+            stack.setManagedByDockge(true);
+            stack.setStatus(StackStatus.RUNNING);
+            stacks.put(stack.getName(), stack);
+        }
+        updateJournal();
+        register();
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * The websocket handler to register with the {@link InMemoryWebSocketClient}.
+     */
+    public SocketIoServer getServer() {
+        return server;
+    }
+
+    public void setConfig(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Events handled so far, failed ones included.
+     */
+    public long getEvents() {
+        return events.get();
+    }
+
+    public int getConnectedSockets() {
+        return server.of(SocketIoPacket.MAIN_NAMESPACE).getSockets().size();
+    }
+
+    /**
+     * Flip the status of a few random stacks, as if they were started or stopped.
+     */
+    public synchronized void changeStacks(int count) {
+        List<Stack> list = List.copyOf(stacks.values());
+        for (int i = 0; i < count && !list.isEmpty(); i++) {
+            Stack stack = list.get(ThreadLocalRandom.current().nextInt(list.size()));
+            stack.setStatus(stack.getStatus() == StackStatus.RUNNING ? StackStatus.EXITED : StackStatus.RUNNING);
+        }
+        updateJournal();
+    }
+
+    /**
+     * Drop every connection, as if the agent restarted.
+     */
+    public void disconnectAll() {
+        for (SocketIoSocket socket : server.of(SocketIoPacket.MAIN_NAMESPACE).getSockets()) {
+            try {
+                socket.getSession().getWebSocket().close();
+            } catch (Exception e) {
+                // Already gone
+            }
+        }
+    }
+
+    public void stop() {
+        disconnectAll();
+        server.stop();
+    }
+
+    private void updateJournal() {
+        Map<String, Map<String, Object>> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, Stack> entry : stacks.entrySet()) {
+            Map<String, Object> obj = entry.getValue().toSimpleJson(null);
+            obj.remove("endpoint");
+            entries.put(entry.getKey(), obj);
+        }
+        journal.update(entries);
+    }
+
+    private void register() {
+        Namespace main = server.of(SocketIoPacket.MAIN_NAMESPACE);
+        main.on("login", (socket, args, callback) -> {
+            socket.setUserId(1);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", true);
+            result.put("token", "simulated");
+            SocketUtil.callbackResult(result, callback);
+        });
+        main.on("agent", (socket, args, callback) -> {
+            SocketUtil.checkLogin(socket);
+            events.incrementAndGet();
+            Config current = config;
+            if (!current.latency().isZero()) {
+                Thread.sleep(current.latency().toMillis());
+            }
+            if (ThreadLocalRandom.current().nextDouble() < current.failureRate()) {
+                throw new IllegalStateException("Simulated failure");
+            }
+            String event = SocketUtil.stringArg(args, 1, "Event name");
+            handle(socket, event, Arrays.copyOfRange(args, 2, args.length), callback);
+        });
+    }
+
+    private void handle(SocketIoSocket socket, String event, Object[] args, Ack callback) {
+        if (STACK_ACTIONS.contains(event)) {
+            String name = SocketUtil.stringArg(args, 0, "Stack name");
+            String terminal = Terminal.getComposeTerminalName(socket.getEndpoint(), name);
+            for (int i = 0; i < OUTPUT_LINES; i++) {
+                socket.emit("agent", "terminalWrite", terminal, event + " " + name + " step " + i + "\r\n");
+            }
+            socket.emit("agent", "terminalExit", terminal, 0);
+            SocketUtil.callbackResult(SocketUtil.okResult("Done"), callback);
+            return;
+        }
+        switch (event) {
+            case "requestStackList" -> {
+                Map<String, Object> payload = stackList(socket.getEndpoint());
+                payload.put("endpoint", socket.getEndpoint());
+                socket.emit("agent", "stackList", payload);
+                SocketUtil.callbackResult(SocketUtil.okResult("Updated"), callback);
+            }
+            case "getStackList" -> {
+                Long version = args.length > 0 && args[0] instanceof Number n ? n.longValue() : null;
+                SocketUtil.callbackResult(getStackList(socket.getEndpoint(), version), callback);
+            }
+            case "getStack" -> {
+                String name = SocketUtil.stringArg(args, 0, "Stack name");
+                Stack stack;
+                synchronized (this) {
+                    stack = stacks.get(name);
+                }
+                if (stack == null) {
+                    throw new IllegalStateException("Stack not found");
+                }
+                Map<String, Object> obj = stack.toSimpleJson(socket.getEndpoint());
+                obj.put("composeYAML", "services:\n  " + name + ":\n    image: nginx\n");
+                obj.put("composeENV", "");
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("ok", true);
+                result.put("stack", obj);
+                SocketUtil.callbackResult(result, callback);
+            }
+            case "terminalJoin" -> {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("ok", true);
+                result.put("buffer", "");
+                SocketUtil.callbackResult(result, callback);
+            }
+            case "terminalInput", "terminalResize", "leaveCombinedTerminal" ->
+                    SocketUtil.callbackResult(SocketUtil.okResult("OK"), callback);
+            default -> throw new IllegalStateException("Unknown event " + event);
+        }
+    }
+
+    private synchronized Map<String, Object> stackList(String endpoint) {
+        Map<String, Object> list = new LinkedHashMap<>();
+        for (Map.Entry<String, Stack> entry : stacks.entrySet()) {
+            list.put(entry.getKey(), entry.getValue().toSimpleJson(endpoint));
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("ok", true);
+        payload.put("stackList", list);
+        return payload;
+    }
+
+    /**
+     * Same answer as StackListBroadcaster.getStackList.
+     */
+    private Map<String, Object> getStackList(String endpoint, Long version) {
+        if (version == null) {
+            return journal.snapshot().toPayload(endpoint);
+        }
+        StackListDelta delta = journal.since(version);
+        if (!delta.isEmpty()) {
+            return delta.toPayload(endpoint);
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("ok", true);
+        payload.put("version", delta.version());
+        payload.put("notModified", true);
+        return payload;
+    }
+}
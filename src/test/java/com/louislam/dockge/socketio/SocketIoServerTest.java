@@ -0,0 +1,323 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.AgentConnectionPool;
+import com.louislam.dockge.socket.AgentEventRouter;
+import com.louislam.dockge.socket.AgentProxySocketHandler;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SocketIoServerTest {
+
+    private static final OutboundQueue.Limits LIMITS = new OutboundQueue.Limits(262144, 1048576, 8388608, 30000);
+
+    /**
+     * Runs every event on the thread that received it.
+     */
+    static EventDispatcher inlineDispatcher() {
+        return new EventDispatcher(new SimpleMeterRegistry(), Runnable::run, 0, Map.of(), Set.of(), Set.of(), 1, 256);
+    }
+
+    private final SocketRegistry socketRegistry = new SocketRegistry();
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private SocketIoServer server;
+
+    @BeforeEach
+    public void setUp() {
+        server = new SocketIoServer(new ObjectMapper(), socketRegistry, new SimpleMeterRegistry(), inlineDispatcher(),
+                Runnable::run, 25000, 0, 1000000, LIMITS);
+    }
+
+    private FakeWebSocketSession open() {
+        FakeWebSocketSession webSocket = new FakeWebSocketSession("ws-" + sessionIds.incrementAndGet(), true);
+        server.afterConnectionEstablished(webSocket);
+        return webSocket;
+    }
+
+    private FakeWebSocketSession connect() {
+        FakeWebSocketSession webSocket = open();
+        receive(webSocket, "40");
+        webSocket.take();
+        return webSocket;
+    }
+
+    private void receive(FakeWebSocketSession webSocket, String text) {
+        server.handleTextMessage(webSocket, new TextMessage(text));
+    }
+
+    @Test
+    public void testHandshake() {
+        FakeWebSocketSession webSocket = open();
+        List<String> frames = webSocket.take();
+        assertThat(frames).singleElement().asString()
+                .startsWith("0{\"sid\":\"")
+                .contains("\"upgrades\":[]", "\"pingInterval\":25000", "\"maxPayload\":1000000");
+
+        receive(webSocket, "40");
+        assertThat(webSocket.take()).singleElement().asString().startsWith("40{\"sid\":\"");
+        assertThat(socketRegistry.getSockets()).hasSize(1);
+
+        receive(webSocket, "40/nope,");
+        assertThat(webSocket.take()).containsExactly("44/nope,{\"message\":\"Invalid namespace\"}");
+
+        server.of("/admin").on("hello", (socket, args, callback) -> callback.send("hi " + args[0]));
+        receive(webSocket, "40/admin,");
+        assertThat(webSocket.take()).singleElement().asString().startsWith("40/admin,{\"sid\":\"");
+        receive(webSocket, "42/admin,7[\"hello\",\"there\"]");
+        assertThat(webSocket.take()).containsExactly("43/admin,7[\"hi there\"]");
+
+        // Only the main namespace is registered
+        assertThat(socketRegistry.getSockets()).hasSize(1);
+        server.afterConnectionClosed(webSocket, CloseStatus.NORMAL);
+        assertThat(socketRegistry.getSockets()).isEmpty();
+        assertThat(server.getSessionCount()).isZero();
+    }
+
+    @Test
+    public void testEngineIoVersion() {
+        for (String query : List.of("EIO=3", "EIO=40", "transport=websocket", "EIO=4x&EIO=4")) {
+            FakeWebSocketSession webSocket = new FakeWebSocketSession("ws-" + sessionIds.incrementAndGet(), true);
+            webSocket.setUri(URI.create("ws://localhost/socket.io/?" + query));
+            server.afterConnectionEstablished(webSocket);
+            assertThat(webSocket.take()).as(query).isEmpty();
+            assertThat(webSocket.getCloseStatus()).as(query).isEqualTo(CloseStatus.PROTOCOL_ERROR);
+        }
+        assertThat(server.getSessionCount()).isZero();
+
+        assertThat(open().take()).singleElement().asString().startsWith("0{");
+    }
+
+    /**
+     * Open a long-polling connection and return its session id.
+     */
+    private String openPolling() throws Exception {
+        String handshake = server.openPolling(new HttpHeaders(), null);
+        assertThat(handshake).startsWith("0{").contains("\"upgrades\":[\"websocket\"]");
+        return (String) new ObjectMapper().readValue(handshake.substring(1), Map.class).get("sid");
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        server.of("/").on("echo", (socket, args, callback) -> callback.send(args));
+        String sid = openPolling();
+
+        // A poll without anything to send waits
+        CompletableFuture<String> waiting = server.poll(sid);
+        assertThat(waiting).isNotDone();
+        server.receivePayload(sid, "40");
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).startsWith("40{\"sid\":\"");
+        assertThat(socketRegistry.getSockets()).hasSize(1);
+
+        // Packets are split and joined by record separators, binary ones are base64
+        server.receivePayload(sid, "421[\"echo\",\"a\"]\u001e422[\"echo\",\"b\"]");
+        assertThat(server.poll(sid).get(1, TimeUnit.SECONDS)).isEqualTo("431[\"a\"]\u001e432[\"b\"]");
+        server.receivePayload(sid, "451-3[\"echo\",{\"_placeholder\":true,\"num\":0}]\u001ebBAU=");
+        assertThat(server.poll(sid).get(1, TimeUnit.SECONDS))
+                .isEqualTo("461-3[{\"_placeholder\":true,\"num\":0}]\u001ebBAU=");
+
+        // Only one poll may wait at a time
+        server.poll(sid);
+        assertThatThrownBy(() -> server.poll(sid)).isInstanceOf(EngineIoException.class);
+        assertThat(socketRegistry.getSockets()).isEmpty();
+        assertThatThrownBy(() -> server.poll(sid))
+                .isInstanceOfSatisfying(EngineIoException.class,
+                        e -> assertThat(e.getCode()).isEqualTo(EngineIoException.UNKNOWN_SID));
+        assertThat(server.getSessionCount()).isZero();
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        String sid = openPolling();
+        server.receivePayload(sid, "40");
+        server.poll(sid).get(1, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = server.poll(sid);
+
+        FakeWebSocketSession probe = new FakeWebSocketSession("ws-" + sessionIds.incrementAndGet(), true);
+        probe.setUri(URI.create("ws://localhost/socket.io/?EIO=4&transport=websocket&sid=" + sid));
+        server.afterConnectionEstablished(probe);
+        assertThat(probe.take()).isEmpty();
+        receive(probe, "2probe");
+        assertThat(probe.take()).containsExactly("3probe");
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).isEqualTo("6");
+
+        // Packets sent before the upgrade completes wait for the websocket
+        SocketIoSocket socket = server.of("/").getSockets().iterator().next();
+        socket.emit("before", 1);
+        receive(probe, "5");
+        assertThat(probe.take()).containsExactly("42[\"before\",1]");
+        socket.emit("after", 2);
+        assertThat(probe.take()).containsExactly("42[\"after\",2]");
+        assertThat(server.poll(sid).get(1, TimeUnit.SECONDS)).isEqualTo("6");
+
+        server.afterConnectionClosed(probe, CloseStatus.NORMAL);
+        assertThat(socketRegistry.getSockets()).isEmpty();
+        assertThat(server.getSessionCount()).isZero();
+
+        // A websocket can only upgrade a polling session
+        FakeWebSocketSession unknown = new FakeWebSocketSession("ws-" + sessionIds.incrementAndGet(), true);
+        unknown.setUri(URI.create("ws://localhost/socket.io/?EIO=4&transport=websocket&sid=" + sid));
+        server.afterConnectionEstablished(unknown);
+        assertThat(unknown.getCloseStatus()).isEqualTo(CloseStatus.PROTOCOL_ERROR);
+    }
+
+    @Test
+    public void testEventsAndAcks() {
+        List<Object> received = new ArrayList<>();
+        server.of("/").on("echo", (socket, args, callback) -> callback.send(args));
+        server.of("/").on("fail", (socket, args, callback) -> {
+            throw new ValidationException("Bad input");
+        });
+        server.of("/").on("notify", (socket, args, callback) -> received.add(args[0]));
+
+        FakeWebSocketSession webSocket = connect();
+        receive(webSocket, "4212[\"echo\",{\"a\":[1,2.5,true,null]},\"x\"]");
+        assertThat(webSocket.take()).containsExactly("4312[{\"a\":[1,2.5,true,null]},\"x\"]");
+
+        receive(webSocket, "423[\"fail\"]");
+        assertThat(webSocket.take())
+                .containsExactly("433[{\"ok\":false,\"type\":1,\"msg\":\"Bad input\",\"msgi18n\":true}]");
+
+        receive(webSocket, "42[\"notify\",\"no ack\"]");
+        assertThat(webSocket.take()).isEmpty();
+        assertThat(received).containsExactly("no ack");
+
+        // Acks of events the server emitted
+        SocketIoSocket socket = server.of("/").getSockets().iterator().next();
+        socket.emitWithAck("question", args -> received.add(args[0]), 42);
+        assertThat(webSocket.take()).containsExactly("420[\"question\",42]");
+        receive(webSocket, "430[\"answer\"]");
+        assertThat(received).containsExactly("no ack", "answer");
+
+        // Malformed packets close the connection
+        receive(webSocket, "42[");
+        assertThat(webSocket.getCloseStatus()).isEqualTo(CloseStatus.PROTOCOL_ERROR);
+    }
+
+    @Test
+    public void testAgentEvent() {
+        AgentEventRouter router = new AgentEventRouter();
+        router.on("ping", (socket, args, callback) -> callback.send("pong", args[0]));
+        new AgentProxySocketHandler(server, router,
+                new AgentConnectionPool(null, server, new ObjectMapper(), 100, 1000, 60000, 20000)).register();
+
+        FakeWebSocketSession webSocket = connect();
+        server.of("/").getSockets().iterator().next().setUserId(1);
+        receive(webSocket, "421[\"agent\",\"\",\"ping\",1]");
+        assertThat(webSocket.take()).containsExactly("431[\"pong\",1]");
+
+        receive(webSocket, "422[\"agent\",\"other:5001\",\"ping\",1]");
+        assertThat(webSocket.take()).singleElement().asString().contains("\"ok\":false", "other:5001");
+    }
+
+    @Test
+    public void testBinary() {
+        List<Object> received = new ArrayList<>();
+        server.of("/").on("upload", (socket, args, callback) -> {
+            received.add(args[0]);
+            socket.emit("download", new byte[]{1, 2, 3}, "done");
+        });
+
+        FakeWebSocketSession webSocket = connect();
+        receive(webSocket, "451-[\"upload\",{\"_placeholder\":true,\"num\":0}]");
+        assertThat(received).isEmpty();
+        server.handleBinaryMessage(webSocket, new BinaryMessage(new byte[]{4, 5}));
+        assertThat(received).singleElement().isEqualTo(new byte[]{4, 5});
+
+        assertThat(webSocket.take()).containsExactly(
+                "451-[\"download\",{\"_placeholder\":true,\"num\":0},\"done\"]", "<binary 3 bytes>");
+    }
+
+    @Test
+    public void testRooms() {
+        FakeWebSocketSession first = connect();
+        FakeWebSocketSession second = connect();
+        server.of("/").on("join", (socket, args, callback) -> socket.join((String) args[0]));
+        receive(first, "42[\"join\",\"stack-a\"]");
+
+        Namespace main = server.of("/");
+        main.emitTo("stack-a", "update", 1);
+        main.emit("all", 2);
+        assertThat(first.take()).containsExactly("42[\"update\",1]", "42[\"all\",2]");
+        assertThat(second.take()).containsExactly("42[\"all\",2]");
+
+        receive(first, "41");
+        assertThat(main.getRoomSize("stack-a")).isZero();
+        assertThat(socketRegistry.getSockets()).hasSize(1);
+    }
+
+    @Test
+    public void testPingTimeout() throws Exception {
+        FakeWebSocketSession silent = connect();
+        FakeWebSocketSession alive = connect();
+        Thread.sleep(2);
+
+        server.heartbeat();
+        assertThat(silent.take()).containsExactly("2");
+        assertThat(alive.take()).containsExactly("2");
+        Thread.sleep(2);
+        receive(alive, "3");
+        Thread.sleep(2);
+
+        server.heartbeat();
+        assertThat(silent.getCloseStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+        assertThat(alive.isOpen()).isTrue();
+        assertThat(alive.take()).containsExactly("2");
+    }
+
+    @Test
+    public void testSlowClient() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper();
+        // Nothing is ever written, like a client that stopped reading
+        server = new SocketIoServer(objectMapper, socketRegistry, meterRegistry, inlineDispatcher(),
+                task -> {
+                }, 25000, 20000, 1000000, new OutboundQueue.Limits(100, 1000, 10000, 50));
+
+        FakeWebSocketSession stalled = connect();
+        SocketIoSocket socket = server.of("/").getSockets().iterator().next();
+        for (int i = 0; i < 3; i++) {
+            socket.send(EncodedPacket.event(objectMapper, "agent", "stackList", "x".repeat(100)));
+        }
+        assertThat(server.getSessionStats()).singleElement().satisfies(stats -> {
+            assertThat(stats.coalesced()).isEqualTo(2);
+            assertThat(stats.overLimitSince()).isZero();
+        });
+
+        for (int i = 0; i < 5; i++) {
+            socket.emitAgent("terminalWrite", "terminal", "y".repeat(300));
+        }
+        assertThat(server.getSessionStats().get(0).overLimitSince()).isPositive();
+        assertThat(stalled.isOpen()).isTrue();
+
+        // Past the deadline
+        Thread.sleep(60);
+        server.heartbeat();
+        assertThat(stalled.getCloseStatus().getCode()).isEqualTo(CloseStatus.POLICY_VIOLATION.getCode());
+
+        // Past the maximum size
+        FakeWebSocketSession flooded = connect();
+        server.of("/").emit("terminalWrite", "z".repeat(20000));
+        assertThat(flooded.getCloseStatus().getCode()).isEqualTo(CloseStatus.POLICY_VIOLATION.getCode());
+        assertThat(meterRegistry.get("dockge.socketio.evicted").counter().count()).isEqualTo(2);
+    }
+}
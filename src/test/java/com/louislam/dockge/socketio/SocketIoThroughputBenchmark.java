@@ -0,0 +1,94 @@
+package com.louislam.dockge.socketio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the Socket.IO server with many idle connections open: events with acks from
+ * random connections, broadcasts to all of them, and a heartbeat round.
+ *
+ * Events run on the real dispatcher, and writes go through the real queue and virtual thread
+ * drains into websockets that only count.
+ *
+ * Run with {@code mvn test -Pbenchmark -DskipTests -Dbenchmark.includes=SocketIoThroughputBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketIoThroughputBenchmark {
+
+    @Param({"10000"})
+    int sessions;
+
+    private final List<FakeWebSocketSession> webSockets = new ArrayList<>();
+    private EventDispatcher eventDispatcher;
+    private SocketIoServer server;
+    private TextMessage request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        eventDispatcher = new EventDispatcher(meterRegistry, 60000, "", List.of(), List.of(), 4, 256);
+        server = new SocketIoServer(new ObjectMapper(), new SocketRegistry(), meterRegistry, eventDispatcher,
+                25000, Long.MAX_VALUE, 1000000, 262144, 1048576, 8388608, 30000);
+        server.of("/").on("getStack", (socket, args, callback) ->
+                callback.send(Map.of("ok", true, "stack", Map.of("name", args[0], "status", 3))));
+        for (int i = 0; i < sessions; i++) {
+            FakeWebSocketSession webSocket = new FakeWebSocketSession("ws-" + i, false);
+            server.afterConnectionEstablished(webSocket);
+            server.handleTextMessage(webSocket, new TextMessage("40"));
+            webSockets.add(webSocket);
+        }
+        request = new TextMessage("4217[\"getStack\",\"nginx\"]");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+        eventDispatcher.stop();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void eventWithAck() {
+        FakeWebSocketSession webSocket = webSockets.get(ThreadLocalRandom.current().nextInt(sessions));
+        server.handleTextMessage(webSocket, request);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void broadcastToAll() {
+        server.of("/").emit("stackListDelta", Map.of("version", 1, "changed", Map.of()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void heartbeat() {
+        server.heartbeat();
+    }
+}
@@ -0,0 +1,319 @@
+package com.louislam.dockge.terminal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.RecordingSocket;
+import com.louislam.dockge.socket.SocketRegistry;
+import com.louislam.dockge.socketio.EventDispatcher;
+import com.louislam.dockge.socketio.FakeWebSocketSession;
+import com.louislam.dockge.socketio.SocketIoServer;
+import com.louislam.dockge.socketio.SocketIoSocket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogMultiplexerTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SocketRegistry socketRegistry = new SocketRegistry();
+    private final AtomicInteger launches = new AtomicInteger();
+    private final BlockingQueue<byte[]> output = new LinkedBlockingQueue<>();
+    private TerminalManager terminalManager;
+    private LogMultiplexer multiplexer;
+
+    private void setUp(int viewerBuffer, String overflow) {
+        terminalManager = new TerminalManager(new ScrollbackBudget(4096, 65536), objectMapper, meterRegistry,
+                socketRegistry, (command, cwd, cols, rows, pty) -> {
+                    launches.incrementAndGet();
+                    return new QueueProcess(output);
+                }, 0, 16384, 100, 1800000);
+        multiplexer = new LogMultiplexer(terminalManager, socketRegistry, meterRegistry, viewerBuffer, overflow);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        output.add(new byte[0]);
+        if (multiplexer != null) {
+            multiplexer.stop();
+            terminalManager.stop();
+        }
+    }
+
+    private void join(RecordingSocket socket) {
+        socketRegistry.register(socket);
+        multiplexer.join(socket, "combined-logs-web", "combined-" + socket.getEndpoint() + "-web",
+                () -> terminalManager.getOrCreateLogTerminal("combined-logs-web", List.of("logs"), Path.of(".")));
+    }
+
+    private void write(String text) {
+        output.add(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The terminalWrite frames sent to the socket, 42["agent","terminalWrite",name,text].
+     */
+    private static List<JsonNode> frames(List<EncodedPacket> sent) {
+        List<JsonNode> frames = new ArrayList<>();
+        for (EncodedPacket packet : sent) {
+            try {
+                frames.add(objectMapper.readTree(packet.toString().substring(2)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return frames;
+    }
+
+    private static String text(List<EncodedPacket> sent) {
+        StringBuilder text = new StringBuilder();
+        for (JsonNode frame : frames(sent)) {
+            text.append(frame.get(3).asText());
+        }
+        return text.toString();
+    }
+
+    private static String awaitText(RecordingSocket socket, String text) throws InterruptedException {
+        return text(socket.awaitSent(sent -> text(sent).contains(text), 5, TimeUnit.SECONDS));
+    }
+
+    private static Object awaitExit(RecordingSocket socket) throws InterruptedException {
+        RecordingSocket.Emitted exit = socket.awaitEmitted(emitted -> emitted.args().get(0).equals("terminalExit"),
+                5, TimeUnit.SECONDS);
+        return exit == null ? null : exit.args().get(1);
+    }
+
+    @Test
+    public void testOneUpstreamForAllViewers() throws Exception {
+        setUp(65536, "drop-oldest");
+        RecordingSocket a = new RecordingSocket("a", "host-a:5001");
+        RecordingSocket b = new RecordingSocket("b", "host-b:5001");
+        join(a);
+        join(b);
+        write("web-1 | ready\n");
+
+        assertThat(awaitText(a, "ready")).isEqualTo("web-1 | ready\n");
+        assertThat(awaitText(b, "ready")).isEqualTo("web-1 | ready\n");
+        // Each viewer receives the output under the name it knows
+        assertThat(frames(a.getSent())).extracting(frame -> frame.get(2).asText())
+                .containsOnly("combined-host-a:5001-web");
+        assertThat(frames(b.getSent())).extracting(frame -> frame.get(2).asText())
+                .containsOnly("combined-host-b:5001-web");
+        assertThat(launches.get()).isEqualTo(1);
+        assertThat(multiplexer.getTerminal("combined-host-a:5001-web"))
+                .isSameAs(terminalManager.getTerminal("combined-logs-web"));
+
+        // Leaving only stops the output for that viewer
+        multiplexer.leave(b, "combined-host-b:5001-web");
+        assertThat(multiplexer.getViewerCount()).isEqualTo(1);
+        output.add(new byte[0]);
+        assertThat(awaitExit(a)).isEqualTo("combined-host-a:5001-web");
+        assertThat(b.getEmitted()).isEmpty();
+    }
+
+    @Test
+    public void testSlowViewerDoesNotDelayOthers() throws Exception {
+        setUp(64, "drop-oldest");
+        RecordingSocket fast = new RecordingSocket("fast", "");
+        RecordingSocket slow = new RecordingSocket("slow", "");
+        slow.block();
+        join(fast);
+        join(slow);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String line = String.format("web-1 | line %02d\n", i);
+            expected.append(line);
+            write(line);
+            // One batch per line
+            assertThat(awaitText(fast, line)).endsWith(line);
+        }
+        assertThat(text(fast.getSent())).isEqualTo(expected.toString());
+
+        slow.unblock();
+        String received = awaitText(slow, "line 19");
+        assertThat(received).contains("[Missed ").doesNotContain("line 05");
+        assertThat(meterRegistry.get("dockge.terminal.logs.dropped").counter().count()).isPositive();
+    }
+
+    @Test
+    public void testSlowConnectionHoldsBackTheViewer() throws Exception {
+        setUp(4096, "drop-oldest");
+        long lowWatermark = 8192;
+        SocketIoServer server = new SocketIoServer(objectMapper, socketRegistry, meterRegistry,
+                new EventDispatcher(meterRegistry, 0, "", List.of(), List.of(), 1, 256),
+                25000, 20000, 1000000, lowWatermark, 65536, 1048576, 30000);
+        FakeWebSocketSession webSocket = new FakeWebSocketSession("ws", true);
+        server.afterConnectionEstablished(webSocket);
+        server.handleMessage(webSocket, new TextMessage("40"));
+        SocketIoSocket socket = (SocketIoSocket) socketRegistry.getSockets().iterator().next();
+        webSocket.awaitText("40{", 5, TimeUnit.SECONDS);
+
+        // The client stops reading
+        webSocket.block();
+        multiplexer.join(socket, "combined-logs-web", "combined--web",
+                () -> terminalManager.getOrCreateLogTerminal("combined-logs-web", List.of("logs"), Path.of(".")));
+        for (int i = 0; i < 2000; i++) {
+            write(String.format("web-1 | line %04d of the output\n", i));
+        }
+
+        // The viewer stops sending and drops output instead of filling the connection queue
+        Counter dropped = meterRegistry.get("dockge.terminal.logs.dropped").counter();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dropped.count() == 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(dropped.count()).isPositive();
+        // Under the low watermark plus the one batch that went over it
+        assertThat(socket.getSession().getOutbound().getBytes()).isLessThan(lowWatermark + 4096 + 1024);
+
+        webSocket.unblock();
+        String received = String.join("", webSocket.awaitText("line 1999", 5, TimeUnit.SECONDS));
+        assertThat(received).contains("[Missed ", "line 1999");
+        assertThat(socket.getSession().isClosed()).isFalse();
+        server.stop();
+    }
+
+    @Test
+    public void testReap() {
+        setUp(65536, "drop-oldest");
+        RecordingSocket a = new RecordingSocket("a", "");
+        join(a);
+        multiplexer.reap();
+        assertThat(multiplexer.getViewerCount()).isEqualTo(1);
+
+        // Once the last viewer is gone, the upstream is left to the terminal reaper
+        socketRegistry.unregister(a);
+        multiplexer.reap();
+        assertThat(multiplexer.getViewerCount()).isZero();
+        assertThat(terminalManager.getTerminal("combined-logs-web").isWatched()).isFalse();
+    }
+
+    @Test
+    public void testOverflowPolicies() {
+        Counter dropped = meterRegistry.counter("dropped");
+        List<Runnable> tasks = new ArrayList<>();
+
+        RecordingSocket oldest = new RecordingSocket("oldest", "");
+        LogViewer viewer = new LogViewer(oldest, "t", 8, LogViewer.Overflow.DROP_OLDEST, tasks::add,
+                LogMultiplexerTest::encode, dropped);
+        viewer.offer("aaaa");
+        viewer.offer("bbbb");
+        viewer.offer("cccc");
+        assertThat(viewer.getQueuedBytes()).isEqualTo(8);
+        // One drain task, which has not run yet
+        assertThat(tasks).hasSize(1);
+        tasks.remove(0).run();
+        assertThat(text(oldest.getSent())).endsWith("]\u001b[0m\r\nbbbbcccc").contains("[Missed 4 bytes of output]");
+
+        RecordingSocket live = new RecordingSocket("live", "");
+        viewer = new LogViewer(live, "t", 8, LogViewer.Overflow.SKIP_TO_LIVE, tasks::add,
+                LogMultiplexerTest::encode, dropped);
+        viewer.offer("aaaa");
+        viewer.offer("bbbb");
+        viewer.offer("cccc");
+        assertThat(viewer.getQueuedBytes()).isEqualTo(4);
+        tasks.remove(0).run();
+        assertThat(text(live.getSent())).endsWith("]\u001b[0m\r\ncccc").contains("[Missed 8 bytes of output]");
+
+        // A batch larger than the queue keeps its end
+        RecordingSocket large = new RecordingSocket("large", "");
+        viewer = new LogViewer(large, "t", 8, LogViewer.Overflow.DROP_OLDEST, tasks::add,
+                LogMultiplexerTest::encode, dropped);
+        viewer.offer("0123456789abcdef");
+        tasks.remove(0).run();
+        assertThat(text(large.getSent())).endsWith("89abcdef").contains("[Missed 8 bytes of output]");
+
+        // Counted in UTF-8 bytes, not chars
+        RecordingSocket wide = new RecordingSocket("wide", "");
+        viewer = new LogViewer(wide, "t", 8, LogViewer.Overflow.DROP_OLDEST, tasks::add,
+                LogMultiplexerTest::encode, dropped);
+        viewer.offer("\u20ac\u20ac\u20ac\u20ac");
+        assertThat(viewer.getQueuedBytes()).isEqualTo(6);
+        tasks.remove(0).run();
+        assertThat(text(wide.getSent())).endsWith("m\r\n\u20ac\u20ac").contains("[Missed 6 bytes of output]");
+        assertThat(dropped.count()).isEqualTo(26);
+    }
+
+    private static EncodedPacket encode(String terminalName, String text) {
+        return EncodedPacket.event(objectMapper, "agent", "terminalWrite", terminalName, text);
+    }
+
+    /**
+     * Reads whatever the test queues, an empty array ends the output.
+     */
+    private static class QueueProcess extends Process {
+        private final BlockingQueue<byte[]> output;
+
+        QueueProcess(BlockingQueue<byte[]> output) {
+            this.output = output;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        byte[] chunk = output.take();
+                        if (chunk.length == 0) {
+                            return -1;
+                        }
+                        System.arraycopy(chunk, 0, b, off, chunk.length);
+                        return chunk.length;
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+            output.add(new byte[0]);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.louislam.dockge.terminal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutputCoalescerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Counter chunks = meterRegistry.counter("chunks");
+    private final Counter frames = meterRegistry.counter("frames");
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private OutputCoalescer coalescer(long window, int threshold, boolean lowLatency) {
+        return new OutputCoalescer(sent::add, scheduler, Runnable::run, window, threshold, lowLatency, chunks, frames);
+    }
+
+    @Test
+    public void testBatchesWithinWindow() throws Exception {
+        OutputCoalescer coalescer = coalescer(100, 1 << 20, false);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            coalescer.append("line " + i + "\r\n");
+            expected.append("line ").append(i).append("\r\n");
+        }
+        assertThat(sent).isEmpty();
+
+        Thread.sleep(300);
+        assertThat(String.join("", sent)).isEqualTo(expected.toString());
+        assertThat(sent.size()).isLessThan(5);
+        assertThat(chunks.count()).isEqualTo(500);
+        assertThat(frames.count()).isEqualTo(sent.size());
+    }
+
+    @Test
+    public void testThresholdAndFlush() {
+        OutputCoalescer coalescer = coalescer(60_000, 10, false);
+        coalescer.append("12345");
+        assertThat(sent).isEmpty();
+        coalescer.append("67890");
+        assertThat(sent).containsExactly("1234567890");
+
+        coalescer.append("abc");
+        coalescer.flush();
+        assertThat(sent).containsExactly("1234567890", "abc");
+
+        // Nothing pending
+        coalescer.flush();
+        assertThat(sent).hasSize(2);
+    }
+
+    @Test
+    public void testLowLatency() {
+        OutputCoalescer coalescer = coalescer(60_000, 1 << 20, true);
+
+        // The first keystroke after a quiet period is echoed right away
+        coalescer.append("l");
+        assertThat(sent).containsExactly("l");
+
+        // A burst right after is batched
+        coalescer.append("s");
+        coalescer.append(" -la");
+        assertThat(sent).containsExactly("l");
+        coalescer.flush();
+        assertThat(sent).containsExactly("l", "s -la");
+    }
+}
@@ -0,0 +1,82 @@
+package com.louislam.dockge.terminal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentedLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static void append(SegmentedLog log, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        log.append(bytes, 0, bytes.length);
+    }
+
+    private List<Path> files() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    public void testRollAndReadTail() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 10, 1000, Long.MAX_VALUE, 1000);
+        append(log, "0123456789");
+        append(log, "abcdefghi");
+        // "é" is split between two appends, and so between two segments
+        byte[] accent = "é".getBytes(StandardCharsets.UTF_8);
+        log.append(accent, 0, 1);
+        log.append(accent, 1, 1);
+        append(log, " done");
+
+        assertThat(files()).extracting(path -> path.getFileName().toString())
+                .containsExactly("00000000000000000000.log", "00000000000000000010.log",
+                        "00000000000000000020.log");
+        assertThat(log.getSize()).isEqualTo(26);
+        assertThat(log.readTail()).isEqualTo("0123456789abcdefghié done");
+        assertThat(log.readTail(8)).isEqualTo("ié done");
+        // Starts in the middle of "é", which is skipped
+        assertThat(log.readTail(6)).isEqualTo(" done");
+
+        // Reopened from disk, later output goes to a new segment
+        log.close();
+        SegmentedLog reopened = new SegmentedLog(dir, 10, 1000, Long.MAX_VALUE, 1000);
+        assertThat(reopened.readTail()).isEqualTo("0123456789abcdefghié done");
+        append(reopened, "!");
+        assertThat(reopened.readTail(3)).isEqualTo("ne!");
+        assertThat(reopened.getLastWrite()).isPositive();
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 10, 25, Long.MAX_VALUE, 1000);
+        for (int i = 0; i < 5; i++) {
+            append(log, "line " + i + "...\n");
+        }
+        // Only whole segments are deleted, the newest ones within the size limit are kept
+        assertThat(log.getSize()).isLessThanOrEqualTo(25 + 10);
+        assertThat(log.readTail()).endsWith("line 4...\n").doesNotContain("line 0");
+
+        // By age, the segment being written to stays
+        SegmentedLog aged = new SegmentedLog(dir.resolve("aged"), 10, 1000, 60000, 1000);
+        append(aged, "old old old");
+        append(aged, "new");
+        Path oldest = dir.resolve("aged").resolve("00000000000000000000.log");
+        Files.setLastModifiedTime(oldest, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        aged.close();
+        aged = new SegmentedLog(dir.resolve("aged"), 10, 1000, 60000, 1000);
+        aged.enforceRetention(System.currentTimeMillis());
+        assertThat(aged.readTail()).isEqualTo("new");
+        assertThat(oldest).doesNotExist();
+    }
+}
@@ -0,0 +1,171 @@
+package com.louislam.dockge.terminal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.RecordingSocket;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs 5,000 simulated log streams at once. Not part of the default build: mvn test -Pload-tests
+ */
+public class TerminalLoadTest {
+
+    private static final int STREAMS = 5000;
+    private static final int LINES = 50;
+    private static final long LINE_INTERVAL_MILLIS = 20;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testManyLogStreams() throws Exception {
+        ScrollbackBudget budget = new ScrollbackBudget(4096, (long) STREAMS * 4096);
+        TerminalManager manager = new TerminalManager(budget, objectMapper, new SimpleMeterRegistry(),
+                new SocketRegistry(), (command, cwd, cols, rows, pty) -> new LogProcess(command.get(0)),
+                16, 16384, STREAMS, 1800000);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+
+        RecordingSocket socket = new RecordingSocket("load", "", false);
+        AtomicLong chars = new AtomicLong();
+        socket.onSent(packet -> chars.addAndGet(text(packet).length()));
+        AtomicLong bytesRead = new AtomicLong();
+        List<CompletableFuture<Integer>> exits = new ArrayList<>(STREAMS);
+        long start = System.nanoTime();
+        for (int i = 0; i < STREAMS; i++) {
+            Terminal terminal = manager.getOrCreateLogTerminal("logs-" + i, List.of("stream-" + i), Path.of("."));
+            CompletableFuture<Integer> exit = new CompletableFuture<>();
+            terminal.onExit(code -> {
+                bytesRead.addAndGet(terminal.getBytesRead());
+                exit.complete(code);
+            });
+            terminal.join(socket);
+            terminal.start();
+            exits.add(exit);
+        }
+        assertThat(manager.getTerminalCount()).isLessThanOrEqualTo(STREAMS);
+
+        for (CompletableFuture<Integer> exit : exits) {
+            assertThat(exit.get(60, TimeUnit.SECONDS)).isZero();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long expected = 0;
+        for (int i = 0; i < STREAMS; i++) {
+            expected += (long) LINES * LogProcess.line("stream-" + i, 0).length;
+        }
+        assertThat(bytesRead.get()).isEqualTo(expected);
+        assertThat(chars.get()).isEqualTo(expected);
+        assertThat(socket.getEmitted()).filteredOn(emitted -> emitted.args().get(0).equals("terminalExit"))
+                .hasSize(STREAMS);
+        assertThat(manager.getTerminalCount()).isZero();
+        assertThat(budget.getAllocated()).isZero();
+
+        // One stream takes a second, one after another they would take well over an hour
+        assertThat(elapsed).isLessThan(TimeUnit.SECONDS.toMillis(30));
+        // Readers are virtual threads, only the carriers and the flush scheduler are platform threads
+        int peakAdded = threads.getPeakThreadCount() - threadsBefore;
+        assertThat(peakAdded).isLessThan(Runtime.getRuntime().availableProcessors() + 64);
+        manager.stop();
+    }
+
+    private String text(EncodedPacket packet) {
+        try {
+            // 42["agent","terminalWrite",name,text]
+            JsonNode frame = objectMapper.readTree(packet.toString().substring(2));
+            return frame.get(3).asText();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a fixed number of lines with a pause before each, like a slow docker compose logs -f.
+     */
+    private static class LogProcess extends Process {
+        private final String name;
+        private final InputStream in;
+        private volatile boolean destroyed;
+
+        LogProcess(String name) {
+            this.name = name;
+            this.in = new InputStream() {
+                private int lines;
+
+                @Override
+                public int read() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (destroyed || lines == LINES) {
+                        return -1;
+                    }
+                    try {
+                        Thread.sleep(LINE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                    byte[] line = line(LogProcess.this.name, lines++);
+                    System.arraycopy(line, 0, b, off, line.length);
+                    return line.length;
+                }
+            };
+        }
+
+        static byte[] line(String name, int index) {
+            return String.format("%s | line %04d%n", name, index).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() {
+            return destroyed ? 143 : 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return waitFor();
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+}
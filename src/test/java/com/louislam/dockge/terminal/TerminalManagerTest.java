@@ -0,0 +1,147 @@
+package com.louislam.dockge.terminal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.louislam.dockge.exception.ValidationException;
+import com.louislam.dockge.socket.EncodedPacket;
+import com.louislam.dockge.socket.RecordingSocket;
+import com.louislam.dockge.socket.SocketRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TerminalManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private final SocketRegistry socketRegistry = new SocketRegistry();
+
+    private TerminalManager manager(ScrollbackBudget budget) {
+        return manager(budget, 10000);
+    }
+
+    private TerminalManager manager(ScrollbackBudget budget, int maxTerminals) {
+        return new TerminalManager(budget, new ObjectMapper(), new SimpleMeterRegistry(), socketRegistry,
+                16, 16384, maxTerminals, 1800000);
+    }
+
+    @Test
+    public void testExec() throws Exception {
+        ScrollbackBudget budget = new ScrollbackBudget(1024, 4096);
+        TerminalManager manager = manager(budget);
+
+        CompletableFuture<Integer> future = manager.exec(null, "test", List.of("sh", "-c", "echo hello; exit 3"), dir);
+        assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo(3);
+        assertThat(manager.getTerminalCount()).isZero();
+        assertThat(budget.getAllocated()).isZero();
+    }
+
+    @Test
+    public void testOutputIsSentToJoinedSockets() throws Exception {
+        TerminalManager manager = manager(new ScrollbackBudget(1024, 4096));
+        RecordingSocket a = new RecordingSocket("a");
+        RecordingSocket b = new RecordingSocket("b");
+
+        Terminal terminal = manager.getOrCreateTerminal("test", List.of("sh", "-c", "printf 'one\\ntwo\\n'"), dir);
+        CompletableFuture<Integer> exit = new CompletableFuture<>();
+        terminal.onExit(exit::complete);
+        terminal.join(a);
+        terminal.join(b);
+        terminal.start();
+        assertThat(exit.get(10, TimeUnit.SECONDS)).isZero();
+
+        // Each batch is encoded once and shared by the sockets
+        List<EncodedPacket> sentToA = a.getSent();
+        List<EncodedPacket> sentToB = b.getSent();
+        assertThat(sentToA).isNotEmpty();
+        assertThat(sentToB).hasSameSizeAs(sentToA);
+        for (int i = 0; i < sentToA.size(); i++) {
+            assertThat(sentToB.get(i)).isSameAs(sentToA.get(i));
+        }
+        assertThat(sentToA.toString()).contains("terminalWrite", "one", "two");
+        assertThat(a.getEmitted()).extracting(emitted -> emitted.args().get(0)).containsExactly("terminalExit");
+        assertThat(terminal.getBuffer()).contains("one\r\ntwo");
+    }
+
+    @Test
+    public void testSameNameIsRejected() throws Exception {
+        TerminalManager manager = manager(new ScrollbackBudget(1024, 4096));
+
+        CompletableFuture<Integer> first = manager.exec(null, "test", List.of("sleep", "1"), dir);
+        CompletableFuture<Integer> second = manager.exec(null, "test", List.of("true"), dir);
+        assertThatThrownBy(second::get).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ValidationException.class);
+
+        Terminal terminal = manager.getTerminal("test");
+        assertThat(terminal).isNotNull();
+        terminal.close();
+        first.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testScrollbackBudget() {
+        ScrollbackBudget budget = new ScrollbackBudget(1024, 2500);
+        TerminalManager manager = manager(budget);
+
+        Terminal a = manager.getOrCreateTerminal("a", List.of("true"), dir);
+        Terminal b = manager.getOrCreateTerminal("b", List.of("true"), dir);
+        Terminal c = manager.getOrCreateTerminal("c", List.of("true"), dir);
+        assertThat(a.getScrollback().capacity()).isEqualTo(1024);
+        assertThat(b.getScrollback().capacity()).isEqualTo(1024);
+        // Only what is left of the global budget
+        assertThat(c.getScrollback().capacity()).isEqualTo(452);
+        assertThat(budget.getAllocated()).isEqualTo(2500);
+
+        manager.remove(a);
+        assertThat(budget.getAllocated()).isEqualTo(1476);
+    }
+
+    @Test
+    public void testMaxTerminals() {
+        TerminalManager manager = manager(new ScrollbackBudget(1024, 4096), 2);
+
+        manager.getOrCreateTerminal("a", List.of("true"), dir);
+        manager.getOrCreateTerminal("b", List.of("true"), dir);
+        // An existing terminal can still be looked up
+        assertThat(manager.getOrCreateTerminal("a", List.of("true"), dir)).isNotNull();
+        assertThatThrownBy(() -> manager.getOrCreateTerminal("c", List.of("true"), dir))
+                .isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> manager.exec(null, "d", List.of("true"), dir).get())
+                .hasCauseInstanceOf(ValidationException.class);
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        TerminalManager manager = manager(new ScrollbackBudget(1024, 4096));
+        RecordingSocket connected = new RecordingSocket("connected");
+        RecordingSocket disconnected = new RecordingSocket("disconnected");
+        socketRegistry.register(connected);
+
+        Terminal terminal = manager.getOrCreateLogTerminal("logs", List.of("sleep", "30"), dir);
+        CompletableFuture<Integer> exit = new CompletableFuture<>();
+        terminal.onExit(exit::complete);
+        terminal.join(connected);
+        terminal.join(disconnected);
+        terminal.start();
+
+        manager.reap();
+        assertThat(terminal.getSocketCount()).isEqualTo(1);
+        assertThat(manager.getStats()).singleElement()
+                .satisfies(stats -> assertThat(stats.name()).isEqualTo("logs"));
+
+        // Keep-alive terminals are closed once the last socket is gone
+        socketRegistry.unregister(connected);
+        manager.reap();
+        exit.get(10, TimeUnit.SECONDS);
+        assertThat(manager.getTerminalCount()).isZero();
+    }
+}
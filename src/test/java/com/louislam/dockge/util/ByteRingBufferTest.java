@@ -0,0 +1,91 @@
+package com.louislam.dockge.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteRingBufferTest {
+
+    private static String text(ByteRingBuffer buffer) {
+        return new String(buffer.snapshot(), StandardCharsets.US_ASCII);
+    }
+
+    private static void write(ByteRingBuffer buffer, String text) {
+        buffer.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testKeepsMostRecentBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+        assertThat(buffer.snapshot()).isEmpty();
+
+        write(buffer, "abc");
+        write(buffer, "def");
+        assertThat(text(buffer)).isEqualTo("abcdef");
+
+        write(buffer, "ghij");
+        assertThat(text(buffer)).isEqualTo("cdefghij");
+        assertThat(buffer.size()).isEqualTo(8);
+
+        // A chunk larger than the buffer only keeps its tail
+        write(buffer, "0123456789");
+        assertThat(text(buffer)).isEqualTo("23456789");
+        write(buffer, "x");
+        assertThat(text(buffer)).isEqualTo("3456789x");
+        assertThat(buffer.getTotalWritten()).isEqualTo(21);
+
+        ByteRingBuffer empty = new ByteRingBuffer(0);
+        write(empty, "abc");
+        assertThat(empty.snapshot()).isEmpty();
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(1000);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        // The writer writes a counting sequence, so every snapshot must be consecutive bytes
+        Thread writer = new Thread(() -> {
+            byte[] chunk = new byte[37];
+            int next = 0;
+            for (int i = 0; i < 200_000; i++) {
+                for (int j = 0; j < chunk.length; j++) {
+                    chunk[j] = (byte) next++;
+                }
+                buffer.write(chunk);
+            }
+            done.set(true);
+        });
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                while (!done.get()) {
+                    byte[] snapshot = buffer.snapshot();
+                    for (int i = 1; i < snapshot.length; i++) {
+                        if ((byte) (snapshot[i - 1] + 1) != snapshot[i]) {
+                            failure.set("Torn snapshot at " + i);
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+
+        readers.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(failure.get()).isNull();
+        assertThat(buffer.size()).isEqualTo(1000);
+    }
+}
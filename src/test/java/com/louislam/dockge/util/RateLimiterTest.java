@@ -0,0 +1,42 @@
+package com.louislam.dockge.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void testPermitsPerKey() {
+        RateLimiter<String> limiter = new RateLimiter<>(3, Duration.ofMinutes(1), 100, now::get);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("a")).isTrue();
+        }
+        assertThat(limiter.tryAcquire("a")).isFalse();
+        // Other keys have their own bucket
+        assertThat(limiter.tryAcquire("b")).isTrue();
+
+        // One token is back after a third of the interval
+        now.addAndGet(Duration.ofSeconds(20).toNanos());
+        assertThat(limiter.tryAcquire("a")).isTrue();
+        assertThat(limiter.tryAcquire("a")).isFalse();
+    }
+
+    @Test
+    public void testFullBucketsAreForgotten() {
+        RateLimiter<String> limiter = new RateLimiter<>(3, Duration.ofMinutes(1), 2, now::get);
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+        limiter.tryAcquire("c");
+        assertThat(limiter.getKeyCount()).isEqualTo(3);
+
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        limiter.tryAcquire("d");
+        assertThat(limiter.getKeyCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.louislam.dockge.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(30);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            results.add(executor.submit(() -> flight.get("list", () -> {
+                loading.countDown();
+                await(release);
+                return calls.incrementAndGet();
+            })));
+            loading.await(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 29; i++) {
+                results.add(executor.submit(() -> flight.get("list", calls::incrementAndGet)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<Integer> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(flight.getLoadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFreshnessWindow() {
+        AtomicLong now = new AtomicLong();
+        SingleFlight<String, Integer> flight = new SingleFlight<>(Duration.ofNanos(100), now::get);
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThat(flight.get("list", calls::incrementAndGet)).isEqualTo(1);
+        now.set(99);
+        assertThat(flight.get("list", calls::incrementAndGet)).isEqualTo(1);
+        now.set(100);
+        assertThat(flight.get("list", calls::incrementAndGet)).isEqualTo(2);
+        assertThat(flight.get("other", calls::incrementAndGet)).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidate() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThat(flight.get("a", calls::incrementAndGet)).isEqualTo(1);
+        assertThat(flight.get("b", calls::incrementAndGet)).isEqualTo(2);
+        flight.invalidate("a");
+        assertThat(flight.get("a", calls::incrementAndGet)).isEqualTo(3);
+        assertThat(flight.get("b", calls::incrementAndGet)).isEqualTo(2);
+        flight.invalidateAll();
+        assertThat(flight.get("b", calls::incrementAndGet)).isEqualTo(4);
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>(Duration.ofSeconds(10));
+
+        assertThatThrownBy(() -> flight.get("a", () -> {
+            throw new IllegalStateException("docker is down");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(flight.get("a", () -> 1)).isEqualTo(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.louislam.dockge.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TrigramIndexTest {
+
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final String[] LEVELS = {"INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] PATHS = {"/api/stacks", "/api/items/{id}", "/socket.io/", "/health", "/login"};
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A segment of access and application log lines with timestamps, hex request ids, base64
+     * tokens, varied messages and CJK text, the kind that saturated the former fixed 64 Kbit set.
+     */
+    private static String realisticSegment(Random random) {
+        String[] words = new String[3000];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 4 + random.nextInt(7); j > 0; j--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = random.nextInt(5) == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1)
+                    : word.toString();
+        }
+        StringBuilder text = new StringBuilder(SEGMENT_SIZE + 512);
+        byte[] token = new byte[24];
+        int line = 0;
+        while (text.length() < SEGMENT_SIZE) {
+            text.append(String.format(Locale.ROOT, "2024-05-%02dT%02d:%02d:%02d.%03dZ web-%d  | %-5s [exec-%d] ",
+                    1 + line % 28, random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000),
+                    1 + random.nextInt(3), LEVELS[random.nextInt(LEVELS.length)], random.nextInt(200)));
+            if (line % 2 == 0) {
+                text.append("GET ").append(PATHS[random.nextInt(PATHS.length)].replace("{id}",
+                        String.valueOf(random.nextInt(100000))));
+                text.append(" ").append(200 + random.nextInt(4) * 100).append(" ").append(random.nextInt(2000))
+                        .append("ms request_id=").append(Long.toHexString(random.nextLong()));
+            } else {
+                for (int j = 5 + random.nextInt(8); j > 0; j--) {
+                    text.append(words[random.nextInt(words.length)]).append(j > 1 ? " " : ".");
+                }
+            }
+            if (line % 20 == 0) {
+                random.nextBytes(token);
+                text.append(" token=").append(Base64.getEncoder().encodeToString(token));
+            }
+            if (line % 7 == 0) {
+                text.append(" 消息=");
+                for (int j = 0; j < 4; j++) {
+                    text.append((char) (0x4E00 + random.nextInt(0x5000)));
+                }
+            }
+            if (line % 10 == 0) {
+                text.append(" user=üser-été-").append(random.nextInt(50));
+            }
+            text.append('\n');
+            line++;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Whether every trigram of the query occurs in the text, the best any trigram index can do.
+     */
+    private static boolean hasAllTrigrams(String lowerText, String lowerQuery) {
+        for (int i = 0; i + 3 <= lowerQuery.length(); i++) {
+            if (!lowerText.contains(lowerQuery.substring(i, i + 3))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] lower(String query) {
+        return query.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMightContain() {
+        TrigramIndex index = TrigramIndex.build(ByteBuffer.wrap(
+                "Starting Nginx on PORT 8080\nready\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(index.mightContain(lower("nginx"))).isTrue();
+        assertThat(index.mightContain(lower("port 8080"))).isTrue();
+        assertThat(index.mightContain(lower("postgres"))).isFalse();
+        // Too short to tell
+        assertThat(index.mightContain(lower("zz"))).isTrue();
+        assertThat(index.size()).isEqualTo(1024);
+    }
+
+    @Test
+    public void testEscapeSequencesAreSkipped() {
+        TrigramIndex index = TrigramIndex.build(ByteBuffer.wrap(
+                "\u001b[1;31mER\u001b[0mROR\u001b[?25l: refused\u001b[".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(index.mightContain(lower("error: refused"))).isTrue();
+        assertThat(index.mightContain(lower("[0m"))).isFalse();
+        assertThat(index.mightContain(lower("31m"))).isFalse();
+
+        ByteBuffer buffer = ByteBuffer.wrap("a\u001b[31m\u001b[0mb\u001b[3".getBytes(StandardCharsets.UTF_8));
+        assertThat(TrigramIndex.skipEscapes(buffer, 0, buffer.limit())).isZero();
+        assertThat(TrigramIndex.skipEscapes(buffer, 1, buffer.limit())).isEqualTo(10);
+        // Cut off by the end
+        assertThat(TrigramIndex.skipEscapes(buffer, 11, buffer.limit())).isEqualTo(11);
+    }
+
+    @Test
+    public void testRealisticSegmentIsSkipped() {
+        Random random = new Random(42);
+        String text = realisticSegment(random);
+        String lowerText = text.toLowerCase(Locale.ROOT);
+        TrigramIndex index = TrigramIndex.build(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(index.mightContain(lower("request_id="))).isTrue();
+        assertThat(index.mightContain(lower("GET /api/stacks"))).isTrue();
+        assertThat(index.mightContain(lower("üser-été"))).isTrue();
+
+        // Typical searches for something that did not happen
+        String[] absent = {"segfault", "OutOfMemoryError", "connection refused", "panic: runtime", "deadlock",
+                "permission denied", "NullPointerException", "timed out", "killed", "exception",
+                "postgres", "certificate", "unauthorized", "traceback", "restarting", "oomkilled",
+                "no space left", "disk full", "shutdown", "fatal"};
+        int skippable = 0;
+        int skipped = 0;
+        for (String query : absent) {
+            String lowerQuery = query.toLowerCase(Locale.ROOT);
+            assertThat(lowerText).doesNotContain(lowerQuery);
+            if (!hasAllTrigrams(lowerText, lowerQuery)) {
+                skippable++;
+                if (!index.mightContain(lower(query))) {
+                    skipped++;
+                }
+            }
+        }
+        // The rest have all their trigrams somewhere in the segment, no trigram index can skip those
+        assertThat(skippable).isGreaterThanOrEqualTo(5);
+        // No more than one is lost to hash collisions
+        assertThat(skipped).as("skipped of %d skippable", skippable).isGreaterThanOrEqualTo(skippable - 1);
+        assertThat(index.fillRatio()).isLessThan(0.15);
+        assertThat(index.size()).isLessThanOrEqualTo(SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        TrigramIndex index = TrigramIndex.build(ByteBuffer.wrap(
+                realisticSegment(new Random(1)).getBytes(StandardCharsets.UTF_8)));
+        Path path = dir.resolve("segment.idx");
+        index.write(path);
+
+        TrigramIndex read = TrigramIndex.read(path);
+        assertThat(read.size()).isEqualTo(index.size());
+        assertThat(read.mightContain(lower("request_id="))).isTrue();
+        assertThat(read.mightContain(lower("~#~"))).isFalse();
+
+        // An index of the former format is rejected so it gets rebuilt
+        Files.write(path, new byte[8192]);
+        assertThatThrownBy(() -> TrigramIndex.read(path)).isInstanceOf(IOException.class);
+    }
+}